@@ -0,0 +1,774 @@
+package com.siyanhui.mojif.bqliveapp;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.graphics.Typeface;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.text.TextPaint;
+import android.text.TextUtils;
+
+import com.siyanhui.mojif.bqliveapp.core.BQLQualityController;
+import com.siyanhui.mojif.bqliveapp.graphics.BQLAnimationContext;
+import com.siyanhui.mojif.bqliveapp.graphics.BQLBitmapPool;
+import com.siyanhui.mojif.bqliveapp.graphics.BQLDecodeBudget;
+import com.siyanhui.mojif.bqliveapp.graphics.BQLFrame;
+import com.siyanhui.mojif.bqliveapp.graphics.BQLFrameCompositor;
+import com.siyanhui.mojif.bqliveapp.graphics.BQLFrameGeometry;
+import com.siyanhui.mojif.bqliveapp.graphics.BQLNicknameSprite;
+import com.siyanhui.mojif.bqliveapp.graphics.BQLPlaybackMetrics;
+import com.siyanhui.mojif.bqliveapp.graphics.BQLPngSequencePlayer;
+import com.siyanhui.mojif.bqliveapp.graphics.BQLSpriteCache;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 合成器中的一个动画层，含有一个礼物动画在播放和绘制过程中需要的全部状态，由自己的BQLPngSequencePlayer驱动
+ * 多个层可以同时存在于同一个BQLAnimationView中，按zOrder从小到大依次绘制
+ */
+public class BQLAnimationLayer {
+    private final Host mHost;
+    private final boolean mFullScreen;
+    private final int mZOrder;
+    private final String mAnimationDirectory;
+    private final BQLAnimationSpec mConfig;
+    private float mCenterX = 0.5f;
+    private float mCenterY = 0.5f;
+    private BQLPngSequencePlayer mPlayer;
+    private Paint mFramePaint = new Paint(Paint.FILTER_BITMAP_FLAG);//降采样的主图需要放大绘制
+    /**
+     * 在绘制时合成的主图：以颜色通道的BitmapShader绘制ALPHA_8遮罩，遮罩决定透明度，Shader决定颜色。只在绘制线程中使用
+     */
+    private Paint mMaskedFramePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private Bitmap mShaderBitmap;//mMaskedFramePaint当前的Shader所使用的颜色通道
+    private int mCompositeMode = BQLFrameCompositor.COMPOSITE_KERNEL;
+    private BQLPlaybackMetrics.Listener mPlaybackMetricsListener;
+    private Paint mHostAvatarPaint = new Paint();
+    private Paint mSenderAvatarPaint = new Paint();
+    private Paint mHostAvatarBorderPaint = new Paint();
+    private Paint mSenderAvatarBorderPaint = new Paint();
+    private BQLAnimationContext mAnimationContext;
+    private BQLFrame mFrame;
+    private final List<BQLFrame> mRetiredFrames = new ArrayList<>();//已经被新帧替换掉、等待放回池中的主图
+    private int mFrameNumber;
+    private long mStartTime;//调用start()的时间
+    private volatile long mFirstFrameMillis = -1;//从开始播放到第一帧主图送达经过的毫秒数
+    private int mViewportWidth;//最近一次绘制时的控件尺寸，变化时通知播放器
+    private int mViewportHeight;
+    private BQLAnimationSpec.Style mHostAvatarConfig;
+    private BQLAnimationSpec.Style mSenderAvatarConfig;
+    private TextPaint mSenderTextPaint = new TextPaint();
+    private TextPaint mSenderStrokeTextPaint = new TextPaint();
+    private TextPaint mHostTextPaint = new TextPaint();
+    private TextPaint mHostStrokeTextPaint = new TextPaint();
+    private BQLNicknameSprite mHostNickNameSprite;
+    private BQLNicknameSprite mSenderNickNameSprite;
+    private Paint mNickNamePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    /**
+     * 子动画按BQLAnimationContext.addSubAnimation()分配的序号存放
+     */
+    private int mSubAnimationCount;
+    private Bitmap[] mSubAnimationSprites;
+    private Paint[] mSubAnimationPaints;
+    private Paint mPlainSubAnimationPaint = new Paint();//降低细节时使用，不带阴影
+    private volatile int mSubAnimationDetail = BQLQualityController.DETAIL_FULL;
+    /**
+     * 以下是绘制时从时间轴读取矩阵使用的临时对象，只在绘制线程中使用
+     */
+    private Matrix mOuterMatrix = new Matrix();
+    private Matrix mInnerMatrix = new Matrix();
+    private float[] mMatrixValues = new float[9];
+    private RectF mBorderRect = new RectF();
+    private RectF mRect = new RectF();
+    private Matrix mBaseMatrix = new Matrix();
+    private RectF mClipTestRect = new RectF();
+    /**
+     * 每一帧所有元素（主图的不透明范围、头像、昵称和子动画）在原始帧坐标系中的外接矩形，第n帧为[4n, 4n + 4)
+     * 还没有扫描过主图的不透明范围时为null，此时每一帧都重绘整个控件
+     */
+    private float[] mFrameBounds;
+    /**
+     * 以下只在播放线程中使用：最近一次setFrame()的帧在控件中的范围，以及计算范围用的临时对象
+     */
+    private final Rect mShownBounds = new Rect();
+    private boolean mShownBoundsKnown = true;
+    private final Rect mNewBounds = new Rect();
+    private final Rect mDirtyBounds = new Rect();
+    private final Matrix mBoundsMatrix = new Matrix();
+    private final RectF mBoundsRect = new RectF();
+
+    /**
+     * 准备好播放过程中需要用到的变量以及需要绘制的Bitmap
+     *
+     * @param host               显示这个层的控件
+     * @param config             动画配置
+     * @param animationDirectory 动画在文件系统中的路径
+     * @param hostNickname       主播昵称
+     * @param senderNickname     送礼者昵称
+     * @param hostAvatar         主播头像，动画中没有主播头像时可以为null
+     * @param senderAvatar       送礼者头像，动画中没有送礼者头像时可以为null
+     * @param fullScreen         是否全屏
+     * @param zOrder             绘制顺序，数值大的层画在上面
+     */
+    public BQLAnimationLayer(Host host, BQLAnimationSpec config, String animationDirectory, String hostNickname, String senderNickname, Bitmap hostAvatar, Bitmap senderAvatar, boolean fullScreen, int zOrder) {
+        mHost = host;
+        mConfig = config;
+        mAnimationDirectory = animationDirectory;
+        mFullScreen = fullScreen;
+        mZOrder = zOrder;
+        init();
+        BQLAnimationSpec.Style hostNickNameConfig = config.getHostNickNameConfig();
+        BQLAnimationSpec.Style senderNickNameConfig = config.getSenderNickNameConfig();
+        mHostAvatarConfig = config.getHostAvatarConfig();
+        mSenderAvatarConfig = config.getSenderAvatarConfig();
+
+        if (mHostAvatarConfig != null && hostAvatar != null) {
+            BitmapShader shader = new BitmapShader(hostAvatar, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+            mHostAvatarPaint.setShader(shader);
+            mHostAvatarBorderPaint.setStrokeWidth(mHostAvatarConfig.getBorderWidth() * 1.1f);//将边框稍微加粗一点，以避免边框和头像之间出现缝隙
+            if (!TextUtils.isEmpty(mHostAvatarConfig.getBorderColor())) {
+                int borderColor = Color.parseColor("#" + mHostAvatarConfig.getBorderColor());
+                mHostAvatarBorderPaint.setColor(borderColor);
+            }
+            if (!TextUtils.isEmpty(mHostAvatarConfig.getShadowColor())) {
+                int shadowColor = Color.parseColor("#" + mHostAvatarConfig.getShadowColor());
+                if (Color.alpha(shadowColor) != 0) {
+                    mHostAvatarBorderPaint.setShadowLayer(mHostAvatarConfig.getShadowBlur(), mHostAvatarConfig.getShadowX(), mHostAvatarConfig.getShadowY(), shadowColor);
+                }
+            }
+        } else {
+            mHostAvatarConfig = null;
+        }
+        if (mSenderAvatarConfig != null && senderAvatar != null) {
+            BitmapShader shader = new BitmapShader(senderAvatar, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+            mSenderAvatarPaint.setShader(shader);
+            mSenderAvatarBorderPaint.setStrokeWidth(mSenderAvatarConfig.getBorderWidth() * 1.1f);
+            if (!TextUtils.isEmpty(mSenderAvatarConfig.getBorderColor())) {
+                int borderColor = Color.parseColor("#" + mSenderAvatarConfig.getBorderColor());
+                mSenderAvatarBorderPaint.setColor(borderColor);
+            }
+            if (!TextUtils.isEmpty(mSenderAvatarConfig.getShadowColor())) {
+                int shadowColor = Color.parseColor("#" + mSenderAvatarConfig.getShadowColor());
+                if (Color.alpha(shadowColor) != 0) {
+                    mSenderAvatarBorderPaint.setShadowLayer(mSenderAvatarConfig.getShadowBlur(), mSenderAvatarConfig.getShadowX(), mSenderAvatarConfig.getShadowY(), shadowColor);
+                }
+            }
+        } else {
+            mSenderAvatarConfig = null;
+        }
+
+        if (senderNickNameConfig != null) {
+            mSenderTextPaint.setColor(Color.parseColor("#" + senderNickNameConfig.getColor()));
+            if (!TextUtils.isEmpty(senderNickNameConfig.getShadowColor())) {
+                int shadowColor = Color.parseColor("#" + senderNickNameConfig.getShadowColor());
+                if (Color.alpha(shadowColor) != 0) {
+                    mSenderStrokeTextPaint.setShadowLayer(senderNickNameConfig.getShadowBlur(), senderNickNameConfig.getShadowX(), senderNickNameConfig.getShadowY(), shadowColor);
+                }
+            }
+
+            if (!TextUtils.isEmpty(senderNickNameConfig.getBorderColor())) {
+                mSenderStrokeTextPaint.setColor(Color.parseColor("#" + senderNickNameConfig.getBorderColor()));
+                mSenderStrokeTextPaint.setStrokeWidth(senderNickNameConfig.getBorderWidth());
+            }
+        }
+
+
+        if (hostNickNameConfig != null) {
+            mHostTextPaint.setColor(Color.parseColor("#" + hostNickNameConfig.getColor()));
+            if (!TextUtils.isEmpty(hostNickNameConfig.getShadowColor())) {
+                int shadowColor = Color.parseColor("#" + hostNickNameConfig.getShadowColor());
+                if (Color.alpha(shadowColor) != 0) {
+                    mHostStrokeTextPaint.setShadowLayer(hostNickNameConfig.getShadowBlur(), hostNickNameConfig.getShadowX(), hostNickNameConfig.getShadowY(), shadowColor);
+                }
+            }
+
+            if (!TextUtils.isEmpty(hostNickNameConfig.getBorderColor())) {
+                mHostStrokeTextPaint.setColor(Color.parseColor("#" + hostNickNameConfig.getBorderColor()));
+                mHostStrokeTextPaint.setStrokeWidth(hostNickNameConfig.getBorderWidth());
+            }
+        }
+        //昵称在播放过程中不会改变，把它连同描边和阴影预先画成图片
+        mHostNickNameSprite = BQLNicknameSprite.render(hostNickname, mHostTextPaint, mHostStrokeTextPaint, hostNickNameConfig);
+        mSenderNickNameSprite = BQLNicknameSprite.render(senderNickname, mSenderTextPaint, mSenderStrokeTextPaint, senderNickNameConfig);
+        mAnimationContext = new BQLAnimationContext(config.getHostAvatarAnimationFrames(), config.getSenderAvatarAnimationFrames(), config.getHostNickName(), config.getSenderNickName(), hostAvatar, senderAvatar, mHostTextPaint, mSenderTextPaint, hostNickname, senderNickname, hostNickNameConfig, senderNickNameConfig);
+
+        List<BQLAnimationSpec.SubAnimation> subAnimations = config.getSubAnimations();
+        float[] spriteMargins = null;
+        if (subAnimations != null) {
+            Bitmap[] sprites = new Bitmap[subAnimations.size()];
+            Paint[] paints = new Paint[subAnimations.size()];
+            spriteMargins = new float[subAnimations.size()];
+            BQLSpriteCache spriteCache = BQLSpriteCache.getDefault();
+            for (BQLAnimationSpec.SubAnimation subAnimation : subAnimations) {
+                String name = subAnimation.getName();
+                BQLAnimationSpec.Style spriteConfig = subAnimation.getStyle();
+                Bitmap sprite = spriteCache.get(animationDirectory, name, spriteConfig);//同一个礼物的子动画图片只生成一次
+                if (sprite == null) continue;//原图无法读取时不显示这个子动画
+                Paint paint = new Paint();
+                if (!TextUtils.isEmpty(spriteConfig.getShadowColor())) {
+                    int shadowColor = Color.parseColor("#" + spriteConfig.getShadowColor());
+                    if (Color.alpha(shadowColor) != 0) {
+                        paint.setShadowLayer(spriteConfig.getShadowBlur(), spriteConfig.getShadowX(), spriteConfig.getShadowY(), shadowColor);
+                    }
+                }
+                int slot = mAnimationContext.addSubAnimation(name, sprite, subAnimation.getFrames());
+                sprites[slot] = sprite;
+                paints[slot] = paint;
+                spriteMargins[slot] = shadowMargin(spriteConfig);
+            }
+            mSubAnimationSprites = sprites;
+            mSubAnimationPaints = paints;
+            mSubAnimationCount = mAnimationContext.getSubAnimationCount();
+        }
+        mAnimationContext.compileTimeline(config.getFrame());//一次性计算好整个动画所有元素的矩阵
+        int[] imageBounds = BQLFrameBoundsIndex.getDefault().peek(animationDirectory, config.getFrame());
+        if (imageBounds != null) {
+            mFrameBounds = computeFrameBounds(imageBounds, spriteMargins);
+        } else {
+            BQLFrameBoundsIndex.getDefault().buildAsync(animationDirectory, config.getFrame());//这次播放重绘整个控件，之后的播放使用扫描结果
+        }
+    }
+
+    /**
+     * 预先计算每一帧所有元素在原始帧坐标系中的外接矩形：主图的不透明范围，加上头像、昵称和子动画按时间轴变换之后的范围
+     *
+     * @param imageBounds   BQLFrameBoundsIndex中每张主图的不透明范围
+     * @param spriteMargins 每个子动画的阴影向外延伸的距离，按子动画的序号存放
+     */
+    private float[] computeFrameBounds(int[] imageBounds, @Nullable float[] spriteMargins) {
+        int frameCount = mConfig.getFrame();
+        int[] frameIndices = mConfig.getFrameIndices();
+        BQLAnimationContext context = mAnimationContext;
+        float[] frameBounds = new float[frameCount * 4];
+        Matrix matrix = new Matrix();
+        float[] values = new float[9];
+        RectF rect = new RectF();
+        RectF bounds = new RectF();
+        for (int n = 0; n < frameCount; ++n) {
+            int image = (frameIndices == null ? n : frameIndices[n]) * 4;
+            bounds.set(imageBounds[image], imageBounds[image + 1], imageBounds[image + 2], imageBounds[image + 3]);
+            unionAvatarBounds(bounds, context, BQLAnimationContext.HOST_AVATAR, mHostAvatarConfig, n, matrix, values, rect);
+            unionAvatarBounds(bounds, context, BQLAnimationContext.SENDER_AVATAR, mSenderAvatarConfig, n, matrix, values, rect);
+            unionNickNameBounds(bounds, context, BQLAnimationContext.HOST_NICKNAME, mHostNickNameSprite, n, matrix, values, rect);
+            unionNickNameBounds(bounds, context, BQLAnimationContext.SENDER_NICKNAME, mSenderNickNameSprite, n, matrix, values, rect);
+            for (int i = 0; i < mSubAnimationCount && spriteMargins != null; ++i) {
+                int element = BQLAnimationContext.SUB_ANIMATION_BASE + i;
+                if (context.getAlpha(element, n) == 0) continue;
+                float margin = spriteMargins[i];
+                rect.set(-margin, -margin, mSubAnimationSprites[i].getWidth() + margin, mSubAnimationSprites[i].getHeight() + margin);
+                unionElementBounds(bounds, context, element, n, matrix, values, rect);
+            }
+            frameBounds[n * 4] = bounds.left;
+            frameBounds[n * 4 + 1] = bounds.top;
+            frameBounds[n * 4 + 2] = bounds.right;
+            frameBounds[n * 4 + 3] = bounds.bottom;
+        }
+        return frameBounds;
+    }
+
+    /**
+     * 和drawAvatar()一样，头像的范围是边框的外沿，再加上阴影
+     */
+    private static void unionAvatarBounds(RectF bounds, BQLAnimationContext context, int avatar, BQLAnimationSpec.Style config, int frameNumber, Matrix matrix, float[] values, RectF rect) {
+        if (config == null || context.getAlpha(avatar, frameNumber) == 0) return;
+        float margin = config.getBorderWidth() / 2f + shadowMargin(config);
+        rect.set(-margin, -margin, context.getAvatarFrameWidth(avatar, frameNumber) + margin, context.getAvatarFrameHeight(avatar, frameNumber) + margin);
+        unionElementBounds(bounds, context, avatar, frameNumber, matrix, values, rect);
+    }
+
+    /**
+     * 和drawNickName()一样，昵称图片的四周留有描边和阴影的空白
+     */
+    private static void unionNickNameBounds(RectF bounds, BQLAnimationContext context, int nickName, @Nullable BQLNicknameSprite sprite, int frameNumber, Matrix matrix, float[] values, RectF rect) {
+        if (sprite == null || context.getAlpha(nickName, frameNumber) == 0) return;
+        float padding = sprite.getPadding();
+        rect.set(-padding, -padding, sprite.getBitmap().getWidth() - padding, sprite.getBitmap().getHeight() - padding);
+        unionElementBounds(bounds, context, nickName, frameNumber, matrix, values, rect);
+    }
+
+    /**
+     * 把元素坐标系中的矩形rect按时间轴中的矩阵变换到原始帧坐标系，并入bounds
+     */
+    private static void unionElementBounds(RectF bounds, BQLAnimationContext context, int element, int frameNumber, Matrix matrix, float[] values, RectF rect) {
+        context.getTransform(element, frameNumber, matrix, values);
+        matrix.mapRect(rect);
+        bounds.union(rect);
+    }
+
+    /**
+     * @return 阴影向外延伸的最大距离，没有阴影时为0
+     */
+    private static float shadowMargin(BQLAnimationSpec.Style config) {
+        if (TextUtils.isEmpty(config.getShadowColor()) || Color.alpha(Color.parseColor("#" + config.getShadowColor())) == 0) return 0;
+        return config.getShadowBlur() + Math.max(Math.abs(config.getShadowX()), Math.abs(config.getShadowY()));
+    }
+
+    /**
+     * 绘制一张图片，图片的左上角在变换后的坐标系中位于(left, top)
+     *
+     * @param canvas 目标画布
+     * @param bitmap 待绘制的图片
+     * @param matrix 图片需要做的变换
+     * @param alpha  绘制的透明度
+     * @param paint  绘制用的Paint
+     */
+    private static void drawBitmap(Canvas canvas, Bitmap bitmap, Matrix matrix, float left, float top, int alpha, @Nullable Paint paint) {
+        if (paint != null) {
+            int saveCount = canvas.getSaveCount();
+            canvas.save();
+            canvas.concat(matrix);
+            paint.setAlpha(alpha);
+            canvas.drawBitmap(bitmap, left, top, paint);
+            canvas.restoreToCount(saveCount);
+        }
+    }
+
+    private static void drawAvatar(Canvas canvas, int alpha, int borderWidth, int cornerRadius, Matrix outerMatrix, Matrix innerMatrix, RectF borderRect, RectF rect, Paint borderPaint, Paint paint) {
+        int saveCount = canvas.getSaveCount();
+        canvas.save();
+        canvas.concat(outerMatrix);
+        //先画边框
+        borderPaint.setAlpha(alpha);
+        float borderCornerRadius = cornerRadius > 0 ? cornerRadius + borderWidth / 2f : 0;
+        canvas.drawRoundRect(borderRect, borderCornerRadius, borderCornerRadius, borderPaint);
+        //再画图片
+        paint.setAlpha(alpha);
+        paint.getShader().setLocalMatrix(innerMatrix);
+        canvas.drawRoundRect(rect, cornerRadius, cornerRadius, paint);
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * @return 第index张主图的颜色通道文件
+     */
+    public static String getColorFile(String animationDirectory, int index) {
+        return animationDirectory + File.separator + String.valueOf(index) + "-a.jpg";
+    }
+
+    /**
+     * @return 第index张主图的透明度通道文件
+     */
+    public static String getAlphaFile(String animationDirectory, int index) {
+        return animationDirectory + File.separator + String.valueOf(index) + "-b.jpg";
+    }
+
+    private void init() {
+        mHostAvatarPaint.setAntiAlias(true);
+        mHostAvatarBorderPaint.setAntiAlias(true);
+        mHostAvatarBorderPaint.setStyle(Paint.Style.STROKE);
+        mSenderAvatarPaint.setAntiAlias(true);
+        mSenderAvatarBorderPaint.setAntiAlias(true);
+        mSenderAvatarBorderPaint.setStyle(Paint.Style.STROKE);
+        mHostTextPaint.setTypeface(Typeface.DEFAULT);
+        mHostTextPaint.setFlags(Paint.ANTI_ALIAS_FLAG);
+        mHostTextPaint.setAntiAlias(true);
+        mHostTextPaint.setTextAlign(Paint.Align.LEFT);
+        mHostTextPaint.setTextSize(25);
+        mSenderTextPaint.setTypeface(Typeface.DEFAULT);
+        mSenderTextPaint.setFlags(Paint.ANTI_ALIAS_FLAG);
+        mSenderTextPaint.setAntiAlias(true);
+        mSenderTextPaint.setTextAlign(Paint.Align.LEFT);
+        mSenderTextPaint.setTextSize(25);
+        mHostStrokeTextPaint.setStyle(Paint.Style.STROKE);
+        mHostStrokeTextPaint.setAntiAlias(true);
+        mHostStrokeTextPaint.setTextSize(25);
+        mHostStrokeTextPaint.setTextAlign(Paint.Align.LEFT);
+        mSenderStrokeTextPaint.setStyle(Paint.Style.STROKE);
+        mSenderStrokeTextPaint.setAntiAlias(true);
+        mSenderStrokeTextPaint.setTextSize(25);
+        mSenderStrokeTextPaint.setTextAlign(Paint.Align.LEFT);
+    }
+
+    /**
+     * 生成主图列表并开始播放
+     *
+     * @param decodeBudget 同一个控件中所有层共用的解码预算
+     * @param viewWidth    控件当前的宽度，播放器按显示尺寸解码
+     * @param viewHeight   控件当前的高度
+     */
+    void start(BQLDecodeBudget decodeBudget, int viewWidth, int viewHeight) {
+        String[] colorFiles = new String[mConfig.getFrame()];
+        String[] alphaFiles = new String[mConfig.getFrame()];
+        for (int i = 0; i < mConfig.getFrame(); ++i) {
+            colorFiles[i] = getColorFile(mAnimationDirectory, i);
+            alphaFiles[i] = getAlphaFile(mAnimationDirectory, i);
+        }
+        mStartTime = SystemClock.uptimeMillis();
+        mPlayer = new BQLPngSequencePlayer(colorFiles, alphaFiles, mConfig.getFrameIndices(), this, mConfig.getType() == 0 ? 1000 / mConfig.getFps() : 10000, decodeBudget);
+        mViewportWidth = viewWidth;
+        mViewportHeight = viewHeight;
+        mPlayer.setViewport(viewWidth, viewHeight, mFullScreen);
+        mPlayer.setCompositeMode(mCompositeMode);
+        mPlayer.setMetricsListener(mPlaybackMetricsListener);
+        mPlayer.setWatermark(BQLGiftDownloader.getDefault().getWatermark(mAnimationDirectory));//礼物还在下载时只播放已经解压的帧
+        mPlayer.start();
+    }
+
+    /**
+     * 暂停播放，层保持显示当前帧，不再解码新的主图。必须在start()之后调用
+     */
+    public void pause() {
+        if (mPlayer != null) {
+            mPlayer.pause();
+        }
+    }
+
+    /**
+     * 从暂停的位置继续播放
+     */
+    public void resume() {
+        if (mPlayer != null) {
+            mPlayer.resume();
+        }
+    }
+
+    /**
+     * 停止播放并释放主图，层随即从控件中移除，和播放完毕一样会收到结束的回调。用于替换正在播放的礼物
+     */
+    public void stop() {
+        if (mPlayer != null) {
+            mPlayer.stop();
+        }
+    }
+
+    /**
+     * 选择主图两个通道的合成方式，用于比较预先合成和在绘制时合成的效果。可以在播放过程中调用，从下一个提交的解码任务开始生效
+     *
+     * @param compositeMode BQLFrameCompositor.COMPOSITE_CANVAS、BQLFrameCompositor.COMPOSITE_KERNEL或BQLFrameCompositor.COMPOSITE_ON_DRAW
+     */
+    public void setCompositeMode(int compositeMode) {
+        mCompositeMode = compositeMode;
+        if (mPlayer != null) {
+            mPlayer.setCompositeMode(compositeMode);
+        }
+    }
+
+    /**
+     * 设置逐帧的播放统计的接收者，必须在开始播放之前调用，例如在PrepareCallback.onPrepared()中、startAnimation()之前。
+     * 回调在播放线程中进行；没有设置时播放器不做任何统计
+     */
+    public void setPlaybackMetricsListener(BQLPlaybackMetrics.Listener listener) {
+        mPlaybackMetricsListener = listener;
+    }
+
+    /**
+     * 非全屏的层默认画在控件中央，可以用这个方法把它的中心移到别处
+     *
+     * @param centerX 层中心的横坐标，以控件宽度为单位
+     * @param centerY 层中心的纵坐标，以控件高度为单位
+     */
+    public void setPlacement(float centerX, float centerY) {
+        mCenterX = centerX;
+        mCenterY = centerY;
+        mHost.onLayerFrame(this, null);
+    }
+
+    /**
+     * 由画质控制器调用，设置子动画的绘制细节
+     *
+     * @param detail BQLQualityController.DETAIL_FULL或BQLQualityController.DETAIL_REDUCED
+     */
+    public void setSubAnimationDetail(int detail) {
+        mSubAnimationDetail = detail;
+    }
+
+    public boolean isFullScreen() {
+        return mFullScreen;
+    }
+
+    public int getZOrder() {
+        return mZOrder;
+    }
+
+    public BQLAnimationContext getAnimationContext() {
+        return mAnimationContext;
+    }
+
+    /**
+     * 给BQLPngSequencePlayer调用的函数，设置待显示的数据
+     *
+     * @param frame       解码好的主图，绘制时根据它的解码方式把它放回原始帧的坐标系
+     * @param frameNumber 帧序号，头像、昵称和子动画的矩阵根据它从时间轴中读取
+     */
+    public void setFrame(BQLFrame frame, int frameNumber) {
+        retireFrame(frame);
+        mFrameNumber = frameNumber;
+        boolean firstFrame = mFirstFrameMillis < 0;
+        if (firstFrame) {
+            mFirstFrameMillis = SystemClock.uptimeMillis() - mStartTime;
+        }
+        mHost.onLayerFrame(this, updateShownBounds(frame, frameNumber));
+        if (firstFrame) {
+            mHost.onLayerFirstFrame(this);
+        }
+    }
+
+    /**
+     * 换成新的一帧之后，控件中需要重绘的是上一帧和这一帧范围的并集。只在播放线程中调用
+     *
+     * @return 需要重绘的区域，范围未知时返回null，需要重绘整个控件
+     */
+    private Rect updateShownBounds(BQLFrame frame, int frameNumber) {
+        float[] frameBounds = mFrameBounds;
+        int viewWidth = mViewportWidth, viewHeight = mViewportHeight;
+        boolean known = frameBounds != null && viewWidth > 0 && viewHeight > 0;
+        Rect dirty = null;
+        if (known) {
+            getBaseMatrix(frame, viewWidth, viewHeight, mBoundsMatrix);
+            int offset = frameNumber * 4;
+            mBoundsRect.set(frameBounds[offset], frameBounds[offset + 1], frameBounds[offset + 2], frameBounds[offset + 3]);
+            mBoundsMatrix.mapRect(mBoundsRect);
+            mBoundsRect.roundOut(mNewBounds);
+            mNewBounds.inset(-1, -1);//抗锯齿和过滤会影响边缘外的一个像素
+            if (mShownBoundsKnown) {
+                mDirtyBounds.set(mShownBounds);
+                mDirtyBounds.union(mNewBounds);
+                dirty = mDirtyBounds;
+            }
+            mShownBounds.set(mNewBounds);
+        }
+        mShownBoundsKnown = known;
+        return dirty;
+    }
+
+    /**
+     * @return 最近一次setFrame()的帧在控件中的范围，范围未知时返回null。只在播放线程中调用
+     */
+    Rect getShownBounds() {
+        return mShownBoundsKnown ? mShownBounds : null;
+    }
+
+    /**
+     * 原始帧坐标系到控件坐标系的变换：全屏的层缩放到填满控件，非全屏的层按mCenterX、mCenterY放置
+     */
+    private void getBaseMatrix(BQLFrame frame, int viewWidth, int viewHeight, Matrix matrix) {
+        //裁剪或降采样过的主图按原始帧的尺寸布局，头像、昵称和子动画的坐标都基于原始尺寸
+        BQLFrameGeometry geometry = frame.getGeometry();
+        int drawableWidth = geometry != null ? geometry.getFullWidth() : frame.getWidth();
+        int drawableHeight = geometry != null ? geometry.getFullHeight() : frame.getHeight();
+        if (mFullScreen) {//如果这是一个全屏表情，就缩放到整个控件的大小
+            float scale = BQLFrameGeometry.scaleToFill(drawableWidth, drawableHeight, viewWidth, viewHeight);
+            if (drawableHeight * scale > viewHeight) {//纵向对齐底边
+                matrix.setTranslate(0, viewHeight - drawableHeight * scale);
+            } else if (drawableWidth * scale > viewWidth) {//横向居中
+                matrix.setTranslate((viewWidth - drawableWidth * scale) / 2, 0);
+            } else {
+                matrix.reset();
+            }
+            matrix.preScale(scale, scale);
+        } else {
+            matrix.setTranslate(viewWidth * mCenterX - drawableWidth / 2f, viewHeight * mCenterY - drawableHeight / 2f);
+        }
+    }
+
+    /**
+     * @return 从开始播放到第一帧主图送达经过的毫秒数，还没有送达时为-1
+     */
+    public long getFirstFrameMillis() {
+        return mFirstFrameMillis;
+    }
+
+    /**
+     * 结束播放，数据归零。主图要等到控件下一次绘制之后才放回池中
+     */
+    public void endAnimation() {
+        retireFrame(null);
+        mFrameNumber = 0;
+        discard();
+        mHost.onLayerEnd(this);
+    }
+
+    /**
+     * 释放预先画好的昵称和子动画图片。准备好但没有开始播放的层被取消时直接调用，不会通知控件
+     */
+    void discard() {
+        mSubAnimationCount = 0;
+        mSubAnimationSprites = null;
+        mSubAnimationPaints = null;
+        mHostNickNameSprite = null;
+        mSenderNickNameSprite = null;
+    }
+
+    /**
+     * 用新的主图替换当前主图，被替换的主图要等到下一次绘制之后才放回池中，以免它在绘制过程中被解码线程复用
+     * 重复的主图可能以同一个对象连续送来，每次送来的都是一个引用，被替换时同样要释放
+     */
+    private void retireFrame(BQLFrame newFrame) {
+        synchronized (mRetiredFrames) {
+            if (mFrame != null) {
+                mRetiredFrames.add(mFrame);
+            }
+            mFrame = newFrame;
+        }
+    }
+
+    /**
+     * 把已经不会再被绘制的主图放回池中
+     *
+     * @param drawnFrame 本次绘制的主图，它可能在绘制过程中被替换，因此要留到下一次再放回
+     */
+    void releaseRetiredFrames(BQLFrame drawnFrame) {
+        synchronized (mRetiredFrames) {
+            for (int i = mRetiredFrames.size() - 1; i >= 0; --i) {
+                BQLFrame frame = mRetiredFrames.get(i);
+                if (frame != drawnFrame) {
+                    mRetiredFrames.remove(i);
+                    frame.recycle(BQLBitmapPool.getDefault());
+                }
+            }
+        }
+    }
+
+    /**
+     * 从时间轴中读取头像在当前帧的参数并绘制
+     *
+     * @param avatar BQLAnimationContext.HOST_AVATAR或BQLAnimationContext.SENDER_AVATAR
+     */
+    private void drawAvatar(Canvas canvas, BQLAnimationContext context, int avatar, BQLAnimationSpec.Style config, Paint borderPaint, Paint paint) {
+        int alpha = context.getAlpha(avatar, mFrameNumber);
+        if (config == null || alpha == 0) return;
+        context.getTransform(avatar, mFrameNumber, mOuterMatrix, mMatrixValues);
+        float scale = context.getAvatarInnerScale(avatar, mFrameNumber);
+        mInnerMatrix.setScale(scale, scale);
+        float frameWidth = context.getAvatarFrameWidth(avatar, mFrameNumber);
+        float frameHeight = context.getAvatarFrameHeight(avatar, mFrameNumber);
+        int borderWidth = config.getBorderWidth();
+        mBorderRect.set(-borderWidth / 2f, -borderWidth / 2f, frameWidth + borderWidth / 2f, frameHeight + borderWidth / 2f);
+        mRect.set(0, 0, frameWidth, frameHeight);
+        drawAvatar(canvas, alpha, borderWidth, config.getCornerRadius(), mOuterMatrix, mInnerMatrix, mBorderRect, mRect, borderPaint, paint);
+    }
+
+    /**
+     * 从时间轴中读取昵称在当前帧的参数，并绘制预先画好的昵称图片
+     */
+    private void drawNickName(Canvas canvas, BQLAnimationContext context, int nickName, @Nullable BQLNicknameSprite sprite) {
+        int alpha = context.getAlpha(nickName, mFrameNumber);
+        if (sprite == null || alpha == 0) return;
+        context.getTransform(nickName, mFrameNumber, mOuterMatrix, mMatrixValues);
+        float padding = sprite.getPadding();
+        drawBitmap(canvas, sprite.getBitmap(), mOuterMatrix, -padding, -padding, alpha, mNickNamePaint);
+    }
+
+    /**
+     * 把这个层的当前帧绘制到画布上
+     *
+     * @param canvas     目标画布
+     * @param viewWidth  控件宽度
+     * @param viewHeight 控件高度
+     */
+    void draw(Canvas canvas, int viewWidth, int viewHeight) {
+        if ((viewWidth != mViewportWidth || viewHeight != mViewportHeight) && mPlayer != null) {
+            mViewportWidth = viewWidth;
+            mViewportHeight = viewHeight;
+            mPlayer.setViewport(viewWidth, viewHeight, mFullScreen);
+        }
+        BQLFrame frame;
+        synchronized (mRetiredFrames) {
+            frame = mFrame;
+        }
+        if (frame != null) {
+            getBaseMatrix(frame, viewWidth, viewHeight, mBaseMatrix);
+            if (isClippedOut(canvas)) {//例如只重绘另一个礼物变化的区域时
+                releaseRetiredFrames(frame);
+                return;
+            }
+            BQLFrameGeometry geometry = frame.getGeometry();
+            int saveCount = canvas.getSaveCount();
+            canvas.save();
+            canvas.concat(mBaseMatrix);
+            if (geometry == null || (geometry.getRegion() == null && geometry.getSampleSize() == 1)) {
+                drawFrame(canvas, frame);
+            } else {
+                canvas.save();
+                canvas.translate(geometry.getLeft(), geometry.getTop());
+                canvas.scale(geometry.getSampleSize(), geometry.getSampleSize());
+                drawFrame(canvas, frame);
+                canvas.restore();
+            }
+
+            //绘制头像、昵称及子图，它们的矩阵都从预先编译好的时间轴中读取
+            BQLAnimationContext context = mAnimationContext;
+            drawAvatar(canvas, context, BQLAnimationContext.HOST_AVATAR, mHostAvatarConfig, mHostAvatarBorderPaint, mHostAvatarPaint);
+            drawAvatar(canvas, context, BQLAnimationContext.SENDER_AVATAR, mSenderAvatarConfig, mSenderAvatarBorderPaint, mSenderAvatarPaint);
+            drawNickName(canvas, context, BQLAnimationContext.HOST_NICKNAME, mHostNickNameSprite);
+            drawNickName(canvas, context, BQLAnimationContext.SENDER_NICKNAME, mSenderNickNameSprite);
+            Bitmap[] sprites = mSubAnimationSprites;
+            Paint[] paints = mSubAnimationPaints;
+            boolean reducedDetail = mSubAnimationDetail == BQLQualityController.DETAIL_REDUCED;
+            for (int i = 0; i < mSubAnimationCount && sprites != null && paints != null; ++i) {
+                int element = BQLAnimationContext.SUB_ANIMATION_BASE + i;
+                int alpha = context.getAlpha(element, mFrameNumber);
+                if (alpha == 0) continue;
+                context.getTransform(element, mFrameNumber, mOuterMatrix, mMatrixValues);
+                drawBitmap(canvas, sprites[i], mOuterMatrix, 0, 0, alpha, reducedDetail ? mPlainSubAnimationPaint : paints[i]);
+            }
+
+            canvas.restoreToCount(saveCount);
+        } else if (mShaderBitmap != null) {//播放结束后不再引用已经放回池中的颜色通道
+            mShaderBitmap = null;
+            mMaskedFramePaint.setShader(null);
+        }
+        releaseRetiredFrames(frame);
+    }
+
+    /**
+     * 当前帧的所有元素是否都在画布的裁剪区域之外，需要先把mBaseMatrix设为当前帧的矩阵。
+     * 软件画布的裁剪区域就是这次需要重绘的区域；硬件加速的画布录制整个控件，裁剪区域总是整个控件，不会跳过
+     */
+    private boolean isClippedOut(Canvas canvas) {
+        float[] frameBounds = mFrameBounds;
+        int offset = mFrameNumber * 4;
+        if (frameBounds == null || offset + 4 > frameBounds.length) return false;
+        mClipTestRect.set(frameBounds[offset], frameBounds[offset + 1], frameBounds[offset + 2], frameBounds[offset + 3]);
+        mBaseMatrix.mapRect(mClipTestRect);
+        mClipTestRect.inset(-1, -1);//和重绘区域一样，包括抗锯齿和过滤影响的边缘外的一个像素
+        return canvas.quickReject(mClipTestRect, Canvas.EdgeType.AA);
+    }
+
+    /**
+     * 在当前坐标系的原点绘制主图。两个通道分开存放时，遮罩和Shader在同一个坐标系中绘制，像素一一对应
+     */
+    private void drawFrame(Canvas canvas, BQLFrame frame) {
+        Bitmap mask = frame.getMask();
+        if (mask == null) {
+            canvas.drawBitmap(frame.getBitmap(), 0, 0, mFramePaint);
+            return;
+        }
+        if (mShaderBitmap != frame.getBitmap()) {
+            mShaderBitmap = frame.getBitmap();
+            mMaskedFramePaint.setShader(new BitmapShader(mShaderBitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+        }
+        canvas.drawBitmap(mask, 0, 0, mMaskedFramePaint);//ALPHA_8图片按Paint的Shader着色
+    }
+
+    /**
+     * 显示动画层的控件
+     */
+    public interface Host {
+        /**
+         * 层的内容发生了变化，需要重绘。可能在任意线程中调用
+         *
+         * @param dirty 控件中需要重绘的区域，为null时重绘整个控件。只在回调中有效
+         */
+        void onLayerFrame(BQLAnimationLayer layer, @Nullable Rect dirty);
+
+        /**
+         * 层的第一帧主图已经送达，可以通过getFirstFrameMillis()读取首帧耗时。在播放线程中调用
+         */
+        void onLayerFirstFrame(BQLAnimationLayer layer);
+
+        /**
+         * 层的动画播放完毕，需要从控件中移除。在播放线程中调用
+         */
+        void onLayerEnd(BQLAnimationLayer layer);
+    }
+}
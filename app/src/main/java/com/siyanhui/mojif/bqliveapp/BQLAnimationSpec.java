@@ -0,0 +1,477 @@
+package com.siyanhui.mojif.bqliveapp;
+
+import com.siyanhui.mojif.bqlive.BQLive;
+import com.siyanhui.mojif.bqliveapp.core.BQLFrameTrack;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 动画配置，内容和BQLive.AnimationConfig相同，但所有帧参数都按轨道存放在扁平的float数组中
+ * BQLive.AnimationConfig只能通过解析config.txt得到，这个类可以写成紧凑的二进制形式，之后直接读回，不需要再解密和解析JSON
+ */
+public class BQLAnimationSpec {
+    private static final int MAGIC = 0x42514c53;//"BQLS"
+    private static final int VERSION = 1;
+    private final int mFps;
+    private final int mFrameCount;
+    private final int mType;
+    private final int mWidth;
+    private final int mHeight;
+    private final boolean mFullScreen;
+    private final int[] mFrameIndices;
+    private final Track mHostAvatarFrames;
+    private final Track mSenderAvatarFrames;
+    private final Track mHostNickNameFrames;
+    private final Track mSenderNickNameFrames;
+    private final Style mHostAvatarStyle;
+    private final Style mSenderAvatarStyle;
+    private final Style mHostNickNameStyle;
+    private final Style mSenderNickNameStyle;
+    private final List<SubAnimation> mSubAnimations;
+
+    private BQLAnimationSpec(int fps, int frameCount, int type, int width, int height, boolean fullScreen, int[] frameIndices,
+                             Track hostAvatarFrames, Track senderAvatarFrames, Track hostNickNameFrames, Track senderNickNameFrames,
+                             Style hostAvatarStyle, Style senderAvatarStyle, Style hostNickNameStyle, Style senderNickNameStyle,
+                             List<SubAnimation> subAnimations) {
+        mFps = fps;
+        mFrameCount = frameCount;
+        mType = type;
+        mWidth = width;
+        mHeight = height;
+        mFullScreen = fullScreen;
+        mFrameIndices = frameIndices;
+        mHostAvatarFrames = hostAvatarFrames;
+        mSenderAvatarFrames = senderAvatarFrames;
+        mHostNickNameFrames = hostNickNameFrames;
+        mSenderNickNameFrames = senderNickNameFrames;
+        mHostAvatarStyle = hostAvatarStyle;
+        mSenderAvatarStyle = senderAvatarStyle;
+        mHostNickNameStyle = hostNickNameStyle;
+        mSenderNickNameStyle = senderNickNameStyle;
+        mSubAnimations = Collections.unmodifiableList(subAnimations);
+    }
+
+    /**
+     * 从BQLive解析出的配置转换
+     */
+    public static BQLAnimationSpec from(BQLive.AnimationConfig config) {
+        List<SubAnimation> subAnimations = new ArrayList<>();
+        Map<String, BQLive.SubAnimationConfig> subAnimationConfigs = config.getSubAnimations();
+        if (subAnimationConfigs != null) {
+            for (Map.Entry<String, BQLive.SubAnimationConfig> entry : subAnimationConfigs.entrySet()) {
+                subAnimations.add(new SubAnimation(entry.getKey(), Style.from(entry.getValue().getConfig()), Track.from(entry.getValue().getFrames())));
+            }
+        }
+        return new BQLAnimationSpec(config.getFps(), config.getFrame(), config.getType(), config.getWidth(), config.getHeight(), config.isFullScreen(), config.getFrameIndices(),
+                Track.from(config.getHostAvatarAnimationFrames()), Track.from(config.getSenderAvatarAnimationFrames()),
+                Track.from(config.getHostNickName()), Track.from(config.getSenderNickName()),
+                Style.from(config.getHostAvatarConfig()), Style.from(config.getSenderAvatarConfig()),
+                Style.from(config.getHostNickNameConfig()), Style.from(config.getSenderNickNameConfig()),
+                subAnimations);
+    }
+
+    /**
+     * 读取writeTo()写出的二进制形式
+     *
+     * @throws IOException 数据不完整，或者不是当前版本写出的
+     */
+    public static BQLAnimationSpec readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Unsupported animation spec format");
+        }
+        int fps = in.readInt();
+        int frameCount = in.readInt();
+        int type = in.readInt();
+        int width = in.readInt();
+        int height = in.readInt();
+        boolean fullScreen = in.readBoolean();
+        int[] frameIndices = null;
+        int indexCount = in.readInt();
+        if (indexCount >= 0) {
+            frameIndices = new int[indexCount];
+            for (int i = 0; i < indexCount; ++i) {
+                frameIndices[i] = in.readInt();
+            }
+        }
+        Track hostAvatarFrames = Track.readFrom(in);
+        Track senderAvatarFrames = Track.readFrom(in);
+        Track hostNickNameFrames = Track.readFrom(in);
+        Track senderNickNameFrames = Track.readFrom(in);
+        Style hostAvatarStyle = Style.readFrom(in);
+        Style senderAvatarStyle = Style.readFrom(in);
+        Style hostNickNameStyle = Style.readFrom(in);
+        Style senderNickNameStyle = Style.readFrom(in);
+        int subAnimationCount = in.readInt();
+        List<SubAnimation> subAnimations = new ArrayList<>(subAnimationCount);
+        for (int i = 0; i < subAnimationCount; ++i) {
+            String name = in.readUTF();
+            Style style = Style.readFrom(in);
+            subAnimations.add(new SubAnimation(name, style, Track.readFrom(in)));
+        }
+        return new BQLAnimationSpec(fps, frameCount, type, width, height, fullScreen, frameIndices,
+                hostAvatarFrames, senderAvatarFrames, hostNickNameFrames, senderNickNameFrames,
+                hostAvatarStyle, senderAvatarStyle, hostNickNameStyle, senderNickNameStyle, subAnimations);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * 写出二进制形式
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(mFps);
+        out.writeInt(mFrameCount);
+        out.writeInt(mType);
+        out.writeInt(mWidth);
+        out.writeInt(mHeight);
+        out.writeBoolean(mFullScreen);
+        out.writeInt(mFrameIndices == null ? -1 : mFrameIndices.length);
+        if (mFrameIndices != null) {
+            for (int index : mFrameIndices) {
+                out.writeInt(index);
+            }
+        }
+        Track.writeTo(out, mHostAvatarFrames);
+        Track.writeTo(out, mSenderAvatarFrames);
+        Track.writeTo(out, mHostNickNameFrames);
+        Track.writeTo(out, mSenderNickNameFrames);
+        Style.writeTo(out, mHostAvatarStyle);
+        Style.writeTo(out, mSenderAvatarStyle);
+        Style.writeTo(out, mHostNickNameStyle);
+        Style.writeTo(out, mSenderNickNameStyle);
+        out.writeInt(mSubAnimations.size());
+        for (SubAnimation subAnimation : mSubAnimations) {
+            out.writeUTF(subAnimation.getName());
+            Style.writeTo(out, subAnimation.getStyle());
+            Track.writeTo(out, subAnimation.getFrames());
+        }
+    }
+
+    public int getFps() {
+        return mFps;
+    }
+
+    public int getFrame() {
+        return mFrameCount;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public boolean isFullScreen() {
+        return mFullScreen;
+    }
+
+    /**
+     * @return 帧列表，第n帧显示第getFrameIndices()[n]张主图。为null时第n帧显示第n张
+     */
+    public int[] getFrameIndices() {
+        return mFrameIndices;
+    }
+
+    public Track getHostAvatarAnimationFrames() {
+        return mHostAvatarFrames;
+    }
+
+    public Track getSenderAvatarAnimationFrames() {
+        return mSenderAvatarFrames;
+    }
+
+    public Track getHostNickName() {
+        return mHostNickNameFrames;
+    }
+
+    public Track getSenderNickName() {
+        return mSenderNickNameFrames;
+    }
+
+    public Style getHostAvatarConfig() {
+        return mHostAvatarStyle;
+    }
+
+    public Style getSenderAvatarConfig() {
+        return mSenderAvatarStyle;
+    }
+
+    public Style getHostNickNameConfig() {
+        return mHostNickNameStyle;
+    }
+
+    public Style getSenderNickNameConfig() {
+        return mSenderNickNameStyle;
+    }
+
+    public List<SubAnimation> getSubAnimations() {
+        return mSubAnimations;
+    }
+
+    /**
+     * 一个元素（头像、昵称或子动画）在每一帧的参数，每帧依次为x、y、宽、高、缩放、旋转、透明度7个float
+     */
+    public static class Track implements BQLFrameTrack {
+        private static final int STRIDE = 7;
+        private final float[] mValues;
+
+        private Track(float[] values) {
+            mValues = values;
+        }
+
+        static Track from(BQLive.FrameConfig[] frames) {
+            if (frames == null) return null;
+            float[] values = new float[frames.length * STRIDE];
+            for (int i = 0; i < frames.length; ++i) {
+                BQLive.FrameConfig frame = frames[i];
+                int offset = i * STRIDE;
+                values[offset] = frame.getX();
+                values[offset + 1] = frame.getY();
+                values[offset + 2] = frame.getWidth();
+                values[offset + 3] = frame.getHeight();
+                values[offset + 4] = frame.getScale();
+                values[offset + 5] = frame.getRotate();
+                values[offset + 6] = frame.getAlpha();
+            }
+            return new Track(values);
+        }
+
+        static Track readFrom(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length < 0) return null;
+            float[] values = new float[length];
+            for (int i = 0; i < length; ++i) {
+                values[i] = in.readFloat();
+            }
+            return new Track(values);
+        }
+
+        static void writeTo(DataOutputStream out, Track track) throws IOException {
+            if (track == null) {
+                out.writeInt(-1);
+                return;
+            }
+            out.writeInt(track.mValues.length);
+            for (float value : track.mValues) {
+                out.writeFloat(value);
+            }
+        }
+
+        @Override
+        public int size() {
+            return mValues.length / STRIDE;
+        }
+
+        @Override
+        public float getX(int frame) {
+            return mValues[frame * STRIDE];
+        }
+
+        @Override
+        public float getY(int frame) {
+            return mValues[frame * STRIDE + 1];
+        }
+
+        @Override
+        public float getWidth(int frame) {
+            return mValues[frame * STRIDE + 2];
+        }
+
+        @Override
+        public float getHeight(int frame) {
+            return mValues[frame * STRIDE + 3];
+        }
+
+        @Override
+        public float getScale(int frame) {
+            return mValues[frame * STRIDE + 4];
+        }
+
+        @Override
+        public float getRotate(int frame) {
+            return mValues[frame * STRIDE + 5];
+        }
+
+        @Override
+        public float getAlpha(int frame) {
+            return mValues[frame * STRIDE + 6];
+        }
+    }
+
+    /**
+     * 头像、昵称或子动画的绘制样式，对应BQLive.SpriteConfig和BQLive.NicknameConfig。只对其中一种有意义的属性在另一种中为默认值
+     */
+    public static class Style {
+        private int mWidth;
+        private int mHeight;
+        private int mCornerRadius;
+        private int mAlignment = 1;
+        private String mColor;
+        private String mBorderColor;
+        private int mBorderWidth;
+        private String mShadowColor;
+        private int mShadowBlur;
+        private int mShadowX;
+        private int mShadowY;
+
+        static Style from(BQLive.SpriteConfig config) {
+            if (config == null) return null;
+            Style style = new Style();
+            style.mWidth = config.getWidth();
+            style.mHeight = config.getHeight();
+            style.mCornerRadius = config.getCornerRadius();
+            style.mBorderColor = config.getBorderColor();
+            style.mBorderWidth = config.getBorderWidth();
+            style.mShadowColor = config.getShadowColor();
+            style.mShadowBlur = config.getShadowBlur();
+            style.mShadowX = config.getShadowX();
+            style.mShadowY = config.getShadowY();
+            return style;
+        }
+
+        static Style from(BQLive.NicknameConfig config) {
+            if (config == null) return null;
+            Style style = new Style();
+            style.mAlignment = config.getAlignment();
+            style.mColor = config.getColor();
+            style.mBorderColor = config.getBorderColor();
+            style.mBorderWidth = config.getBorderWidth();
+            style.mShadowColor = config.getShadowColor();
+            style.mShadowBlur = config.getShadowBlur();
+            style.mShadowX = config.getShadowX();
+            style.mShadowY = config.getShadowY();
+            return style;
+        }
+
+        static Style readFrom(DataInputStream in) throws IOException {
+            if (!in.readBoolean()) return null;
+            Style style = new Style();
+            style.mWidth = in.readInt();
+            style.mHeight = in.readInt();
+            style.mCornerRadius = in.readInt();
+            style.mAlignment = in.readInt();
+            style.mColor = readString(in);
+            style.mBorderColor = readString(in);
+            style.mBorderWidth = in.readInt();
+            style.mShadowColor = readString(in);
+            style.mShadowBlur = in.readInt();
+            style.mShadowX = in.readInt();
+            style.mShadowY = in.readInt();
+            return style;
+        }
+
+        static void writeTo(DataOutputStream out, Style style) throws IOException {
+            out.writeBoolean(style != null);
+            if (style == null) return;
+            out.writeInt(style.mWidth);
+            out.writeInt(style.mHeight);
+            out.writeInt(style.mCornerRadius);
+            out.writeInt(style.mAlignment);
+            writeString(out, style.mColor);
+            writeString(out, style.mBorderColor);
+            out.writeInt(style.mBorderWidth);
+            writeString(out, style.mShadowColor);
+            out.writeInt(style.mShadowBlur);
+            out.writeInt(style.mShadowX);
+            out.writeInt(style.mShadowY);
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public int getCornerRadius() {
+            return mCornerRadius;
+        }
+
+        /**
+         * @return 昵称的横向对齐方式：0（左对齐）、1（居中）、2（右对齐）
+         */
+        public int getAlignment() {
+            return mAlignment;
+        }
+
+        public String getColor() {
+            return mColor;
+        }
+
+        public String getBorderColor() {
+            return mBorderColor;
+        }
+
+        public int getBorderWidth() {
+            return mBorderWidth;
+        }
+
+        public String getShadowColor() {
+            return mShadowColor;
+        }
+
+        public int getShadowBlur() {
+            return mShadowBlur;
+        }
+
+        public int getShadowX() {
+            return mShadowX;
+        }
+
+        public int getShadowY() {
+            return mShadowY;
+        }
+    }
+
+    /**
+     * 子动画：一张图片，以及它的样式和轨道
+     */
+    public static class SubAnimation {
+        private final String mName;
+        private final Style mStyle;
+        private final Track mFrames;
+
+        SubAnimation(String name, Style style, Track frames) {
+            mName = name;
+            mStyle = style;
+            mFrames = frames;
+        }
+
+        /**
+         * @return 名称，也是图片在动画目录中的文件名
+         */
+        public String getName() {
+            return mName;
+        }
+
+        public Style getStyle() {
+            return mStyle;
+        }
+
+        public Track getFrames() {
+            return mFrames;
+        }
+    }
+}
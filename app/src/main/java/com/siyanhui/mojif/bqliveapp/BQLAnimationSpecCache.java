@@ -0,0 +1,97 @@
+package com.siyanhui.mojif.bqliveapp;
+
+import com.siyanhui.mojif.bqlive.BQLive;
+
+import org.json.JSONException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 动画配置的缓存，分为两级：
+ * 1. 内存中保留最近用到的MAX_ENTRIES个配置
+ * 2. 第一次解析config.txt之后，把BQLAnimationSpec的二进制形式写到礼物目录中（见BQLCacheFile），之后即使进程重启也不需要再解密和解析JSON
+ * 内存中的配置同样记录了config.txt的修改时间和长度，礼物更新后自动失效
+ */
+public class BQLAnimationSpecCache {
+    private static final String CONFIG_FILE = "config.txt";//BQLive.generateConfig()读取的文件
+    private static final String SPEC_FILE = "config.bqlspec";
+    private static final int FILE_MAGIC = 0x42514C43;//"BQLC"
+    private static final int MAX_ENTRIES = 32;
+    private static final BQLAnimationSpecCache sDefaultCache = new BQLAnimationSpecCache();
+    private final Map<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    public static BQLAnimationSpecCache getDefault() {
+        return sDefaultCache;
+    }
+
+    /**
+     * 获取动画配置，依次查找内存、礼物目录中的二进制文件，都没有时才解析config.txt。可以在任意线程调用
+     *
+     * @param animationDirectory 动画在文件系统中的路径
+     */
+    public BQLAnimationSpec get(String animationDirectory) throws JSONException, IOException {
+        BQLCacheFile specFile = new BQLCacheFile(new File(animationDirectory, SPEC_FILE), FILE_MAGIC, new File(animationDirectory, CONFIG_FILE));
+        long modified = specFile.getModified();
+        long length = specFile.getLength();
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(animationDirectory);
+            if (entry != null && entry.mModified == modified && entry.mLength == length) {
+                return entry.mSpec;
+            }
+        }
+        //读写文件较慢，不持有锁
+        BQLAnimationSpec spec = specFile.read(new BQLCacheFile.Reader<BQLAnimationSpec>() {
+            @Override
+            public BQLAnimationSpec readFrom(DataInputStream in) throws IOException {
+                return BQLAnimationSpec.readFrom(in);
+            }
+        });
+        if (spec == null) {
+            BQLive.AnimationConfig config = BQLive.generateConfig(animationDirectory);
+            if (config == null) return null;
+            final BQLAnimationSpec parsed = BQLAnimationSpec.from(config);
+            specFile.write(new BQLCacheFile.Writer() {
+                @Override
+                public void writeTo(DataOutputStream out) throws IOException {
+                    parsed.writeTo(out);
+                }
+            });
+            spec = parsed;
+        }
+        synchronized (mEntries) {
+            mEntries.put(animationDirectory, new Entry(spec, modified, length));
+        }
+        return spec;
+    }
+
+    /**
+     * 动画被删除或更新之后，丢弃它在内存中的配置。目录中的二进制文件会随礼物一起删除
+     */
+    public void remove(String animationDirectory) {
+        synchronized (mEntries) {
+            mEntries.remove(animationDirectory);
+        }
+    }
+
+    private static class Entry {
+        private final BQLAnimationSpec mSpec;
+        private final long mModified;
+        private final long mLength;
+
+        Entry(BQLAnimationSpec spec, long modified, long length) {
+            mSpec = spec;
+            mModified = modified;
+            mLength = length;
+        }
+    }
+}
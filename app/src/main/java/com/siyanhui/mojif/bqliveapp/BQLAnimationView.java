@@ -1,80 +1,68 @@
 package com.siyanhui.mojif.bqliveapp;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.BitmapShader;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Matrix;
-import android.graphics.Paint;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
-import android.graphics.RectF;
-import android.graphics.Shader;
-import android.graphics.Typeface;
-import android.support.annotation.Nullable;
-import android.text.TextPaint;
-import android.text.TextUtils;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.util.AttributeSet;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.TextureView;
 import android.view.View;
+import android.widget.FrameLayout;
 
-import com.siyanhui.mojif.bqlive.BQLive;
-import com.siyanhui.mojif.bqliveapp.graphics.BQLAnimationContext;
-import com.siyanhui.mojif.bqliveapp.graphics.BQLPngSequencePlayer;
+import com.siyanhui.mojif.bqliveapp.graphics.BQLFrameCompositor;
 
 import org.json.JSONException;
 
-import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * 用于播放动画的View
+ * 它是一个合成器，可以同时含有多个动画层，每个层由自己的BQLPngSequencePlayer驱动，所有层在同一次绘制中按zOrder依次绘制，并共用一个解码预算
+ * 绘制有三种模式：
+ * 1. RENDER_MODE_VIEW：默认模式，每一帧都经过UI线程的onDraw。窗口开启了硬件加速时每一帧都重绘所有层，只有软件绘制时才只重绘礼物变化的区域
+ * 2. RENDER_MODE_TEXTURE_VIEW：在独立的渲染线程中绘制到TextureView上，需要API 14及以上，且窗口开启了硬件加速
+ * 3. RENDER_MODE_SURFACE_VIEW：在独立的渲染线程中绘制到SurfaceView上，它以媒体覆盖层的方式叠加在摄像头预览之上
+ * 后两种模式下动画的流畅度不受UI线程卡顿的影响
+ * 开始播放之前的准备工作（读取配置、解码头像、生成子动画图片、编译时间轴）可以用prepareAnimation()在后台线程中完成，
+ * 头像由BQLAvatarProvider按动画中头像框的尺寸加载并缓存，没有指定头像时使用Demo自带的头像，
+ * 准备好之后用startAnimation()立即开始播放，不会阻塞UI线程
+ * 和GLSurfaceView一样，所在的Activity需要在onPause()和onResume()中调用本控件的同名方法，Activity在后台时所有层暂停，不占用CPU
  * Created by fantasy on 16/9/6.
  */
-public class BQLAnimationView extends View {
-    private boolean mFullScreen;
-    private Paint mFramePaint = new Paint();
-    private Paint mFrameAlphaPaint = new Paint();
-    private Paint mHostAvatarPaint = new Paint();
-    private Paint mSenderAvatarPaint = new Paint();
-    private Paint mHostAvatarBorderPaint = new Paint();
-    private Paint mSenderAvatarBorderPaint = new Paint();
-    private BQLAnimationContext mAnimationContext;
-    private Bitmap mBitmap;
-    private int mHostAvatarAlpha;
-    private int mSenderAvatarAlpha;
-    private Matrix mHostNickNameMatrix;
-    private int mHostNickNameAlpha;
-    private Matrix mSenderNickNameMatrix;
-    private int mSenderNickNameAlpha;
-    private float mHostNickNameHeight;
-    private float mSenderNickNameHeight;
+public class BQLAnimationView extends FrameLayout implements BQLLayerCompositor.Callback {
+    public static final int RENDER_MODE_VIEW = 0, RENDER_MODE_TEXTURE_VIEW = 1, RENDER_MODE_SURFACE_VIEW = 2;
+    private static final long AVATAR_TIMEOUT = 2000;//准备动画时最多等待头像加载的毫秒数，超时的动画使用自带的头像，不耽误礼物的播放
+    private static final HandlerThread prepareThread = new HandlerThread("BQLive_Animation_Prepare");
+    private static Handler prepareHandler;
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final BQLLayerCompositor mCompositor = new BQLLayerCompositor(this);
+    private int mRenderMode = RENDER_MODE_VIEW;
+    private int mCompositeMode = BQLFrameCompositor.COMPOSITE_KERNEL;
+    private View mRenderView;//TextureView或SurfaceView，View模式下为null
+    private BQLRenderThread mRenderThread;
+    private final Object mAvatarLock = new Object();
     private Bitmap mHostAvatar;
     private Bitmap mSenderAvatar;
-    private BQLive.SpriteConfig mHostAvatarConfig;
-    private BQLive.SpriteConfig mSenderAvatarConfig;
-    private TextPaint mSenderTextPaint = new TextPaint();
-    private TextPaint mSenderStrokeTextPaint = new TextPaint();
-    private TextPaint mHostTextPaint = new TextPaint();
-    private TextPaint mHostStrokeTextPaint = new TextPaint();
-    private String mHostNickName;
-    private String mSenderNickName;
+    private volatile BQLAvatarProvider mAvatarProvider;
+    private volatile String mHostId;
+    private volatile String mHostAvatarUri;
+    private final List<BQLPreparedAnimation> mPendingPrepares = new ArrayList<>();//还没有准备完成的动画，控件离开窗口时全部取消
     private OnCompletionListener mOnCompletionListener;
-    private String[] mSubAnimationNames;
-    private Map<String, Bitmap> mSubAnimationSprites = new HashMap<>();
-    private Map<String, Matrix> mSubAnimationMatrices = new HashMap<>();
-    private Map<String, Paint> mSubAnimationPaints = new HashMap<>();
-    private Matrix mHostAvatarOuterMatrix;
-    private Matrix mHostAvatarInnerMatrix;
-    private RectF mHostAvatarBorderRect;
-    private RectF mHostAvatarRect;
-    private Matrix mSenderAvatarOuterMatrix;
-    private Matrix mSenderAvatarInnerMatrix;
-    private RectF mSenderAvatarBorderRect;
-    private RectF mSenderAvatarRect;
+    private volatile OnMetricsListener mOnMetricsListener;
+    private boolean mPaused = false;
 
     public BQLAnimationView(Context context) {
         super(context);
@@ -91,384 +79,580 @@ public class BQLAnimationView extends View {
         init();
     }
 
+    private void init() {
+        setWillNotDraw(false);//View模式下需要onDraw
+    }
+
+    public void setOnCompletionListener(OnCompletionListener onCompletionListener) {
+        mOnCompletionListener = onCompletionListener;
+    }
+
+    public void setOnMetricsListener(OnMetricsListener onMetricsListener) {
+        mOnMetricsListener = onMetricsListener;
+    }
+
     /**
-     * 绘制一张图片
+     * 设置头像加载服务，默认为BQLAvatarProvider.getDefault()
+     */
+    public void setAvatarProvider(BQLAvatarProvider avatarProvider) {
+        mAvatarProvider = avatarProvider;
+    }
+
+    private BQLAvatarProvider getAvatarProvider() {
+        BQLAvatarProvider avatarProvider = mAvatarProvider;
+        if (avatarProvider == null) {
+            avatarProvider = BQLAvatarProvider.getDefault(getContext());
+            mAvatarProvider = avatarProvider;
+        }
+        return avatarProvider;
+    }
+
+    /**
+     * 设置主播头像，对之后准备的动画生效
+     *
+     * @param hostId        主播的用户id
+     * @param hostAvatarUri 头像的网址或本地文件路径，为null时使用Demo自带的头像
+     */
+    public void setHostAvatar(String hostId, String hostAvatarUri) {
+        mHostId = hostId;
+        mHostAvatarUri = hostAvatarUri;
+    }
+
+    /**
+     * 切换绘制模式，必须在UI线程中调用。系统版本不支持时退回View模式
      *
-     * @param canvas 目标画布
-     * @param bitmap 待绘制的图片
-     * @param matrix 图片需要做的变换
-     * @param alpha  绘制的透明度
-     * @param paint  绘制用的Paint
+     * @param renderMode RENDER_MODE_VIEW、RENDER_MODE_TEXTURE_VIEW或RENDER_MODE_SURFACE_VIEW
      */
-    private static void drawBitmap(Canvas canvas, Bitmap bitmap, @Nullable Matrix matrix, int alpha, @Nullable Paint paint) {
-        if (matrix != null && paint != null) {
-            int saveCount = canvas.getSaveCount();
-            canvas.save();
-            canvas.concat(matrix);
-            paint.setAlpha(alpha);
-            canvas.drawBitmap(bitmap, 0, 0, paint);
-            canvas.restoreToCount(saveCount);
+    public void setRenderMode(int renderMode) {
+        if (renderMode == RENDER_MODE_TEXTURE_VIEW && Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            renderMode = RENDER_MODE_VIEW;
+        }
+        if (renderMode == mRenderMode) return;
+        stopRenderThread();
+        if (mRenderView != null) {
+            removeView(mRenderView);
+            mRenderView = null;
         }
+        mRenderMode = renderMode;
+        if (renderMode == RENDER_MODE_TEXTURE_VIEW) {
+            mRenderView = createTextureView();
+        } else if (renderMode == RENDER_MODE_SURFACE_VIEW) {
+            mRenderView = createSurfaceView();
+        }
+        if (mRenderView != null) {
+            addView(mRenderView, new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT));
+            startRenderThread();
+        }
+        invalidate();
+    }
+
+    public int getRenderMode() {
+        return mRenderMode;
     }
 
     /**
-     * 绘制一段文字
+     * 选择主图两个通道的合成方式，对之后播放的动画生效
+     * 默认在解码线程中预先合成；COMPOSITE_ON_DRAW在绘制时才用遮罩合成，不再分配和写入合成结果，可以用来和预先合成的方式做对比
      *
-     * @param canvas      目标画布
-     * @param text        待绘制的文字
-     * @param matrix      文字需要做的变换
-     * @param alpha       绘制的透明度
-     * @param height      文字高度
-     * @param paint       绘制文字用的Paint
-     * @param strokePaint 绘制文字描边用的Paint
+     * @param compositeMode BQLFrameCompositor.COMPOSITE_CANVAS、BQLFrameCompositor.COMPOSITE_KERNEL或BQLFrameCompositor.COMPOSITE_ON_DRAW
      */
-    private static void drawText(Canvas canvas, String text, @Nullable Matrix matrix, int alpha, float height, Paint paint, Paint strokePaint) {
-        if (matrix != null) {
-            int saveCount = canvas.getSaveCount();
-            canvas.save();
-            canvas.concat(matrix);
-            strokePaint.setAlpha(alpha);
-            canvas.drawText(text, 0, (height - strokePaint.descent() - strokePaint.ascent()) / 2f, strokePaint);
-            paint.setAlpha(alpha);
-            canvas.drawText(text, 0, (height - paint.descent() - paint.ascent()) / 2f, paint);
-            canvas.restoreToCount(saveCount);
-        }
-    }
-
-    private static void drawAvatar(Canvas canvas, int alpha, int borderWidth, int cornerRadius, Matrix outerMatrix, Matrix innerMatrix, RectF borderRect, RectF rect, Paint borderPaint, Paint paint) {
-        if (outerMatrix == null || innerMatrix == null || borderRect == null || paint == null)
-            return;
-        int saveCount = canvas.getSaveCount();
-        canvas.save();
-        canvas.concat(outerMatrix);
-        //先画边框
-        borderPaint.setAlpha(alpha);
-        float borderCornerRadius = cornerRadius > 0 ? cornerRadius + borderWidth / 2f : 0;
-        canvas.drawRoundRect(borderRect, borderCornerRadius, borderCornerRadius, borderPaint);
-        //再画图片
-        paint.setAlpha(alpha);
-        paint.getShader().setLocalMatrix(innerMatrix);
-        canvas.drawRoundRect(rect, cornerRadius, cornerRadius, paint);
-        canvas.restoreToCount(saveCount);
+    public void setCompositeMode(int compositeMode) {
+        mCompositeMode = compositeMode;
     }
 
-    private void init() {
-        mHostAvatarPaint.setAntiAlias(true);
-        mHostAvatarBorderPaint.setAntiAlias(true);
-        mHostAvatarBorderPaint.setStyle(Paint.Style.STROKE);
-        mSenderAvatarPaint.setAntiAlias(true);
-        mSenderAvatarBorderPaint.setAntiAlias(true);
-        mSenderAvatarBorderPaint.setStyle(Paint.Style.STROKE);
-        mHostTextPaint.setTypeface(Typeface.DEFAULT);
-        mHostTextPaint.setFlags(Paint.ANTI_ALIAS_FLAG);
-        mHostTextPaint.setAntiAlias(true);
-        mHostTextPaint.setTextAlign(Paint.Align.LEFT);
-        mHostTextPaint.setTextSize(25);
-        mSenderTextPaint.setTypeface(Typeface.DEFAULT);
-        mSenderTextPaint.setFlags(Paint.ANTI_ALIAS_FLAG);
-        mSenderTextPaint.setAntiAlias(true);
-        mSenderTextPaint.setTextAlign(Paint.Align.LEFT);
-        mSenderTextPaint.setTextSize(25);
-        mHostStrokeTextPaint.setStyle(Paint.Style.STROKE);
-        mHostStrokeTextPaint.setAntiAlias(true);
-        mHostStrokeTextPaint.setTextSize(25);
-        mHostStrokeTextPaint.setTextAlign(Paint.Align.LEFT);
-        mSenderStrokeTextPaint.setStyle(Paint.Style.STROKE);
-        mSenderStrokeTextPaint.setAntiAlias(true);
-        mSenderStrokeTextPaint.setTextSize(25);
-        mSenderStrokeTextPaint.setTextAlign(Paint.Align.LEFT);
+    public int getCompositeMode() {
+        return mCompositeMode;
     }
 
-    public void setOnCompletionListener(OnCompletionListener onCompletionListener) {
-        mOnCompletionListener = onCompletionListener;
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private View createTextureView() {
+        final TextureView textureView = new TextureView(getContext());
+        textureView.setOpaque(false);
+        textureView.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
+            private TextureTarget mTarget;
+
+            @Override
+            public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
+                mTarget = new TextureTarget(textureView, surface);
+                if (mRenderThread != null) mRenderThread.setTarget(mTarget, width, height);
+            }
+
+            @Override
+            public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
+                if (mRenderThread != null) mRenderThread.setTarget(mTarget, width, height);
+            }
+
+            @Override
+            public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+                if (mRenderThread != null) mRenderThread.setTarget(null, 0, 0);
+                if (mTarget != null) {
+                    mTarget.release();
+                    mTarget = null;
+                }
+                return true;
+            }
+
+            @Override
+            public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+            }
+        });
+        return textureView;
+    }
+
+    private View createSurfaceView() {
+        SurfaceView surfaceView = new SurfaceView(getContext());
+        surfaceView.setZOrderMediaOverlay(true);//叠加在摄像头预览之上
+        final SurfaceHolder holder = surfaceView.getHolder();
+        holder.setFormat(PixelFormat.TRANSLUCENT);
+        holder.addCallback(new SurfaceHolder.Callback() {
+            private final SurfaceTarget mTarget = new SurfaceTarget(holder);
+
+            @Override
+            public void surfaceCreated(SurfaceHolder holder) {
+            }
+
+            @Override
+            public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+                if (mRenderThread != null) mRenderThread.setTarget(mTarget, width, height);
+            }
+
+            @Override
+            public void surfaceDestroyed(SurfaceHolder holder) {
+                if (mRenderThread != null) mRenderThread.setTarget(null, 0, 0);
+            }
+        });
+        return surfaceView;
+    }
+
+    private void startRenderThread() {
+        if (mRenderThread == null && mRenderView != null) {
+            mRenderThread = new BQLRenderThread(mCompositor);
+            mRenderThread.startRendering();
+        }
+    }
+
+    private void stopRenderThread() {
+        if (mRenderThread != null) {
+            mRenderThread.quitRendering();
+            mRenderThread = null;
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        startRenderThread();//Surface会在附加到窗口之后重新创建，届时渲染线程会拿到新的绘制目标
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        stopRenderThread();
+        cancelPendingPrepares();
+        super.onDetachedFromWindow();
     }
 
     /**
-     * 播放动画
-     * 播放动画的准备工作包括用BQLive的方法获得动画配置文件、设置好播放过程中需要用到的变量以及生成好需要绘制的Bitmap
+     * 播放动画，zOrder为0
+     *
+     * @see #playAnimation(String, String, String, boolean, int)
+     */
+    public BQLAnimationLayer playAnimation(String animationDirectory, String hostNickname, String senderNickname, boolean fullScreen) {
+        return playAnimation(animationDirectory, hostNickname, senderNickname, fullScreen, 0);
+    }
+
+    /**
+     * 在后台线程中准备一个动画，准备完成后在主线程中回调
+     * 准备工作包括获得动画配置、解码头像、生成昵称和子动画图片以及编译时间轴，完成后得到的层可以用startAnimation()立即开始播放。
+     * 准备按提交顺序依次进行，被取消的准备会尽早停止。每次准备最终都会收到且只收到PrepareCallback中的一个回调
      *
      * @param animationDirectory 动画在文件系统中的路径
      * @param hostNickname       主播昵称
      * @param senderNickname     送礼者昵称
      * @param fullScreen         是否全屏
+     * @param zOrder             绘制顺序，数值大的层画在上面
+     * @param callback           准备完成、失败或被取消时在主线程中回调，可以为null
+     * @return 准备中的动画，可以用它取消准备或者在准备好之后开始播放
      */
-    public void playAnimation(String animationDirectory, String hostNickname, String senderNickname, boolean fullScreen) {
-        mFullScreen = fullScreen;
-        BQLive.AnimationConfig config = null;
-        try {
-            config = BQLive.generateConfig(animationDirectory);//生成配置文件
-        } catch (JSONException | IOException e) {
-            e.printStackTrace();
+    public BQLPreparedAnimation prepareAnimation(String animationDirectory, String hostNickname, String senderNickname, boolean fullScreen, int zOrder, PrepareCallback callback) {
+        return prepareAnimation(animationDirectory, hostNickname, senderNickname, null, null, fullScreen, zOrder, callback);
+    }
+
+    /**
+     * 在后台线程中准备一个动画，送礼者头像由BQLAvatarProvider加载，同一个送礼者的头像只解码一次
+     *
+     * @param senderId        送礼者的用户id
+     * @param senderAvatarUri 送礼者头像的网址或本地文件路径，为null时使用Demo自带的头像
+     * @see #prepareAnimation(String, String, String, boolean, int, PrepareCallback)
+     */
+    public BQLPreparedAnimation prepareAnimation(final String animationDirectory, final String hostNickname, final String senderNickname, final String senderId, final String senderAvatarUri,
+                                                 final boolean fullScreen, final int zOrder, final PrepareCallback callback) {
+        final BQLPreparedAnimation prepared = new BQLPreparedAnimation(animationDirectory);
+        final int compositeMode = mCompositeMode;
+        synchronized (mPendingPrepares) {
+            mPendingPrepares.add(prepared);
         }
-        if (config == null) {
-            return;
-        }
-        mHostNickName = hostNickname;
-        mSenderNickName = senderNickname;
-        BQLive.NicknameConfig hostNickNameConfig = config.getHostNickNameConfig();
-        BQLive.NicknameConfig senderNickNameConfig = config.getSenderNickNameConfig();
-        mHostAvatarConfig = config.getHostAvatarConfig();
-        mSenderAvatarConfig = config.getSenderAvatarConfig();
-
-        if (mHostAvatarConfig != null) {
-            mHostAvatar = BitmapFactory.decodeResource(getResources(), R.drawable.host_avatar);
-            BitmapShader shader = new BitmapShader(mHostAvatar, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
-            mHostAvatarPaint.setShader(shader);
-            mHostAvatarBorderPaint.setStrokeWidth(mHostAvatarConfig.getBorderWidth() * 1.1f);//将边框稍微加粗一点，以避免边框和头像之间出现缝隙
-            if (!TextUtils.isEmpty(mHostAvatarConfig.getBorderColor())) {
-                int borderColor = Color.parseColor("#" + mHostAvatarConfig.getBorderColor());
-                mHostAvatarBorderPaint.setColor(borderColor);
-            }
-            if (!TextUtils.isEmpty(mHostAvatarConfig.getShadowColor())) {
-                int shadowColor = Color.parseColor("#" + mHostAvatarConfig.getShadowColor());
-                if (Color.alpha(shadowColor) != 0) {
-                    mHostAvatarBorderPaint.setShadowLayer(mHostAvatarConfig.getShadowBlur(), mHostAvatarConfig.getShadowX(), mHostAvatarConfig.getShadowY(), shadowColor);
+        getPrepareHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                BQLAnimationLayer layer = null;
+                if (!prepared.isCancelled()) {
+                    layer = createLayer(animationDirectory, hostNickname, senderNickname, senderId, senderAvatarUri, fullScreen, zOrder, prepared);
                 }
-            }
-        }
-        if (mSenderAvatarConfig != null) {
-            mSenderAvatar = BitmapFactory.decodeResource(getResources(), R.drawable.sender_avatar);
-            BitmapShader shader = new BitmapShader(mSenderAvatar, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
-            mSenderAvatarPaint.setShader(shader);
-            mSenderAvatarBorderPaint.setStrokeWidth(mSenderAvatarConfig.getBorderWidth() * 1.1f);
-            if (!TextUtils.isEmpty(mSenderAvatarConfig.getBorderColor())) {
-                int borderColor = Color.parseColor("#" + mSenderAvatarConfig.getBorderColor());
-                mSenderAvatarBorderPaint.setColor(borderColor);
-            }
-            if (!TextUtils.isEmpty(mSenderAvatarConfig.getShadowColor())) {
-                int shadowColor = Color.parseColor("#" + mSenderAvatarConfig.getShadowColor());
-                if (Color.alpha(shadowColor) != 0) {
-                    mSenderAvatarBorderPaint.setShadowLayer(mSenderAvatarConfig.getShadowBlur(), mSenderAvatarConfig.getShadowX(), mSenderAvatarConfig.getShadowY(), shadowColor);
+                if (layer != null) {
+                    layer.setCompositeMode(compositeMode);
+                    prepared.setLayer(layer);
                 }
+                final BQLAnimationLayer preparedLayer = layer;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (mPendingPrepares) {
+                            mPendingPrepares.remove(prepared);
+                        }
+                        if (prepared.isCancelled()) {
+                            if (preparedLayer != null) preparedLayer.discard();
+                            if (callback != null) callback.onPrepareCancelled(prepared);
+                            return;
+                        }
+                        if (preparedLayer == null) {
+                            if (callback != null) callback.onPrepareFailed(prepared);
+                            return;
+                        }
+                        OnMetricsListener metricsListener = mOnMetricsListener;
+                        if (metricsListener != null) {
+                            metricsListener.onAnimationPrepared(prepared, prepared.getPrepareMillis());
+                        }
+                        if (callback != null) callback.onPrepared(prepared);
+                    }
+                });
             }
+        });
+        return prepared;
+    }
+
+    private static synchronized Handler getPrepareHandler() {
+        if (prepareHandler == null) {
+            prepareThread.start();
+            prepareHandler = new Handler(prepareThread.getLooper());
         }
+        return prepareHandler;
+    }
 
-        if (senderNickNameConfig != null) {
-            mSenderTextPaint.setColor(Color.parseColor("#" + senderNickNameConfig.getColor()));
-            if (!TextUtils.isEmpty(senderNickNameConfig.getShadowColor())) {
-                int shadowColor = Color.parseColor("#" + senderNickNameConfig.getShadowColor());
-                if (Color.alpha(shadowColor) != 0) {
-                    mSenderStrokeTextPaint.setShadowLayer(senderNickNameConfig.getShadowBlur(), senderNickNameConfig.getShadowX(), senderNickNameConfig.getShadowY(), shadowColor);
-                }
-            }
+    /**
+     * 开始播放一个已经准备好的动画，新的层会和已经在播放的层一起绘制
+     *
+     * @param prepared prepareAnimation()返回的句柄
+     * @return 开始播放的层。还没有准备好、已经取消或者已经开始过时返回null，这种情况下不会收到OnCompletionListener的回调
+     */
+    public BQLAnimationLayer startAnimation(BQLPreparedAnimation prepared) {
+        if (!prepared.markStarted()) return null;
+        BQLAnimationLayer layer = prepared.getLayer();
+        addAndStart(layer);
+        return layer;
+    }
 
-            if (!TextUtils.isEmpty(senderNickNameConfig.getBorderColor())) {
-                mSenderStrokeTextPaint.setColor(Color.parseColor("#" + senderNickNameConfig.getBorderColor()));
-                mSenderStrokeTextPaint.setStrokeWidth(senderNickNameConfig.getBorderWidth());
-            }
+    /**
+     * 加入并开始播放一个层。控件处于暂停状态时，层在显示第一帧之前就会暂停，等到onResume()时再继续
+     */
+    private void addAndStart(BQLAnimationLayer layer) {
+        mCompositor.addLayer(layer);
+        layer.start(mCompositor.getDecodeBudget(), getWidth(), getHeight());
+        if (mPaused) {
+            layer.pause();
         }
+    }
 
+    /**
+     * 暂停所有正在播放的层，撤销它们还没有显示的帧并释放缓冲的主图。在Activity的onPause()中调用，必须在UI线程中调用
+     */
+    public void onPause() {
+        if (mPaused) return;
+        mPaused = true;
+        for (BQLAnimationLayer layer : mCompositor.getLayers()) {
+            layer.pause();
+        }
+    }
 
-        if (hostNickNameConfig != null) {
-            mHostTextPaint.setColor(Color.parseColor("#" + hostNickNameConfig.getColor()));
-            if (!TextUtils.isEmpty(hostNickNameConfig.getShadowColor())) {
-                int shadowColor = Color.parseColor("#" + hostNickNameConfig.getShadowColor());
-                if (Color.alpha(shadowColor) != 0) {
-                    mHostStrokeTextPaint.setShadowLayer(hostNickNameConfig.getShadowBlur(), hostNickNameConfig.getShadowX(), hostNickNameConfig.getShadowY(), shadowColor);
-                }
-            }
+    /**
+     * 继续播放所有暂停的层。在Activity的onResume()中调用，必须在UI线程中调用
+     */
+    public void onResume() {
+        if (!mPaused) return;
+        mPaused = false;
+        for (BQLAnimationLayer layer : mCompositor.getLayers()) {
+            layer.resume();
+        }
+    }
 
-            if (!TextUtils.isEmpty(hostNickNameConfig.getBorderColor())) {
-                mHostStrokeTextPaint.setColor(Color.parseColor("#" + hostNickNameConfig.getBorderColor()));
-                mHostStrokeTextPaint.setStrokeWidth(hostNickNameConfig.getBorderWidth());
-            }
+    /**
+     * 停止所有正在播放的层并释放它们的资源，每个层都会收到OnCompletionListener的回调。在Activity的onDestroy()中调用
+     */
+    public void stopAnimations() {
+        cancelPendingPrepares();
+        for (BQLAnimationLayer layer : mCompositor.getLayers()) {
+            layer.stop();
         }
-        this.mAnimationContext = new BQLAnimationContext(config.getHostAvatarAnimationFrames(), config.getSenderAvatarAnimationFrames(), mHostAvatarConfig, mSenderAvatarConfig, config.getHostNickName(), config.getSenderNickName(), mHostAvatar, mSenderAvatar, mHostTextPaint, mSenderTextPaint, mHostNickName, mSenderNickName, hostNickNameConfig, senderNickNameConfig);
-
-        Map<String, BQLive.SubAnimationConfig> subAnimations = config.getSubAnimations();
-        if (subAnimations != null) {
-            mSubAnimationNames = new String[subAnimations.keySet().size()];
-            int i = 0;
-            for (String name : subAnimations.keySet()) {
-                mSubAnimationNames[i++] = name;
-                Bitmap sprite = createSpriteBitmap(BitmapFactory.decodeFile(animationDirectory + File.separator + name), subAnimations.get(name).getConfig());
-                mSubAnimationSprites.put(name, sprite);
-                Paint paint = new Paint();
-                BQLive.SpriteConfig spriteConfig = subAnimations.get(name).getConfig();
-                if (!TextUtils.isEmpty(spriteConfig.getShadowColor())) {
-                    int shadowColor = Color.parseColor("#" + spriteConfig.getShadowColor());
-                    if (Color.alpha(shadowColor) != 0) {
-                        paint.setShadowLayer(spriteConfig.getShadowBlur(), spriteConfig.getShadowX(), spriteConfig.getShadowY(), shadowColor);
-                    }
-                }
-                mSubAnimationPaints.put(name, paint);
-                mAnimationContext.addSubAnimation(name, sprite, subAnimations.get(name));
+    }
+
+    /**
+     * 取消所有还没有准备完成的动画，它们随后在主线程中收到PrepareCallback.onPrepareCancelled()
+     */
+    public void cancelPendingPrepares() {
+        synchronized (mPendingPrepares) {
+            for (BQLPreparedAnimation prepared : mPendingPrepares) {
+                prepared.cancel();
             }
+            mPendingPrepares.clear();
         }
+    }
 
-        /**
-         * 生成主图列表
-         */
-        String[] colorFiles = new String[config.getFrame()];
-        String[] alphaFiles = new String[config.getFrame()];
-        for (int i = 0; i < config.getFrame(); ++i) {
-            colorFiles[i] = animationDirectory + File.separator + String.valueOf(i) + "-a.jpg";
-            alphaFiles[i] = animationDirectory + File.separator + String.valueOf(i) + "-b.jpg";
+    /**
+     * 播放动画
+     * 播放动画的准备工作包括用BQLive的方法获得动画配置文件，再用它生成一个新的动画层。新的层会和已经在播放的层一起绘制
+     * 准备工作在调用者的线程中同步完成，较复杂的动画会阻塞UI线程，这种情况下应该使用prepareAnimation()
+     *
+     * @param animationDirectory 动画在文件系统中的路径
+     * @param hostNickname       主播昵称
+     * @param senderNickname     送礼者昵称
+     * @param fullScreen         是否全屏
+     * @param zOrder             绘制顺序，数值大的层画在上面
+     * @return 新的动画层。配置文件读取失败时返回null，这种情况下不会收到OnCompletionListener的回调
+     */
+    public BQLAnimationLayer playAnimation(String animationDirectory, String hostNickname, String senderNickname, boolean fullScreen, int zOrder) {
+        BQLAnimationLayer layer = createLayer(animationDirectory, hostNickname, senderNickname, null, null, fullScreen, zOrder, null);
+        if (layer == null) {
+            return null;
         }
-        new BQLPngSequencePlayer(colorFiles, alphaFiles, config.getFrameIndices(), this, config.getType() == 0 ? 1000 / config.getFps() : 10000).start();
+        layer.setCompositeMode(mCompositeMode);
+        addAndStart(layer);
+        return layer;
     }
 
     /**
-     * 根据原图生成带描边的圆角图片
+     * 读取配置并生成一个新的动画层，可以在任意线程调用
+     *
+     * @param prepared 异步准备时的句柄，用于在较慢的步骤之间检查是否已经取消；同步播放时为null
+     * @return 配置文件读取失败或者已经取消时返回null
      */
-    private Bitmap createSpriteBitmap(Bitmap source, BQLive.SpriteConfig config) {
-        float targetWidth = config.getWidth(), targetHeight = config.getHeight();
-        float scale = 1 / scaleToFill(source.getWidth(), source.getHeight(), targetWidth, targetHeight);
-        float borderWidth = config.getBorderWidth() * scale;
-        float borderRadius = config.getCornerRadius() * scale;
-        Paint borderPaint = new Paint();
-        borderPaint.setColor(Color.parseColor("#" + config.getBorderColor()));
-        borderPaint.setStrokeWidth(borderWidth);//设置笔触宽度
-        Paint paint = new Paint();
-        paint.setAntiAlias(true);
-        int bitmapWidth = (int) (targetWidth * scale + borderWidth * 2);
-        int bitmapHeight = (int) (targetHeight * scale + borderWidth * 2);
-        Bitmap target = Bitmap.createBitmap(bitmapWidth, bitmapHeight, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(target);
-
-        RectF rect = new RectF(borderWidth, borderWidth, bitmapWidth - borderWidth, bitmapHeight - borderWidth);
-        canvas.drawRoundRect(rect, borderRadius, borderRadius, paint);
-        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
-        canvas.drawBitmap(source, borderWidth - (source.getWidth() - targetWidth * scale) / 2, borderWidth - (source.getHeight() - targetWidth * scale) / 2, paint);
-
-        float borderHalfWidth = borderWidth / 2;
-        RectF rectF = new RectF(borderHalfWidth, borderHalfWidth, bitmapWidth - borderHalfWidth, bitmapHeight - borderHalfWidth);
-        canvas.drawRoundRect(rectF, borderRadius + borderHalfWidth, borderRadius + borderHalfWidth, borderPaint);
-        return target;
-    }
-
-    public BQLAnimationContext getAnimationContext() {
-        return mAnimationContext;
+    private BQLAnimationLayer createLayer(String animationDirectory, String hostNickname, String senderNickname, String senderId, String senderAvatarUri,
+                                          boolean fullScreen, int zOrder, BQLPreparedAnimation prepared) {
+        BQLAnimationSpec config = null;
+        try {
+            config = BQLAnimationSpecCache.getDefault().get(animationDirectory);//生成配置文件，预热过的礼物直接从缓存中取用
+        } catch (JSONException | IOException e) {
+            e.printStackTrace();
+        }
+        if (config == null || (prepared != null && prepared.isCancelled())) {
+            return null;
+        }
+        //指定了头像时由BQLAvatarProvider按头像框的尺寸加载，异步准备时可以等待下载和解码，同步播放时只用内存中已有的
+        boolean blocking = prepared != null;
+        Bitmap hostAvatar = null, senderAvatar = null;
+        String hostId = mHostId, hostAvatarUri = mHostAvatarUri;
+        if (config.getHostAvatarConfig() != null && hostAvatarUri != null) {
+            hostAvatar = loadAvatar(config.getHostAvatarAnimationFrames(), hostId, hostAvatarUri, blocking);
+        }
+        if (config.getSenderAvatarConfig() != null && senderAvatarUri != null) {
+            senderAvatar = loadAvatar(config.getSenderAvatarAnimationFrames(), senderId, senderAvatarUri, blocking);
+        }
+        //没有指定或者加载失败时使用自带的头像，它们在所有层之间共用
+        synchronized (mAvatarLock) {
+            if (config.getHostAvatarConfig() != null && hostAvatar == null) {
+                if (mHostAvatar == null) {
+                    mHostAvatar = BitmapFactory.decodeResource(getResources(), R.drawable.host_avatar);
+                }
+                hostAvatar = mHostAvatar;
+            }
+            if (config.getSenderAvatarConfig() != null && senderAvatar == null) {
+                if (mSenderAvatar == null) {
+                    mSenderAvatar = BitmapFactory.decodeResource(getResources(), R.drawable.sender_avatar);
+                }
+                senderAvatar = mSenderAvatar;
+            }
+        }
+        if (prepared != null && prepared.isCancelled()) {
+            return null;
+        }
+        return new BQLAnimationLayer(mCompositor, config, animationDirectory, hostNickname, senderNickname, hostAvatar, senderAvatar, fullScreen, zOrder);
     }
 
     /**
-     * 给BQLPngSequencePlayer调用的函数，设置待显示的数据
+     * 按头像在动画中的最大尺寸加载头像
+     *
+     * @param blocking 是否等待加载完成。不等待时只查内存缓存，没有命中则在后台开始加载，供之后的动画使用
+     * @return 没有加载好时返回null
      */
-    public void setFrame(Bitmap bitmap, Matrix hostAvatarOuterMatrix, Matrix hostAvatarInnerMatrix, RectF hostAvatarBorderRect, RectF hostAvatarRect, Matrix senderAvatarOuterMatrix, Matrix senderAvatarInnerMatrix, RectF senderAvatarBorderRect, RectF senderAvatarRect, int hostAvatarAlpha, int senderAvatarAlpha, Matrix hostNickNameMatrix, int hostNickNameAlpha, Matrix senderNickNameMatrix, int senderNickNameAlpha, float hostNickNameHeight, float senderNickNameHeight, Map<String, Matrix> matrices) {
-        mBitmap = bitmap;
-        mHostAvatarOuterMatrix = hostAvatarOuterMatrix;
-        mHostAvatarInnerMatrix = hostAvatarInnerMatrix;
-        mHostAvatarBorderRect = hostAvatarBorderRect;
-        mHostAvatarRect = hostAvatarRect;
-        mHostAvatarAlpha = hostAvatarAlpha;
-        mSenderAvatarOuterMatrix = senderAvatarOuterMatrix;
-        mSenderAvatarInnerMatrix = senderAvatarInnerMatrix;
-        mSenderAvatarBorderRect = senderAvatarBorderRect;
-        mSenderAvatarRect = senderAvatarRect;
-        mSenderAvatarAlpha = senderAvatarAlpha;
-        mHostNickNameMatrix = hostNickNameMatrix;
-        mHostNickNameAlpha = hostNickNameAlpha;
-        mSenderNickNameMatrix = senderNickNameMatrix;
-        mSenderNickNameAlpha = senderNickNameAlpha;
-        mHostNickNameHeight = hostNickNameHeight;
-        mSenderNickNameHeight = senderNickNameHeight;
-        mSubAnimationMatrices = matrices;
-        postInvalidate();
+    private Bitmap loadAvatar(BQLAnimationSpec.Track track, String userId, String uri, boolean blocking) {
+        if (track == null) return null;
+        int[] size = BQLAvatarProvider.measure(track);
+        if (size[0] == 0 || size[1] == 0) return null;
+        String key = userId != null ? userId : uri;
+        BQLAvatarProvider avatarProvider = getAvatarProvider();
+        if (blocking) {
+            return avatarProvider.get(key, uri, size[0], size[1], AVATAR_TIMEOUT);
+        }
+        Bitmap avatar = avatarProvider.peek(key, uri, size[0], size[1]);
+        if (avatar == null) {
+            avatarProvider.load(key, uri, size[0], size[1], null);
+        }
+        return avatar;
     }
 
     /**
-     * 结束播放，数据归零
+     * @return 正在播放的层的数量
      */
-    public void endAnimation() {
-        mBitmap = null;
-        mHostAvatarAlpha = 0;
-        mSenderAvatarAlpha = 0;
-        mHostAvatarOuterMatrix = null;
-        mHostAvatarInnerMatrix = null;
-        mHostAvatarRect = null;
-        mHostAvatarBorderRect = null;
-        mSenderAvatarOuterMatrix = null;
-        mSenderAvatarInnerMatrix = null;
-        mSenderAvatarRect = null;
-        mSenderAvatarBorderRect = null;
-        mHostNickNameMatrix = null;
-        mHostNickNameAlpha = 0;
-        mSenderNickNameMatrix = null;
-        mSenderNickNameAlpha = 0;
-        mHostNickNameHeight = 0;
-        mSenderNickNameHeight = 0;
-        mSubAnimationNames = null;
-        mSubAnimationSprites.clear();
-        mSubAnimationMatrices.clear();
-        mSubAnimationPaints.clear();
-        mHostAvatarBorderPaint.setColor(0);
-        mHostAvatarBorderPaint.setStrokeWidth(0);
-        mHostAvatarBorderPaint.clearShadowLayer();
-        mSenderAvatarBorderPaint.setColor(0);
-        mSenderAvatarBorderPaint.setStrokeWidth(0);
-        mSenderAvatarBorderPaint.clearShadowLayer();
-        mHostTextPaint.setColor(0);
-        mHostStrokeTextPaint.setColor(0);
-        mHostStrokeTextPaint.setStrokeWidth(0);
-        mHostStrokeTextPaint.clearShadowLayer();
-        mSenderTextPaint.setColor(0);
-        mSenderStrokeTextPaint.setColor(0);
-        mSenderStrokeTextPaint.setStrokeWidth(0);
-        mSenderStrokeTextPaint.clearShadowLayer();
-        postInvalidate();
-        mOnCompletionListener.onCompletion();
+    public int getLayerCount() {
+        return mCompositor.getLayerCount();
+    }
+
+    @Override
+    public void onCompositionChanged(Rect dirty) {
+        BQLRenderThread renderThread = mRenderThread;
+        if (renderThread != null) {
+            renderThread.requestRender(dirty);
+        } else if (dirty == null) {
+            postInvalidate();
+        } else {
+            postInvalidate(dirty.left, dirty.top, dirty.right, dirty.bottom);//软件绘制时只重绘礼物变化的区域；硬件加速时整个控件重新录制
+        }
+    }
+
+    @Override
+    public void onLayerFirstFrame(BQLAnimationLayer layer) {
+        OnMetricsListener metricsListener = mOnMetricsListener;
+        if (metricsListener != null) {
+            metricsListener.onFirstFrame(layer, layer.getFirstFrameMillis());
+        }
+    }
+
+    @Override
+    public void onLayerEnd(BQLAnimationLayer layer) {
+        if (mOnCompletionListener != null) {
+            mOnCompletionListener.onCompletion();
+        }
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
-        if (mBitmap != null) {
-            int saveCount = canvas.getSaveCount();
-            canvas.save();
-
-            int drawableWidth = mBitmap.getWidth();
-            int drawableHeight = mBitmap.getHeight();
-            int viewWidth = canvas.getWidth();
-            int viewHeight = canvas.getHeight();
-            if (mFullScreen) {//如果这是一个全屏表情，就把canvas缩放到整个控件的大小
-                float scale = scaleToFill(drawableWidth, drawableHeight, viewWidth, viewHeight);
-                if (drawableHeight * scale > viewHeight) {//纵向对齐底边
-                    canvas.translate(0, viewHeight - drawableHeight * scale);
-                } else if (drawableWidth * scale > viewWidth) {//横向居中
-                    canvas.translate((viewWidth - drawableWidth * scale) / 2, 0);
-                }
-                canvas.scale(scale, scale);
-            } else {
-                canvas.translate((viewWidth - drawableWidth) / 2, (viewHeight - drawableHeight) / 2);
-            }
-            canvas.drawBitmap(mBitmap, 0, 0, mFramePaint);
+        if (mRenderMode == RENDER_MODE_VIEW) {
+            mCompositor.draw(canvas, canvas.getWidth(), canvas.getHeight());
+        }
+    }
 
-            //绘制头像、昵称及子图
-            if (mHostAvatarConfig != null) {
-                drawAvatar(canvas, mHostAvatarAlpha, mHostAvatarConfig.getBorderWidth(), mHostAvatarConfig.getCornerRadius(), mHostAvatarOuterMatrix, mHostAvatarInnerMatrix, mHostAvatarBorderRect, mHostAvatarRect, mHostAvatarBorderPaint, mHostAvatarPaint);
+    /**
+     * TextureView的绘制目标。API 23及以上通过Surface使用硬件加速的画布，它不保留上一帧的内容，每次都重绘整个画布；以下只锁定需要重绘的区域
+     */
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private static class TextureTarget implements BQLRenderThread.Target {
+        private final TextureView mTextureView;
+        private Surface mSurface;
+
+        TextureTarget(TextureView textureView, SurfaceTexture surfaceTexture) {
+            mTextureView = textureView;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                mSurface = new Surface(surfaceTexture);
             }
-            if (mSenderAvatarConfig != null) {
-                drawAvatar(canvas, mSenderAvatarAlpha, mSenderAvatarConfig.getBorderWidth(), mSenderAvatarConfig.getCornerRadius(), mSenderAvatarOuterMatrix, mSenderAvatarInnerMatrix, mSenderAvatarBorderRect, mSenderAvatarRect, mSenderAvatarBorderPaint, mSenderAvatarPaint);
+        }
+
+        @TargetApi(Build.VERSION_CODES.M)
+        @Override
+        public Canvas lockCanvas(Rect dirty) {
+            try {
+                return mSurface != null ? mSurface.lockHardwareCanvas() : (dirty != null ? mTextureView.lockCanvas(dirty) : mTextureView.lockCanvas());
+            } catch (RuntimeException e) {//Surface已经失效
+                e.printStackTrace();
+                return null;
             }
-            drawText(canvas, mHostNickName, mHostNickNameMatrix, mHostNickNameAlpha, mHostNickNameHeight, mHostTextPaint, mHostStrokeTextPaint);
-            drawText(canvas, mSenderNickName, mSenderNickNameMatrix, mSenderNickNameAlpha, mSenderNickNameHeight, mSenderTextPaint, mSenderStrokeTextPaint);
-            if (mSubAnimationNames != null) for (String name : mSubAnimationNames) {
-                drawBitmap(canvas, mSubAnimationSprites.get(name), mSubAnimationMatrices.get(name), 255, mSubAnimationPaints.get(name));
+        }
+
+        @Override
+        public void unlockCanvasAndPost(Canvas canvas) {
+            if (mSurface != null) {
+                mSurface.unlockCanvasAndPost(canvas);
+            } else {
+                mTextureView.unlockCanvasAndPost(canvas);
             }
+        }
 
-            canvas.restoreToCount(saveCount);
+        void release() {
+            if (mSurface != null) {
+                mSurface.release();
+                mSurface = null;
+            }
         }
     }
 
     /**
-     * 计算得到如果要将给定尺寸缩放到能够包含限定尺寸，且保持长宽比的话，最小的倍率是多少
-     *
-     * @param width       给定的宽度
-     * @param height      给定的高度
-     * @param limitWidth  限定宽度
-     * @param limitHeight 限定高度
-     * @return 倍率
+     * SurfaceView的绘制目标，使用软件画布，只锁定需要重绘的区域
      */
-    private float scaleToFill(float width, float height, float limitWidth, float limitHeight) {
-        int fittedHeight = (int) (limitWidth / width * height);
-        if (fittedHeight > limitHeight) {
-            return limitWidth / width;
-        } else {
-            return limitHeight / height;
+    private static class SurfaceTarget implements BQLRenderThread.Target {
+        private final SurfaceHolder mHolder;
+
+        SurfaceTarget(SurfaceHolder holder) {
+            mHolder = holder;
+        }
+
+        @Override
+        public Canvas lockCanvas(Rect dirty) {
+            try {
+                return mHolder.lockCanvas(dirty);
+            } catch (RuntimeException e) {//Surface已经失效
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        @Override
+        public void unlockCanvasAndPost(Canvas canvas) {
+            mHolder.unlockCanvasAndPost(canvas);
         }
     }
 
     public interface OnCompletionListener {
+        /**
+         * 一个动画层播放完毕，在播放线程中回调
+         */
         void onCompletion();
     }
 
+    /**
+     * 准备的结果。每次prepareAnimation()最终都会在主线程中收到且只收到以下一个回调，调用者可以依此释放为这次准备占用的资源
+     */
+    public interface PrepareCallback {
+        /**
+         * 动画已经准备好，可以用startAnimation()开始播放
+         */
+        void onPrepared(BQLPreparedAnimation prepared);
+
+        /**
+         * 准备失败，例如配置文件读取失败，动画无法播放
+         */
+        void onPrepareFailed(BQLPreparedAnimation prepared);
+
+        /**
+         * 准备被取消：BQLPreparedAnimation.cancel()、cancelPendingPrepares()、stopAnimations()或者控件离开窗口。
+         * 取消之后已经准备好的层会被丢弃，不能再开始播放
+         */
+        void onPrepareCancelled(BQLPreparedAnimation prepared);
+    }
+
+    /**
+     * 用于观察动画的启动耗时
+     */
+    public interface OnMetricsListener {
+        /**
+         * 一个动画准备完毕，在主线程中回调
+         *
+         * @param prepareMillis 从调用prepareAnimation()到准备完成经过的毫秒数
+         */
+        void onAnimationPrepared(BQLPreparedAnimation prepared, long prepareMillis);
+
+        /**
+         * 一个层的第一帧主图已经送达，在播放线程中回调
+         *
+         * @param firstFrameMillis 从开始播放到第一帧送达经过的毫秒数
+         */
+        void onFirstFrame(BQLAnimationLayer layer, long firstFrameMillis);
+    }
+
 }
@@ -0,0 +1,521 @@
+package com.siyanhui.mojif.bqliveapp;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.siyanhui.mojif.bqliveapp.core.BQLFrameTrack;
+import com.siyanhui.mojif.bqliveapp.core.BQLTransform;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 头像加载服务，取代每次播放都解码一遍原图的方式
+ * 1. 头像来自网址（http、https）或本地文件，在后台线程中加载，可以异步回调，也可以在后台线程中同步等待
+ * 2. 只解码到动画中头像框的最大尺寸：先用inSampleSize降采样，仍然明显偏大时再缩放到所需的尺寸
+ * 3. 内存中按用户id和尺寸缓存解码结果，总字节数有上限，超出时淘汰最久没有用到的头像；用户换了头像（网址变化）时自动失效
+ * 4. 网络图片的原始数据保存在磁盘缓存中，进程重启之后不需要重新下载，总大小超出上限时删除最久没有用到的文件
+ * 5. 同一个头像同时被多次请求时只加载一次，例如同一个送礼者连续送出多个礼物时只解码一次
+ * 下载由Fetcher完成，可以换成自己的实现，或者把网址指向本地的HTTP服务进行测试；解码由decodeFile()完成，测试时可以在子类中替换
+ */
+public class BQLAvatarProvider {
+    private static final int SIZE_BUCKET = 32;//请求的尺寸向上取整到它的倍数，尺寸相近的动画共用一份头像
+    private static final int WORKER_COUNT = 2;
+    private static final int CONNECT_TIMEOUT = 10000, READ_TIMEOUT = 15000;
+    private static final String DISK_CACHE_DIRECTORY = "bqlive_avatars";
+    private static final long DEFAULT_MAX_DISK_BYTES = 16 * 1024 * 1024;
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static BQLAvatarProvider sDefaultProvider;
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);//按访问顺序排列，最久没有用到的在最前面
+    private final Map<String, LoadTask> mLoadingTasks = new HashMap<>();//正在加载的头像，同一个头像的请求共用一个任务
+    private final ExecutorService mExecutor;
+    private final File mDiskCacheDirectory;
+    private final long mMaxDiskBytes;
+    private final int mMaxBytes;
+    private final Fetcher mFetcher;
+    private final AtomicInteger mDecodeCount = new AtomicInteger(0);
+    private int mCurrentBytes = 0;
+
+    /**
+     * @param diskCacheDirectory 磁盘缓存的目录，为null时不使用磁盘缓存，网络图片每次都重新下载
+     * @param maxDiskBytes       磁盘缓存总大小的上限
+     * @param maxBytes           内存中头像总字节数的上限
+     * @param fetcher            用于读取网络图片
+     */
+    public BQLAvatarProvider(File diskCacheDirectory, long maxDiskBytes, int maxBytes, Fetcher fetcher) {
+        mDiskCacheDirectory = diskCacheDirectory;
+        mMaxDiskBytes = maxDiskBytes;
+        mMaxBytes = maxBytes;
+        mFetcher = fetcher;
+        mExecutor = Executors.newFixedThreadPool(WORKER_COUNT, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "BQLive_Avatar_" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 默认的头像服务，所有控件共用。磁盘缓存放在应用的缓存目录中
+     */
+    public static synchronized BQLAvatarProvider getDefault(Context context) {
+        if (sDefaultProvider == null) {
+            File directory = new File(context.getApplicationContext().getCacheDir(), DISK_CACHE_DIRECTORY);
+            int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 32, 8 * 1024 * 1024);
+            sDefaultProvider = new BQLAvatarProvider(directory, DEFAULT_MAX_DISK_BYTES, maxBytes, new UrlFetcher());
+        }
+        return sDefaultProvider;
+    }
+
+    /**
+     * 计算头像在动画中最大的显示尺寸，即头像框在各帧中的宽高乘以缩放倍率之后的最大值
+     *
+     * @param track 头像的轨道
+     * @return {宽度, 高度}，轨道为空时都为0
+     */
+    public static int[] measure(BQLFrameTrack track) {
+        float width = 0, height = 0;
+        for (int i = 0; i < track.size(); ++i) {
+            float scale = Math.abs(track.getScale(i));
+            width = Math.max(width, track.getWidth(i) * scale);
+            height = Math.max(height, track.getHeight(i) * scale);
+        }
+        return new int[]{(int) Math.ceil(width), (int) Math.ceil(height)};
+    }
+
+    /**
+     * 只查内存缓存，可以在UI线程中调用
+     *
+     * @param userId 用户id
+     * @param uri    头像的网址或本地文件路径
+     * @param width  需要的宽度
+     * @param height 需要的高度
+     * @return 没有缓存时返回null
+     */
+    public Bitmap peek(String userId, String uri, int width, int height) {
+        String key = keyOf(userId, width, height);
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(key);
+            return entry != null && entry.mUri.equals(uri) ? entry.mBitmap : null;
+        }
+    }
+
+    /**
+     * 加载头像并等待结果，不能在UI线程中调用
+     *
+     * @param timeoutMillis 最多等待的毫秒数。超时之后加载仍会继续，结果进入缓存供之后的请求使用
+     * @return 加载失败、超时或者等待被中断时返回null
+     * @see #peek(String, String, int, int)
+     */
+    public Bitmap get(String userId, String uri, int width, int height, long timeoutMillis) {
+        Bitmap bitmap = peek(userId, uri, width, height);
+        if (bitmap != null) return bitmap;
+        LoadTask task = startLoading(userId, uri, width, height, null);
+        try {
+            return task.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 在后台线程中加载头像，完成后在主线程中回调。内存中已经有缓存时立即回调
+     *
+     * @param callback 在主线程中回调，为null时只把头像加载到缓存中
+     * @see #peek(String, String, int, int)
+     */
+    public void load(String userId, String uri, int width, int height, Callback callback) {
+        Bitmap bitmap = peek(userId, uri, width, height);
+        if (bitmap != null) {
+            if (callback != null) callback.onAvatarLoaded(userId, bitmap);
+            return;
+        }
+        startLoading(userId, uri, width, height, callback);
+    }
+
+    /**
+     * @return 解码过的头像数量，用于观察缓存的效果
+     */
+    public int getDecodeCount() {
+        return mDecodeCount.get();
+    }
+
+    /**
+     * 清空内存缓存。缓存中的图片可能还在被正在播放的层使用，因此只释放引用，不回收图片
+     */
+    public void clearMemory() {
+        synchronized (mEntries) {
+            mEntries.clear();
+            mCurrentBytes = 0;
+        }
+    }
+
+    private static String keyOf(String userId, int width, int height) {
+        return userId + '@' + bucketOf(width) + 'x' + bucketOf(height);
+    }
+
+    private static int bucketOf(int size) {
+        return Math.max(1, (size + SIZE_BUCKET - 1) / SIZE_BUCKET) * SIZE_BUCKET;
+    }
+
+    /**
+     * 开始加载头像，同一个头像已经在加载时加入已有的任务
+     */
+    private LoadTask startLoading(final String userId, final String uri, int width, int height, Callback callback) {
+        final String key = keyOf(userId, width, height);
+        final int targetWidth = bucketOf(width), targetHeight = bucketOf(height);
+        String taskKey = key + ' ' + uri;
+        LoadTask task;
+        boolean created = false;
+        synchronized (mLoadingTasks) {
+            task = mLoadingTasks.get(taskKey);
+            if (task == null) {
+                task = new LoadTask(taskKey, userId, new Callable<Bitmap>() {
+                    @Override
+                    public Bitmap call() throws Exception {
+                        Bitmap bitmap = loadBitmap(uri, targetWidth, targetHeight);
+                        if (bitmap != null) {
+                            put(key, uri, bitmap);
+                        }
+                        return bitmap;
+                    }
+                });
+                mLoadingTasks.put(taskKey, task);
+                created = true;
+            }
+            if (callback != null) {
+                task.mCallbacks.add(callback);
+            }
+        }
+        if (created) {
+            mExecutor.execute(task);
+        }
+        return task;
+    }
+
+    private void put(String key, String uri, Bitmap bitmap) {
+        int byteCount = bitmap.getRowBytes() * bitmap.getHeight();
+        synchronized (mEntries) {
+            Entry previous = mEntries.put(key, new Entry(bitmap, uri, byteCount));
+            if (previous != null) {
+                mCurrentBytes -= previous.mByteCount;
+            }
+            mCurrentBytes += byteCount;
+            Iterator<Entry> iterator = mEntries.values().iterator();
+            while (mCurrentBytes > mMaxBytes && iterator.hasNext()) {
+                mCurrentBytes -= iterator.next().mByteCount;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 在加载线程中读取并解码头像。网络图片先查磁盘缓存，没有时下载到磁盘缓存中再解码
+     */
+    private Bitmap loadBitmap(String uri, int width, int height) throws IOException {
+        File file;
+        if (uri.startsWith("/")) {
+            file = new File(uri);
+        } else if (uri.startsWith("file://")) {
+            file = new File(uri.substring("file://".length()));
+        } else {
+            file = fetchToDisk(uri);
+            if (mDiskCacheDirectory == null) {
+                try {
+                    return decode(file.getPath(), width, height);
+                } finally {
+                    file.delete();
+                }
+            }
+        }
+        return decode(file.getPath(), width, height);
+    }
+
+    /**
+     * @return 网络图片在磁盘缓存中的文件；不使用磁盘缓存时为一个用完即删的临时文件
+     */
+    private File fetchToDisk(String uri) throws IOException {
+        File directory = mDiskCacheDirectory;
+        boolean temporary = directory == null;
+        if (temporary) {
+            directory = new File(System.getProperty("java.io.tmpdir"));
+        }
+        File file = new File(directory, temporary ? "bqlive_avatar_" + hashOf(uri) + ".tmp" : hashOf(uri));
+        if (!temporary && file.isFile()) {
+            file.setLastModified(System.currentTimeMillis());//记录最近一次使用的时间，淘汰时以此为准
+            return file;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        //先写入临时文件再改名，保证缓存中的文件总是完整的
+        File tempFile = new File(directory, file.getName() + ".download");
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = mFetcher.open(uri);
+            out = new BufferedOutputStream(new FileOutputStream(tempFile));
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Cannot rename " + tempFile);
+            }
+        } finally {
+            closeQuietly(in);
+            closeQuietly(out);
+            tempFile.delete();
+        }
+        if (!temporary) {
+            trimDiskCache(directory);
+        }
+        return file;
+    }
+
+    /**
+     * 磁盘缓存超出上限时，按最近使用的时间从旧到新删除文件
+     */
+    private void trimDiskCache(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= mMaxDiskBytes) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified(), r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length && total > mMaxDiskBytes; ++i) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    /**
+     * 解码头像。头像在动画中保持长宽比缩放到头像框内显示（见BQLTransform.scaleToFit()），只需要解码到缩放后的尺寸
+     */
+    private Bitmap decode(String path, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeFile(path, options);
+        int sourceWidth = options.outWidth, sourceHeight = options.outHeight;
+        if (sourceWidth <= 0 || sourceHeight <= 0) return null;
+        float scale = Math.min(1, BQLTransform.scaleToFit(sourceWidth, sourceHeight, width, height));
+        int targetWidth = Math.max(1, Math.round(sourceWidth * scale));
+        int targetHeight = Math.max(1, Math.round(sourceHeight * scale));
+        int sampleSize = 1;
+        while (sourceWidth / (sampleSize * 2) >= targetWidth && sourceHeight / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap = decodeFile(path, options);
+        if (bitmap == null) return null;
+        mDecodeCount.incrementAndGet();
+        //降采样只能按2的幂进行，结果仍然明显偏大时缩放到所需的尺寸
+        if (bitmap.getWidth() > targetWidth * 5 / 4 || bitmap.getHeight() > targetHeight * 5 / 4) {
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap, targetWidth, targetHeight, true);
+            if (scaled != bitmap) {
+                bitmap.recycle();
+                bitmap = scaled;
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * 在加载线程中解码图片文件，参数和返回值与BitmapFactory.decodeFile()相同
+     */
+    protected Bitmap decodeFile(String path, BitmapFactory.Options options) {
+        return BitmapFactory.decodeFile(path, options);
+    }
+
+    private static String hashOf(String uri) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(uri.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(uri.hashCode());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 一个头像的加载任务，完成时把结果交给所有等待它的请求
+     */
+    private class LoadTask extends FutureTask<Bitmap> {
+        private final String mKey;
+        private final String mUserId;
+        private final List<Callback> mCallbacks = new ArrayList<>();//受mLoadingTasks保护
+
+        LoadTask(String key, String userId, Callable<Bitmap> callable) {
+            super(callable);
+            mKey = key;
+            mUserId = userId;
+        }
+
+        /**
+         * 结果已经进入内存缓存，在唤醒等待的请求之前移出正在加载的任务，之后的请求直接命中缓存或者重新加载，
+         * 不会加入一个已经完成的任务（例如clearMemory()之后）
+         */
+        @Override
+        protected void set(Bitmap bitmap) {
+            finishLoading();
+            super.set(bitmap);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            finishLoading();
+            super.setException(t);
+        }
+
+        private void finishLoading() {
+            synchronized (mLoadingTasks) {
+                if (mLoadingTasks.get(mKey) == this) {
+                    mLoadingTasks.remove(mKey);
+                }
+            }
+        }
+
+        @Override
+        protected void done() {
+            final List<Callback> callbacks;
+            synchronized (mLoadingTasks) {
+                callbacks = new ArrayList<>(mCallbacks);//已经移出正在加载的任务，不会再有新的回调
+            }
+            if (callbacks.isEmpty()) return;
+            Bitmap result = null;
+            try {
+                result = get();
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
+            }
+            final Bitmap bitmap = result;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Callback callback : callbacks) {
+                        if (bitmap != null) {
+                            callback.onAvatarLoaded(mUserId, bitmap);
+                        } else {
+                            callback.onAvatarFailed(mUserId);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private static class Entry {
+        private final Bitmap mBitmap;
+        private final String mUri;
+        private final int mByteCount;
+
+        Entry(Bitmap bitmap, String uri, int byteCount) {
+            mBitmap = bitmap;
+            mUri = uri;
+            mByteCount = byteCount;
+        }
+    }
+
+    /**
+     * 读取网络图片的原始数据
+     */
+    public interface Fetcher {
+        /**
+         * 在加载线程中调用
+         *
+         * @param uri 头像的网址
+         * @return 图片的原始数据，由调用者关闭
+         */
+        InputStream open(String uri) throws IOException;
+    }
+
+    /**
+     * 用HttpURLConnection读取网络图片
+     */
+    public static class UrlFetcher implements Fetcher {
+        @Override
+        public InputStream open(String uri) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) new URL(uri).openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                connection.disconnect();
+                throw new IOException("HTTP " + responseCode + " for " + uri);
+            }
+            return connection.getInputStream();
+        }
+    }
+
+    /**
+     * 异步加载的回调，在主线程中进行
+     */
+    public interface Callback {
+        void onAvatarLoaded(String userId, Bitmap avatar);
+
+        void onAvatarFailed(String userId);
+    }
+}
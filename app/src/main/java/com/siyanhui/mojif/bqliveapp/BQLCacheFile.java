@@ -0,0 +1,121 @@
+package com.siyanhui.mojif.bqliveapp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * 礼物目录中由某个源文件生成的缓存文件，例如配置的二进制形式、主图不透明范围的索引和子动画的像素文件。
+ * 每个礼物有自己的目录，因此以目录标识礼物；文件头依次为格式标识、源文件的修改时间和长度，礼物更新或者格式不同时读取失败，由调用者重新生成。
+ * 写入时先写临时文件再改名，保证读到的文件总是完整的
+ */
+public class BQLCacheFile {
+    private final File mFile;
+    private final int mMagic;
+    private final long mModified;
+    private final long mLength;
+
+    /**
+     * @param file       缓存文件
+     * @param magic      文件格式的标识，不同的缓存使用不同的值
+     * @param sourceFile 生成缓存所用的源文件，记录它当前的修改时间和长度
+     */
+    public BQLCacheFile(File file, int magic, File sourceFile) {
+        mFile = file;
+        mMagic = magic;
+        mModified = sourceFile.lastModified();
+        mLength = sourceFile.length();
+    }
+
+    /**
+     * @return 源文件的修改时间，内存中的缓存也用它判断是否过时
+     */
+    public long getModified() {
+        return mModified;
+    }
+
+    /**
+     * @return 源文件的长度
+     */
+    public long getLength() {
+        return mLength;
+    }
+
+    /**
+     * 读取文件头之后的内容
+     *
+     * @return 文件不存在、已经过时、格式不同或者无法读取时返回null；reader也可以返回null表示内容不可用
+     */
+    public <T> T read(Reader<T> reader) {
+        if (!mFile.isFile()) return null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != mMagic || in.readLong() != mModified || in.readLong() != mLength) return null;
+            return reader.readFrom(in);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * 写入文件头和writer写出的内容。写入失败不影响播放，下次重新生成
+     *
+     * @return 是否写入成功
+     */
+    public boolean write(Writer writer) {
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(mMagic);
+            out.writeLong(mModified);
+            out.writeLong(mLength);
+            writer.writeTo(out);
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(mFile)) {
+                tempFile.delete();
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeQuietly(out);
+            tempFile.delete();
+            return false;
+        }
+    }
+
+    public static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 读取文件头之后的内容
+     */
+    public interface Reader<T> {
+        T readFrom(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * 写出文件头之后的内容
+     */
+    public interface Writer {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+}
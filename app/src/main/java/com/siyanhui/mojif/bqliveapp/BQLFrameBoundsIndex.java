@@ -0,0 +1,219 @@
+package com.siyanhui.mojif.bqliveapp;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 主图不透明范围的索引。礼物通常只占屏幕的一小部分，知道每一帧主图的不透明范围之后，控件只需要重绘变化的区域
+ * 1. 扫描每张透明度通道图片（N-b.jpg），得到透明度超过ALPHA_THRESHOLD的像素的外接矩形，坐标基于原始帧的尺寸
+ * 2. 扫描结果写到礼物目录中（见BQLCacheFile），之后即使进程重启也不需要再扫描；内存中保留最近用到的MAX_ENTRIES个礼物的索引
+ * 扫描需要解码全部透明度通道，在下载完成时（BQLGiftDownloader）、预热时（BQLGiftWarmer）或第一次播放时在后台进行，不会阻塞播放
+ */
+public class BQLFrameBoundsIndex {
+    private static final String CONFIG_FILE = "config.txt";
+    private static final String INDEX_FILE = "frames.bqlbounds";
+    private static final int FILE_MAGIC = 0x42514C42;//"BQLB"
+    private static final int MAX_ENTRIES = 32;
+    private static final int SCAN_SAMPLE_SIZE = 4;//降采样之后扫描，得到的矩形向外扩展一个采样单位，只会偏大
+    private static final int ALPHA_THRESHOLD = 4;//JPEG压缩会在纯黑的区域留下微小的噪声，低于这个值的像素看不出来
+    private static final BQLFrameBoundsIndex sDefaultIndex = new BQLFrameBoundsIndex();
+    private final Map<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private final Set<String> mPendingDirectories = new HashSet<>();//已经安排在后台扫描的礼物
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "BQLive_Frame_Bounds");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public static BQLFrameBoundsIndex getDefault() {
+        return sDefaultIndex;
+    }
+
+    /**
+     * 读取已经扫描好的索引，依次查找内存和礼物目录中的索引文件，不会扫描图片。可以在任意线程调用
+     *
+     * @param animationDirectory 动画在文件系统中的路径
+     * @param imageCount         主图的张数
+     * @return 每张主图的不透明范围，第i张为[4i, 4i + 4)：left、top、right、bottom，完全透明时为空矩形。还没有扫描过时返回null
+     */
+    public int[] peek(String animationDirectory, int imageCount) {
+        BQLCacheFile indexFile = indexFileOf(animationDirectory);
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(animationDirectory);
+            if (entry != null && entry.mModified == indexFile.getModified() && entry.mLength == indexFile.getLength() && entry.mBounds.length == imageCount * 4) {
+                return entry.mBounds;
+            }
+        }
+        int[] bounds = read(indexFile, imageCount);
+        if (bounds != null) {
+            put(animationDirectory, new Entry(bounds, indexFile));
+        }
+        return bounds;
+    }
+
+    /**
+     * 读取索引，还没有扫描过时扫描全部透明度通道并写入礼物目录。耗时较长，只能在后台线程中调用
+     *
+     * @return 有图片无法读取时返回null，下次重新扫描
+     */
+    public int[] build(String animationDirectory, int imageCount) {
+        int[] bounds = peek(animationDirectory, imageCount);
+        if (bounds != null) return bounds;
+        BQLCacheFile indexFile = indexFileOf(animationDirectory);
+        bounds = new int[imageCount * 4];
+        for (int i = 0; i < imageCount; ++i) {
+            if (!scan(BQLAnimationLayer.getAlphaFile(animationDirectory, i), bounds, i * 4)) return null;
+        }
+        write(indexFile, bounds);
+        put(animationDirectory, new Entry(bounds, indexFile));
+        return bounds;
+    }
+
+    /**
+     * 在后台线程中扫描，供之后的播放使用。同一个礼物只会安排一次
+     */
+    public void buildAsync(final String animationDirectory, final int imageCount) {
+        synchronized (mPendingDirectories) {
+            if (!mPendingDirectories.add(animationDirectory)) return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    build(animationDirectory, imageCount);
+                } finally {
+                    synchronized (mPendingDirectories) {
+                        mPendingDirectories.remove(animationDirectory);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 动画被删除或更新之后，丢弃它在内存中的索引。目录中的索引文件会随礼物一起删除
+     */
+    public void remove(String animationDirectory) {
+        synchronized (mEntries) {
+            mEntries.remove(animationDirectory);
+        }
+    }
+
+    private void put(String animationDirectory, Entry entry) {
+        synchronized (mEntries) {
+            mEntries.put(animationDirectory, entry);
+        }
+    }
+
+    /**
+     * 降采样解码一张透明度通道图片，找出不透明像素的外接矩形
+     *
+     * @return 图片无法读取时返回false
+     */
+    private static boolean scan(String alphaFile, int[] bounds, int offset) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = SCAN_SAMPLE_SIZE;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap bitmap = BitmapFactory.decodeFile(alphaFile, options);
+        if (bitmap == null) return false;
+        int width = bitmap.getWidth(), height = bitmap.getHeight();
+        int[] row = new int[width];
+        int left = width, top = height, right = -1, bottom = -1;
+        for (int y = 0; y < height; ++y) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; ++x) {
+                if ((row[x] >> 8 & 0xff) >= ALPHA_THRESHOLD) {//黑白图片，取绿色分量作为透明度
+                    if (x < left) left = x;
+                    if (x > right) right = x;
+                    if (y < top) top = y;
+                    bottom = y;
+                }
+            }
+        }
+        bitmap.recycle();
+        if (right < 0) {
+            bounds[offset] = bounds[offset + 1] = bounds[offset + 2] = bounds[offset + 3] = 0;
+            return true;
+        }
+        bounds[offset] = Math.max(0, (left - 1) * SCAN_SAMPLE_SIZE);
+        bounds[offset + 1] = Math.max(0, (top - 1) * SCAN_SAMPLE_SIZE);
+        bounds[offset + 2] = (right + 2) * SCAN_SAMPLE_SIZE;
+        bounds[offset + 3] = (bottom + 2) * SCAN_SAMPLE_SIZE;
+        return true;
+    }
+
+    private static BQLCacheFile indexFileOf(String animationDirectory) {
+        return new BQLCacheFile(new File(animationDirectory, INDEX_FILE), FILE_MAGIC, new File(animationDirectory, CONFIG_FILE));
+    }
+
+    /**
+     * @return 文件不存在、已经过时、主图张数不同或者无法读取时返回null
+     */
+    private static int[] read(BQLCacheFile indexFile, final int imageCount) {
+        return indexFile.read(new BQLCacheFile.Reader<int[]>() {
+            @Override
+            public int[] readFrom(DataInputStream in) throws IOException {
+                if (in.readInt() != imageCount) return null;
+                int[] bounds = new int[imageCount * 4];
+                for (int i = 0; i < bounds.length; ++i) {
+                    bounds[i] = in.readInt();
+                }
+                return bounds;
+            }
+        });
+    }
+
+    /**
+     * 写入失败不影响播放，下次重新扫描
+     */
+    private static void write(BQLCacheFile indexFile, final int[] bounds) {
+        indexFile.write(new BQLCacheFile.Writer() {
+            @Override
+            public void writeTo(DataOutputStream out) throws IOException {
+                out.writeInt(bounds.length / 4);
+                for (int value : bounds) {
+                    out.writeInt(value);
+                }
+            }
+        });
+    }
+
+    private static class Entry {
+        private final int[] mBounds;
+        private final long mModified;
+        private final long mLength;
+
+        Entry(int[] bounds, BQLCacheFile indexFile) {
+            mBounds = bounds;
+            mModified = indexFile.getModified();
+            mLength = indexFile.getLength();
+        }
+    }
+}
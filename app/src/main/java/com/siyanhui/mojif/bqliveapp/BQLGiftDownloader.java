@@ -0,0 +1,397 @@
+package com.siyanhui.mojif.bqliveapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.siyanhui.mojif.bqlive.support.BQLiveSupport;
+import com.siyanhui.mojif.bqlive.support.model.BQLGift;
+import com.siyanhui.mojif.bqliveapp.core.BQLPlayableWatermark;
+
+import org.json.JSONException;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * 边下载边解压礼物，取代BQLiveSupport.downloadGift()先下载整个压缩包、再用BQLive.unpack()整体解压的方式
+ * 1. 下载的数据不落地，按BQLive.unpack()的格式还原之后直接交给ZipInputStream，每解压完一个文件就可以使用
+ * 2. 动画配置和子动画图片解压之后礼物就可以准备播放，之后按播放顺序发布"前N帧的主图已经解压"的水位（BQLPlayableWatermark）
+ * 3. 播放器只解码水位以内的帧，并按测得的下载速度决定什么时候开始播放，保证剩下的帧能在播放到之前下载完
+ * 4. 全部解压之后写入和BQLiveSupport相同的完成标记，之后BQLiveSupport.localGiftExists()返回true
+ * 每个文件先写入临时文件再改名，播放器不会读到不完整的文件。同一个礼物同时只下载一次。
+ * download(String, String, BQLGift, Callback)可以直接指定网址，把它指向本地的HTTP服务即可测试
+ */
+public class BQLGiftDownloader {
+    /**
+     * BQLive.unpack()的格式：下载的数据中每个完整的BLOCK_SIZE字节块，要把最后BLOCK_TAIL字节移到块首才是压缩包原来的内容；最后不满一块的数据保持原样
+     */
+    static final int BLOCK_SIZE = 10240, BLOCK_TAIL = 1024;
+    private static final int WORKER_COUNT = 2;
+    private static final int CONNECT_TIMEOUT = 10000, READ_TIMEOUT = 20000;
+    private static final String CONFIG_FILE = "config.txt";
+    private static final String FINISH_FILE = ".fin";//BQLiveSupport.localGiftExists()检查的文件
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static BQLGiftDownloader sDefaultDownloader;
+    private final Map<String, Download> mDownloads = new HashMap<>();//正在下载的礼物，以目录标识
+    private final BQLAnimationSpecCache mSpecCache;
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(WORKER_COUNT, new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "BQLive_Download_" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public BQLGiftDownloader() {
+        this(BQLAnimationSpecCache.getDefault());
+    }
+
+    /**
+     * @param specCache 用于读取解压出的动画配置
+     */
+    public BQLGiftDownloader(BQLAnimationSpecCache specCache) {
+        mSpecCache = specCache;
+    }
+
+    public static synchronized BQLGiftDownloader getDefault() {
+        if (sDefaultDownloader == null) {
+            sDefaultDownloader = new BQLGiftDownloader();
+        }
+        return sDefaultDownloader;
+    }
+
+    /**
+     * 下载并解压一个礼物，可以在任意线程调用。礼物正在下载时不会重复下载，callback加入已有的下载
+     *
+     * @param callback 可以为null
+     * @return 礼物的水位
+     */
+    public BQLPlayableWatermark download(BQLGift gift, Callback callback) {
+        return download(gift.getAnimatedData(), BQLiveSupport.getLocalGiftPath(gift.getGuid()), gift, callback);
+    }
+
+    /**
+     * @param url                压缩包的网址
+     * @param animationDirectory 解压到的目录
+     * @param gift               完成后写入完成标记，为null时不写
+     * @param callback           可以为null
+     */
+    public BQLPlayableWatermark download(String url, String animationDirectory, BQLGift gift, Callback callback) {
+        Download download;
+        boolean prepared;
+        synchronized (mDownloads) {
+            download = mDownloads.get(animationDirectory);
+            if (download == null) {
+                download = new Download(url, animationDirectory, gift);
+                mDownloads.put(animationDirectory, download);
+                mExecutor.execute(download);
+            }
+            if (callback != null) download.mCallbacks.add(callback);
+            prepared = download.mWatermark.isPrepared();
+        }
+        if (prepared && callback != null) {
+            notifyPrepared(callback, animationDirectory);
+        }
+        return download.mWatermark;
+    }
+
+    /**
+     * @return 礼物正在下载时返回它的水位，没有在下载（已经下载完毕或者还没有开始）时返回null
+     */
+    public BQLPlayableWatermark getWatermark(String animationDirectory) {
+        synchronized (mDownloads) {
+            Download download = mDownloads.get(animationDirectory);
+            return download == null ? null : download.mWatermark;
+        }
+    }
+
+    private static void notifyPrepared(final Callback callback, final String animationDirectory) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onPrepared(animationDirectory);
+            }
+        });
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private class Download implements Runnable {
+        private final String mUrl;
+        private final String mAnimationDirectory;
+        private final BQLGift mGift;
+        private final BQLPlayableWatermark mWatermark = new BQLPlayableWatermark(SystemClock.uptimeMillis());
+        private final List<Callback> mCallbacks = new ArrayList<>();
+        private final Set<String> mExtractedFiles = new HashSet<>();
+        private BQLAnimationSpec mSpec;
+
+        Download(String url, String animationDirectory, BQLGift gift) {
+            mUrl = url;
+            mAnimationDirectory = animationDirectory;
+            mGift = gift;
+        }
+
+        @Override
+        public void run() {
+            boolean success = false;
+            HttpURLConnection connection = null;
+            ZipInputStream zip = null;
+            try {
+                connection = (HttpURLConnection) new URL(mUrl).openConnection();
+                connection.setConnectTimeout(CONNECT_TIMEOUT);
+                connection.setReadTimeout(READ_TIMEOUT);
+                int responseCode = connection.getResponseCode();
+                if (responseCode != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("HTTP " + responseCode + " for " + mUrl);
+                }
+                zip = new ZipInputStream(new BlockInputStream(connection.getInputStream(), connection.getContentLength(), mWatermark));
+                File directory = new File(mAnimationDirectory);
+                directory.mkdirs();
+                String directoryPath = directory.getCanonicalPath() + File.separator;
+                byte[] buffer = new byte[64 * 1024];
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    File file = new File(directory, entry.getName());
+                    if (!file.getCanonicalPath().startsWith(directoryPath)) continue;//不解压到礼物目录以外
+                    if (entry.isDirectory()) {
+                        file.mkdirs();
+                        continue;
+                    }
+                    extract(zip, file, buffer);
+                    onExtracted(file, entry.getName());
+                }
+                if (mGift != null) {
+                    writeFinishFile();
+                }
+                success = true;
+            } catch (IOException | JSONException e) {
+                e.printStackTrace();
+            } finally {
+                closeQuietly(zip);
+                if (connection != null) connection.disconnect();
+            }
+            List<Callback> callbacks;
+            synchronized (mDownloads) {
+                mDownloads.remove(mAnimationDirectory);
+                callbacks = new ArrayList<>(mCallbacks);
+            }
+            if (success) {
+                mWatermark.onComplete();
+                if (mSpec != null) {
+                    BQLFrameBoundsIndex.getDefault().build(mAnimationDirectory, mSpec.getFrame());//之后的播放只重绘主图的不透明范围
+                }
+            } else {
+                mWatermark.onFailed();
+            }
+            notifyFinished(callbacks, success);
+        }
+
+        /**
+         * 先写入临时文件再改名
+         */
+        private void extract(ZipInputStream zip, File file, byte[] buffer) throws IOException {
+            File parent = file.getParentFile();
+            if (parent != null) parent.mkdirs();
+            File tempFile = new File(file.getPath() + ".tmp");
+            FileOutputStream out = new FileOutputStream(tempFile);
+            try {
+                int count;
+                while ((count = zip.read(buffer)) > 0) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                throw new IOException("Cannot rename " + tempFile);
+            }
+        }
+
+        /**
+         * 一个文件解压完毕。读到动画配置之后，等子动画图片都解压了就通知可以准备播放，之后每解压一个文件都重新计算水位
+         */
+        private void onExtracted(File file, String name) throws IOException, JSONException {
+            mExtractedFiles.add(file.getPath());
+            if (mSpec == null) {
+                if (!CONFIG_FILE.equals(name)) return;
+                mSpec = mSpecCache.get(mAnimationDirectory);
+                if (mSpec == null) throw new IOException("Invalid " + CONFIG_FILE + " in " + mUrl);
+            }
+            if (!mWatermark.isPrepared()) {
+                List<BQLAnimationSpec.SubAnimation> subAnimations = mSpec.getSubAnimations();
+                if (subAnimations != null) {
+                    for (BQLAnimationSpec.SubAnimation subAnimation : subAnimations) {
+                        if (!mExtractedFiles.contains(new File(mAnimationDirectory, subAnimation.getName()).getPath())) return;
+                    }
+                }
+                List<Callback> callbacks;
+                synchronized (mDownloads) {
+                    mWatermark.onPrepared(mSpec.getFrame());
+                    callbacks = new ArrayList<>(mCallbacks);
+                }
+                for (Callback callback : callbacks) {
+                    notifyPrepared(callback, mAnimationDirectory);
+                }
+            }
+            //按播放顺序，第n帧显示的是frameIndices[n]，两个通道都解压了才能解码
+            int[] frameIndices = mSpec.getFrameIndices();
+            int playableFrames = mWatermark.getPlayableFrames();
+            while (playableFrames < mSpec.getFrame()) {
+                int index = frameIndices == null ? playableFrames : frameIndices[playableFrames];
+                if (!mExtractedFiles.contains(new File(BQLAnimationLayer.getColorFile(mAnimationDirectory, index)).getPath())
+                        || !mExtractedFiles.contains(new File(BQLAnimationLayer.getAlphaFile(mAnimationDirectory, index)).getPath())) {
+                    break;
+                }
+                ++playableFrames;
+            }
+            mWatermark.onFramesPlayable(playableFrames);
+        }
+
+        /**
+         * 和BQLiveSupport.downloadGift()一样写入礼物信息作为完成标记
+         */
+        private void writeFinishFile() throws IOException {
+            BufferedWriter writer = new BufferedWriter(new FileWriter(new File(mAnimationDirectory, FINISH_FILE)));
+            try {
+                writer.write(mGift.toJSON().toString());
+            } finally {
+                writer.close();
+            }
+            mGift.setNeedingUpdate(false);
+        }
+
+        private void notifyFinished(final List<Callback> callbacks, final boolean success) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Callback callback : callbacks) {
+                        if (success) {
+                            callback.onSuccess(mAnimationDirectory);
+                        } else {
+                            callback.onFailure(mAnimationDirectory);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 把下载的数据还原成压缩包原来的字节顺序，并记录下载进度
+     */
+    static class BlockInputStream extends InputStream {
+        private final InputStream mIn;
+        private final long mTotalBytes;
+        private final BQLPlayableWatermark mWatermark;
+        private final byte[] mRawBlock = new byte[BLOCK_SIZE];
+        private final byte[] mBlock = new byte[BLOCK_SIZE];
+        private int mBlockLength = 0;
+        private int mPosition = 0;
+        private long mReceivedBytes = 0;
+        private boolean mEnded = false;
+
+        /**
+         * @param totalBytes 总字节数，未知时为-1
+         */
+        BlockInputStream(InputStream in, long totalBytes, BQLPlayableWatermark watermark) {
+            mIn = in;
+            mTotalBytes = totalBytes;
+            mWatermark = watermark;
+        }
+
+        /**
+         * 读入下一块，完整的块把最后BLOCK_TAIL字节移到块首
+         *
+         * @return 是否读到了数据
+         */
+        private boolean fill() throws IOException {
+            if (mEnded) return false;
+            int length = 0;
+            while (length < BLOCK_SIZE) {
+                int count = mIn.read(mRawBlock, length, BLOCK_SIZE - length);
+                if (count <= 0) {
+                    mEnded = true;
+                    break;
+                }
+                length += count;
+                mReceivedBytes += count;
+                mWatermark.onBytes(mReceivedBytes, mTotalBytes);
+            }
+            if (length == BLOCK_SIZE) {
+                System.arraycopy(mRawBlock, BLOCK_SIZE - BLOCK_TAIL, mBlock, 0, BLOCK_TAIL);
+                System.arraycopy(mRawBlock, 0, mBlock, BLOCK_TAIL, BLOCK_SIZE - BLOCK_TAIL);
+            } else {
+                System.arraycopy(mRawBlock, 0, mBlock, 0, length);
+            }
+            mBlockLength = length;
+            mPosition = 0;
+            return length > 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mPosition == mBlockLength && !fill()) return -1;
+            return mBlock[mPosition++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (count == 0) return 0;
+            if (mPosition == mBlockLength && !fill()) return -1;
+            int length = Math.min(count, mBlockLength - mPosition);
+            System.arraycopy(mBlock, mPosition, buffer, offset, length);
+            mPosition += length;
+            return length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+        }
+    }
+
+    /**
+     * 下载的回调，在主线程中进行
+     */
+    public interface Callback {
+        /**
+         * 动画配置和子动画图片已经解压，可以开始准备播放，播放器会等待主图解压
+         */
+        void onPrepared(String animationDirectory);
+
+        void onSuccess(String animationDirectory);
+
+        void onFailure(String animationDirectory);
+    }
+}
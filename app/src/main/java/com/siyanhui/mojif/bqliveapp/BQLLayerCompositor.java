@@ -0,0 +1,140 @@
+package com.siyanhui.mojif.bqliveapp;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+import com.siyanhui.mojif.bqliveapp.graphics.BQLDecodeBudget;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 动画层的合成器，管理正在播放的层并把它们按zOrder依次绘制到给定的画布上
+ * 它不关心画布来自哪里：BQLAnimationView在View模式下从onDraw中调用draw()，在TextureView或SurfaceView模式下从渲染线程中调用
+ * 同一时间只能有一个线程调用draw()
+ * 层在换帧时报告上一帧和这一帧范围的并集，合成器把它转交给控件，控件只重绘这个区域：画布被裁剪到这个区域，当前帧完全在区域之外的层不绘制。
+ * 只有软件画布会被裁剪（TextureView、SurfaceView的软件画布和View模式的软件绘制）；View模式在硬件加速的窗口中每次都重新录制整个控件，
+ * 所有层都会绘制，局部重绘不减少绘制量
+ */
+class BQLLayerCompositor implements BQLAnimationLayer.Host {
+    private static final int MAX_DECODES_IN_FLIGHT = 6;
+    private final BQLDecodeBudget mDecodeBudget = new BQLDecodeBudget(MAX_DECODES_IN_FLIGHT);
+    /**
+     * 正在播放的层，按zOrder从小到大排列，zOrder相同的按加入顺序排列
+     */
+    private final List<BQLAnimationLayer> mLayers = new ArrayList<>();
+    /**
+     * 已经结束的层，它们的主图要等到下一次绘制之后才放回池中
+     */
+    private final List<BQLAnimationLayer> mEndedLayers = new ArrayList<>();
+    private BQLAnimationLayer[] mDrawingLayers = new BQLAnimationLayer[4];//绘制时使用的层列表快照，只在绘制线程中使用
+    private final Callback mCallback;
+
+    BQLLayerCompositor(Callback callback) {
+        mCallback = callback;
+    }
+
+    BQLDecodeBudget getDecodeBudget() {
+        return mDecodeBudget;
+    }
+
+    /**
+     * 加入一个新的层，它会排在zOrder不大于它的所有层之后
+     */
+    void addLayer(BQLAnimationLayer layer) {
+        synchronized (mLayers) {
+            int index = mLayers.size();
+            while (index > 0 && mLayers.get(index - 1).getZOrder() > layer.getZOrder()) {
+                --index;
+            }
+            mLayers.add(index, layer);
+        }
+    }
+
+    int getLayerCount() {
+        synchronized (mLayers) {
+            return mLayers.size();
+        }
+    }
+
+    /**
+     * @return 正在播放的层的快照
+     */
+    BQLAnimationLayer[] getLayers() {
+        synchronized (mLayers) {
+            return mLayers.toArray(new BQLAnimationLayer[mLayers.size()]);
+        }
+    }
+
+    @Override
+    public void onLayerFrame(BQLAnimationLayer layer, Rect dirty) {
+        mCallback.onCompositionChanged(dirty);
+    }
+
+    @Override
+    public void onLayerFirstFrame(BQLAnimationLayer layer) {
+        mCallback.onLayerFirstFrame(layer);
+    }
+
+    @Override
+    public void onLayerEnd(BQLAnimationLayer layer) {
+        synchronized (mLayers) {
+            mLayers.remove(layer);
+            mEndedLayers.add(layer);
+        }
+        mCallback.onCompositionChanged(layer.getShownBounds());//擦掉最后一帧
+        mCallback.onLayerEnd(layer);
+    }
+
+    /**
+     * 把所有层绘制到画布上，然后把已经不会再被绘制的主图放回池中
+     *
+     * @param canvas 目标画布，调用者负责在绘制前清空它。只需要重绘一部分时，调用者把画布裁剪到这个区域，完全在区域之外的层会被跳过
+     * @param width  画布宽度
+     * @param height 画布高度
+     */
+    void draw(Canvas canvas, int width, int height) {
+        int layerCount;
+        int endedCount;
+        BQLAnimationLayer[] ended = null;
+        synchronized (mLayers) {
+            layerCount = mLayers.size();
+            if (mDrawingLayers.length < layerCount) {
+                mDrawingLayers = new BQLAnimationLayer[layerCount];
+            }
+            mLayers.toArray(mDrawingLayers);
+            endedCount = mEndedLayers.size();
+            if (endedCount > 0) {
+                ended = mEndedLayers.toArray(new BQLAnimationLayer[endedCount]);
+                mEndedLayers.clear();
+            }
+        }
+        for (int i = 0; i < layerCount; ++i) {
+            mDrawingLayers[i].draw(canvas, width, height);
+            mDrawingLayers[i] = null;
+        }
+        //已经结束的层不会再被绘制，把它们剩下的主图全部放回池中
+        for (int i = 0; i < endedCount; ++i) {
+            ended[i].releaseRetiredFrames(null);
+        }
+    }
+
+    interface Callback {
+        /**
+         * 有层的内容发生了变化，需要重新绘制。可能在任意线程中调用
+         *
+         * @param dirty 需要重绘的区域，为null时重绘整个画布。只在回调中有效
+         */
+        void onCompositionChanged(Rect dirty);
+
+        /**
+         * 一个层显示了第一帧，在播放线程中调用
+         */
+        void onLayerFirstFrame(BQLAnimationLayer layer);
+
+        /**
+         * 一个层播放完毕，在播放线程中调用
+         */
+        void onLayerEnd(BQLAnimationLayer layer);
+    }
+}
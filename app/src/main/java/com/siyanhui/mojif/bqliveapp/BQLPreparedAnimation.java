@@ -0,0 +1,88 @@
+package com.siyanhui.mojif.bqliveapp;
+
+import android.os.SystemClock;
+
+/**
+ * BQLAnimationView.prepareAnimation()返回的句柄
+ * 读取配置、解码头像、生成子动画图片和编译时间轴都在后台线程中完成，完成后句柄中含有一个可以立即开始播放的动画层，
+ * 用BQLAnimationView.startAnimation()把它加入控件。准备完成之前或之后都可以取消，取消后不会再收到回调，也不能再开始播放
+ */
+public class BQLPreparedAnimation {
+    private final String mAnimationDirectory;
+    private final long mRequestTime = SystemClock.uptimeMillis();
+    private volatile boolean mCancelled = false;
+    private volatile boolean mStarted = false;
+    private volatile BQLAnimationLayer mLayer;
+    private volatile long mPrepareMillis = -1;
+
+    BQLPreparedAnimation(String animationDirectory) {
+        mAnimationDirectory = animationDirectory;
+    }
+
+    public String getAnimationDirectory() {
+        return mAnimationDirectory;
+    }
+
+    /**
+     * 取消准备。已经准备好但还没有开始播放的层会被丢弃，已经开始播放的层不受影响
+     */
+    public synchronized void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @return 是否已经准备好，可以开始播放
+     */
+    public boolean isReady() {
+        return mLayer != null && !mCancelled;
+    }
+
+    /**
+     * @return 准备好的层，还没有准备好时为null
+     */
+    public BQLAnimationLayer getLayer() {
+        return mLayer;
+    }
+
+    /**
+     * @return 从调用prepareAnimation()到准备完成经过的毫秒数，包括排队等待的时间。还没有准备好时为-1
+     */
+    public long getPrepareMillis() {
+        return mPrepareMillis;
+    }
+
+    /**
+     * @return 从开始播放到第一帧主图交给层显示经过的毫秒数，还没有显示第一帧时为-1
+     */
+    public long getFirstFrameMillis() {
+        BQLAnimationLayer layer = mLayer;
+        return layer == null ? -1 : layer.getFirstFrameMillis();
+    }
+
+    /**
+     * 在准备线程中调用，记录准备好的层和耗时
+     */
+    void setLayer(BQLAnimationLayer layer) {
+        mPrepareMillis = SystemClock.uptimeMillis() - mRequestTime;
+        mLayer = layer;
+    }
+
+    /**
+     * 标记为已经开始播放，每个句柄只能开始一次
+     *
+     * @return 是否可以开始播放
+     */
+    synchronized boolean markStarted() {
+        if (mStarted || mCancelled || mLayer == null) return false;
+        mStarted = true;
+        return true;
+    }
+
+    boolean isStarted() {
+        return mStarted;
+    }
+}
@@ -0,0 +1,134 @@
+package com.siyanhui.mojif.bqliveapp;
+
+import android.graphics.Canvas;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+
+/**
+ * 动画的渲染线程，在自己的线程中把BQLLayerCompositor的内容绘制到TextureView或SurfaceView的Surface上，不经过UI线程
+ * 多次渲染请求会被合并，同一时间最多只有一次渲染在排队，它们的重绘区域取并集。绘制目标支持局部更新时只锁定并重绘这个区域
+ */
+class BQLRenderThread extends HandlerThread implements Handler.Callback {
+    private static final int RENDER = 100;
+    private final BQLLayerCompositor mCompositor;
+    private final Object mSurfaceLock = new Object();
+    private Handler mHandler;
+    /**
+     * 以下变量由mSurfaceLock保护
+     */
+    private Target mTarget;
+    private int mWidth;
+    private int mHeight;
+    /**
+     * 以下变量由mDirtyLock保护：还没有渲染的请求的重绘区域
+     */
+    private final Object mDirtyLock = new Object();
+    private final Rect mDirty = new Rect();
+    private boolean mFullRedraw = true;
+    private final Rect mDrawingDirty = new Rect();//只在渲染线程中使用
+
+    BQLRenderThread(BQLLayerCompositor compositor) {
+        super("BQLive_Render_Thread", Process.THREAD_PRIORITY_DISPLAY);
+        mCompositor = compositor;
+    }
+
+    /**
+     * 启动线程，必须在其它方法之前调用
+     */
+    void startRendering() {
+        start();
+        mHandler = new Handler(getLooper(), this);
+    }
+
+    /**
+     * 停止线程，之后不能再使用这个对象
+     */
+    void quitRendering() {
+        setTarget(null, 0, 0);
+        quit();
+    }
+
+    /**
+     * 设置绘制目标。这个方法返回后渲染线程不会再使用旧的目标，因此可以在Surface销毁的回调中调用
+     *
+     * @param target 新的绘制目标，为null表示Surface已经不可用
+     */
+    void setTarget(Target target, int width, int height) {
+        synchronized (mSurfaceLock) {
+            mTarget = target;
+            mWidth = width;
+            mHeight = height;
+        }
+        requestRender();
+    }
+
+    /**
+     * 请求重绘整个画布，可以在任意线程调用
+     */
+    void requestRender() {
+        requestRender(null);
+    }
+
+    /**
+     * 请求渲染一次，可以在任意线程调用
+     *
+     * @param dirty 需要重绘的区域，为null时重绘整个画布
+     */
+    void requestRender(Rect dirty) {
+        synchronized (mDirtyLock) {
+            if (dirty == null) {
+                mFullRedraw = true;
+            } else {
+                mDirty.union(dirty);
+            }
+        }
+        Handler handler = mHandler;
+        if (handler != null && !handler.hasMessages(RENDER)) {
+            handler.sendEmptyMessage(RENDER);
+        }
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        if (msg.what == RENDER) {
+            boolean fullRedraw;
+            synchronized (mDirtyLock) {
+                fullRedraw = mFullRedraw;
+                mDrawingDirty.set(mDirty);
+                mFullRedraw = false;
+                mDirty.setEmpty();
+            }
+            if (!fullRedraw && mDrawingDirty.isEmpty()) return true;
+            synchronized (mSurfaceLock) {//绘制过程中持有锁，保证Surface不会在绘制过程中被销毁
+                if (mTarget == null) return true;
+                Canvas canvas = mTarget.lockCanvas(fullRedraw ? null : mDrawingDirty);
+                if (canvas == null) return true;
+                try {
+                    canvas.drawColor(0, PorterDuff.Mode.CLEAR);
+                    mCompositor.draw(canvas, mWidth, mHeight);
+                } finally {
+                    mTarget.unlockCanvasAndPost(canvas);
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 渲染线程的绘制目标，对TextureView和SurfaceView的Surface做了统一的封装
+     */
+    interface Target {
+        /**
+         * @param dirty 需要重绘的区域，为null时重绘整个画布。支持局部更新的目标返回裁剪到这个区域的画布，否则返回整个画布
+         * @return 锁定的画布，Surface不可用时返回null
+         */
+        Canvas lockCanvas(Rect dirty);
+
+        void unlockCanvasAndPost(Canvas canvas);
+    }
+}
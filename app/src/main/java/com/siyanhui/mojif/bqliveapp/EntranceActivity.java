@@ -13,10 +13,10 @@ import android.widget.Toast;
 
 import com.siyanhui.mojif.bqlive.BQLive;
 import com.siyanhui.mojif.bqlive.support.BQLiveSupport;
-import com.siyanhui.mojif.bqlive.support.api.callback.BQLDownloadCallback;
 import com.siyanhui.mojif.bqlive.support.api.callback.BQLGetGiftsCallback;
 import com.siyanhui.mojif.bqlive.support.model.BQLGift;
 import com.siyanhui.mojif.bqliveapp.adapter.GiftListAdapter;
+import com.siyanhui.mojif.bqliveapp.gift.BQLGiftWarmer;
 
 import java.util.List;
 
@@ -27,22 +27,28 @@ import java.util.List;
 public class EntranceActivity extends Activity {
     private static final int LIST_GOT = 100, GIFT_DOWNLOADED = 101, GIFT_UPDATED = 102;
     private GiftListAdapter mAdapter;
+    private BQLGiftWarmer mGiftWarmer;
+    private List<BQLGift> mGifts;
     private Handler mainHandler = new Handler(Looper.getMainLooper()) {
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case LIST_GOT:
                     List<BQLGift> gifts = castAdapterGifts(msg.obj);
+                    mGifts = gifts;
                     mAdapter.setGifts(gifts);
                     mAdapter.notifyDataSetChanged();
+                    mGiftWarmer.warmUp(gifts);//提前准备热门礼物的配置和前几帧
                     break;
                 case GIFT_DOWNLOADED:
                     Toast.makeText(EntranceActivity.this, R.string.completing_download, Toast.LENGTH_SHORT).show();
                     mAdapter.notifyDataSetChanged();
+                    if (mGifts != null) mGiftWarmer.warmUp(mGifts);//新下载的礼物可能进入前几名
                     break;
                 case GIFT_UPDATED:
                     Toast.makeText(EntranceActivity.this, R.string.completing_update, Toast.LENGTH_SHORT).show();
                     mAdapter.notifyDataSetChanged();
+                    if (mGifts != null) mGiftWarmer.warmUp(mGifts);
             }
         }
 
@@ -58,10 +64,21 @@ public class EntranceActivity extends Activity {
         mAdapter.notifyDataSetChanged();
     }
 
+    @Override
+    protected void onDestroy() {
+        mGiftWarmer.release();
+        super.onDestroy();
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_entrance);
+        /**
+         * 预热排名前5的礼物的前3帧。播放礼物的控件几乎占满屏幕，按屏幕尺寸预热
+         */
+        mGiftWarmer = new BQLGiftWarmer(5, 3);
+        mGiftWarmer.setViewport(getResources().getDisplayMetrics().widthPixels, getResources().getDisplayMetrics().heightPixels);
         mAdapter = new GiftListAdapter();
         ListView listView = (ListView) findViewById(R.id.listView);
         listView.setAdapter(mAdapter);
@@ -73,39 +90,44 @@ public class EntranceActivity extends Activity {
                     BQLGift gift = (BQLGift) object;
                     if (gift.isNeedingUpdate()) {
                         Toast.makeText(EntranceActivity.this, R.string.starting_update, Toast.LENGTH_SHORT).show();
-                        //升级的时候，首先删除，然后下载
+                        //升级的时候，首先删除，然后下载。预热过的内容已经过时
+                        BQLGiftWarmer.invalidate(gift.getGuid());
                         BQLiveSupport.deleteGiftByID(gift.getGuid());
                         BQLive.reportGiftUpdated("userId", "userName", gift.getGuid(), gift.getName(), gift.getPrice());
-                        BQLiveSupport.downloadGift(gift, new BQLDownloadCallback() {
+                        BQLGiftDownloader.getDefault().download(gift, new BQLGiftDownloader.Callback() {
+                            @Override
+                            public void onPrepared(String animationDirectory) {
+                            }
+
                             @Override
-                            public void onSuccess() {
+                            public void onSuccess(String animationDirectory) {
                                 mainHandler.sendEmptyMessage(GIFT_UPDATED);
                             }
 
                             @Override
-                            public void onFailure() {
+                            public void onFailure(String animationDirectory) {
                             }
                         });
                     } else if (BQLiveSupport.localGiftExists(gift.getGuid())) {
-                        //调用MainActivity进行播放
-                        Intent intent = new Intent(EntranceActivity.this, MainActivity.class);
-                        intent.putExtra("guid", gift.getGuid());
-                        intent.putExtra("name", gift.getName());
-                        intent.putExtra("price", gift.getPrice());
-                        intent.putExtra("fullScreen", gift.getFullScreenType() == 1);
-                        startActivity(intent);
+                        play(gift);
                     } else {
                         Toast.makeText(EntranceActivity.this, R.string.starting_download, Toast.LENGTH_SHORT).show();
-                        //下载的时候，直接使用BQLiveSupport中的函数
+                        //边下载边解压，配置和子动画图片解压之后就开始播放，播放器等待主图解压
                         BQLive.reportGiftDownloaded("userId", "userName", gift.getGuid(), gift.getName(), gift.getPrice());
-                        BQLiveSupport.downloadGift(gift, new BQLDownloadCallback() {
+                        final BQLGift downloadingGift = gift;
+                        BQLGiftDownloader.getDefault().download(gift, new BQLGiftDownloader.Callback() {
                             @Override
-                            public void onSuccess() {
+                            public void onPrepared(String animationDirectory) {
+                                play(downloadingGift);
+                            }
+
+                            @Override
+                            public void onSuccess(String animationDirectory) {
                                 mainHandler.sendEmptyMessage(GIFT_DOWNLOADED);
                             }
 
                             @Override
-                            public void onFailure() {
+                            public void onFailure(String animationDirectory) {
                             }
                         });
                     }
@@ -125,4 +147,16 @@ public class EntranceActivity extends Activity {
             }
         });
     }
+
+    /**
+     * 调用MainActivity进行播放
+     */
+    private void play(BQLGift gift) {
+        Intent intent = new Intent(EntranceActivity.this, MainActivity.class);
+        intent.putExtra("guid", gift.getGuid());
+        intent.putExtra("name", gift.getName());
+        intent.putExtra("price", gift.getPrice());
+        intent.putExtra("fullScreen", gift.getFullScreenType() == 1);
+        startActivity(intent);
+    }
 }
@@ -10,9 +10,13 @@ import android.widget.Toast;
 
 import com.siyanhui.mojif.bqlive.BQLive;
 import com.siyanhui.mojif.bqlive.support.BQLiveSupport;
+import com.siyanhui.mojif.bqliveapp.gift.BQLGiftEvent;
+import com.siyanhui.mojif.bqliveapp.gift.BQLGiftScheduler;
+import com.siyanhui.mojif.bqliveapp.gift.BQLGiftWarmer;
 
 public class MainActivity extends Activity {
     private BQLAnimationView mImageView;
+    private BQLGiftScheduler mGiftScheduler;
     private View mActionBar;
     private Handler mainHandler = new Handler(Looper.getMainLooper()) {
         @Override
@@ -39,9 +43,21 @@ public class MainActivity extends Activity {
          * 这个View用于播放礼物动画
          */
         mImageView = (BQLAnimationView) findViewById(R.id.image_live);
-        mImageView.setOnCompletionListener(new BQLAnimationView.OnCompletionListener() {
+        /**
+         * 礼物不直接交给View播放，而是先进入播放队列，由队列决定播放顺序、合并连击以及丢弃积压的礼物
+         */
+        mGiftScheduler = new BQLGiftScheduler(mImageView);
+        mGiftScheduler.setListener(new BQLGiftScheduler.Listener() {
+            @Override
+            public void onGiftStart(BQLGiftEvent event) {
+            }
+
             @Override
-            public void onCompletion() {
+            public void onGiftDropped(BQLGiftEvent event) {
+            }
+
+            @Override
+            public void onQueueEmpty() {
                 mainHandler.sendEmptyMessage(0);
             }
         });
@@ -54,6 +70,7 @@ public class MainActivity extends Activity {
             final String name = bundle.getString("name");
             final String price = bundle.getString("price");
             final boolean fullScreen = bundle.getBoolean("fullScreen");
+            final float giftPrice = BQLGiftEvent.parsePrice(price);
             findViewById(R.id.send).setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
@@ -62,7 +79,7 @@ public class MainActivity extends Activity {
                      */
                     BQLive.reportGiftSent("userId", "userName", "hostId", "hostName", guid, name, price);
                     mActionBar.setVisibility(View.GONE);
-                    mImageView.playAnimation(BQLiveSupport.getLocalGiftPath(guid), "表情主播", "表情观众", fullScreen);
+                    mGiftScheduler.enqueue(new BQLGiftEvent(guid, BQLiveSupport.getLocalGiftPath(guid), "userId", "表情主播", "表情观众", fullScreen, giftPrice));
                 }
             });
 
@@ -74,12 +91,13 @@ public class MainActivity extends Activity {
                      */
                     BQLive.reportGiftViewed("userId", "userName", "hostId", "hostName", guid, name, price);
                     mActionBar.setVisibility(View.GONE);
-                    mImageView.playAnimation(BQLiveSupport.getLocalGiftPath(guid), "表情主播", "表情观众", fullScreen);
+                    mGiftScheduler.enqueue(new BQLGiftEvent(guid, BQLiveSupport.getLocalGiftPath(guid), "userId", "表情主播", "表情观众", fullScreen, giftPrice));
                 }
             });
             findViewById(R.id.delete).setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
+                    BQLGiftWarmer.invalidate(guid);
                     BQLiveSupport.deleteGiftByID(guid);
                     Toast.makeText(MainActivity.this, "删除完毕", Toast.LENGTH_SHORT).show();
                     finish();
@@ -87,4 +105,23 @@ public class MainActivity extends Activity {
             });
         }
     }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mImageView.onResume();
+    }
+
+    @Override
+    protected void onPause() {
+        mImageView.onPause();//在后台时暂停所有礼物动画，不再解码
+        super.onPause();
+    }
+
+    @Override
+    protected void onDestroy() {
+        mGiftScheduler.clear();
+        mImageView.stopAnimations();
+        super.onDestroy();
+    }
 }
@@ -0,0 +1,109 @@
+package com.siyanhui.mojif.bqliveapp.gift;
+
+/**
+ * 一次送礼事件，由BQLGiftScheduler排队后交给BQLAnimationView播放
+ * 同一个送礼者连续送出的同一种礼物会被合并成一个事件，用连击数表示送出的次数
+ */
+public class BQLGiftEvent {
+    private final String mGuid;
+    private final String mAnimationDirectory;
+    private final String mSenderId;
+    private final String mHostNickName;
+    private final String mSenderNickName;
+    private final String mSenderAvatarUri;
+    private final boolean mFullScreen;
+    private final float mPrice;
+    /**
+     * 以下变量由BQLGiftScheduler维护
+     */
+    int mComboCount = 1;
+    long mEnqueueTime;
+    long mSequence;
+    boolean mDemoted;
+
+    /**
+     * @param guid               礼物的guid
+     * @param animationDirectory 动画在文件系统中的路径
+     * @param senderId           送礼者的id，用于合并连击
+     * @param hostNickName       主播昵称
+     * @param senderNickName     送礼者昵称
+     * @param fullScreen         是否全屏
+     * @param price              礼物价格，用于排序
+     */
+    public BQLGiftEvent(String guid, String animationDirectory, String senderId, String hostNickName, String senderNickName, boolean fullScreen, float price) {
+        this(guid, animationDirectory, senderId, hostNickName, senderNickName, null, fullScreen, price);
+    }
+
+    /**
+     * @param senderAvatarUri 送礼者头像的网址或本地文件路径，为null时使用自带的头像
+     * @see #BQLGiftEvent(String, String, String, String, String, boolean, float)
+     */
+    public BQLGiftEvent(String guid, String animationDirectory, String senderId, String hostNickName, String senderNickName, String senderAvatarUri, boolean fullScreen, float price) {
+        mGuid = guid;
+        mAnimationDirectory = animationDirectory;
+        mSenderId = senderId;
+        mHostNickName = hostNickName;
+        mSenderNickName = senderNickName;
+        mSenderAvatarUri = senderAvatarUri;
+        mFullScreen = fullScreen;
+        mPrice = price;
+    }
+
+    /**
+     * 把BQLGift中字符串形式的价格转换成数字，无法解析时返回0
+     */
+    public static float parsePrice(String price) {
+        if (price == null) return 0;
+        try {
+            return Float.parseFloat(price.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 同一个送礼者送出的同一种礼物具有相同的连击key
+     */
+    String getComboKey() {
+        return mSenderId + '/' + mGuid;
+    }
+
+    public String getGuid() {
+        return mGuid;
+    }
+
+    public String getAnimationDirectory() {
+        return mAnimationDirectory;
+    }
+
+    public String getSenderId() {
+        return mSenderId;
+    }
+
+    public String getHostNickName() {
+        return mHostNickName;
+    }
+
+    public String getSenderNickName() {
+        return mSenderNickName;
+    }
+
+    public String getSenderAvatarUri() {
+        return mSenderAvatarUri;
+    }
+
+    public boolean isFullScreen() {
+        return mFullScreen;
+    }
+
+    public float getPrice() {
+        return mPrice;
+    }
+
+    /**
+     * @return 这个事件合并了多少次送礼
+     */
+    public int getComboCount() {
+        return mComboCount;
+    }
+}
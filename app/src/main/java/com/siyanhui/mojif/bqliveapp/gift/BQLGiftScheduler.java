@@ -0,0 +1,281 @@
+package com.siyanhui.mojif.bqliveapp.gift;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+
+import com.siyanhui.mojif.bqliveapp.BQLAnimationView;
+import com.siyanhui.mojif.bqliveapp.BQLPreparedAnimation;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * 礼物播放队列，位于BQLAnimationView之前，控制同一时间在播放的礼物数量（默认为1）
+ * 1. 可以在任意线程调用enqueue()
+ * 2. 全屏礼物优先，其次按价格从高到低，价格相同时先到先播
+ * 3. 同一个送礼者送出的同一种礼物如果还在排队，就合并成一个事件并增加连击数
+ * 4. 队列超过最大长度时丢弃优先级最低的礼物；等待超时的礼物会被丢弃，全屏礼物则降级到队尾而不是直接丢弃
+ * 5. 出队的礼物先在后台线程中准备，准备好之后才开始播放，准备中的礼物也计入正在播放的数量
+ */
+public class BQLGiftScheduler implements BQLAnimationView.OnCompletionListener {
+    private static final int PLAY_NEXT = 100;
+    private static final Comparator<BQLGiftEvent> PRIORITY_ORDER = new Comparator<BQLGiftEvent>() {
+        @Override
+        public int compare(BQLGiftEvent lhs, BQLGiftEvent rhs) {
+            if (lhs.mDemoted != rhs.mDemoted) return lhs.mDemoted ? 1 : -1;
+            if (lhs.isFullScreen() != rhs.isFullScreen()) return lhs.isFullScreen() ? -1 : 1;
+            int result = Float.compare(rhs.getPrice(), lhs.getPrice());
+            if (result != 0) return result;
+            return lhs.mSequence < rhs.mSequence ? -1 : (lhs.mSequence == rhs.mSequence ? 0 : 1);
+        }
+    };
+    private final BQLAnimationView mView;
+    private final PriorityQueue<BQLGiftEvent> mQueue = new PriorityQueue<>(16, PRIORITY_ORDER);
+    private final Map<String, BQLGiftEvent> mQueuedCombos = new HashMap<>();//用于查找还在排队、可以合并的事件
+    private int mMaxDepth = 20;
+    private long mMaxWaitMillis = 10000;
+    private long mSequence = 0;
+    private int mMaxConcurrent = 1;
+    private int mPlayingCount = 0;
+    private Listener mListener;
+    private Handler mMainHandler = new Handler(Looper.getMainLooper()) {
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.what == PLAY_NEXT) {
+                playNext();
+            }
+        }
+    };
+
+    /**
+     * @param view 用于播放礼物的控件，调度器会接管它的OnCompletionListener
+     */
+    public BQLGiftScheduler(BQLAnimationView view) {
+        mView = view;
+        mView.setOnCompletionListener(this);
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @param maxDepth 队列的最大长度，超出时丢弃优先级最低的礼物
+     */
+    public synchronized void setMaxDepth(int maxDepth) {
+        mMaxDepth = maxDepth;
+    }
+
+    /**
+     * @param maxConcurrent 同一时间最多有几个礼物在BQLAnimationView中同时播放，超过1时非全屏礼物会画在全屏礼物上面
+     */
+    public void setMaxConcurrent(int maxConcurrent) {
+        synchronized (this) {
+            mMaxConcurrent = maxConcurrent;
+        }
+        mMainHandler.sendEmptyMessage(PLAY_NEXT);
+    }
+
+    /**
+     * @param maxWaitMillis 礼物在队列中等待的最长时间，超时的礼物会被丢弃或降级
+     */
+    public synchronized void setMaxWaitMillis(long maxWaitMillis) {
+        mMaxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * 把一个送礼事件加入队列，可以在任意线程调用
+     */
+    public void enqueue(BQLGiftEvent event) {
+        BQLGiftEvent dropped = null;
+        synchronized (this) {
+            BQLGiftEvent combo = mQueuedCombos.get(event.getComboKey());
+            if (combo != null) {//还在排队的同一礼物，直接合并
+                combo.mComboCount += event.mComboCount;
+            } else {
+                event.mEnqueueTime = SystemClock.uptimeMillis();
+                event.mSequence = mSequence++;
+                event.mDemoted = false;
+                mQueue.add(event);
+                mQueuedCombos.put(event.getComboKey(), event);
+                if (mQueue.size() > mMaxDepth) {
+                    dropped = removeLowest();
+                }
+            }
+        }
+        if (dropped != null) {
+            notifyDropped(dropped);
+        }
+        mMainHandler.sendEmptyMessage(PLAY_NEXT);
+    }
+
+    /**
+     * 清空队列，正在播放的礼物不受影响
+     */
+    public synchronized void clear() {
+        mQueue.clear();
+        mQueuedCombos.clear();
+    }
+
+    /**
+     * @return 正在排队的礼物数量
+     */
+    public synchronized int getQueueSize() {
+        return mQueue.size();
+    }
+
+    /**
+     * 找到并移出优先级最低的事件。PriorityQueue只能高效地取出队首，队尾需要遍历
+     */
+    private BQLGiftEvent removeLowest() {
+        BQLGiftEvent lowest = null;
+        for (BQLGiftEvent event : mQueue) {
+            if (lowest == null || PRIORITY_ORDER.compare(event, lowest) > 0) {
+                lowest = event;
+            }
+        }
+        if (lowest != null) {
+            mQueue.remove(lowest);
+            mQueuedCombos.remove(lowest.getComboKey());
+        }
+        return lowest;
+    }
+
+    /**
+     * 处理等待超时的事件：全屏礼物降级，其余丢弃
+     *
+     * @param dropped 用于返回被丢弃的事件
+     */
+    private void expireEvents(List<BQLGiftEvent> dropped) {
+        long deadline = SystemClock.uptimeMillis() - mMaxWaitMillis;
+        List<BQLGiftEvent> expired = null;
+        for (BQLGiftEvent event : mQueue) {
+            if (!event.mDemoted && event.mEnqueueTime < deadline) {
+                if (expired == null) expired = new ArrayList<>();
+                expired.add(event);
+            }
+        }
+        if (expired == null) return;
+        for (BQLGiftEvent event : expired) {
+            mQueue.remove(event);
+            if (event.isFullScreen()) {//降级后重新入队，排在所有未降级的礼物之后
+                event.mDemoted = true;
+                mQueue.add(event);
+            } else {
+                mQueuedCombos.remove(event.getComboKey());
+                dropped.add(event);
+            }
+        }
+    }
+
+    /**
+     * 在主线程中播放下一个礼物
+     */
+    private void playNext() {
+        List<BQLGiftEvent> dropped = new ArrayList<>();
+        while (true) {
+            BQLGiftEvent event;
+            synchronized (this) {
+                if (mPlayingCount >= mMaxConcurrent) break;
+                expireEvents(dropped);
+                event = mQueue.poll();
+                if (event == null) break;
+                mQueuedCombos.remove(event.getComboKey());
+                ++mPlayingCount;
+            }
+            prepare(event);
+        }
+        for (BQLGiftEvent event : dropped) {
+            notifyDropped(event);
+        }
+        boolean idle;
+        synchronized (this) {
+            idle = mPlayingCount == 0 && mQueue.isEmpty();
+        }
+        if (idle && mListener != null) {
+            mListener.onQueueEmpty();
+        }
+    }
+
+    /**
+     * 在后台线程中准备礼物动画，准备好之后在主线程中开始播放
+     */
+    private void prepare(final BQLGiftEvent event) {
+        mView.prepareAnimation(event.getAnimationDirectory(), event.getHostNickName(), event.getSenderNickName(), event.getSenderId(), event.getSenderAvatarUri(),
+                event.isFullScreen(), event.isFullScreen() ? 0 : 1, new BQLAnimationView.PrepareCallback() {
+            @Override
+            public void onPrepared(BQLPreparedAnimation prepared) {
+                if (mView.startAnimation(prepared) != null) {
+                    if (mListener != null) {
+                        mListener.onGiftStart(event);
+                    }
+                } else {
+                    onPrepareFailed(prepared);
+                }
+            }
+
+            @Override
+            public void onPrepareFailed(BQLPreparedAnimation prepared) {
+                skip(event);//动画无法播放，跳过它
+            }
+
+            @Override
+            public void onPrepareCancelled(BQLPreparedAnimation prepared) {
+                skip(event);//例如控件离开了窗口，归还占用的播放名额，之后的礼物仍然可以播放
+            }
+        });
+    }
+
+    /**
+     * 一个出队的礼物没有开始播放，归还它占用的播放名额并播放下一个
+     */
+    private void skip(BQLGiftEvent event) {
+        synchronized (this) {
+            --mPlayingCount;
+        }
+        notifyDropped(event);
+        playNext();
+    }
+
+    private void notifyDropped(BQLGiftEvent event) {
+        if (mListener != null) {
+            mListener.onGiftDropped(event);
+        }
+    }
+
+    /**
+     * BQLAnimationView在播放线程中回调，切换到主线程播放下一个礼物
+     */
+    @Override
+    public void onCompletion() {
+        synchronized (this) {
+            if (mPlayingCount > 0) {
+                --mPlayingCount;
+            }
+        }
+        mMainHandler.sendEmptyMessage(PLAY_NEXT);
+    }
+
+    public interface Listener {
+        /**
+         * 一个礼物开始播放，在主线程中回调
+         */
+        void onGiftStart(BQLGiftEvent event);
+
+        /**
+         * 一个礼物因为队列过长、等待超时、无法播放或准备被取消而被丢弃，可能在调用enqueue()的线程中回调
+         */
+        void onGiftDropped(BQLGiftEvent event);
+
+        /**
+         * 没有正在播放和排队的礼物，在主线程中回调
+         */
+        void onQueueEmpty();
+    }
+}
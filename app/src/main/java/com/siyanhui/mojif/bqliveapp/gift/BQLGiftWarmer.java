@@ -0,0 +1,206 @@
+package com.siyanhui.mojif.bqliveapp.gift;
+
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.siyanhui.mojif.bqlive.support.BQLiveSupport;
+import com.siyanhui.mojif.bqlive.support.model.BQLGift;
+import com.siyanhui.mojif.bqliveapp.BQLAnimationLayer;
+import com.siyanhui.mojif.bqliveapp.BQLAnimationSpec;
+import com.siyanhui.mojif.bqliveapp.BQLAnimationSpecCache;
+import com.siyanhui.mojif.bqliveapp.BQLFrameBoundsIndex;
+import com.siyanhui.mojif.bqliveapp.graphics.BQLBitmapPool;
+import com.siyanhui.mojif.bqliveapp.graphics.BQLFrame;
+import com.siyanhui.mojif.bqliveapp.graphics.BQLFrameCache;
+import com.siyanhui.mojif.bqliveapp.graphics.BQLFrameCompositor;
+import com.siyanhui.mojif.bqliveapp.graphics.BQLFrameGeometry;
+import com.siyanhui.mojif.bqliveapp.graphics.BQLSpriteCache;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 礼物预热服务
+ * 拿到礼物列表之后，在后台线程中为排名靠前的N个礼物提前解析动画配置、生成子动画图片、扫描主图的不透明范围，并解码合成前K帧主图放入BQLFrameCache，
+ * 用户点击发送时，播放器的第一批解码任务直接从缓存中复制，不需要再等待配置解析和JPEG解码
+ * 排名方式可以替换，默认按价格从高到低。缓存满了之后不再预热，排名靠后的礼物不会挤掉排名靠前的
+ */
+public class BQLGiftWarmer {
+    /**
+     * 按价格从高到低
+     */
+    public static final Comparator<BQLGift> BY_PRICE = new Comparator<BQLGift>() {
+        @Override
+        public int compare(BQLGift lhs, BQLGift rhs) {
+            return Float.compare(BQLGiftEvent.parsePrice(rhs.getPrice()), BQLGiftEvent.parsePrice(lhs.getPrice()));
+        }
+    };
+    /**
+     * 按更新时间从新到旧，没有更新时间时使用创建时间
+     */
+    public static final Comparator<BQLGift> BY_RECENCY = new Comparator<BQLGift>() {
+        @Override
+        public int compare(BQLGift lhs, BQLGift rhs) {
+            long lhsTime = timeOf(lhs), rhsTime = timeOf(rhs);
+            return lhsTime > rhsTime ? -1 : (lhsTime == rhsTime ? 0 : 1);
+        }
+
+        private long timeOf(BQLGift gift) {
+            Long time = gift.getLastUpdatedTime();
+            if (time == null) time = gift.getCreatedTime();
+            return time == null ? 0 : time;
+        }
+    };
+    private final HandlerThread mThread = new HandlerThread("BQLive_Gift_Warmer", Process.THREAD_PRIORITY_BACKGROUND);
+    private final Handler mHandler;
+    private final int mTopCount;
+    private final int mFramesPerGift;
+    private volatile int mGeneration = 0;//每次提交新的列表都会加一，正在进行的预热发现它变化后立即停止
+    private Comparator<BQLGift> mRanking = BY_PRICE;
+    private BQLFrameCompositor mFrameCompositor = new BQLFrameCompositor(BQLFrameCompositor.CHANNELS_COMPACT, BQLFrameCompositor.COMPOSITE_KERNEL);
+    private volatile int mViewWidth = 0;
+    private volatile int mViewHeight = 0;
+
+    /**
+     * @param topCount      预热排名前几的礼物
+     * @param framesPerGift 每个礼物预热前几帧
+     */
+    public BQLGiftWarmer(int topCount, int framesPerGift) {
+        mTopCount = topCount;
+        mFramesPerGift = framesPerGift;
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * 丢弃一个礼物预热过的配置、子动画图片、不透明范围和主图，在礼物被删除或更新之后调用
+     */
+    public static void invalidate(String guid) {
+        String animationDirectory = BQLiveSupport.getLocalGiftPath(guid);
+        if (animationDirectory == null) return;
+        BQLAnimationSpecCache.getDefault().remove(animationDirectory);
+        BQLFrameCache.getDefault().removeDirectory(animationDirectory);
+        BQLSpriteCache.getDefault().removeDirectory(animationDirectory);
+        BQLFrameBoundsIndex.getDefault().remove(animationDirectory);
+    }
+
+    /**
+     * @param ranking 礼物的排名方式，排在前面的先预热
+     */
+    public synchronized void setRanking(Comparator<BQLGift> ranking) {
+        mRanking = ranking;
+    }
+
+    /**
+     * 设置播放礼物的控件尺寸，全屏礼物按这个尺寸降采样和裁剪。实际播放时控件不大于这个尺寸就能使用预热的帧
+     */
+    public void setViewport(int viewWidth, int viewHeight) {
+        mViewWidth = viewWidth;
+        mViewHeight = viewHeight;
+    }
+
+    /**
+     * 选择预热时两个通道的合成方式，应该和播放时一致
+     *
+     * @param compositeMode BQLFrameCompositor.COMPOSITE_CANVAS、BQLFrameCompositor.COMPOSITE_KERNEL或BQLFrameCompositor.COMPOSITE_ON_DRAW
+     */
+    public synchronized void setCompositeMode(int compositeMode) {
+        mFrameCompositor = new BQLFrameCompositor(mFrameCompositor.getChannelMode(), compositeMode);
+    }
+
+    /**
+     * 根据新的礼物列表重新预热，之前还没有完成的预热会被放弃。可以在任意线程调用
+     */
+    public void warmUp(List<BQLGift> gifts) {
+        final List<BQLGift> ranked = new ArrayList<>(gifts);
+        final Comparator<BQLGift> ranking;
+        final BQLFrameCompositor frameCompositor;
+        final int generation;
+        synchronized (this) {
+            ranking = mRanking;
+            frameCompositor = mFrameCompositor;
+            generation = ++mGeneration;
+        }
+        mHandler.removeCallbacksAndMessages(null);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Collections.sort(ranked, ranking);
+                int warmed = 0;
+                for (BQLGift gift : ranked) {
+                    if (warmed >= mTopCount || generation != mGeneration) return;
+                    //只预热已经下载、不需要更新的礼物
+                    if (gift.isNeedingUpdate() || !BQLiveSupport.localGiftExists(gift.getGuid())) continue;
+                    ++warmed;
+                    if (!warmUp(gift, frameCompositor, generation)) return;//缓存已满
+                }
+            }
+        });
+    }
+
+    /**
+     * 预热一个礼物
+     *
+     * @return 是否还可以继续预热下一个礼物
+     */
+    private boolean warmUp(BQLGift gift, BQLFrameCompositor frameCompositor, int generation) {
+        String animationDirectory = BQLiveSupport.getLocalGiftPath(gift.getGuid());
+        if (animationDirectory == null) return true;
+        BQLAnimationSpec config;
+        try {
+            config = BQLAnimationSpecCache.getDefault().get(animationDirectory);
+        } catch (JSONException | IOException e) {
+            e.printStackTrace();
+            return true;
+        }
+        if (config == null) return true;
+        List<BQLAnimationSpec.SubAnimation> subAnimations = config.getSubAnimations();
+        if (subAnimations != null) {
+            for (BQLAnimationSpec.SubAnimation subAnimation : subAnimations) {
+                BQLSpriteCache.getDefault().get(animationDirectory, subAnimation.getName(), subAnimation.getStyle());//子动画图片和配置一样，播放时直接使用
+            }
+        }
+        BQLFrameBoundsIndex.getDefault().build(animationDirectory, config.getFrame());//已经扫描过时直接从礼物目录读取
+        boolean fullScreen = gift.getFullScreenType() == 1;
+        int[] frameIndices = config.getFrameIndices();
+        int frameCount = config.getFrame();//和播放器一样，第n帧显示的是frameIndices[n]
+        BQLFrameCache frameCache = BQLFrameCache.getDefault();
+        for (int i = 0; i < Math.min(mFramesPerGift, frameCount); ++i) {
+            if (generation != mGeneration) return false;
+            int index = frameIndices == null ? i : frameIndices[i];
+            String colorFile = BQLAnimationLayer.getColorFile(animationDirectory, index);
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(colorFile, bounds);
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) continue;
+            BQLFrameGeometry geometry = BQLFrameGeometry.plan(bounds.outWidth, bounds.outHeight, mViewWidth, mViewHeight, fullScreen, 1);
+            BQLFrameGeometry cachedGeometry = frameCache.getGeometry(colorFile);
+            if (cachedGeometry != null && cachedGeometry.covers(geometry)) continue;//已经预热过
+            BQLFrame frame = frameCompositor.decodeFrame(colorFile, BQLAnimationLayer.getAlphaFile(animationDirectory, index), geometry);
+            if (frame == null) continue;
+            if (!frameCache.offer(colorFile, frame)) {
+                frame.recycle(BQLBitmapPool.getDefault());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 停止预热并结束后台线程，已经预热好的内容仍然保留在缓存中
+     */
+    public void release() {
+        synchronized (this) {
+            ++mGeneration;
+        }
+        mHandler.removeCallbacksAndMessages(null);
+        mThread.quit();
+    }
+}
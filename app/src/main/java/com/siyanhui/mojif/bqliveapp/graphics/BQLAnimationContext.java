@@ -1,16 +1,14 @@
 package com.siyanhui.mojif.bqliveapp.graphics;
 
 import android.graphics.Bitmap;
-import android.graphics.Paint;
-import android.graphics.RectF;
+import android.graphics.Matrix;
 import android.text.TextPaint;
+import android.text.TextUtils;
 
-import com.siyanhui.mojif.bqlive.BQLive;
+import com.siyanhui.mojif.bqliveapp.BQLAnimationSpec;
+import com.siyanhui.mojif.bqliveapp.core.BQLTimeline;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * 含有动画在播放过程中需要的各种相关信息，和BQLPngSequencePlayer配合使用
@@ -18,13 +16,15 @@ import java.util.Map;
  * Created by lixiao on 16-9-26.
  */
 public class BQLAnimationContext {
+    /**
+     * 时间轴中各元素的序号，第i个子动画的序号为SUB_ANIMATION_BASE + i
+     */
+    public static final int HOST_AVATAR = 0, SENDER_AVATAR = 1, HOST_NICKNAME = 2, SENDER_NICKNAME = 3, SUB_ANIMATION_BASE = 4;
     /**
      * 主播和送礼者头像的帧参数列表，用于计算头像矩阵
      */
-    private BQLive.FrameConfig[] mHostAvatarAnimationFrames;
-    private BQLive.FrameConfig[] mSenderAvatarAnimationFrames;
-    private BQLive.SpriteConfig mHostAvatarConfig;
-    private BQLive.SpriteConfig mSenderAvatarConfig;
+    private BQLAnimationSpec.Track mHostAvatarAnimationFrames;
+    private BQLAnimationSpec.Track mSenderAvatarAnimationFrames;
     /**
      * 这里存储头像Bitmap的宽高信息
      */
@@ -33,32 +33,36 @@ public class BQLAnimationContext {
     private int mSenderAvatarWidth;
     private int mSenderAvatarHeight;
     /**
-     * 子动画的参数和头像类似，包括帧参数列表和Bitmap的宽高，唯一不确定的是子动画的数量不确定，因此需要记下每个子动画的名称，并将所有参数放在Map中
+     * 子动画的参数和头像类似，包括帧参数列表和Bitmap的宽高。子动画的数量不确定，每个子动画在addSubAnimation()时被分配一个连续的序号，
+     * 所有参数都按序号存放在数组中，播放过程中不需要按名称查找
      */
-    private List<String> mSubAnimationNames = new ArrayList<>();
-    private Map<String, BQLive.SubAnimationConfig> mSubAnimations = new HashMap<>();//用于获取子动画的帧参数列表
-    private Map<String, Integer> mSubAnimationSpriteWidths = new HashMap<>();
-    private Map<String, Integer> mSubAnimationSpriteHeights = new HashMap<>();
+    private int mSubAnimationCount = 0;
+    private String[] mSubAnimationNames = new String[0];
+    private BQLAnimationSpec.Track[] mSubAnimationFrames = new BQLAnimationSpec.Track[0];
+    private int[] mSubAnimationSpriteWidths = new int[0];
+    private int[] mSubAnimationSpriteHeights = new int[0];
     /**
      * 以下八个个参数用于计算昵称矩阵
      */
     private String mHostName;
     private String mSenderName;
-    private BQLive.FrameConfig[] mHostNickNameFrames;
-    private BQLive.FrameConfig[] mSenderNickNameFrames;
-    private BQLive.NicknameConfig mHostNickNameConfig;   //用于获取昵称的对齐方式
-    private BQLive.NicknameConfig mSenderNickNameConfig;
+    private BQLAnimationSpec.Track mHostNickNameFrames;
+    private BQLAnimationSpec.Track mSenderNickNameFrames;
+    private BQLAnimationSpec.Style mHostNickNameConfig;   //用于获取昵称的对齐方式
+    private BQLAnimationSpec.Style mSenderNickNameConfig;
     private TextPaint mHostNickNamePaint;                //用于计算昵称在屏幕上的大小
     private TextPaint mSenderNickNamePaint;
+    /**
+     * 编译好的时间轴，由compileTimeline()生成
+     */
+    private BQLTimeline mTimeline;
 
     /**
      * 除子动画之外，所有参数的传入都在构造函数里完成
      */
-    public BQLAnimationContext(BQLive.FrameConfig[] hostAvatarAnimationFrames, BQLive.FrameConfig[] senderAvatarAnimationFrames, BQLive.SpriteConfig hostAvatarConfig, BQLive.SpriteConfig senderAvatarConfig, BQLive.FrameConfig[] hostNickNameFrames, BQLive.FrameConfig[] senderNickNameFrames, Bitmap hostAvatar, Bitmap senderAvatar, TextPaint hostNickNamePaint, TextPaint senderNickNamePaint, String hostNickName, String senderNickName, BQLive.NicknameConfig hostNickNameConfig, BQLive.NicknameConfig senderNickNameConfig) {
+    public BQLAnimationContext(BQLAnimationSpec.Track hostAvatarAnimationFrames, BQLAnimationSpec.Track senderAvatarAnimationFrames, BQLAnimationSpec.Track hostNickNameFrames, BQLAnimationSpec.Track senderNickNameFrames, Bitmap hostAvatar, Bitmap senderAvatar, TextPaint hostNickNamePaint, TextPaint senderNickNamePaint, String hostNickName, String senderNickName, BQLAnimationSpec.Style hostNickNameConfig, BQLAnimationSpec.Style senderNickNameConfig) {
         mHostAvatarAnimationFrames = hostAvatarAnimationFrames;
         mSenderAvatarAnimationFrames = senderAvatarAnimationFrames;
-        mHostAvatarConfig = hostAvatarConfig;
-        mSenderAvatarConfig = senderAvatarConfig;
         mHostNickNameFrames = hostNickNameFrames;
         mSenderNickNameFrames = senderNickNameFrames;
         if (hostAvatar != null) {
@@ -82,118 +86,121 @@ public class BQLAnimationContext {
      *
      * @param name   子动画名称
      * @param sprite 子动画Bitmap
-     * @param config 子动画参数
+     * @param frames 子动画的轨道
+     * @return 分配给这个子动画的序号，它在时间轴中的元素序号为SUB_ANIMATION_BASE加上这个序号
      */
-    public void addSubAnimation(String name, Bitmap sprite, BQLive.SubAnimationConfig config) {
-        mSubAnimationNames.add(name);
-        mSubAnimationSpriteWidths.put(name, sprite.getWidth());
-        mSubAnimationSpriteHeights.put(name, sprite.getHeight());
-        mSubAnimations.put(name, config);
-    }
-
-    public int getHostAvatarWidth() {
-        return mHostAvatarWidth;
-    }
-
-    public int getHostAvatarHeight() {
-        return mHostAvatarHeight;
+    public int addSubAnimation(String name, Bitmap sprite, BQLAnimationSpec.Track frames) {
+        int slot = mSubAnimationCount++;
+        if (slot == mSubAnimationNames.length) {
+            int capacity = slot * 2 + 1;
+            mSubAnimationNames = Arrays.copyOf(mSubAnimationNames, capacity);
+            mSubAnimationFrames = Arrays.copyOf(mSubAnimationFrames, capacity);
+            mSubAnimationSpriteWidths = Arrays.copyOf(mSubAnimationSpriteWidths, capacity);
+            mSubAnimationSpriteHeights = Arrays.copyOf(mSubAnimationSpriteHeights, capacity);
+        }
+        mSubAnimationNames[slot] = name;
+        mSubAnimationFrames[slot] = frames;
+        mSubAnimationSpriteWidths[slot] = sprite.getWidth();
+        mSubAnimationSpriteHeights[slot] = sprite.getHeight();
+        return slot;
     }
 
     /**
-     * 返回某一帧主播头像的参数
-     * @param frameNumber 帧序号
-     * @return 帧参数，可能为null
+     * 把整个动画的时间轴一次性编译成数组，之后播放过程中只需要按帧序号读取，不需要再计算或分配对象
+     * 必须在所有子动画都通过addSubAnimation()传入之后调用
+     *
+     * @param frameCount 动画的总帧数
      */
-    public BQLive.FrameConfig getHostAvatarAnimationFrame(int frameNumber) {
-        return mHostAvatarAnimationFrames == null ? null : mHostAvatarAnimationFrames[frameNumber];
-    }
-
-    public int getSenderAvatarWidth() {
-        return mSenderAvatarWidth;
+    public void compileTimeline(int frameCount) {
+        BQLTimeline timeline = new BQLTimeline(frameCount, SUB_ANIMATION_BASE + mSubAnimationCount);
+        //昵称在播放过程中不会改变，它的尺寸只需要测量一次，而且同样的昵称和样式在多次播放之间共用测量结果
+        float hostNickNameWidth = 0, hostNickNameHeight = 0, senderNickNameWidth = 0, senderNickNameHeight = 0;
+        if (mHostNickNameFrames != null && !TextUtils.isEmpty(mHostName)) {
+            float[] metrics = BQLNicknameSprite.measure(mHostName, mHostNickNamePaint);
+            hostNickNameWidth = metrics[0];
+            hostNickNameHeight = metrics[1];
+        }
+        if (mSenderNickNameFrames != null && !TextUtils.isEmpty(mSenderName)) {
+            float[] metrics = BQLNicknameSprite.measure(mSenderName, mSenderNickNamePaint);
+            senderNickNameWidth = metrics[0];
+            senderNickNameHeight = metrics[1];
+        }
+        for (int frame = 0; frame < frameCount; ++frame) {
+            timeline.compileAvatar(HOST_AVATAR, frame, mHostAvatarAnimationFrames, mHostAvatarWidth, mHostAvatarHeight);
+            timeline.compileAvatar(SENDER_AVATAR, frame, mSenderAvatarAnimationFrames, mSenderAvatarWidth, mSenderAvatarHeight);
+            if (BQLTimeline.hasFrame(mHostNickNameFrames, frame)) {
+                timeline.compileElement(HOST_NICKNAME, frame, (int) (mHostNickNameFrames.getAlpha(frame) * 255), hostNickNameWidth, hostNickNameHeight, mHostNickNameFrames, getHostNickNameAlignment());
+            }
+            if (BQLTimeline.hasFrame(mSenderNickNameFrames, frame)) {
+                timeline.compileElement(SENDER_NICKNAME, frame, (int) (mSenderNickNameFrames.getAlpha(frame) * 255), senderNickNameWidth, senderNickNameHeight, mSenderNickNameFrames, getSenderNickNameAlignment());
+            }
+            for (int i = 0; i < mSubAnimationCount; ++i) {
+                if (BQLTimeline.hasFrame(mSubAnimationFrames[i], frame)) {//子动画总是以不透明的方式绘制
+                    timeline.compileElement(SUB_ANIMATION_BASE + i, frame, 255, mSubAnimationSpriteWidths[i], mSubAnimationSpriteHeights[i], mSubAnimationFrames[i], 1);
+                }
+            }
+        }
+        mTimeline = timeline;
     }
 
-    public int getSenderAvatarHeight() {
-        return mSenderAvatarHeight;
+    public int getElementCount() {
+        return mTimeline.getElementCount();
     }
 
     /**
-     * 返回某一帧送礼者头像的参数
+     * 返回某个元素在某一帧的透明度
+     *
+     * @param element     元素序号，头像和昵称使用HOST_AVATAR等常量，第i个子动画为SUB_ANIMATION_BASE + i
      * @param frameNumber 帧序号
-     * @return 帧参数，可能为null
+     * @return 透明度，为0时不需要绘制
      */
-    public BQLive.FrameConfig getSenderAvatarAnimationFrame(int frameNumber) {
-        return mSenderAvatarAnimationFrames == null ? null : mSenderAvatarAnimationFrames[frameNumber];
+    public int getAlpha(int element, int frameNumber) {
+        return mTimeline.getAlpha(element, frameNumber);
     }
 
     /**
-     * 返回某一帧的主播昵称参数，并将主播昵称在屏幕上占用空间的尺寸写入rectF
-     * @param frameNumber 帧序号
-     * @param rectF 待写入尺寸的RectF
-     * @return 指定帧的参数，可能为null
+     * 把某个元素在某一帧的矩阵写入matrix，只有在getAlpha()不为0时矩阵才有意义
+     *
+     * @param values 长度为9的临时数组，由调用者提供以避免分配
      */
-    public BQLive.FrameConfig prepareHostNickName(int frameNumber, RectF rectF) {
-        if (mHostNickNameFrames == null) return null;
-        BQLive.FrameConfig frame = mHostNickNameFrames[frameNumber];
-        if (frame.getWidth() == 0 || frame.getHeight() == 0 || frame.getScale() == 0 || frame.getAlpha() == 0) {
-            return frame;
-        }
-        float textWidth = mHostNickNamePaint.measureText(mHostName);
-        Paint.FontMetrics metrics = mHostNickNamePaint.getFontMetrics();
-        float textHeight = metrics.bottom - metrics.top;
-        rectF.right = textWidth;
-        rectF.bottom = textHeight;
-        return frame;
-    }
-
-    public int getHostNickNameAlignment() {
-        return mHostNickNameConfig == null ? 1 : mHostNickNameConfig.getAlignment();
+    public void getTransform(int element, int frameNumber, Matrix matrix, float[] values) {
+        mTimeline.getTransform(element, frameNumber, values);
+        matrix.setValues(values);
     }
 
     /**
-     * 返回某一帧的送礼者昵称参数，并将主播昵称在屏幕上占用空间的尺寸写入rectF
-     * @param frameNumber 帧序号
-     * @param rectF 待写入尺寸的RectF
-     * @return 指定帧的参数，可能为null
+     * 返回头像图片缩放到头像框内的倍率
+     *
+     * @param avatar HOST_AVATAR或SENDER_AVATAR
      */
-    public BQLive.FrameConfig prepareSenderNickName(int frameNumber, RectF rectF) {
-        if (mSenderNickNameFrames == null) return null;
-        BQLive.FrameConfig frame = mSenderNickNameFrames[frameNumber];
-        if (frame.getWidth() == 0 || frame.getHeight() == 0 || frame.getScale() == 0 || frame.getAlpha() == 0) {
-            return frame;
-        }
-        float textWidth = mSenderNickNamePaint.measureText(mSenderName);
-        Paint.FontMetrics metrics = mSenderNickNamePaint.getFontMetrics();
-        float textHeight = metrics.bottom - metrics.top;
-        rectF.right = textWidth;
-        rectF.bottom = textHeight;
-        return frame;
-    }
-
-    public int getSenderNickNameAlignment() {
-        return mSenderNickNameConfig == null ? 1 : mSenderNickNameConfig.getAlignment();
+    public float getAvatarInnerScale(int avatar, int frameNumber) {
+        return mTimeline.getAvatarInnerScale(avatar, frameNumber);
     }
 
-    public List<String> getSubAnimationNames() {
-        return mSubAnimationNames;
+    public float getAvatarFrameWidth(int avatar, int frameNumber) {
+        return mTimeline.getAvatarFrameWidth(avatar, frameNumber);
     }
 
-    public int getSubAnimationSpriteWidth(String name) {
-        return mSubAnimationSpriteWidths.get(name);
+    public float getAvatarFrameHeight(int avatar, int frameNumber) {
+        return mTimeline.getAvatarFrameHeight(avatar, frameNumber);
     }
 
-    public int getSubAnimationSpriteHeight(String name) {
-        return mSubAnimationSpriteHeights.get(name);
+    public int getHostNickNameAlignment() {
+        return mHostNickNameConfig == null ? 1 : mHostNickNameConfig.getAlignment();
     }
 
-    public BQLive.SubAnimationConfig getSubAnimationConfig(String name) {
-        return mSubAnimations.get(name);
+    public int getSenderNickNameAlignment() {
+        return mSenderNickNameConfig == null ? 1 : mSenderNickNameConfig.getAlignment();
     }
 
-    int getHostAvatarBorderWidth() {
-        return mHostAvatarConfig.getBorderWidth();
+    public int getSubAnimationCount() {
+        return mSubAnimationCount;
     }
 
-    int getSenderAvatarBorderWidth() {
-        return mSenderAvatarConfig.getBorderWidth();
+    /**
+     * @param slot addSubAnimation()返回的序号
+     */
+    public String getSubAnimationName(int slot) {
+        return mSubAnimationNames[slot];
     }
 }
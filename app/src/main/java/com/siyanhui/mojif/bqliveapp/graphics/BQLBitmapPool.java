@@ -0,0 +1,241 @@
+package com.siyanhui.mojif.bqliveapp.graphics;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按尺寸和Config分组缓存Bitmap，供BQLPngSequencePlayer解码（BitmapFactory.Options.inBitmap）和合成主图时复用
+ * 同一个动画的每一帧尺寸都相同，因此播放进入稳定状态之后，解码和合成都不再需要分配新的Bitmap
+ * 池中Bitmap的总字节数有上限，超出上限时最早放入的Bitmap会被回收
+ */
+public class BQLBitmapPool {
+    private static final BQLBitmapPool sDefaultPool = new BQLBitmapPool((int) (Runtime.getRuntime().maxMemory() / 8));
+    private final Map<Long, List<Bitmap>> mGroups = new HashMap<>();
+    private final LinkedList<Bitmap> mOrder = new LinkedList<>();//用于按放入顺序淘汰
+    private final int mMaxBytes;
+    private int mCurrentBytes = 0;
+
+    /**
+     * @param maxBytes 池中Bitmap总字节数的上限
+     */
+    public BQLBitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 播放器和BQLAnimationView共用的池
+     */
+    public static BQLBitmapPool getDefault() {
+        return sDefaultPool;
+    }
+
+    private static long keyOf(int width, int height, Bitmap.Config config) {
+        return ((long) width << 32) | ((long) height << 8) | (config == null ? 0xff : config.ordinal());
+    }
+
+    private static int byteCountOf(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * 从池中取出一张指定尺寸和Config的Bitmap
+     *
+     * @return 池中没有合适的Bitmap时返回null，否则返回的Bitmap内容是上一次使用时留下的，需要调用者自行清除
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        List<Bitmap> group = mGroups.get(keyOf(width, height, config));
+        if (group == null || group.isEmpty()) return null;
+        Bitmap bitmap = group.remove(group.size() - 1);
+        mOrder.remove(bitmap);
+        mCurrentBytes -= byteCountOf(bitmap);
+        return bitmap;
+    }
+
+    /**
+     * 从池中取出一张Bitmap并清空内容，池中没有时新建一张
+     */
+    public Bitmap getCleared(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = get(width, height, config);
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        bitmap.eraseColor(0);
+        return bitmap;
+    }
+
+    /**
+     * 把不再使用的Bitmap放回池中。放回之后调用者不能再访问这张Bitmap
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) return;
+        int byteCount = byteCountOf(bitmap);
+        if (!bitmap.isMutable() || byteCount > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        long key = keyOf(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        List<Bitmap> group = mGroups.get(key);
+        if (group == null) {
+            group = new ArrayList<>();
+            mGroups.put(key, group);
+        } else if (group.contains(bitmap)) {
+            return;
+        }
+        group.add(bitmap);
+        mOrder.addLast(bitmap);
+        mCurrentBytes += byteCount;
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * 回收池中的Bitmap，直到总字节数不超过maxBytes
+     */
+    public synchronized void trimToSize(int maxBytes) {
+        while (mCurrentBytes > maxBytes && !mOrder.isEmpty()) {
+            Bitmap bitmap = mOrder.removeFirst();
+            mGroups.get(keyOf(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig())).remove(bitmap);
+            mCurrentBytes -= byteCountOf(bitmap);
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * 回收池中所有的Bitmap
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * 解码图片文件，尽可能复用池中尺寸相同的Bitmap
+     * Android 3.0以下的系统不支持inBitmap，直接解码
+     *
+     * @param path 图片路径
+     * @return 解码结果，失败时返回null
+     */
+    public Bitmap decodeFile(String path) {
+        return decodeFile(path, 1);
+    }
+
+    /**
+     * 以降采样的方式解码图片文件，尽可能复用池中的Bitmap
+     * Android 4.4以下的系统只有在不降采样时才能复用
+     *
+     * @param path       图片路径
+     * @param sampleSize 降采样倍数，应为2的幂，1表示不降采样
+     * @return 解码结果，失败时返回null
+     */
+    public Bitmap decodeFile(String path, int sampleSize) {
+        return decodeFile(path, sampleSize, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * 以指定的Config解码图片文件，尽可能复用池中的Bitmap
+     * 解码器不支持指定的Config时（例如彩色图片无法解码为ALPHA_8）会使用别的Config，调用者需要检查结果的getConfig()
+     *
+     * @param path       图片路径
+     * @param sampleSize 降采样倍数，应为2的幂，1表示不降采样
+     * @param config     希望得到的Config
+     * @return 解码结果，失败时返回null
+     */
+    public Bitmap decodeFile(String path, int sampleSize, Bitmap.Config config) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = config;
+            return BitmapFactory.decodeFile(path, options);
+        }
+        return decodeFileReusing(path, sampleSize, config);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private Bitmap decodeFileReusing(String path, int sampleSize, Bitmap.Config config) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;//只读取文件头，得到尺寸
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = config;
+        if (sampleSize <= 1) {
+            options.inBitmap = get(options.outWidth, options.outHeight, config);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {//4.4开始inBitmap只要求足够大，按向上取整的尺寸查找
+            options.inBitmap = get((options.outWidth + sampleSize - 1) / sampleSize, (options.outHeight + sampleSize - 1) / sampleSize, config);
+        }
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException e) {//inBitmap不可复用时，放回池中并重新解码
+            put(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(path, options);
+        }
+        if (bitmap == null) {
+            put(options.inBitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 只解码图片文件中的一块区域，尽可能复用池中的Bitmap
+     * 需要Android 2.3.3及以上；复用只在Android 4.4及以上进行
+     *
+     * @param path       图片路径
+     * @param region     需要解码的区域，使用原图的坐标
+     * @param sampleSize 降采样倍数，应为2的幂，1表示不降采样
+     * @return 解码结果，失败时返回null
+     */
+    public Bitmap decodeRegion(String path, Rect region, int sampleSize) {
+        return decodeRegion(path, region, sampleSize, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * 以指定的Config只解码图片文件中的一块区域，其余同decodeRegion(String, Rect, int)
+     *
+     * @param config 希望得到的Config，解码器不支持时会使用别的Config
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+    public Bitmap decodeRegion(String path, Rect region, int sampleSize, Bitmap.Config config) {
+        BitmapRegionDecoder decoder = null;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(path, false);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = config;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                options.inBitmap = get((region.width() + sampleSize - 1) / sampleSize, (region.height() + sampleSize - 1) / sampleSize, config);
+            }
+            Bitmap bitmap;
+            try {
+                bitmap = decoder.decodeRegion(region, options);
+            } catch (IllegalArgumentException e) {//inBitmap不可复用时，放回池中并重新解码
+                put(options.inBitmap);
+                options.inBitmap = null;
+                return decoder.decodeRegion(region, options);
+            }
+            if (bitmap == null) {
+                put(options.inBitmap);
+            }
+            return bitmap;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (decoder != null) {
+                decoder.recycle();
+            }
+        }
+    }
+}
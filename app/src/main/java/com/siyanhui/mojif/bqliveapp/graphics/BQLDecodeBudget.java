@@ -0,0 +1,48 @@
+package com.siyanhui.mojif.bqliveapp.graphics;
+
+/**
+ * 解码预算，限制同一个控件中所有动画层同时进行中的解码任务数量
+ * 每个BQLPngSequencePlayer在提交解码任务前申请一个名额，任务结果被处理后归还
+ */
+public class BQLDecodeBudget {
+    private final int mMaxInFlight;
+    private int mInFlight = 0;
+
+    /**
+     * @param maxInFlight 同时进行中的解码任务的最大数量
+     */
+    public BQLDecodeBudget(int maxInFlight) {
+        mMaxInFlight = maxInFlight;
+    }
+
+    /**
+     * 申请一个解码名额
+     *
+     * @param force 为true时即使预算已经用完也会成功，用于保证每个层至少有一帧在解码，不会因为别的层占满预算而卡住
+     * @return 是否申请成功
+     */
+    public synchronized boolean tryAcquire(boolean force) {
+        if (mInFlight >= mMaxInFlight && !force) {
+            return false;
+        }
+        ++mInFlight;
+        return true;
+    }
+
+    /**
+     * 归还一个解码名额
+     */
+    public synchronized void release() {
+        if (mInFlight > 0) {
+            --mInFlight;
+        }
+    }
+
+    public synchronized int getInFlight() {
+        return mInFlight;
+    }
+
+    public int getMaxInFlight() {
+        return mMaxInFlight;
+    }
+}
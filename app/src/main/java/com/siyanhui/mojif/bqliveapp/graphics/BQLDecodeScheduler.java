@@ -0,0 +1,136 @@
+package com.siyanhui.mojif.bqliveapp.graphics;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.siyanhui.mojif.bqliveapp.core.BQLDeadlineQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 解码调度器，取代所有播放器共用的先进先出线程池
+ * 1. 任务按截止时间（帧的显示时间）排序，截止时间最早的先解码；截止时间为0的任务（第一帧）最先解码
+ * 2. 工作线程取出任务时，如果按这个任务预计的耗时已经赶不上截止时间，就直接丢弃，不再白白解码一帧不会显示的主图
+ * 3. 可以按所有者一次取消一个播放器的全部排队任务
+ * 4. 工作线程数按CPU核数决定，线程优先级可以调整
+ * 被丢弃或取消的任务都会收到onDropped()回调，所有者据此归还解码名额。排序和丢弃的规则由BQLDeadlineQueue实现
+ */
+public class BQLDecodeScheduler {
+    private static final int MAX_WORKERS = 4;
+    private static BQLDecodeScheduler sDefaultScheduler;
+    private final BQLDeadlineQueue mQueue = new BQLDeadlineQueue();
+    private final int mWorkerCount;
+    private volatile int mThreadPriority;
+
+    /**
+     * @param workerCount    工作线程数
+     * @param threadPriority 工作线程的优先级，取值同android.os.Process.setThreadPriority()
+     */
+    public BQLDecodeScheduler(int workerCount, int threadPriority) {
+        mWorkerCount = workerCount;
+        mThreadPriority = threadPriority;
+        for (int i = 0; i < workerCount; ++i) {
+            Thread worker = new Thread(new Worker(), "BQLive_Decode_" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * 默认调度器，所有播放器共用。保留一个核给UI线程和渲染线程，最多MAX_WORKERS个工作线程
+     */
+    public static synchronized BQLDecodeScheduler getDefault() {
+        if (sDefaultScheduler == null) {
+            int workers = Math.max(1, Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors() - 1));
+            sDefaultScheduler = new BQLDecodeScheduler(workers, Process.THREAD_PRIORITY_DEFAULT);
+        }
+        return sDefaultScheduler;
+    }
+
+    public int getWorkerCount() {
+        return mWorkerCount;
+    }
+
+    /**
+     * 调整工作线程的优先级，每个工作线程在取下一个任务时生效
+     *
+     * @param threadPriority 取值同android.os.Process.setThreadPriority()，例如Process.THREAD_PRIORITY_DISPLAY
+     */
+    public void setThreadPriority(int threadPriority) {
+        mThreadPriority = threadPriority;
+    }
+
+    public int getThreadPriority() {
+        return mThreadPriority;
+    }
+
+    /**
+     * 提交一个任务，可以在任意线程调用
+     */
+    public void submit(BQLDeadlineQueue.Task task) {
+        synchronized (mQueue) {
+            mQueue.add(task);
+            mQueue.notify();
+        }
+    }
+
+    /**
+     * 取消一个所有者还在排队的全部任务，已经开始执行的任务不受影响。被取消的任务在调用者的线程中收到onDropped()
+     *
+     * @param owner 提交任务时指定的所有者
+     */
+    public void cancel(Object owner) {
+        List<BQLDeadlineQueue.Task> cancelled = new ArrayList<>();
+        synchronized (mQueue) {
+            mQueue.removeOwner(owner, cancelled);
+        }
+        for (BQLDeadlineQueue.Task task : cancelled) {
+            task.onDropped();
+        }
+    }
+
+    /**
+     * @return 正在排队的任务数量
+     */
+    public int getQueueSize() {
+        synchronized (mQueue) {
+            return mQueue.size();
+        }
+    }
+
+    private class Worker implements Runnable {
+        private int mAppliedPriority;
+
+        @Override
+        public void run() {
+            mAppliedPriority = mThreadPriority;
+            Process.setThreadPriority(mAppliedPriority);
+            List<BQLDeadlineQueue.Task> dropped = new ArrayList<>();
+            while (true) {
+                BQLDeadlineQueue.Task task;
+                synchronized (mQueue) {
+                    while (mQueue.isEmpty()) {
+                        try {
+                            mQueue.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    task = mQueue.poll(SystemClock.uptimeMillis(), dropped);
+                }
+                for (BQLDeadlineQueue.Task late : dropped) {
+                    late.onDropped();
+                }
+                dropped.clear();
+                if (task == null) continue;
+                int priority = mThreadPriority;
+                if (priority != mAppliedPriority) {
+                    mAppliedPriority = priority;
+                    Process.setThreadPriority(priority);
+                }
+                task.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.siyanhui.mojif.bqliveapp.graphics;
+
+import android.graphics.Bitmap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一帧解码好的主图
+ * 预先合成时只有一张带透明度的ARGB_8888图片；在绘制时合成（BQLFrameCompositor.COMPOSITE_ON_DRAW）时，
+ * 颜色通道和ALPHA_8的透明度遮罩分开存放，由BQLAnimationLayer在绘制时用遮罩和颜色通道的BitmapShader一次画出
+ * 帧列表中重复的主图由多个帧共用同一个对象，每个使用者用retain()增加一个引用，用完后各自调用recycle()，最后一个引用释放时图片才放回池中
+ */
+public class BQLFrame {
+    private final Bitmap mBitmap;
+    private final Bitmap mMask;
+    private final BQLFrameGeometry mGeometry;
+    private final AtomicInteger mReferences = new AtomicInteger(1);//新建的帧属于创建者
+
+    /**
+     * @param bitmap   合成好的主图，或者COMPOSITE_ON_DRAW时的颜色通道
+     * @param mask     透明度遮罩，预先合成时为null
+     * @param geometry 解码方式，绘制时据此把图片放回原始帧的坐标系
+     */
+    public BQLFrame(Bitmap bitmap, Bitmap mask, BQLFrameGeometry geometry) {
+        mBitmap = bitmap;
+        mMask = mask;
+        mGeometry = geometry;
+    }
+
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    /**
+     * @return ALPHA_8的透明度遮罩，为null表示getBitmap()已经是合成好的主图
+     */
+    public Bitmap getMask() {
+        return mMask;
+    }
+
+    public BQLFrameGeometry getGeometry() {
+        return mGeometry;
+    }
+
+    public int getWidth() {
+        return mBitmap.getWidth();
+    }
+
+    public int getHeight() {
+        return mBitmap.getHeight();
+    }
+
+    /**
+     * @return 这一帧的图片占用的字节数
+     */
+    public int getByteCount() {
+        int byteCount = mBitmap.getRowBytes() * mBitmap.getHeight();
+        if (mMask != null) {
+            byteCount += mMask.getRowBytes() * mMask.getHeight();
+        }
+        return byteCount;
+    }
+
+    /**
+     * 增加一个使用者，图片只读，可以同时被多个层或多个帧使用
+     *
+     * @return 这一帧本身
+     */
+    public BQLFrame retain() {
+        mReferences.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * 释放一个引用，所有使用者都释放之后这一帧不会再被使用，把它的图片放回池中
+     */
+    public void recycle(BQLBitmapPool pool) {
+        if (mReferences.decrementAndGet() != 0) return;
+        pool.put(mBitmap);
+        pool.put(mMask);
+    }
+}
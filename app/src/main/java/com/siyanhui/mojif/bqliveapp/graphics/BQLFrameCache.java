@@ -0,0 +1,180 @@
+package com.siyanhui.mojif.bqliveapp.graphics;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 预先解码好的主图缓存，按颜色通道文件路径存放，总字节数有严格的上限，超出时淘汰最久没有用到的帧
+ * 由BQLGiftWarmer在后台填充热门礼物的前几帧，BQLPngSequencePlayer的解码任务在读取JPEG之前先查这里
+ * 缓存中的图片始终只读，取用时复制一份到BQLBitmapPool的Bitmap中交给播放器，因此同一个礼物反复播放时都能命中
+ */
+public class BQLFrameCache {
+    private static final BQLFrameCache sDefaultCache = new BQLFrameCache((int) Math.min(Runtime.getRuntime().maxMemory() / 8, 32 * 1024 * 1024));
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);//按访问顺序排列，最久没有用到的在最前面
+    private final Paint mCopyPaint = new Paint();
+    private final int mMaxBytes;
+    private int mCurrentBytes = 0;
+
+    /**
+     * @param maxBytes 缓存中图片总字节数的上限
+     */
+    public BQLFrameCache(int maxBytes) {
+        mMaxBytes = maxBytes;
+        mCopyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));//原样复制像素，包括透明度
+    }
+
+    /**
+     * 预热服务和播放器共用的缓存
+     */
+    public static BQLFrameCache getDefault() {
+        return sDefaultCache;
+    }
+
+    public int getMaxSize() {
+        return mMaxBytes;
+    }
+
+    public synchronized int getSize() {
+        return mCurrentBytes;
+    }
+
+    /**
+     * 在不淘汰其它帧的前提下放入一帧，用于预热：排名靠后的礼物不应该挤掉排名靠前的
+     *
+     * @return 是否放入。没有放入时frame仍由调用者负责
+     */
+    public synchronized boolean offer(String colorPath, BQLFrame frame) {
+        Entry previous = mEntries.get(colorPath);
+        int available = mMaxBytes - mCurrentBytes + (previous == null ? 0 : previous.mByteCount);
+        if (frame.getByteCount() > available) return false;
+        put(colorPath, frame);
+        return true;
+    }
+
+    /**
+     * 放入一帧，缓存接管frame中的图片，被替换或淘汰的帧放回BQLBitmapPool
+     *
+     * @param colorPath 颜色通道文件
+     * @param frame     解码好的主图
+     */
+    public synchronized void put(String colorPath, BQLFrame frame) {
+        int byteCount = frame.getByteCount();
+        if (byteCount > mMaxBytes) {
+            frame.recycle(BQLBitmapPool.getDefault());
+            return;
+        }
+        Entry previous = mEntries.put(colorPath, new Entry(frame, byteCount));
+        if (previous != null) {
+            mCurrentBytes -= previous.mByteCount;
+            evict(previous);
+        }
+        mCurrentBytes += byteCount;
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * @return 缓存中这一帧的解码方式，没有缓存时返回null。解码任务据此判断缓存的帧能否满足当前的显示要求
+     */
+    public synchronized BQLFrameGeometry getGeometry(String colorPath) {
+        Entry entry = mEntries.get(colorPath);
+        return entry == null ? null : entry.mFrame.getGeometry();
+    }
+
+    /**
+     * 取用一帧，返回它的副本
+     *
+     * @param colorPath 颜色通道文件
+     * @param required  当前需要的解码方式，缓存的帧必须覆盖它
+     * @return 副本中的图片来自BQLBitmapPool，由调用者负责放回，解码方式和缓存的帧相同；缓存中没有合适的帧时返回null
+     */
+    public BQLFrame copy(String colorPath, BQLFrameGeometry required) {
+        Entry entry;
+        synchronized (this) {
+            entry = mEntries.get(colorPath);
+            if (entry == null || !entry.mFrame.getGeometry().covers(required)) return null;
+            ++entry.mReaders;//复制过程中不允许把它放回池中
+        }
+        BQLBitmapPool pool = BQLBitmapPool.getDefault();
+        BQLFrame copy = new BQLFrame(copyBitmap(pool, entry.mFrame.getBitmap()), copyBitmap(pool, entry.mFrame.getMask()), entry.mFrame.getGeometry());
+        synchronized (this) {
+            --entry.mReaders;
+            if (entry.mEvicted && entry.mReaders == 0) {//复制过程中被替换或淘汰了，由最后一个读者放回池中
+                entry.mFrame.recycle(pool);
+            }
+        }
+        return copy;
+    }
+
+    private Bitmap copyBitmap(BQLBitmapPool pool, Bitmap source) {
+        if (source == null) return null;
+        Bitmap target = pool.get(source.getWidth(), source.getHeight(), source.getConfig());
+        if (target == null) {
+            target = Bitmap.createBitmap(source.getWidth(), source.getHeight(), source.getConfig());
+        }
+        new Canvas(target).drawBitmap(source, 0, 0, mCopyPaint);
+        return target;
+    }
+
+    /**
+     * 淘汰最久没有用到的帧，直到总字节数不超过maxBytes
+     */
+    public synchronized void trimToSize(int maxBytes) {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (mCurrentBytes > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            mCurrentBytes -= entry.mByteCount;
+            evict(entry);
+        }
+    }
+
+    private void evict(Entry entry) {
+        entry.mEvicted = true;
+        if (entry.mReaders == 0) {
+            entry.mFrame.recycle(BQLBitmapPool.getDefault());
+        }
+    }
+
+    /**
+     * 丢弃一个目录下所有文件的帧，用于动画被删除或更新之后
+     */
+    public synchronized void removeDirectory(String directory) {
+        String prefix = directory.endsWith(File.separator) ? directory : directory + File.separator;
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                iterator.remove();
+                mCurrentBytes -= entry.getValue().mByteCount;
+                evict(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    private static class Entry {
+        private final BQLFrame mFrame;
+        private final int mByteCount;
+        private int mReaders = 0;
+        private boolean mEvicted = false;
+
+        Entry(BQLFrame frame, int byteCount) {
+            mFrame = frame;
+            mByteCount = byteCount;
+        }
+    }
+}
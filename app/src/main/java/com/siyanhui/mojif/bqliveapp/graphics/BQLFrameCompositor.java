@@ -0,0 +1,214 @@
+package com.siyanhui.mojif.bqliveapp.graphics;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+
+import com.siyanhui.mojif.bqliveapp.core.BQLAlphaMergeKernel;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * 负责解码一帧主图的颜色通道和透明度通道，并把它们合成为一张带透明度的ARGB_8888图片
+ * 为了节省空间，动画中的每一帧主图都被存贮为了颜色通道（N-a.jpg）和透明度通道（N-b.jpg，黑白图片）两张图片
+ * 有两种通道解码方式：
+ * 1. CHANNELS_ARGB_8888：两个通道都解码为ARGB_8888，透明度通道经过ColorMatrix把亮度转为透明度，每像素共需8字节的中间数据
+ * 2. CHANNELS_COMPACT：颜色通道解码为RGB_565，透明度通道解码为ALPHA_8，每像素只需3字节的中间数据，合成时也不再需要ColorMatrix
+ * 合成有三种方式：
+ * 1. COMPOSITE_CANVAS：用Canvas依次绘制两个通道，在Canvas的软件实现中单线程执行
+ * 2. COMPOSITE_KERNEL：把两个通道读成int[]/byte[]平面，由BQLAlphaMergeKernel按条带并行地算出预乘透明度的像素，再一次性写入主图
+ * 3. COMPOSITE_ON_DRAW：解码时不合成，颜色通道和ALPHA_8遮罩分别交给BQLAnimationLayer，绘制时用遮罩加颜色通道的BitmapShader一次画出，
+ *    省掉每帧一张全尺寸ARGB_8888图片的分配和一遍全帧的读写。透明度通道不能直接解码为ALPHA_8时先转换为遮罩
+ * 可以在多个解码线程中同时使用
+ */
+public class BQLFrameCompositor {
+    public static final int CHANNELS_ARGB_8888 = 0, CHANNELS_COMPACT = 1;
+    public static final int COMPOSITE_CANVAS = 0, COMPOSITE_KERNEL = 1, COMPOSITE_ON_DRAW = 2;
+    /**
+     * decodeFrame()记录耗时的数组中各项的位置，单位为纳秒
+     */
+    public static final int TIMING_COLOR = 0, TIMING_ALPHA = 1, TIMING_COMPOSITE = 2, TIMING_COUNT = 3;
+    /**
+     * COMPOSITE_KERNEL使用的像素缓冲区，每个解码线程一份，按需增长
+     */
+    private static final ThreadLocal<int[]> sPixels = new ThreadLocal<>();
+    private static final ThreadLocal<int[]> sLuminance = new ThreadLocal<>();
+    private static final ThreadLocal<byte[]> sMask = new ThreadLocal<>();
+    /**
+     * 解码器能否把透明度通道直接解码为ALPHA_8。为null表示还没有试过；不能时先解码为ARGB_8888再转换
+     */
+    private static volatile Boolean sAlpha8Decodable = null;
+    private final int mChannelMode;
+    private final int mCompositeMode;
+    private final Paint mFramePaint = new Paint();
+    private final Paint mFrameAlphaPaint = new Paint();
+    private final Paint mMaskPaint = new Paint();
+
+    /**
+     * @param channelMode   CHANNELS_ARGB_8888或CHANNELS_COMPACT
+     * @param compositeMode COMPOSITE_CANVAS、COMPOSITE_KERNEL或COMPOSITE_ON_DRAW。COMPOSITE_KERNEL需要小端序的机器，否则退回COMPOSITE_CANVAS
+     */
+    public BQLFrameCompositor(int channelMode, int compositeMode) {
+        mChannelMode = channelMode;
+        if (compositeMode == COMPOSITE_KERNEL && ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+            compositeMode = COMPOSITE_CANVAS;
+        }
+        mCompositeMode = compositeMode;
+        /**
+         * 以下两个Paint需要配合使用，透明度通道用mFrameAlphaPaint（ARGB_8888时）或mMaskPaint（ALPHA_8时）先画，颜色通道用mFramePaint后画
+         */
+        mFramePaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));//颜色通道在透明度通道之后绘制，这个设置可以在绘制时保留像素的透明度。
+        mFrameAlphaPaint.setColorFilter(new ColorMatrixColorFilter(new ColorMatrix(new float[]{
+                0, 0, 0, 0, 0,
+                0, 0, 0, 0, 0,
+                0, 0, 0, 0, 0,
+                1, 0, 0, 0, 0})));//透明度通道是一张黑白图片，这个矩阵可以把图片上每一个像素的亮度转变为透明度。
+    }
+
+    public int getChannelMode() {
+        return mChannelMode;
+    }
+
+    public int getCompositeMode() {
+        return mCompositeMode;
+    }
+
+    /**
+     * 解码并合成一帧主图
+     *
+     * @param colorPath 颜色通道文件
+     * @param alphaPath 透明度通道文件
+     * @param geometry  解码方式
+     * @return 解码好的一帧，其中的图片来自BQLBitmapPool，失败时返回null
+     */
+    public BQLFrame decodeFrame(String colorPath, String alphaPath, BQLFrameGeometry geometry) {
+        return decodeFrame(colorPath, alphaPath, geometry, null);
+    }
+
+    /**
+     * 解码并合成一帧主图，同时记录各个步骤的耗时
+     *
+     * @param timings 长度至少为TIMING_COUNT的数组，用于写入颜色通道解码、透明度通道解码和合成的耗时；为null时不计时
+     */
+    public BQLFrame decodeFrame(String colorPath, String alphaPath, BQLFrameGeometry geometry, long[] timings) {
+        BQLBitmapPool pool = BQLBitmapPool.getDefault();
+        boolean compact = mChannelMode == CHANNELS_COMPACT;
+        boolean needMask = compact || mCompositeMode == COMPOSITE_ON_DRAW;//在绘制时合成只能使用ALPHA_8遮罩
+        long time = timings != null ? System.nanoTime() : 0;
+        Bitmap bitmap = decodeChannel(pool, colorPath, geometry, compact ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888);//解码颜色通道
+        if (timings != null) {
+            long now = System.nanoTime();
+            timings[TIMING_COLOR] = now - time;
+            time = now;
+        }
+        Bitmap alphaBitmap = null;
+        if (bitmap != null) {
+            Boolean alpha8Decodable = sAlpha8Decodable;
+            boolean tryAlpha8 = needMask && (alpha8Decodable == null || alpha8Decodable);
+            alphaBitmap = decodeChannel(pool, alphaPath, geometry, tryAlpha8 ? Bitmap.Config.ALPHA_8 : Bitmap.Config.ARGB_8888);//解码透明度通道
+            if (alphaBitmap != null && tryAlpha8 && alpha8Decodable == null) {
+                sAlpha8Decodable = alphaBitmap.getConfig() == Bitmap.Config.ALPHA_8;
+            }
+            if (alphaBitmap != null && needMask && alphaBitmap.getConfig() != Bitmap.Config.ALPHA_8) {
+                alphaBitmap = toMask(pool, alphaBitmap);
+            }
+        }
+        if (timings != null) {
+            long now = System.nanoTime();
+            timings[TIMING_ALPHA] = now - time;
+            time = now;
+        }
+        if (mCompositeMode == COMPOSITE_ON_DRAW) {
+            if (bitmap != null && alphaBitmap != null) {
+                return new BQLFrame(bitmap, alphaBitmap, geometry);//两个通道原样交给绘制线程
+            }
+            pool.put(bitmap);
+            pool.put(alphaBitmap);
+            return null;
+        }
+        Bitmap frame = null;
+        if (bitmap != null && alphaBitmap != null && mCompositeMode == COMPOSITE_KERNEL
+                && alphaBitmap.getWidth() == bitmap.getWidth() && alphaBitmap.getHeight() == bitmap.getHeight()) {
+            frame = mergeWithKernel(pool, bitmap, alphaBitmap);
+        } else if (bitmap != null && alphaBitmap != null) {
+            frame = pool.getCleared(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(frame);
+            //绘制主图时，首先画上透明度通道，然后画上颜色通道。ALPHA_8图片以Paint的颜色（不透明黑色）绘制，得到的透明度就是遮罩的值
+            canvas.drawBitmap(alphaBitmap, 0, 0, alphaBitmap.getConfig() == Bitmap.Config.ALPHA_8 ? mMaskPaint : mFrameAlphaPaint);
+            canvas.drawBitmap(bitmap, 0, 0, mFramePaint);
+        }
+        if (timings != null) {
+            timings[TIMING_COMPOSITE] = System.nanoTime() - time;
+        }
+        //两个通道合成完毕后就不再需要了，放回池中给后面的帧复用
+        pool.put(bitmap);
+        pool.put(alphaBitmap);
+        return frame != null ? new BQLFrame(frame, null, geometry) : null;
+    }
+
+    /**
+     * 用BQLAlphaMergeKernel合成。颜色平面读入int[]后原地合成，结果按ARGB_8888 Bitmap的内存排列直接写入
+     */
+    private static Bitmap mergeWithKernel(BQLBitmapPool pool, Bitmap bitmap, Bitmap alphaBitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = obtain(sPixels, width * height);
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        BQLAlphaMergeKernel kernel = BQLAlphaMergeKernel.getDefault();
+        if (alphaBitmap.getConfig() == Bitmap.Config.ALPHA_8) {
+            int stride = alphaBitmap.getRowBytes();
+            byte[] mask = sMask.get();
+            if (mask == null || mask.length < stride * height) {
+                mask = new byte[stride * height];
+                sMask.set(mask);
+            }
+            alphaBitmap.copyPixelsToBuffer(ByteBuffer.wrap(mask, 0, stride * height));
+            kernel.mergeMask(pixels, mask, stride, width, height, BQLAlphaMergeKernel.ORDER_ABGR);
+        } else {
+            int[] luminance = obtain(sLuminance, width * height);
+            alphaBitmap.getPixels(luminance, 0, width, 0, 0, width, height);
+            kernel.mergeLuminance(pixels, luminance, width, height, BQLAlphaMergeKernel.ORDER_ABGR);
+        }
+        Bitmap frame = pool.get(width, height, Bitmap.Config.ARGB_8888);//每个像素都会被覆盖，不需要清空
+        if (frame == null) {
+            frame = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        frame.copyPixelsFromBuffer(IntBuffer.wrap(pixels, 0, width * height));
+        return frame;
+    }
+
+    private static int[] obtain(ThreadLocal<int[]> local, int size) {
+        int[] array = local.get();
+        if (array == null || array.length < size) {
+            array = new int[size];
+            local.set(array);
+        }
+        return array;
+    }
+
+    private static Bitmap decodeChannel(BQLBitmapPool pool, String path, BQLFrameGeometry geometry, Bitmap.Config config) {
+        Rect region = geometry.getRegion();
+        if (region == null) {
+            return pool.decodeFile(path, geometry.getSampleSize(), config);
+        } else {//全屏时只解码屏幕内可见的部分
+            return pool.decodeRegion(path, region, geometry.getSampleSize(), config);
+        }
+    }
+
+    /**
+     * 解码器不支持ALPHA_8时，把黑白图片的亮度转为ALPHA_8遮罩
+     */
+    private Bitmap toMask(BQLBitmapPool pool, Bitmap source) {
+        Bitmap mask = pool.getCleared(source.getWidth(), source.getHeight(), Bitmap.Config.ALPHA_8);
+        new Canvas(mask).drawBitmap(source, 0, 0, mFrameAlphaPaint);
+        pool.put(source);
+        return mask;
+    }
+}
@@ -0,0 +1,130 @@
+package com.siyanhui.mojif.bqliveapp.graphics;
+
+import android.graphics.Rect;
+import android.os.Build;
+
+import com.siyanhui.mojif.bqliveapp.core.BQLTransform;
+
+/**
+ * 一帧主图的解码方式：降采样倍数，以及只解码哪一块区域
+ * 解码线程根据控件尺寸和缩放方式算出它，BQLAnimationLayer再根据它把解码结果放回原始帧的坐标系中绘制
+ */
+public class BQLFrameGeometry {
+    private static final int MAX_SAMPLE_SIZE = 8;
+    private static final float MIN_REGION_SAVING = 0.1f;//区域解码至少要省掉这个比例的像素才值得使用
+    private final int mFullWidth;
+    private final int mFullHeight;
+    private final Rect mRegion;
+    private final int mSampleSize;
+
+    private BQLFrameGeometry(int fullWidth, int fullHeight, Rect region, int sampleSize) {
+        mFullWidth = fullWidth;
+        mFullHeight = fullHeight;
+        mRegion = region;
+        mSampleSize = sampleSize;
+    }
+
+    /**
+     * 不裁剪、只降采样的解码方式
+     */
+    public static BQLFrameGeometry whole(int fullWidth, int fullHeight, int sampleSize) {
+        return new BQLFrameGeometry(fullWidth, fullHeight, null, sampleSize);
+    }
+
+    /**
+     * 计算一帧主图在控件中实际显示的区域和尺寸，得出最省的解码方式
+     *
+     * @param fullWidth         主图原始宽度
+     * @param fullHeight        主图原始高度
+     * @param viewWidth         控件宽度，为0表示尚未布局，此时按原始尺寸解码
+     * @param viewHeight        控件高度
+     * @param fullScreen        是否全屏。全屏时主图按scaleToFill缩放，纵向超出时对齐底边，横向超出时居中；非全屏时按原始尺寸显示
+     * @param qualitySampleSize 画质控制器要求的额外降采样倍数
+     */
+    public static BQLFrameGeometry plan(int fullWidth, int fullHeight, int viewWidth, int viewHeight, boolean fullScreen, int qualitySampleSize) {
+        if (!fullScreen || viewWidth <= 0 || viewHeight <= 0) {
+            return whole(fullWidth, fullHeight, Math.min(qualitySampleSize, MAX_SAMPLE_SIZE));
+        }
+        float scale = scaleToFill(fullWidth, fullHeight, viewWidth, viewHeight);
+        //只要解码出的像素不少于显示的像素，就可以再按2的幂降采样
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1 && sampleSize * 2 <= MAX_SAMPLE_SIZE) {
+            sampleSize *= 2;
+        }
+        sampleSize = Math.min(sampleSize * qualitySampleSize, MAX_SAMPLE_SIZE);
+        //和BQLAnimationLayer中的对齐方式一致，算出屏幕内可见的部分
+        Rect region = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD_MR1) {//BitmapRegionDecoder从Android 2.3.3开始提供
+            if (fullHeight * scale > viewHeight) {
+                int visibleHeight = (int) Math.ceil(viewHeight / scale);
+                region = new Rect(0, fullHeight - visibleHeight, fullWidth, fullHeight);
+            } else if (fullWidth * scale > viewWidth) {
+                int visibleWidth = (int) Math.ceil(viewWidth / scale);
+                int left = (fullWidth - visibleWidth) / 2;
+                region = new Rect(left, 0, left + visibleWidth, fullHeight);
+            }
+        }
+        if (region != null) {
+            //按降采样倍数对齐，保证区域在降采样前后的位置是整数像素
+            region.left = region.left / sampleSize * sampleSize;
+            region.top = region.top / sampleSize * sampleSize;
+            if ((float) region.width() * region.height() > (1 - MIN_REGION_SAVING) * fullWidth * fullHeight) {
+                region = null;
+            }
+        }
+        return new BQLFrameGeometry(fullWidth, fullHeight, region, sampleSize);
+    }
+
+    /**
+     * 计算得到如果要将给定尺寸缩放到能够包含限定尺寸，且保持长宽比的话，最小的倍率是多少
+     *
+     * @see BQLTransform#scaleToFill(float, float, float, float)
+     */
+    public static float scaleToFill(float width, float height, float limitWidth, float limitHeight) {
+        return BQLTransform.scaleToFill(width, height, limitWidth, limitHeight);
+    }
+
+    /**
+     * 判断按这个方式解码的图片能否代替按另一个方式解码的图片来显示：原始帧相同，降采样不更多，解码区域不更小
+     */
+    public boolean covers(BQLFrameGeometry other) {
+        if (mFullWidth != other.mFullWidth || mFullHeight != other.mFullHeight || mSampleSize > other.mSampleSize) {
+            return false;
+        }
+        if (mRegion == null) return true;
+        return other.mRegion != null && mRegion.contains(other.mRegion);
+    }
+
+    public int getFullWidth() {
+        return mFullWidth;
+    }
+
+    public int getFullHeight() {
+        return mFullHeight;
+    }
+
+    /**
+     * @return 需要解码的区域，为null表示解码整张图片
+     */
+    public Rect getRegion() {
+        return mRegion;
+    }
+
+    /**
+     * @return 解码结果的左上角在原始帧中的横坐标
+     */
+    public int getLeft() {
+        return mRegion == null ? 0 : mRegion.left;
+    }
+
+    /**
+     * @return 解码结果的左上角在原始帧中的纵坐标
+     */
+    public int getTop() {
+        return mRegion == null ? 0 : mRegion.top;
+    }
+
+    public int getSampleSize() {
+        return mSampleSize;
+    }
+}
@@ -0,0 +1,111 @@
+package com.siyanhui.mojif.bqliveapp.graphics;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.text.TextPaint;
+import android.text.TextUtils;
+
+import com.siyanhui.mojif.bqliveapp.BQLAnimationSpec;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 预先绘制好的昵称图片
+ * 昵称在一次播放过程中不会改变，因此在播放开始前把描边、阴影和文字一次性画到一张Bitmap上，播放时只需要一次drawBitmap
+ */
+public class BQLNicknameSprite {
+    private static final int MAX_CACHED_METRICS = 64;
+    /**
+     * 文字尺寸的缓存，key由昵称和画笔样式组成，value为{宽度, 高度}
+     */
+    private static final Map<String, float[]> sMetricsCache = new LinkedHashMap<String, float[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+            return size() > MAX_CACHED_METRICS;
+        }
+    };
+    private Bitmap mBitmap;
+    private float mTextWidth;
+    private float mTextHeight;
+    private float mPadding;
+
+    private BQLNicknameSprite(Bitmap bitmap, float textWidth, float textHeight, float padding) {
+        mBitmap = bitmap;
+        mTextWidth = textWidth;
+        mTextHeight = textHeight;
+        mPadding = padding;
+    }
+
+    /**
+     * 测量昵称在屏幕上占用空间的尺寸，结果会被缓存
+     *
+     * @param text  昵称
+     * @param paint 绘制文字用的Paint
+     * @return {宽度, 高度}，调用者不能修改这个数组
+     */
+    public static float[] measure(String text, Paint paint) {
+        Typeface typeface = paint.getTypeface();
+        String key = text + '\u0000' + paint.getTextSize() + '\u0000' + (typeface == null ? 0 : typeface.getStyle()) + '\u0000' + (typeface == null ? 0 : typeface.hashCode());
+        synchronized (sMetricsCache) {
+            float[] metrics = sMetricsCache.get(key);
+            if (metrics == null) {
+                Paint.FontMetrics fontMetrics = paint.getFontMetrics();
+                metrics = new float[]{paint.measureText(text), fontMetrics.bottom - fontMetrics.top};
+                sMetricsCache.put(key, metrics);
+            }
+            return metrics;
+        }
+    }
+
+    /**
+     * 把昵称连同描边和阴影画成一张图片
+     *
+     * @param text        昵称
+     * @param paint       绘制文字用的Paint
+     * @param strokePaint 绘制文字描边用的Paint，阴影也设置在它上面
+     * @param config      昵称参数，用于计算描边和阴影需要预留的边距，可能为null
+     * @return 昵称为空时返回null
+     */
+    public static BQLNicknameSprite render(String text, TextPaint paint, TextPaint strokePaint, BQLAnimationSpec.Style config) {
+        if (TextUtils.isEmpty(text)) return null;
+        float[] metrics = measure(text, paint);
+        float textWidth = metrics[0];
+        float textHeight = metrics[1];
+        if (textWidth <= 0 || textHeight <= 0) return null;
+        float padding = strokePaint.getStrokeWidth() / 2 + 1;//多留1像素给抗锯齿
+        if (config != null && !TextUtils.isEmpty(config.getShadowColor())) {
+            padding += config.getShadowBlur() + Math.max(Math.abs(config.getShadowX()), Math.abs(config.getShadowY()));
+        }
+        Bitmap bitmap = Bitmap.createBitmap((int) Math.ceil(textWidth + padding * 2), (int) Math.ceil(textHeight + padding * 2), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.translate(padding, padding);
+        //和直接绘制文字时一样，先画描边，再画文字
+        strokePaint.setAlpha(255);
+        canvas.drawText(text, 0, (textHeight - strokePaint.descent() - strokePaint.ascent()) / 2f, strokePaint);
+        paint.setAlpha(255);
+        canvas.drawText(text, 0, (textHeight - paint.descent() - paint.ascent()) / 2f, paint);
+        return new BQLNicknameSprite(bitmap, textWidth, textHeight, padding);
+    }
+
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    public float getTextWidth() {
+        return mTextWidth;
+    }
+
+    public float getTextHeight() {
+        return mTextHeight;
+    }
+
+    /**
+     * 文字在图片中的边距。在昵称的坐标系中，图片需要绘制在(-padding, -padding)处
+     */
+    public float getPadding() {
+        return mPadding;
+    }
+}
@@ -0,0 +1,351 @@
+package com.siyanhui.mojif.bqliveapp.graphics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一个动画的播放统计，用于分析礼物为什么卡顿
+ * 只有在BQLPngSequencePlayer设置了Listener时才会创建和填充，没有Listener时播放器不计时，也不分配任何统计用的对象。
+ * 每一帧的结果以FrameSample的形式交给Listener，同时累加到这个对象中；播放结束时把这个对象作为汇总交给Listener。
+ * 只在播放器的后台线程中修改，播放结束之后不再变化，可以在任意线程读取
+ * 头像、昵称和子动画的矩阵在准备动画时由BQLTimeline编译好，播放时只按帧序号读取，没有逐帧的矩阵计算可以统计；
+ * 每帧唯一的几何计算是解码方式的规划（BQLFrameGeometry.plan()），它的耗时记为规划耗时
+ */
+public class BQLPlaybackMetrics {
+    /**
+     * 跳帧原因：
+     * SKIP_NONE：没有跳过，这一帧已经显示
+     * SKIP_DROPPED：调度器判断赶不上显示时间，没有解码就丢弃了
+     * SKIP_DECODE_FAILED：解码失败
+     * SKIP_LATE：解码完毕时已经过了显示时间
+     * SKIP_SUPERSEDED：按vsync节奏显示时，同一次vsync有更新的帧到期，或者更新的帧已经显示过了
+     */
+    public static final int SKIP_NONE = 0, SKIP_DROPPED = 1, SKIP_DECODE_FAILED = 2, SKIP_LATE = 3, SKIP_SUPERSEDED = 4;
+    private static final int SKIP_REASON_COUNT = 5;
+    private final int mFrameCount;
+    private final int mFrameDuration;
+    private long mStartTime = 0;
+    private long mTotalMillis = 0;
+    private int mFramesShown = 0;
+    private int mFramesSkipped = 0;
+    private final int[] mSkipCounts = new int[SKIP_REASON_COUNT];
+    private int mFramesFromCache = 0;
+    private long mColorDecodeNanos = 0;
+    private long mAlphaDecodeNanos = 0;
+    private long mCompositeNanos = 0;
+    private long mPlanNanos = 0;
+    private long mMaxWorkNanos = 0;
+    private long mTotalLatenessMillis = 0;
+    private long mMaxLatenessMillis = 0;
+    private int mBufferedBytes = 0;
+    private int mPeakBufferedBytes = 0;
+    private final List<Adaptation> mAdaptations = new ArrayList<>();
+    private boolean mFinished = false;
+
+    /**
+     * @param frameCount    动画的总帧数
+     * @param frameDuration 动画原始的每帧时长
+     */
+    BQLPlaybackMetrics(int frameCount, int frameDuration) {
+        mFrameCount = frameCount;
+        mFrameDuration = frameDuration;
+    }
+
+    void onStart(long now) {
+        if (mStartTime == 0) {
+            mStartTime = now;
+        }
+    }
+
+    /**
+     * 累加一帧的结果，显示的帧和跳过的帧都会经过这里
+     */
+    void onFrame(FrameSample sample) {
+        if (sample.mSkipReason == SKIP_NONE) {
+            ++mFramesShown;
+            mTotalLatenessMillis += sample.mLatenessMillis;
+            mMaxLatenessMillis = Math.max(mMaxLatenessMillis, sample.mLatenessMillis);
+        } else {
+            ++mFramesSkipped;
+        }
+        ++mSkipCounts[sample.mSkipReason];
+        if (sample.mFromCache) ++mFramesFromCache;
+        mColorDecodeNanos += sample.mColorDecodeNanos;
+        mAlphaDecodeNanos += sample.mAlphaDecodeNanos;
+        mCompositeNanos += sample.mCompositeNanos;
+        mPlanNanos += sample.mPlanNanos;
+        mMaxWorkNanos = Math.max(mMaxWorkNanos, sample.getWorkNanos());
+    }
+
+    /**
+     * 解码好的主图进入缓冲（等待显示时间或vsync）时增加，显示、跳过或丢弃时减少
+     */
+    void onBufferChanged(int deltaBytes) {
+        mBufferedBytes += deltaBytes;
+        mPeakBufferedBytes = Math.max(mPeakBufferedBytes, mBufferedBytes);
+    }
+
+    void onAdaptation(int frameNumber, int level, int frameStep, int sampleSize) {
+        mAdaptations.add(new Adaptation(frameNumber, level, frameStep, frameStep * mFrameDuration, sampleSize));
+    }
+
+    void onFinish(long now) {
+        mTotalMillis = mStartTime == 0 ? 0 : now - mStartTime;
+        mFinished = true;
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return 从开始播放到结束经过的毫秒数，包括暂停的时间
+     */
+    public long getTotalMillis() {
+        return mTotalMillis;
+    }
+
+    public int getFramesShown() {
+        return mFramesShown;
+    }
+
+    public int getFramesSkipped() {
+        return mFramesSkipped;
+    }
+
+    /**
+     * @param skipReason SKIP_DROPPED、SKIP_DECODE_FAILED、SKIP_LATE或SKIP_SUPERSEDED
+     * @return 因为这个原因跳过的帧数
+     */
+    public int getSkipCount(int skipReason) {
+        return mSkipCounts[skipReason];
+    }
+
+    /**
+     * @return 直接从BQLFrameCache复制、没有解码的帧数
+     */
+    public int getFramesFromCache() {
+        return mFramesFromCache;
+    }
+
+    public long getColorDecodeNanos() {
+        return mColorDecodeNanos;
+    }
+
+    public long getAlphaDecodeNanos() {
+        return mAlphaDecodeNanos;
+    }
+
+    public long getCompositeNanos() {
+        return mCompositeNanos;
+    }
+
+    /**
+     * @return 所有帧规划解码方式的总耗时，见FrameSample.getPlanNanos()
+     */
+    public long getPlanNanos() {
+        return mPlanNanos;
+    }
+
+    /**
+     * @return 单帧解码和合成的最大耗时
+     */
+    public long getMaxWorkNanos() {
+        return mMaxWorkNanos;
+    }
+
+    /**
+     * @return 显示的帧平均比目标时间晚的毫秒数
+     */
+    public float getAverageLatenessMillis() {
+        return mFramesShown == 0 ? 0 : (float) mTotalLatenessMillis / mFramesShown;
+    }
+
+    public long getMaxLatenessMillis() {
+        return mMaxLatenessMillis;
+    }
+
+    /**
+     * @return 等待显示的主图最多同时占用的字节数，不包括层正在显示的那一帧
+     */
+    public int getPeakBufferedBytes() {
+        return mPeakBufferedBytes;
+    }
+
+    /**
+     * @return 播放过程中画质控制器的每一次档位变化，按时间顺序排列
+     */
+    public List<Adaptation> getAdaptations() {
+        return Collections.unmodifiableList(mAdaptations);
+    }
+
+    /**
+     * @return 播放是否已经结束，结束之后统计不再变化
+     */
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    @Override
+    public String toString() {
+        int frames = mFramesShown + mFramesSkipped;
+        return "BQLPlaybackMetrics{total=" + mTotalMillis + "ms, shown=" + mFramesShown + "/" + mFrameCount
+                + ", skipped=" + mFramesSkipped + " (dropped=" + mSkipCounts[SKIP_DROPPED] + ", failed=" + mSkipCounts[SKIP_DECODE_FAILED]
+                + ", late=" + mSkipCounts[SKIP_LATE] + ", superseded=" + mSkipCounts[SKIP_SUPERSEDED] + ")"
+                + ", avgColor=" + averageMillis(mColorDecodeNanos, frames) + "ms, avgAlpha=" + averageMillis(mAlphaDecodeNanos, frames)
+                + "ms, avgComposite=" + averageMillis(mCompositeNanos, frames) + "ms, maxWork=" + mMaxWorkNanos / 1000000f
+                + "ms, avgLateness=" + getAverageLatenessMillis() + "ms, maxLateness=" + mMaxLatenessMillis
+                + "ms, peakBuffered=" + mPeakBufferedBytes + "B, adaptations=" + mAdaptations + "}";
+    }
+
+    private static float averageMillis(long nanos, int frames) {
+        return frames == 0 ? 0 : nanos / 1000000f / frames;
+    }
+
+    /**
+     * 一帧的结果。同一个播放器的所有回调共用一个对象，只在回调中有效，需要保留时请复制其中的值
+     */
+    public static class FrameSample {
+        private int mFrameNumber;
+        private int mSkipReason;
+        private boolean mFromCache;
+        private long mColorDecodeNanos;
+        private long mAlphaDecodeNanos;
+        private long mCompositeNanos;
+        private long mPlanNanos;
+        private long mLatenessMillis;
+
+        void set(int frameNumber, int skipReason, boolean fromCache, long[] timings, long planNanos, long latenessMillis) {
+            mFrameNumber = frameNumber;
+            mSkipReason = skipReason;
+            mFromCache = fromCache;
+            mColorDecodeNanos = timings == null ? 0 : timings[BQLFrameCompositor.TIMING_COLOR];
+            mAlphaDecodeNanos = timings == null ? 0 : timings[BQLFrameCompositor.TIMING_ALPHA];
+            mCompositeNanos = timings == null ? 0 : timings[BQLFrameCompositor.TIMING_COMPOSITE];
+            mPlanNanos = planNanos;
+            mLatenessMillis = latenessMillis;
+        }
+
+        public int getFrameNumber() {
+            return mFrameNumber;
+        }
+
+        /**
+         * @return SKIP_NONE表示这一帧已经显示，否则为跳帧原因
+         */
+        public int getSkipReason() {
+            return mSkipReason;
+        }
+
+        /**
+         * @return 这一帧是否直接从BQLFrameCache复制，此时解码和合成的耗时都为0
+         */
+        public boolean isFromCache() {
+            return mFromCache;
+        }
+
+        public long getColorDecodeNanos() {
+            return mColorDecodeNanos;
+        }
+
+        public long getAlphaDecodeNanos() {
+            return mAlphaDecodeNanos;
+        }
+
+        public long getCompositeNanos() {
+            return mCompositeNanos;
+        }
+
+        /**
+         * @return 规划这一帧解码方式的耗时：按控件尺寸和画质档位算出解码区域和降采样倍数（BQLFrameGeometry）
+         */
+        public long getPlanNanos() {
+            return mPlanNanos;
+        }
+
+        public long getWorkNanos() {
+            return mColorDecodeNanos + mAlphaDecodeNanos + mCompositeNanos + mPlanNanos;
+        }
+
+        /**
+         * @return 显示或跳过的时间比目标时间晚的毫秒数，提前显示时为负数；第一帧和继续播放后的第一帧没有目标时间，为0。没有解码就丢弃的帧为0
+         */
+        public long getLatenessMillis() {
+            return mLatenessMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "FrameSample{frame=" + mFrameNumber + ", skip=" + mSkipReason + ", cache=" + mFromCache
+                    + ", color=" + mColorDecodeNanos / 1000 + "us, alpha=" + mAlphaDecodeNanos / 1000
+                    + "us, composite=" + mCompositeNanos / 1000 + "us, plan=" + mPlanNanos / 1000
+                    + "us, lateness=" + mLatenessMillis + "ms}";
+        }
+    }
+
+    /**
+     * 画质控制器的一次档位变化，从frameNumber开始提交的帧使用新的参数
+     */
+    public static class Adaptation {
+        private final int mFrameNumber;
+        private final int mLevel;
+        private final int mFrameStep;
+        private final int mFrameDuration;
+        private final int mSampleSize;
+
+        Adaptation(int frameNumber, int level, int frameStep, int frameDuration, int sampleSize) {
+            mFrameNumber = frameNumber;
+            mLevel = level;
+            mFrameStep = frameStep;
+            mFrameDuration = frameDuration;
+            mSampleSize = sampleSize;
+        }
+
+        public int getFrameNumber() {
+            return mFrameNumber;
+        }
+
+        public int getLevel() {
+            return mLevel;
+        }
+
+        public int getFrameStep() {
+            return mFrameStep;
+        }
+
+        /**
+         * @return 新档位下相邻两个显示帧的间隔，即原始帧时长乘以帧步长
+         */
+        public int getFrameDuration() {
+            return mFrameDuration;
+        }
+
+        public int getSampleSize() {
+            return mSampleSize;
+        }
+
+        @Override
+        public String toString() {
+            return "@" + mFrameNumber + ":level=" + mLevel + ",step=" + mFrameStep + ",duration=" + mFrameDuration + "ms,sample=" + mSampleSize;
+        }
+    }
+
+    /**
+     * 接收播放统计，所有回调都在播放器的后台线程中进行，不要在其中做耗时的工作
+     */
+    public interface Listener {
+        /**
+         * 一帧显示或跳过
+         *
+         * @param metrics 到目前为止的汇总，已经包含了这一帧
+         * @param sample  这一帧的结果，只在回调中有效
+         */
+        void onFrame(BQLPlaybackMetrics metrics, FrameSample sample);
+
+        /**
+         * 播放结束（包括被停止），之后这个对象不再变化
+         */
+        void onFinish(BQLPlaybackMetrics metrics);
+    }
+}
@@ -1,112 +1,189 @@
 package com.siyanhui.mojif.bqliveapp.graphics;
 
-import android.graphics.Bitmap;
+import android.annotation.TargetApi;
 import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.ColorMatrix;
-import android.graphics.ColorMatrixColorFilter;
-import android.graphics.Matrix;
-import android.graphics.Paint;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
-import android.graphics.RectF;
+import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
+import android.os.SystemClock;
+import android.util.SparseArray;
+import android.view.Choreographer;
 
-import com.siyanhui.mojif.bqlive.BQLive;
-import com.siyanhui.mojif.bqliveapp.BQLAnimationView;
+import com.siyanhui.mojif.bqliveapp.BQLAnimationLayer;
+import com.siyanhui.mojif.bqliveapp.core.BQLDeadlineQueue;
+import com.siyanhui.mojif.bqliveapp.core.BQLFrameReusePlan;
+import com.siyanhui.mojif.bqliveapp.core.BQLFrameSchedule;
+import com.siyanhui.mojif.bqliveapp.core.BQLPlayableWatermark;
+import com.siyanhui.mojif.bqliveapp.core.BQLQualityController;
 
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * 用于播放BQLive定义的PNG序列动画
- * 它可以和BQLAnimationView配合使用，在后台线程中进行图片解码和矩阵计算的工作，并在预定的时间用setFrame()方法将解码和计算结果传给BQLAnimationView。
+ * 它可以和BQLAnimationLayer配合使用，在后台线程中进行图片解码的工作，并在预定的时间用setFrame()方法将解码结果传给BQLAnimationLayer。
+ * 同一个控件中的多个层共用一个BQLDecodeBudget，以限制同时进行的解码任务总数。解码任务交给BQLDecodeScheduler，按显示时间排序，赶不上显示时间的帧不会被解码。
+ * 所有时间都使用单调时钟SystemClock.uptimeMillis()。在API 16及以上默认由Choreographer按vsync节奏显示帧，每一帧在离它目标时间最近的vsync上显示。
+ * 播放可以暂停、继续和停止。暂停和停止时撤销待显示的消息、取消排队的解码并把缓冲的主图放回池中，暂停期间不占用CPU，继续时从最后显示的一帧之后接着播放。
+ * 播放状态只在后台线程中修改，start()、pause()、resume()和stop()都以消息的形式交给后台线程，可以在任意线程调用。
+ * 设置了BQLPlaybackMetrics.Listener时记录每一帧的解码、合成耗时和跳帧原因，没有设置时不计时，也不分配统计用的对象。
+ * 礼物还在下载时设置BQLPlayableWatermark，只解码已经解压的帧；下一帧还没有解压时停下等待，数据足够时从等待的那一帧重新开始计时。
+ * 帧列表中重复的主图只解码一次：播放前用BQLFrameReusePlan分析帧列表，在REUSE_WINDOW帧以内会再次用到的主图合成之后保留下来，
+ * 之后的帧直接引用同一个BQLFrame；同一张主图还在解码时，后来的帧等它的结果，不会重复解码。
  * Created by lixiao on 16-9-22.
  */
 public class BQLPngSequencePlayer {
-    private static final int SHOW_BITMAP = 100, SKIP_FRAME = 101, PLAYBACK_FINISH = 102;
+    /**
+     * 帧的显示节奏：PACING_HANDLER用延时消息在目标时间显示，PACING_VSYNC把帧对齐到最近的vsync上显示
+     */
+    public static final int PACING_HANDLER = 0, PACING_VSYNC = 1;
+    private static final int SHOW_BITMAP = 100, SKIP_FRAME = 101, PLAYBACK_FINISH = 102, FRAME_READY = 103, START = 104, PAUSE = 105, RESUME = 106, STOP = 107, WATERMARK_CHANGED = 108;
+    private static final int REUSE_WINDOW = 8;//同一张主图两次用到的间隔不超过这么多帧时才保留
+    private static final int MAX_REUSED_FRAMES = 3;//同时保留的主图数量上限，限制额外占用的内存
     private static final HandlerThread backgroundThread = new HandlerThread("BQLive_PNG_Sequence_Player");
-    private static final ExecutorService decodeExecutor = Executors.newFixedThreadPool(3);
-    private int mFrameDuration;
-    private int mMaxBufferDepth = 3;
-    private int mBufferDepth = 0;
-    private WeakReference<BQLAnimationView> mTarget;
+    private final BQLDecodeScheduler mDecodeScheduler = BQLDecodeScheduler.getDefault();
+    private final int mFrameDuration;
+    private final BQLQualityController mQualityController;//决定预解码深度、降采样倍数、帧步长和子动画细节
+    private WeakReference<BQLAnimationLayer> mTarget;
+    private BQLDecodeBudget mDecodeBudget;
     private String[] mColorFiles;
     private String[] mAlphaFiles;
     private int[] mFrameIndices;
-    private int mFrameCount;
-    private int mCurrentFrame = 0;
-    private long mLastFrameShowTime = 0;
-    private int mFrameStep = 1;
+    private final BQLFrameSchedule mSchedule;//决定下一帧解码哪一帧、何时显示以及何时结束
+    private final BQLFrameReusePlan mReusePlan;//帧列表中没有会再次用到的主图时为null，此时不做以下记录
+    /**
+     * 以下是播放状态，只在后台线程中使用。每次暂停或停止时mGeneration加一，之前提交的解码任务的结果回来时直接丢弃
+     */
+    private int mGeneration = 0;
+    private boolean mStarted = false;
+    private boolean mPaused = false;
+    private boolean mStopped = false;
+    private boolean mEnded = false;
+    private boolean mWaitingForData = false;//下一帧还没有解压，等待水位上升
+    private final List<DecodeTask> mBufferedTasks = new ArrayList<>();//解码完毕、等待显示时间的任务，暂停时撤销
+    private final SparseArray<ReusedFrame> mReusedFrames = new SparseArray<>();//按主图序号保留的主图，暂停时放回池中
+    private final SparseArray<DecodeTask> mDecodingTasks = new SparseArray<>();//按主图序号记录正在解码的任务
+    private VsyncPacer mVsyncPacer;//为null时使用PACING_HANDLER
+    /**
+     * 播放统计，只有设置了Listener时才不为null
+     */
+    private BQLPlaybackMetrics.Listener mMetricsListener;
+    private BQLPlaybackMetrics mMetrics;
+    private BQLPlaybackMetrics.FrameSample mFrameSample;
+    /**
+     * 边下载边播放时的水位，下载完毕的礼物为null
+     */
+    private BQLPlayableWatermark mWatermark;
+    private final BQLPlayableWatermark.Listener mWatermarkListener = new BQLPlayableWatermark.Listener() {
+        @Override
+        public void onWatermarkChanged(BQLPlayableWatermark watermark) {
+            mHandler.sendEmptyMessage(WATERMARK_CHANGED);
+        }
+    };
+    /**
+     * 主图在控件中的显示尺寸和缩放方式，解码线程据此只解码看得见的部分，并降采样到显示尺寸
+     */
+    private volatile int mViewWidth = 0;
+    private volatile int mViewHeight = 0;
+    private volatile boolean mFullScreen = false;
     private Handler mHandler;
-    private Paint mFramePaint = new Paint();
-    private Paint mFrameAlphaPaint = new Paint();
+    private BQLFrameCompositor mFrameCompositor = new BQLFrameCompositor(BQLFrameCompositor.CHANNELS_COMPACT, BQLFrameCompositor.COMPOSITE_KERNEL);
 
     /**
      * @param colorFiles    颜色通道文件列表，必须和alphaFiles一一对应
      * @param alphaFiles    透明度通道文件列表，必须和colorFiles一一对应
      * @param frameIndices  帧列表。列表中第n项的值为m，意味着动画第n帧的主图是colorFiles和alphaFiles中的第m项
-     * @param target        用于展示动画的控件，含有动画参数的BQLAnimationContext也是从这个控件中拿出来的
+     * @param target        用于展示动画的层
      * @param frameDuration 每帧时长
+     * @param decodeBudget  和同一控件中其它层共用的解码预算
      */
-    public BQLPngSequencePlayer(String[] colorFiles, String[] alphaFiles, int[] frameIndices, BQLAnimationView target, final int frameDuration) {
+    public BQLPngSequencePlayer(String[] colorFiles, String[] alphaFiles, int[] frameIndices, BQLAnimationLayer target, int frameDuration, BQLDecodeBudget decodeBudget) {
         mColorFiles = colorFiles;
         mAlphaFiles = alphaFiles;
         mFrameIndices = frameIndices;
-        mFrameCount = colorFiles.length;
         mTarget = new WeakReference<>(target);
         mFrameDuration = frameDuration;
+        mQualityController = new BQLQualityController(frameDuration, mDecodeScheduler.getWorkerCount());
+        mSchedule = new BQLFrameSchedule(colorFiles.length, frameDuration, mQualityController);
+        mReusePlan = BQLFrameReusePlan.create(frameIndices, REUSE_WINDOW);
+        mDecodeBudget = decodeBudget;
         if (!backgroundThread.isAlive()) {
             backgroundThread.start();
         }
-        /**
-         * 以下两个Paint需要配合使用。为了节省空间，动画中的每一帧主图都被存贮为了颜色通道和透明度通道两张图片，需要用这两个Paint分别绘制。
-         */
-        mFramePaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));//颜色通道在透明度通道之后绘制，这个设置可以在绘制时保留像素的透明度。
-        mFrameAlphaPaint.setColorFilter(new ColorMatrixColorFilter(new ColorMatrix(new float[]{
-                0, 0, 0, 0, 0,
-                0, 0, 0, 0, 0,
-                0, 0, 0, 0, 0,
-                1, 0, 0, 0, 0})));//透明度通道是一张黑白图片，这个矩阵可以把图片上每一个像素的亮度转变为透明度。
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            mVsyncPacer = new VsyncPacer();
+        }
         mHandler = new Handler(backgroundThread.getLooper()) {
             @Override
             public void handleMessage(Message msg) {
-                BQLAnimationView imageView = mTarget.get();
-                if (imageView == null) return;
+                BQLAnimationLayer layer = mTarget.get();
                 DecodeTask task = (DecodeTask) msg.obj;
                 msg.obj = null;
+                if (task != null && mReusePlan != null && mDecodingTasks.get(task.mSource) == task) {
+                    mDecodingTasks.remove(task.mSource);//解码完毕、失败或者被丢弃，之后的帧不能再等它的结果
+                }
+                if (layer == null) {
+                    if (task != null) {
+                        abandon(task);
+                    }
+                    if (!mEnded) {
+                        release();//层已经不存在，不会再有人调用stop()，在这里做和结束播放一样的清理
+                    }
+                    return;
+                }
+                if (task != null && task.mGeneration != mGeneration) {//暂停或停止之前提交的任务，结果不再需要
+                    discard(task);
+                    return;
+                }
                 switch (msg.what) {
                     case SHOW_BITMAP:
-                        //解码成功，如果帧间隔被延长了的话（见下方），就略微缩短帧间隔
-                        if (mFrameDuration > frameDuration) {
-                            mFrameDuration *= 0.97;
-                            if (mFrameDuration < frameDuration) {
-                                if (mFrameStep > 1) {
-                                    mFrameStep -= 1;
-                                }
-                                mFrameDuration = frameDuration;
-                            }
-                        }
-                        //显示图片
-                        imageView.setFrame(task.mBitmap, task.hostAvatarOuterMatrix, task.hostAvatarInnerMatrix, task.hostAvatarBorderRect, task.hostAvatarRect, task.senderAvatarOuterMatrix, task.senderAvatarInnerMatrix, task.senderAvatarBorderRect, task.senderAvatarRect, task.hostAvatarAlpha, task.senderAvatarAlpha, task.hostNickNameMatrix, task.hostNickNameAlpha, task.senderNickNameMatrix, task.senderNickNameAlpha, task.hostNickNameHeight, task.senderNickNameHeight, task.subAnimationMatrices);
-                        scheduleNewFrames(imageView);
+                        mBufferedTasks.remove(task);
+                        showFrame(layer, task);
                         break;
                     case SKIP_FRAME:
-                        //解码失败，延长帧间隔，直至跳帧（目的是减小解码压力，防止动画的总时长被拖得过长）
-                        mFrameDuration *= 1.25;
-                        if (mFrameDuration > 1.7 * mFrameStep * frameDuration) {
-                            mFrameStep *= 2;
-                            mFrameDuration = frameDuration;
-                        }
-                        scheduleNewFrames(imageView);
+                        redispatchFollowers(task);
+                        skipFrame(task, task.mDropped ? BQLPlaybackMetrics.SKIP_DROPPED : BQLPlaybackMetrics.SKIP_DECODE_FAILED);
+                        break;
+                    case FRAME_READY:
+                        onDecoded(task);
                         break;
                     case PLAYBACK_FINISH:
-                        imageView.endAnimation();
+                        end(layer);
+                        break;
+                    case START:
+                        if (mMetrics != null) mMetrics.onStart(SystemClock.uptimeMillis());
+                        mStarted = true;
+                        if (!mPaused && !mStopped) submitFirstFrame();
+                        break;
+                    case PAUSE:
+                        if (!mPaused && !mStopped) {
+                            mPaused = true;
+                            releaseBuffers();
+                        }
+                        break;
+                    case RESUME:
+                        if (mPaused && !mStopped) {
+                            mPaused = false;
+                            if (mStarted) submitFirstFrame();
+                        }
+                        break;
+                    case STOP:
+                        if (!mStopped) {
+                            mStopped = true;
+                            releaseBuffers();
+                            end(layer);
+                        }
+                        break;
+                    case WATERMARK_CHANGED:
+                        if (mStarted && !mPaused && !mStopped) {
+                            if (mWaitingForData) {
+                                submitFirstFrame();
+                            } else {
+                                submitNewFrames();
+                            }
+                        }
                         break;
                 }
             }
@@ -114,222 +191,675 @@ public class BQLPngSequencePlayer {
     }
 
     /**
-     * 安排新帧的解码
+     * 选择帧的显示节奏，必须在start()之前调用。API 16以下只支持PACING_HANDLER
+     *
+     * @param pacingMode PACING_HANDLER或PACING_VSYNC
+     */
+    public void setPacingMode(int pacingMode) {
+        if (pacingMode == PACING_VSYNC && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            if (mVsyncPacer == null) mVsyncPacer = new VsyncPacer();
+        } else {
+            mVsyncPacer = null;
+        }
+    }
+
+    /**
+     * 设置主图的显示方式，可以在任意线程调用，从下一个提交的解码任务开始生效
+     *
+     * @param viewWidth  控件宽度，为0表示尚未布局，此时按原始尺寸解码
+     * @param viewHeight 控件高度
+     * @param fullScreen 是否全屏。全屏时主图缩放到填满控件，超出控件的部分不会被解码
+     */
+    public void setViewport(int viewWidth, int viewHeight, boolean fullScreen) {
+        mViewWidth = viewWidth;
+        mViewHeight = viewHeight;
+        mFullScreen = fullScreen;
+    }
+
+    /**
+     * 选择通道的解码方式，默认为BQLFrameCompositor.CHANNELS_COMPACT，从下一个提交的解码任务开始生效
+     *
+     * @param channelMode BQLFrameCompositor.CHANNELS_ARGB_8888或BQLFrameCompositor.CHANNELS_COMPACT
+     */
+    public void setChannelMode(int channelMode) {
+        if (channelMode != mFrameCompositor.getChannelMode()) {
+            mFrameCompositor = new BQLFrameCompositor(channelMode, mFrameCompositor.getCompositeMode());
+        }
+    }
+
+    /**
+     * 选择两个通道的合成方式，默认为BQLFrameCompositor.COMPOSITE_KERNEL，从下一个提交的解码任务开始生效
+     *
+     * @param compositeMode BQLFrameCompositor.COMPOSITE_CANVAS、BQLFrameCompositor.COMPOSITE_KERNEL或BQLFrameCompositor.COMPOSITE_ON_DRAW
+     */
+    public void setCompositeMode(int compositeMode) {
+        if (compositeMode != mFrameCompositor.getCompositeMode()) {
+            mFrameCompositor = new BQLFrameCompositor(mFrameCompositor.getChannelMode(), compositeMode);
+        }
+    }
+
+    /**
+     * 设置播放统计的接收者，必须在start()之前调用。设置之后解码任务会记录各个步骤的耗时
+     *
+     * @param listener 为null时不做统计
+     */
+    public void setMetricsListener(BQLPlaybackMetrics.Listener listener) {
+        mMetricsListener = listener;
+        if (listener != null) {
+            mMetrics = new BQLPlaybackMetrics(mColorFiles.length, mFrameDuration);
+            mFrameSample = new BQLPlaybackMetrics.FrameSample();
+        } else {
+            mMetrics = null;
+            mFrameSample = null;
+        }
+    }
+
+    /**
+     * 设置礼物的下载水位，必须在start()之前调用。只解码水位以内的帧，开始播放的时机由BQLPlayableWatermark.canPlayFrom()决定
+     *
+     * @param watermark 礼物已经下载完毕时为null
+     */
+    public void setWatermark(BQLPlayableWatermark watermark) {
+        mWatermark = watermark;
+        if (watermark != null) {
+            watermark.addListener(mWatermarkListener);
+        }
+    }
+
+    /**
+     * 一个任务得到了主图，等待同一张主图的任务共用这个结果。先让所有使用者都持有引用，再交给显示流程，
+     * 以免前面的帧被跳过时把图片放回池中
+     */
+    private void onDecoded(DecodeTask task) {
+        List<DecodeTask> followers = task.mFollowers;
+        task.mFollowers = null;
+        if (mReusePlan != null) {
+            updateReusedFrame(task);
+        }
+        if (followers != null) {
+            for (DecodeTask follower : followers) {
+                follower.mFrame = task.mFrame.retain();
+                follower.mReused = true;
+                follower.mFromCache = true;
+                updateReusedFrame(follower);
+            }
+        }
+        onFrameReady(task);
+        if (followers != null) {
+            for (DecodeTask follower : followers) {
+                onFrameReady(follower);
+            }
+        }
+    }
+
+    /**
+     * 一帧解码完毕。按vsync节奏显示时交给VsyncPacer，否则等到显示时间再显示，已经超时的直接跳过
+     */
+    private void onFrameReady(DecodeTask task) {
+        if (mMetrics != null && !task.mReused) {//复用的主图和第一次用到它的帧共用内存，不重复计入
+            task.mBufferedBytes = task.mFrame.getByteCount();
+            mMetrics.onBufferChanged(task.mBufferedBytes);
+        }
+        if (mVsyncPacer != null) {
+            mVsyncPacer.enqueue(task);
+            return;
+        }
+        long time = SystemClock.uptimeMillis();
+        if (task.mShowTime != 0 && time > task.mShowTime) {
+            skipFrame(task, BQLPlaybackMetrics.SKIP_LATE);
+            return;
+        }
+        mBufferedTasks.add(task);
+        mHandler.sendMessageDelayed(mHandler.obtainMessage(SHOW_BITMAP, task), task.mShowTime == 0 ? 0 : task.mShowTime - time);
+    }
+
+    /**
+     * 显示一帧
+     */
+    private void showFrame(BQLAnimationLayer layer, DecodeTask task) {
+        report(task, BQLPlaybackMetrics.SKIP_NONE);
+        updateQuality(layer, task, false);
+        mSchedule.onShown(task.mFrameNumber);
+        layer.setFrame(task.mFrame, task.mFrameNumber);
+        scheduleNewFrames();
+    }
+
+    /**
+     * 跳过一帧
      *
-     * @param view 用于从中获取BQLAnimationContext
-     */
-    private void scheduleNewFrames(BQLAnimationView view) {
-        --mBufferDepth;
-        //安排下一帧的解码
-        while (mBufferDepth + 1 <= mMaxBufferDepth) {
-            if (mLastFrameShowTime == 0) {
-                mLastFrameShowTime = System.currentTimeMillis();
+     * @param skipReason 跳帧原因，见BQLPlaybackMetrics
+     */
+    private void skipFrame(DecodeTask task, int skipReason) {
+        report(task, skipReason);
+        //已经解码好的主图不会被显示，直接放回池中
+        recycle(task);
+        updateQuality(mTarget.get(), task, true);
+        scheduleNewFrames();
+    }
+
+    /**
+     * 把一帧的结果交给画质控制器，档位变化时通知层并记入统计
+     */
+    private void updateQuality(BQLAnimationLayer layer, DecodeTask task, boolean skipped) {
+        if (task.mReused) return;//复用的帧没有解码，它的耗时不能反映解码的开销
+        if (!mQualityController.onFrame(task.mWorkNanos, skipped)) return;
+        if (layer != null) {
+            layer.setSubAnimationDetail(mQualityController.getSubAnimationDetail());
+        }
+        if (mMetrics != null) {
+            mMetrics.onAdaptation(mSchedule.getCurrentFrame(), mQualityController.getLevel(), mQualityController.getFrameStep(), mQualityController.getSampleSize());
+        }
+    }
+
+    /**
+     * 一帧显示或跳过，记入统计并通知Listener。没有设置Listener时什么都不做
+     */
+    private void report(DecodeTask task, int skipReason) {
+        BQLPlaybackMetrics metrics = mMetrics;
+        if (metrics == null) return;
+        if (task.mBufferedBytes != 0) {
+            metrics.onBufferChanged(-task.mBufferedBytes);
+            task.mBufferedBytes = 0;
+        }
+        long lateness = task.mShowTime == 0 || skipReason == BQLPlaybackMetrics.SKIP_DROPPED ? 0 : SystemClock.uptimeMillis() - task.mShowTime;
+        mFrameSample.set(task.mFrameNumber, skipReason, task.mFromCache, task.mTimings, task.mPlanNanos, lateness);
+        metrics.onFrame(mFrameSample);
+        mMetricsListener.onFrame(metrics, mFrameSample);
+    }
+
+    /**
+     * 丢弃一个不再需要的任务，归还它占用的名额，不安排新帧。等待它的结果的任务一起丢弃
+     */
+    private void discard(DecodeTask task) {
+        if (mMetrics != null && task.mBufferedBytes != 0) {
+            mMetrics.onBufferChanged(-task.mBufferedBytes);
+            task.mBufferedBytes = 0;
+        }
+        recycle(task);
+        mSchedule.onResult();
+        mDecodeBudget.release();
+        if (task.mFollowers != null) {
+            for (DecodeTask follower : task.mFollowers) {
+                discard(follower);
+            }
+            task.mFollowers = null;
+        }
+    }
+
+    /**
+     * 层已经不存在时放弃一个任务，只归还图片和解码预算
+     */
+    private void abandon(DecodeTask task) {
+        recycle(task);
+        mDecodeBudget.release();
+        if (task.mFollowers != null) {
+            for (DecodeTask follower : task.mFollowers) {
+                abandon(follower);
+            }
+            task.mFollowers = null;
+        }
+    }
+
+    private static void recycle(DecodeTask task) {
+        if (task.mFrame != null) {
+            task.mFrame.recycle(BQLBitmapPool.getDefault());
+            task.mFrame = null;
+        }
+    }
+
+    /**
+     * 一个解码任务的结果已经处理完毕，归还它占用的名额并安排新帧的解码
+     */
+    private void scheduleNewFrames() {
+        mSchedule.onResult();
+        mDecodeBudget.release();
+        if (mPaused || mStopped) return;
+        submitNewFrames();
+    }
+
+    /**
+     * 安排新帧的解码，并在所有帧都处理完后安排结束
+     */
+    private void submitNewFrames() {
+        //安排下一帧的解码。共用的预算用完时先停下，等下一个结果回来时再继续；本层没有进行中的解码时强制申请，保证不会卡住
+        //预解码深度、降采样倍数和帧步长都由画质控制器决定，新的档位从下一个提交的解码任务开始生效
+        while (mSchedule.wantsMoreFrames()) {
+            int frameNumber = mSchedule.getCurrentFrame();
+            if (mWatermark != null && !mWatermark.isPlayable(frameNumber)) {
+                //下一帧还没有解压。缓冲的帧全部处理完之后停下等待，之后的帧从重新开始时计时，不会因为等待而被当作超时丢弃
+                if (mSchedule.isStarving()) waitForData();
+                return;
+            }
+            if (!mDecodeBudget.tryAcquire(mSchedule.isStarving())) break;
+            dispatch(newDecodeTask(frameNumber, mSchedule.submit(SystemClock.uptimeMillis())));
+        }
+        //所有帧都已经显示或跳过，在最后一帧显示满一个帧间隔后结束播放。这里只会执行一次
+        long delay = mSchedule.scheduleFinish(SystemClock.uptimeMillis());
+        if (delay >= 0) {
+            mHandler.sendMessageDelayed(mHandler.obtainMessage(PLAYBACK_FINISH), delay);
+        }
+    }
+
+    /**
+     * @param frameNumber 帧序号
+     * @param showTime    显示时间，为0表示尽快显示。预计耗时取画质控制器统计的平均解码耗时，赶不上显示时间的任务由调度器直接丢弃
+     */
+    private DecodeTask newDecodeTask(int frameNumber, long showTime) {
+        int frameToDecode = mFrameIndices == null ? frameNumber : mFrameIndices[frameNumber];
+        GeometryPlanner planner = new GeometryPlanner(mViewWidth, mViewHeight, mFullScreen, mQualityController.getSampleSize());
+        long estimatedMillis = (long) mQualityController.getAverageWorkMillis();
+        DecodeTask task = new DecodeTask(this, mColorFiles[frameToDecode], mAlphaFiles[frameToDecode], showTime, estimatedMillis, frameNumber, mGeneration, planner, mFrameCompositor, mHandler);
+        task.mSource = frameToDecode;
+        if (mMetrics != null) {
+            task.mTimings = new long[BQLFrameCompositor.TIMING_COUNT];
+        }
+        return task;
+    }
+
+    /**
+     * 交出一个解码任务。它的主图已经保留下来并且满足当前的显示要求时直接使用；同一张主图正在解码时等它的结果；
+     * 否则交给解码调度器。前两种情况不占用解码线程，结果同样以FRAME_READY消息回来，保持和解码结果一样的处理顺序
+     */
+    private void dispatch(DecodeTask task) {
+        if (mReusePlan == null) {
+            mDecodeScheduler.submit(task);
+            return;
+        }
+        //跳帧或者解码失败时，保留的主图可能等不到下一次用到它的帧，已经用不上的先放回池中
+        for (int i = mReusedFrames.size() - 1; i >= 0; --i) {
+            ReusedFrame reused = mReusedFrames.valueAt(i);
+            if (reused.mLastUse < task.mFrameNumber) {
+                mReusedFrames.remove(mReusedFrames.keyAt(i));
+                reused.mFrame.recycle(BQLBitmapPool.getDefault());
             }
-            mLastFrameShowTime += mFrameDuration * mFrameStep;
-            if (mCurrentFrame >= mFrameCount) break;
-            int frameToDecode = mFrameIndices == null ? mCurrentFrame : mFrameIndices[mCurrentFrame];
-            decodeExecutor.execute(new DecodeTask(mColorFiles[frameToDecode], mAlphaFiles[frameToDecode], mLastFrameShowTime, mCurrentFrame, mFramePaint, mFrameAlphaPaint, view.getAnimationContext(), mHandler));
-            mCurrentFrame += mFrameStep;
-            ++mBufferDepth;
         }
-        if (mCurrentFrame >= mFrameCount) {
-            mHandler.sendMessageDelayed(mHandler.obtainMessage(PLAYBACK_FINISH), mLastFrameShowTime - System.currentTimeMillis());
+        ReusedFrame reused = mReusedFrames.get(task.mSource);
+        if (reused != null) {
+            BQLFrameGeometry geometry = reused.mFrame.getGeometry();
+            if (geometry.covers(task.plan(geometry.getFullWidth(), geometry.getFullHeight()))) {
+                task.mFrame = reused.mFrame.retain();
+                task.mReused = true;
+                task.mFromCache = true;
+                updateReusedFrame(task);
+                mHandler.sendMessage(mHandler.obtainMessage(FRAME_READY, task));
+                return;
+            }
+            //控件尺寸或降采样倍数变了，保留的主图不再适用
+            mReusedFrames.remove(task.mSource);
+            reused.mFrame.recycle(BQLBitmapPool.getDefault());
+        }
+        DecodeTask decoding = mDecodingTasks.get(task.mSource);
+        if (decoding != null) {
+            if (decoding.mFollowers == null) {
+                decoding.mFollowers = new ArrayList<>();
+            }
+            decoding.mFollowers.add(task);
+            return;
+        }
+        mDecodingTasks.put(task.mSource, task);
+        mDecodeScheduler.submit(task);
+    }
+
+    /**
+     * 一个任务得到主图之后，按帧列表决定是否保留这张主图：下一次用到它的帧在窗口以内时保留到那一帧，否则不再保留
+     */
+    private void updateReusedFrame(DecodeTask task) {
+        ReusedFrame reused = mReusedFrames.get(task.mSource);
+        if (mReusePlan.isReusedWithin(task.mFrameNumber)) {
+            if (reused == null || reused.mFrame != task.mFrame) {
+                if (reused == null && mReusedFrames.size() >= MAX_REUSED_FRAMES) return;
+                if (reused != null) {
+                    reused.mFrame.recycle(BQLBitmapPool.getDefault());
+                }
+                reused = new ReusedFrame(task.mFrame.retain());
+                mReusedFrames.put(task.mSource, reused);
+            }
+            reused.mLastUse = Math.max(reused.mLastUse, mReusePlan.getNextUse(task.mFrameNumber));
+        } else if (reused != null && reused.mFrame == task.mFrame && reused.mLastUse <= task.mFrameNumber) {
+            mReusedFrames.remove(task.mSource);
+            reused.mFrame.recycle(BQLBitmapPool.getDefault());
+        }
+    }
+
+    /**
+     * 共用结果的任务被调度器丢弃或者解码失败，等待它的任务改为自己解码：第一个交给解码调度器，其余的继续等待第一个
+     */
+    private void redispatchFollowers(DecodeTask task) {
+        List<DecodeTask> followers = task.mFollowers;
+        task.mFollowers = null;
+        if (followers == null) return;
+        DecodeTask leader = followers.remove(0);
+        if (!followers.isEmpty()) {
+            leader.mFollowers = followers;
+        }
+        mDecodingTasks.put(leader.mSource, leader);
+        mDecodeScheduler.submit(leader);
+    }
+
+    /**
+     * 把保留的主图全部放回池中，用于暂停、停止和结束
+     */
+    private void releaseReusedFrames() {
+        for (int i = 0; i < mReusedFrames.size(); ++i) {
+            mReusedFrames.valueAt(i).mFrame.recycle(BQLBitmapPool.getDefault());
         }
+        mReusedFrames.clear();
+        mDecodingTasks.clear();
     }
 
     /**
-     * 开始播放
+     * 开始播放。和之后的每一帧一样，第一帧的解码任务会先查BQLFrameCache，预热过的礼物不需要等待JPEG解码
      */
     public void start() {
-        mCurrentFrame = 0;
-        BQLAnimationView imageView = mTarget.get();
-        if (imageView != null && ++mBufferDepth <= mMaxBufferDepth && mCurrentFrame < mFrameCount) {
-            int frameToDecode = mFrameIndices == null ? mCurrentFrame : mFrameIndices[mCurrentFrame];
-            decodeExecutor.execute(new DecodeTask(mColorFiles[frameToDecode], mAlphaFiles[frameToDecode], 0, 0, mFramePaint, mFrameAlphaPaint, imageView.getAnimationContext(), mHandler));
-            mCurrentFrame += mFrameStep;
-        }
-    }
-
-    /**
-     * 虽然名字叫做“解码任务”，但它的功能实际上包括解码和计算矩阵两部分
-     */
-    private static class DecodeTask implements Runnable {
-        int hostAvatarAlpha;
-        int senderAvatarAlpha;
-        Matrix hostNickNameMatrix;
-        int hostNickNameAlpha;
-        Matrix senderNickNameMatrix;
-        int senderNickNameAlpha;
-        float hostNickNameHeight;
-        float senderNickNameHeight;
-        Map<String, Matrix> subAnimationMatrices;
-        private Matrix hostAvatarOuterMatrix;
-        private Matrix hostAvatarInnerMatrix;
-        private RectF hostAvatarBorderRect;
-        private RectF hostAvatarRect;
-        private Matrix senderAvatarOuterMatrix;
-        private Matrix senderAvatarInnerMatrix;
-        private RectF senderAvatarBorderRect;
-        private RectF senderAvatarRect;
+        mHandler.sendEmptyMessage(START);
+    }
+
+    /**
+     * 暂停播放，层保持显示当前帧。待显示的帧和排队中的解码全部撤销，主图放回池中
+     */
+    public void pause() {
+        mHandler.sendEmptyMessage(PAUSE);
+    }
+
+    /**
+     * 从最后显示的一帧之后继续播放
+     */
+    public void resume() {
+        mHandler.sendEmptyMessage(RESUME);
+    }
+
+    /**
+     * 停止播放并释放所有资源，层随即结束，和正常播放完毕一样会收到结束的回调。停止之后不能再继续
+     */
+    public void stop() {
+        mHandler.sendEmptyMessage(STOP);
+    }
+
+    /**
+     * 提交当前帧的解码任务，它会尽快显示，之后的帧从它显示的时间开始计时。没有剩下的帧时结束播放
+     */
+    private void submitFirstFrame() {
+        if (mSchedule.finishIfDone()) {
+            mHandler.sendEmptyMessage(PLAYBACK_FINISH);
+            return;
+        }
+        if (mWatermark != null && !mWatermark.canPlayFrom(mSchedule.getCurrentFrame(), mFrameDuration, SystemClock.uptimeMillis())) {
+            waitForData();
+            return;
+        }
+        mWaitingForData = false;
+        if (mDecodeBudget.tryAcquire(true)) {
+            int frameNumber = mSchedule.getCurrentFrame();
+            dispatch(newDecodeTask(frameNumber, mSchedule.submitImmediately()));
+        }
+    }
+
+    /**
+     * 等待水位上升，水位变化时由submitFirstFrame()判断能否重新开始。下载已经失败时不会再有新的帧，直接结束播放
+     */
+    private void waitForData() {
+        if (mWatermark.isFailed()) {
+            mHandler.sendEmptyMessage(PLAYBACK_FINISH);
+            return;
+        }
+        mWaitingForData = true;
+    }
+
+    /**
+     * 撤销所有还没有显示的帧：待显示的消息被移除，缓冲的主图放回池中，排队中的解码被取消，
+     * 正在解码的任务结果回来时按过期任务丢弃。之后从最后显示的一帧之后重新开始
+     */
+    private void releaseBuffers() {
+        ++mGeneration;
+        mHandler.removeMessages(PLAYBACK_FINISH);
+        for (DecodeTask task : mBufferedTasks) {
+            mHandler.removeMessages(SHOW_BITMAP, task);
+            discard(task);
+        }
+        mBufferedTasks.clear();
+        if (mVsyncPacer != null) {
+            mVsyncPacer.flush();
+        }
+        mDecodeScheduler.cancel(this);//被取消的任务以SKIP_FRAME的形式回来，按过期任务丢弃
+        releaseReusedFrames();//正在解码的任务回来时按过期任务丢弃，等待它们的任务一起丢弃
+        mSchedule.rewind();
+    }
+
+    /**
+     * 结束播放，只执行一次
+     */
+    private void end(BQLAnimationLayer layer) {
+        if (mEnded) return;
+        release();
+        if (mMetrics != null) {
+            mMetrics.onFinish(SystemClock.uptimeMillis());
+            mMetricsListener.onFinish(mMetrics);
+        }
+        layer.endAnimation();
+    }
+
+    /**
+     * 释放播放器在外部留下的引用和资源：注销水位的Listener，取消排队中的解码，放回保留的主图。
+     * 结束播放时以及层已经被回收时调用，只执行一次；之后回来的任务由调用者逐个丢弃
+     */
+    private void release() {
+        mEnded = true;
+        if (mWatermark != null) {
+            mWatermark.removeListener(mWatermarkListener);//否则下载中的水位会一直引用这个播放器
+        }
+        mDecodeScheduler.cancel(this);
+        releaseReusedFrames();
+    }
+
+    /**
+     * 按vsync节奏显示帧。解码好的帧先按帧序号排队，每次vsync时显示目标时间离本次vsync最近的帧
+     * 如果有多个帧都已经到期，说明前面的帧已经晚了至少一个帧间隔，只显示最新的一帧，其余的按跳帧处理
+     * 只在后台线程中使用
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private class VsyncPacer implements Choreographer.FrameCallback {
+        private final List<DecodeTask> mReadyFrames = new ArrayList<>();
+        private long mVsyncIntervalNanos = 16666667;//根据相邻两次vsync的间隔动态估计，以适应60Hz以外的屏幕
+        private long mLastVsyncNanos = 0;
+        private int mLastPresentedFrame = -1;
+        private boolean mCallbackPosted = false;
+
         /**
-         * 以下几个变量用于存储解码和计算结果
+         * 一帧解码完毕，等待vsync
          */
-        private Bitmap mBitmap;
+        void enqueue(DecodeTask task) {
+            if (task.mFrameNumber <= mLastPresentedFrame) {//更新的帧已经显示过了，这一帧来得太晚
+                skipFrame(task, BQLPlaybackMetrics.SKIP_SUPERSEDED);
+                return;
+            }
+            int index = mReadyFrames.size();
+            while (index > 0 && mReadyFrames.get(index - 1).mFrameNumber > task.mFrameNumber) {
+                --index;
+            }
+            mReadyFrames.add(index, task);
+            if (!mCallbackPosted) {
+                mCallbackPosted = true;
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+
         /**
-         * 以下是解码与计算需要用到的数据
+         * 丢弃所有等待vsync的帧，在暂停或停止时调用
+         */
+        void flush() {
+            for (DecodeTask task : mReadyFrames) {
+                discard(task);
+            }
+            mReadyFrames.clear();
+            if (mCallbackPosted) {
+                mCallbackPosted = false;
+                Choreographer.getInstance().removeFrameCallback(this);
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mCallbackPosted = false;
+            if (mLastVsyncNanos != 0) {
+                long delta = frameTimeNanos - mLastVsyncNanos;
+                if (delta > 0 && delta < mVsyncIntervalNanos * 3 / 2) {//间隔多个vsync的回调不参与估计
+                    mVsyncIntervalNanos = (mVsyncIntervalNanos * 7 + delta) / 8;
+                }
+            }
+            mLastVsyncNanos = frameTimeNanos;
+            BQLAnimationLayer layer = mTarget.get();
+            if (layer == null) {
+                for (DecodeTask task : mReadyFrames) {
+                    abandon(task);
+                }
+                mReadyFrames.clear();
+                if (!mEnded) {
+                    release();
+                }
+                return;
+            }
+            //frameTimeNanos和SystemClock.uptimeMillis()使用同一个单调时钟。目标时间在本次vsync之后半个间隔以内的帧，本次vsync就是离它最近的
+            long deadline = (frameTimeNanos + mVsyncIntervalNanos / 2) / 1000000;
+            DecodeTask due = null;
+            while (!mReadyFrames.isEmpty() && mReadyFrames.get(0).mShowTime <= deadline) {
+                if (due != null) {
+                    skipFrame(due, BQLPlaybackMetrics.SKIP_SUPERSEDED);
+                }
+                due = mReadyFrames.remove(0);
+            }
+            if (due != null) {
+                mLastPresentedFrame = due.mFrameNumber;
+                showFrame(layer, due);
+            }
+            if (!mReadyFrames.isEmpty() && !mCallbackPosted) {
+                mCallbackPosted = true;
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+    }
+
+    /**
+     * 提交解码任务时的显示参数，解码线程读到主图尺寸后用它算出BQLFrameGeometry
+     */
+    private static class GeometryPlanner {
+        private final int mViewWidth;
+        private final int mViewHeight;
+        private final boolean mFullScreen;
+        private final int mQualitySampleSize;
+
+        GeometryPlanner(int viewWidth, int viewHeight, boolean fullScreen, int qualitySampleSize) {
+            mViewWidth = viewWidth;
+            mViewHeight = viewHeight;
+            mFullScreen = fullScreen;
+            mQualitySampleSize = qualitySampleSize;
+        }
+
+        BQLFrameGeometry plan(int frameWidth, int frameHeight) {
+            return BQLFrameGeometry.plan(frameWidth, frameHeight, mViewWidth, mViewHeight, mFullScreen, mQualitySampleSize);
+        }
+    }
+
+    /**
+     * 保留下来等待再次用到的主图，播放器持有它的一个引用
+     */
+    private static class ReusedFrame {
+        private final BQLFrame mFrame;
+        private int mLastUse = -1;//预计最后一次用到它的帧，之后还没有被用到就放回池中
+
+        ReusedFrame(BQLFrame frame) {
+            mFrame = frame;
+        }
+    }
+
+    /**
+     * 解码任务，负责解码并合成一帧主图。头像、昵称和子动画的矩阵已经由BQLAnimationContext预先编译好，不需要在这里计算
+     */
+    private static class DecodeTask extends BQLDeadlineQueue.Task {
+        /**
+         * 解码结果
+         */
+        private BQLFrame mFrame;
+        private long mWorkNanos;//解码和合成的耗时，交给画质控制器
+        private boolean mDropped;//没有解码就被调度器丢弃或取消
+        /**
+         * 以下是统计数据，只有播放器设置了BQLPlaybackMetrics.Listener时才记录
+         */
+        private long[] mTimings;//两个通道的解码和合成的耗时，为null时不计时
+        private long mPlanNanos;//规划解码方式的耗时
+        private boolean mFromCache;
+        private int mBufferedBytes;//等待显示期间计入统计的字节数
+        /**
+         * 以下用于复用重复的主图，只在播放器的后台线程中使用
+         */
+        private int mSource;//主图序号
+        private boolean mReused;//主图来自保留的帧或者其它任务的结果，没有解码
+        private List<DecodeTask> mFollowers;//等待这个任务的结果的任务，按帧序号排列
+        /**
+         * 以下是解码需要用到的数据
          */
         private String mPath;
         private String mAlphaPath;
         private long mShowTime;
         private int mFrameNumber;
+        private int mGeneration;//提交时播放器的代数，暂停或停止之后回来的结果会被丢弃
+        private GeometryPlanner mPlanner;
         private Handler mHandler;
-        private BQLAnimationContext mContext;
 
-        private Paint mFramePaint;
-        private Paint mFrameAlphaPaint;
+        private BQLFrameCompositor mFrameCompositor;
 
-        DecodeTask(String jpegPath, String alphaPath, long showTime, int frameNumber, Paint framePaint, Paint frameAlphaPaint, BQLAnimationContext config, Handler handler) {
+        DecodeTask(BQLPngSequencePlayer owner, String jpegPath, String alphaPath, long showTime, long estimatedMillis, int frameNumber, int generation, GeometryPlanner planner, BQLFrameCompositor frameCompositor, Handler handler) {
+            super(owner, showTime, estimatedMillis);
             mPath = jpegPath;
             mAlphaPath = alphaPath;
             mShowTime = showTime;
             mFrameNumber = frameNumber;
+            mGeneration = generation;
+            mPlanner = planner;
             mHandler = handler;
-            mContext = config;
-            mFramePaint = framePaint;
-            mFrameAlphaPaint = frameAlphaPaint;
+            mFrameCompositor = frameCompositor;
         }
 
-        /**
-         * 计算矩阵。原内容会首先被缩放到目标尺寸内（保持长宽比，考虑对齐方式），然后进行平移、缩放、旋转变换。
-         *
-         * @param contentWidth  原内容的宽度
-         * @param contentHeight 原内容的高度
-         * @param targetWidth   目标尺寸的宽度
-         * @param targetHeight  目标尺寸的高度
-         * @param translateX    横向平移距离
-         * @param translateY    纵向平移距离
-         * @param scale         缩放倍率
-         * @param rotate        旋转角度
-         * @param alignment     把原内容缩放到目标尺寸时的横向对齐方式，共有三个取值：0（左对齐）、1（居中）、2（右对齐）
-         * @return 计算好的矩阵
-         */
-        private static Matrix calculateMatrix(float contentWidth, float contentHeight, float targetWidth, float targetHeight, float translateX, float translateY, float scale, float rotate, int alignment) {
-            if (targetWidth == 0 || targetHeight == 0 || scale == 0) {//面积为0,不需要显示，直接返回
-                return null;
+        @Override
+        public void run() {
+            long startTime = System.nanoTime();
+            //预热过的帧直接从缓存中复制，不需要读取和解码JPEG。缓存的帧降采样更少或者区域更大时同样可以使用
+            BQLFrameCache frameCache = BQLFrameCache.getDefault();
+            BQLFrameGeometry cachedGeometry = frameCache.getGeometry(mPath);
+            if (cachedGeometry != null) {
+                mFrame = frameCache.copy(mPath, plan(cachedGeometry.getFullWidth(), cachedGeometry.getFullHeight()));
+                mFromCache = mFrame != null;
             }
-            Matrix matrix = new Matrix();
-            matrix.preTranslate(translateX, translateY);//平移
-            float hostAvatarScale = scaleToFit(contentWidth, contentHeight, targetWidth, targetHeight);//计算从原大小到目标大小需要缩放的倍数
-            matrix.preScale(hostAvatarScale, hostAvatarScale);//将原内容缩放到目标大小，不改变长宽比
-            float translatedCenterX;
-            float translatedCenterY;
-            switch (alignment) {
-                case 0://横向左对齐，纵向居中
-                    translatedCenterX = contentWidth / 2f + (targetWidth - contentWidth * hostAvatarScale) / 2;
-                    translatedCenterY = contentHeight / 2f;
-                    matrix.preTranslate(0, (targetHeight - contentHeight * hostAvatarScale) / 2);
-                    break;
-                case 1://居中
-                    translatedCenterX = contentWidth / 2f;
-                    translatedCenterY = contentHeight / 2f;
-                    matrix.preTranslate((targetWidth - contentWidth * hostAvatarScale) / 2, (targetHeight - contentHeight * hostAvatarScale) / 2);
-                    break;
-                default://横向右对齐，纵向居中
-                    translatedCenterX = contentWidth / 2f - (targetWidth - contentWidth * hostAvatarScale) / 2;
-                    translatedCenterY = contentHeight / 2f;
-                    matrix.preTranslate(targetWidth - contentWidth * hostAvatarScale, (targetHeight - contentHeight * hostAvatarScale) / 2);
-                    break;
+            if (mFrame == null) {
+                BitmapFactory.Options bounds = new BitmapFactory.Options();
+                bounds.inJustDecodeBounds = true;//只读取文件头，得到原始尺寸
+                BitmapFactory.decodeFile(mPath, bounds);
+                if (bounds.outWidth > 0 && bounds.outHeight > 0) {
+                    mFrame = mFrameCompositor.decodeFrame(mPath, mAlphaPath, plan(bounds.outWidth, bounds.outHeight), mTimings);
+                }
             }
-            matrix.preScale(scale, scale, translatedCenterX, translatedCenterY);//缩放
-            matrix.preRotate(rotate, translatedCenterX, translatedCenterY);//旋转
-            return matrix;
+            mWorkNanos = System.nanoTime() - startTime;
+            //解码成功后由后台线程决定何时显示或者跳过，解码失败则跳过本帧
+            mHandler.sendMessage(mHandler.obtainMessage(mFrame != null ? FRAME_READY : SKIP_FRAME, this));
         }
 
         /**
-         * 计算得到如果要将给定尺寸缩放到限定尺寸范围内，且保持长宽比的话，最大的倍率是多少
-         *
-         * @param width       给定的宽度
-         * @param height      给定的高度
-         * @param limitWidth  限定宽度
-         * @param limitHeight 限定高度
-         * @return 倍率
+         * 规划解码方式，需要统计时记录耗时
          */
-        private static float scaleToFit(float width, float height, float limitWidth, float limitHeight) {
-            int fittedHeight = (int) (limitWidth / width * height);
-            if (fittedHeight > limitHeight) {
-                return limitHeight / height;
-            } else {
-                return limitWidth / width;
-            }
+        private BQLFrameGeometry plan(int frameWidth, int frameHeight) {
+            if (mTimings == null) return mPlanner.plan(frameWidth, frameHeight);
+            long startTime = System.nanoTime();
+            BQLFrameGeometry geometry = mPlanner.plan(frameWidth, frameHeight);
+            mPlanNanos += System.nanoTime() - startTime;
+            return geometry;
         }
 
+        /**
+         * 调度器判断这一帧赶不上显示时间，或者播放器已经取消，没有解码直接跳过
+         */
         @Override
-        public void run() {
-            Bitmap bitmap = BitmapFactory.decodeFile(mPath);//解码颜色通道
-            Bitmap alphaBitmap = BitmapFactory.decodeFile(mAlphaPath);//解码透明度通道
-            if (bitmap != null && alphaBitmap != null) {
-                mBitmap = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_8888);
-                Canvas canvas = new Canvas(mBitmap);
-                //绘制主图时，首先画上透明度通道，然后画上颜色通道
-                canvas.drawBitmap(alphaBitmap, 0, 0, mFrameAlphaPaint);
-                canvas.drawBitmap(bitmap, 0, 0, mFramePaint);
-                long time = System.currentTimeMillis();
-                if (time <= mShowTime || mShowTime == 0) {//看一下时间，如果超时了的话，直接结束本任务
-                    if (mContext != null) {//进行矩阵的计算
-                        BQLive.FrameConfig hostAvatarAnimationFrame = mContext.getHostAvatarAnimationFrame(mFrameNumber);
-                        if (hostAvatarAnimationFrame != null && (hostAvatarAlpha = (int) (hostAvatarAnimationFrame.getAlpha() * 255)) != 0) {
-                            float avatarFrameWidth = hostAvatarAnimationFrame.getWidth();
-                            float avatarFrameHeight = hostAvatarAnimationFrame.getHeight();
-                            hostAvatarOuterMatrix = calculateMatrix(avatarFrameWidth, avatarFrameHeight, avatarFrameWidth, avatarFrameHeight, hostAvatarAnimationFrame.getX(), hostAvatarAnimationFrame.getY(), hostAvatarAnimationFrame.getScale(), hostAvatarAnimationFrame.getRotate(), 1);
-                            hostAvatarInnerMatrix = new Matrix();
-                            float scale = scaleToFit(mContext.getHostAvatarWidth(), mContext.getHostAvatarHeight(), avatarFrameWidth, avatarFrameHeight);
-                            hostAvatarInnerMatrix.setScale(scale, scale);
-                            int borderWidth = mContext.getHostAvatarBorderWidth();
-                            hostAvatarBorderRect = new RectF(-borderWidth / 2f, -borderWidth / 2f, avatarFrameWidth + borderWidth / 2f, avatarFrameHeight + borderWidth / 2f);
-                            hostAvatarRect = new RectF(0, 0, avatarFrameWidth, avatarFrameHeight);
-                        }
-                        BQLive.FrameConfig senderAvatarAnimationFrame = mContext.getSenderAvatarAnimationFrame(mFrameNumber);
-                        if (senderAvatarAnimationFrame != null && (senderAvatarAlpha = (int) (senderAvatarAnimationFrame.getAlpha() * 255)) != 0) {
-                            float avatarFrameWidth = senderAvatarAnimationFrame.getWidth();
-                            float avatarFrameHeight = senderAvatarAnimationFrame.getHeight();
-                            senderAvatarOuterMatrix = calculateMatrix(avatarFrameWidth, avatarFrameHeight, avatarFrameWidth, avatarFrameHeight, senderAvatarAnimationFrame.getX(), senderAvatarAnimationFrame.getY(), senderAvatarAnimationFrame.getScale(), senderAvatarAnimationFrame.getRotate(), 1);
-                            senderAvatarInnerMatrix = new Matrix();
-                            float scale = scaleToFit(mContext.getSenderAvatarWidth(), mContext.getSenderAvatarHeight(), avatarFrameWidth, avatarFrameHeight);
-                            senderAvatarInnerMatrix.setScale(scale, scale);
-                            int borderWidth = mContext.getSenderAvatarBorderWidth();
-                            senderAvatarBorderRect = new RectF(-borderWidth / 2f, -borderWidth / 2f, avatarFrameWidth + borderWidth / 2f, avatarFrameHeight + borderWidth / 2f);
-                            senderAvatarRect = new RectF(0, 0, avatarFrameWidth, avatarFrameHeight);
-                        }
-                        RectF rectF = new RectF();
-                        BQLive.FrameConfig hostNickNameFrame = mContext.prepareHostNickName(mFrameNumber, rectF);
-                        if (hostNickNameFrame != null && (hostNickNameAlpha = (int) (hostNickNameFrame.getAlpha() * 255)) != 0) {
-                            hostNickNameHeight = rectF.height();
-                            hostNickNameMatrix = calculateMatrix(rectF.width(), hostNickNameHeight, hostNickNameFrame.getWidth(), hostNickNameFrame.getHeight(), hostNickNameFrame.getX(), hostNickNameFrame.getY(), hostNickNameFrame.getScale(), hostNickNameFrame.getRotate(), mContext.getHostNickNameAlignment());
-                        }
-                        BQLive.FrameConfig senderNickNameFrame = mContext.prepareSenderNickName(mFrameNumber, rectF);
-                        if (senderNickNameFrame != null && (senderNickNameAlpha = (int) (senderNickNameFrame.getAlpha() * 255)) != 0) {
-                            senderNickNameHeight = rectF.height();
-                            senderNickNameMatrix = calculateMatrix(rectF.width(), senderNickNameHeight, senderNickNameFrame.getWidth(), senderNickNameFrame.getHeight(), senderNickNameFrame.getX(), senderNickNameFrame.getY(), senderNickNameFrame.getScale(), senderNickNameFrame.getRotate(), mContext.getSenderNickNameAlignment());
-                        }
-                        subAnimationMatrices = new HashMap<>(mContext.getSubAnimationNames().size());
-                        for (String name : mContext.getSubAnimationNames()) {
-                            BQLive.SubAnimationConfig config = mContext.getSubAnimationConfig(name);
-                            BQLive.FrameConfig frameConfig = config.getFrames()[mFrameNumber];
-                            subAnimationMatrices.put(name, calculateMatrix(mContext.getSubAnimationSpriteWidth(name), mContext.getSubAnimationSpriteHeight(name), frameConfig.getWidth(), frameConfig.getHeight(), frameConfig.getX(), frameConfig.getY(), frameConfig.getScale(), frameConfig.getRotate(), 1));
-                        }
-                    }
-                    time = System.currentTimeMillis();
-                    long delay = mShowTime - time;
-                    if (delay < 0) {
-                        delay = 0;
-                    }
-                    if (time <= mShowTime || mShowTime == 0 || mFrameNumber < 3) {//再看一下时间
-                        mHandler.sendMessageDelayed(mHandler.obtainMessage(SHOW_BITMAP, this), delay);//解码任务成功，显示本帧
-                        return;
-                    }
-                }
-            }
-            mHandler.sendMessage(mHandler.obtainMessage(SKIP_FRAME, this));//解码失败或超时，跳过本帧
+        public void onDropped() {
+            mDropped = true;
+            mHandler.sendMessage(mHandler.obtainMessage(SKIP_FRAME, this));
         }
     }
 }
@@ -0,0 +1,214 @@
+package com.siyanhui.mojif.bqliveapp.graphics;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.RectF;
+
+import com.siyanhui.mojif.bqliveapp.BQLAnimationSpec;
+import com.siyanhui.mojif.bqliveapp.BQLCacheFile;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 子动画图片的缓存。子动画的原图需要缩放、裁成圆角并加上描边才能使用，同一个礼物每次播放的结果都一样，因此只生成一次：
+ * 1. 内存中按礼物目录、图片名称和样式（尺寸、圆角、描边）缓存生成好的图片，总字节数有上限，超出时淘汰最久没有用到的图片
+ * 2. 生成好的图片以原始像素的形式写到礼物目录中（见BQLCacheFile），之后即使进程重启也不需要再解码原图和绘制
+ * 内存中的图片同样记录了原图的修改时间和长度，礼物更新后自动失效。缓存中的图片是只读的，可能同时被多个层绘制，淘汰时只释放引用，不回收图片
+ */
+public class BQLSpriteCache {
+    private static final String SPRITE_FILE_SUFFIX = ".bqlsprite";
+    private static final int FILE_MAGIC = 0x42514C53;//"BQLS"
+    private static final BQLSpriteCache sDefaultCache = new BQLSpriteCache((int) Math.min(Runtime.getRuntime().maxMemory() / 16, 16 * 1024 * 1024));
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);//按访问顺序排列，最久没有用到的在最前面
+    private final int mMaxBytes;
+    private int mCurrentBytes = 0;
+
+    /**
+     * @param maxBytes 缓存中图片总字节数的上限
+     */
+    public BQLSpriteCache(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    public static BQLSpriteCache getDefault() {
+        return sDefaultCache;
+    }
+
+    /**
+     * 获取一个子动画生成好的图片，依次查找内存、礼物目录中的像素文件，都没有时才解码原图并绘制。可以在任意线程调用
+     *
+     * @param animationDirectory 动画在文件系统中的路径
+     * @param name               子动画的名称，也是原图的文件名
+     * @param style              子动画的样式
+     * @return 原图无法读取时返回null
+     */
+    public Bitmap get(String animationDirectory, String name, BQLAnimationSpec.Style style) {
+        File sourceFile = new File(animationDirectory, name);
+        String styleKey = keyOf(style);
+        String key = sourceFile.getPath() + '|' + styleKey;
+        BQLCacheFile spriteFile = new BQLCacheFile(new File(animationDirectory, name + '.' + Integer.toHexString(styleKey.hashCode()) + SPRITE_FILE_SUFFIX), FILE_MAGIC, sourceFile);
+        long modified = spriteFile.getModified();
+        long length = spriteFile.getLength();
+        synchronized (this) {
+            Entry entry = mEntries.get(key);
+            if (entry != null && entry.mModified == modified && entry.mLength == length) {
+                return entry.mBitmap;
+            }
+        }
+        //读写文件和绘制较慢，不持有锁
+        Bitmap sprite = read(spriteFile, styleKey);
+        if (sprite == null) {
+            Bitmap source = BitmapFactory.decodeFile(sourceFile.getPath());
+            if (source == null) return null;
+            sprite = render(source, style);
+            source.recycle();//原图只用来生成一次图片
+            write(spriteFile, sprite, styleKey);
+        }
+        put(key, new Entry(sprite, modified, length));
+        return sprite;
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        Entry previous = mEntries.put(key, entry);
+        if (previous != null) {
+            mCurrentBytes -= previous.mByteCount;
+        }
+        mCurrentBytes += entry.mByteCount;
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * 淘汰最久没有用到的图片，直到总字节数不超过maxBytes
+     */
+    public synchronized void trimToSize(int maxBytes) {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (mCurrentBytes > maxBytes && iterator.hasNext()) {
+            mCurrentBytes -= iterator.next().mByteCount;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * 丢弃一个目录下所有子动画的图片，用于动画被删除或更新之后。礼物目录中的像素文件会在原图变化时自动失效
+     */
+    public synchronized void removeDirectory(String directory) {
+        String prefix = directory.endsWith(File.separator) ? directory : directory + File.separator;
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                mCurrentBytes -= entry.getValue().mByteCount;
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized int getSize() {
+        return mCurrentBytes;
+    }
+
+    /**
+     * 影响生成结果的样式参数。阴影在绘制时由Paint添加，不影响生成的图片
+     */
+    private static String keyOf(BQLAnimationSpec.Style style) {
+        return style.getWidth() + "," + style.getHeight() + "," + style.getCornerRadius() + "," + style.getBorderWidth() + "," + style.getBorderColor();
+    }
+
+    /**
+     * 根据原图生成带描边的圆角图片
+     */
+    private static Bitmap render(Bitmap source, BQLAnimationSpec.Style config) {
+        float targetWidth = config.getWidth(), targetHeight = config.getHeight();
+        float scale = 1 / BQLFrameGeometry.scaleToFill(source.getWidth(), source.getHeight(), targetWidth, targetHeight);
+        float borderWidth = config.getBorderWidth() * scale;
+        float borderRadius = config.getCornerRadius() * scale;
+        Paint borderPaint = new Paint();
+        borderPaint.setColor(Color.parseColor("#" + config.getBorderColor()));
+        borderPaint.setStrokeWidth(borderWidth);//设置笔触宽度
+        Paint paint = new Paint();
+        paint.setAntiAlias(true);
+        int bitmapWidth = (int) (targetWidth * scale + borderWidth * 2);
+        int bitmapHeight = (int) (targetHeight * scale + borderWidth * 2);
+        Bitmap target = Bitmap.createBitmap(bitmapWidth, bitmapHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(target);
+
+        RectF rect = new RectF(borderWidth, borderWidth, bitmapWidth - borderWidth, bitmapHeight - borderWidth);
+        canvas.drawRoundRect(rect, borderRadius, borderRadius, paint);
+        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
+        canvas.drawBitmap(source, borderWidth - (source.getWidth() - targetWidth * scale) / 2, borderWidth - (source.getHeight() - targetWidth * scale) / 2, paint);
+
+        float borderHalfWidth = borderWidth / 2;
+        RectF rectF = new RectF(borderHalfWidth, borderHalfWidth, bitmapWidth - borderHalfWidth, bitmapHeight - borderHalfWidth);
+        canvas.drawRoundRect(rectF, borderRadius + borderHalfWidth, borderRadius + borderHalfWidth, borderPaint);
+        return target;
+    }
+
+    /**
+     * 读取礼物目录中的像素文件：文件头之后是样式和ARGB_8888图片的原始像素，读入时不需要解码
+     *
+     * @return 文件不存在、已经过时、样式不同或者无法读取时返回null
+     */
+    private static Bitmap read(BQLCacheFile spriteFile, final String styleKey) {
+        return spriteFile.read(new BQLCacheFile.Reader<Bitmap>() {
+            @Override
+            public Bitmap readFrom(DataInputStream in) throws IOException {
+                if (!in.readUTF().equals(styleKey)) return null;
+                int width = in.readInt();
+                int height = in.readInt();
+                int byteCount = in.readInt();
+                if (width <= 0 || height <= 0 || byteCount != width * height * 4) return null;
+                byte[] pixels = new byte[byteCount];
+                in.readFully(pixels);
+                Bitmap sprite = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                sprite.copyPixelsFromBuffer(ByteBuffer.wrap(pixels));
+                return sprite;
+            }
+        });
+    }
+
+    /**
+     * 写入失败不影响播放，下次重新生成
+     */
+    private static void write(BQLCacheFile spriteFile, Bitmap sprite, final String styleKey) {
+        final int width = sprite.getWidth(), height = sprite.getHeight();
+        if (sprite.getRowBytes() != width * 4) return;//没有填充的ARGB_8888才能原样写入
+        final ByteBuffer pixels = ByteBuffer.allocate(width * height * 4);
+        sprite.copyPixelsToBuffer(pixels);
+        spriteFile.write(new BQLCacheFile.Writer() {
+            @Override
+            public void writeTo(DataOutputStream out) throws IOException {
+                out.writeUTF(styleKey);
+                out.writeInt(width);
+                out.writeInt(height);
+                out.writeInt(pixels.capacity());
+                out.write(pixels.array());
+            }
+        });
+    }
+
+    private static class Entry {
+        private final Bitmap mBitmap;
+        private final long mModified;
+        private final long mLength;
+        private final int mByteCount;
+
+        Entry(Bitmap bitmap, long modified, long length) {
+            mBitmap = bitmap;
+            mModified = modified;
+            mLength = length;
+            mByteCount = bitmap.getRowBytes() * bitmap.getHeight();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.siyanhui.mojif.bqliveapp;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 头像服务的合并加载、网址变化后的失效，以及磁盘缓存的命中和淘汰
+ */
+public class BQLAvatarProviderTest {
+    private static final int SIZE = 64;
+    private static final int FILE_LENGTH = 100;
+    private static final long TIMEOUT = 10000;
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+    private final TestFetcher mFetcher = new TestFetcher();
+    private File mDiskCacheDirectory;
+
+    /**
+     * 网络图片的内容为"宽x高 网址"，补齐到FILE_LENGTH字节。可以在返回数据之前等待，并记录每个网址被读取的次数
+     */
+    private static class TestFetcher implements BQLAvatarProvider.Fetcher {
+        private final Map<String, AtomicInteger> mOpenCounts = new ConcurrentHashMap<>();
+        private volatile CountDownLatch mGate = new CountDownLatch(0);
+
+        @Override
+        public InputStream open(String uri) throws IOException {
+            AtomicInteger count = mOpenCounts.get(uri);
+            if (count == null) {
+                mOpenCounts.put(uri, count = new AtomicInteger());
+            }
+            count.incrementAndGet();
+            try {
+                mGate.await(TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return new ByteArrayInputStream(contentOf(uri));
+        }
+
+        int getOpenCount(String uri) {
+            AtomicInteger count = mOpenCounts.get(uri);
+            return count == null ? 0 : count.get();
+        }
+    }
+
+    private static byte[] contentOf(String uri) {
+        byte[] content = new byte[FILE_LENGTH];
+        Arrays.fill(content, (byte) ' ');
+        byte[] text = ("48x40 " + uri).getBytes();
+        System.arraycopy(text, 0, content, 0, text.length);
+        return content;
+    }
+
+    /**
+     * 按文件开头的"宽x高"解码，返回对应尺寸的模拟图片
+     */
+    private static class TestProvider extends BQLAvatarProvider {
+        TestProvider(File diskCacheDirectory, long maxDiskBytes, BQLAvatarProvider.Fetcher fetcher) {
+            super(diskCacheDirectory, maxDiskBytes, 1024 * 1024, fetcher);
+        }
+
+        @Override
+        protected Bitmap decodeFile(String path, BitmapFactory.Options options) {
+            String text;
+            try {
+                text = readText(new File(path));
+            } catch (IOException e) {
+                return null;
+            }
+            String[] size = text.substring(0, text.indexOf(' ')).split("x");
+            int sampleSize = Math.max(1, options.inSampleSize);//和BitmapFactory一样，0视为1
+            int width = Integer.parseInt(size[0]) / sampleSize;
+            int height = Integer.parseInt(size[1]) / sampleSize;
+            if (options.inJustDecodeBounds) {
+                options.outWidth = width;
+                options.outHeight = height;
+                return null;
+            }
+            Bitmap bitmap = mock(Bitmap.class);
+            when(bitmap.getWidth()).thenReturn(width);
+            when(bitmap.getHeight()).thenReturn(height);
+            when(bitmap.getRowBytes()).thenReturn(width * 4);
+            return bitmap;
+        }
+    }
+
+    private static String readText(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int offset = 0, count;
+            while (offset < bytes.length && (count = in.read(bytes, offset, bytes.length - offset)) > 0) {
+                offset += count;
+            }
+        } finally {
+            in.close();
+        }
+        return new String(bytes).trim();
+    }
+
+    @Before
+    public void setUp() {
+        mDiskCacheDirectory = new File(mFolder.getRoot(), "avatars");
+    }
+
+    private BQLAvatarProvider newProvider(long maxDiskBytes) {
+        return new TestProvider(mDiskCacheDirectory, maxDiskBytes, mFetcher);
+    }
+
+    /**
+     * 同一个送礼者的50个请求同时到达，只下载和解码一次
+     */
+    @Test
+    public void concurrentRequestsShareOneDecode() throws Exception {
+        final BQLAvatarProvider provider = newProvider(1024 * 1024);
+        final String uri = "http://avatars/sender.png";
+        final int requestCount = 50;
+        final CountDownLatch gate = new CountDownLatch(1);
+        mFetcher.mGate = gate;
+        final CyclicBarrier barrier = new CyclicBarrier(requestCount);
+        final CountDownLatch loadsSubmitted = new CountDownLatch(requestCount / 2);
+        final List<Bitmap> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < requestCount; ++i) {
+            final boolean async = i % 2 == 0;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        barrier.await();
+                    } catch (Exception e) {
+                        return;
+                    }
+                    if (async) {
+                        provider.load("sender", uri, SIZE, SIZE, null);
+                        loadsSubmitted.countDown();
+                    } else {
+                        Bitmap bitmap = provider.get("sender", uri, SIZE, SIZE, TIMEOUT);
+                        synchronized (results) {
+                            results.add(bitmap);
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        assertTrue(loadsSubmitted.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        gate.countDown();
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT);
+        }
+        assertEquals(requestCount / 2, results.size());
+        Bitmap bitmap = provider.peek("sender", uri, SIZE, SIZE);
+        assertNotNull(bitmap);
+        for (Bitmap result : results) {
+            assertSame(bitmap, result);
+        }
+        assertEquals(1, provider.getDecodeCount());
+        assertEquals(1, mFetcher.getOpenCount(uri));
+    }
+
+    /**
+     * 用户换了头像之后，旧网址的缓存不再返回
+     */
+    @Test
+    public void changedUrlInvalidatesTheCachedAvatar() {
+        BQLAvatarProvider provider = newProvider(1024 * 1024);
+        String oldUri = "http://avatars/old.png", newUri = "http://avatars/new.png";
+        Bitmap oldAvatar = provider.get("sender", oldUri, SIZE, SIZE, TIMEOUT);
+        assertNotNull(oldAvatar);
+        assertSame(oldAvatar, provider.peek("sender", oldUri, SIZE, SIZE));
+        assertNull(provider.peek("sender", newUri, SIZE, SIZE));
+        Bitmap newAvatar = provider.get("sender", newUri, SIZE, SIZE, TIMEOUT);
+        assertNotNull(newAvatar);
+        assertTrue(newAvatar != oldAvatar);
+        assertEquals(2, provider.getDecodeCount());
+        assertSame(newAvatar, provider.peek("sender", newUri, SIZE, SIZE));
+        assertNull(provider.peek("sender", oldUri, SIZE, SIZE));
+        //尺寸相近的请求共用一份头像
+        assertSame(newAvatar, provider.peek("sender", newUri, SIZE - 10, SIZE - 1));
+    }
+
+    /**
+     * 清空内存缓存之后从磁盘缓存解码，不重新下载
+     */
+    @Test
+    public void diskCacheIsUsedAfterClearMemory() {
+        BQLAvatarProvider provider = newProvider(1024 * 1024);
+        String uri = "http://avatars/host.png";
+        assertNotNull(provider.get("host", uri, SIZE, SIZE, TIMEOUT));
+        provider.clearMemory();
+        assertNull(provider.peek("host", uri, SIZE, SIZE));
+        assertNotNull(provider.get("host", uri, SIZE, SIZE, TIMEOUT));
+        assertEquals(1, mFetcher.getOpenCount(uri));
+        assertEquals(2, provider.getDecodeCount());
+        //进程重启之后的新实例同样命中磁盘缓存
+        BQLAvatarProvider restarted = newProvider(1024 * 1024);
+        assertNotNull(restarted.get("host", uri, SIZE, SIZE, TIMEOUT));
+        assertEquals(1, mFetcher.getOpenCount(uri));
+    }
+
+    /**
+     * 磁盘缓存超出上限时，删除最久没有用到的文件；从磁盘缓存读取也算一次使用
+     */
+    @Test
+    public void diskCacheEvictsLeastRecentlyUsedFiles() throws IOException {
+        BQLAvatarProvider provider = newProvider(FILE_LENGTH * 3 - 1);
+        String a = "http://avatars/a.png", b = "http://avatars/b.png", c = "http://avatars/c.png", d = "http://avatars/d.png";
+        provider.get("a", a, SIZE, SIZE, TIMEOUT);
+        provider.get("b", b, SIZE, SIZE, TIMEOUT);
+        assertEquals(new HashSet<>(Arrays.asList(a, b)), cachedUris());
+        //文件的修改时间记录最近一次使用的时间，设为过去的时间，避免依赖文件系统的时间精度
+        long now = System.currentTimeMillis();
+        setLastUsed(a, now - 30000);
+        setLastUsed(b, now - 20000);
+        provider.clearMemory();
+        provider.get("a", a, SIZE, SIZE, TIMEOUT);//磁盘命中，a变为最近使用
+        assertEquals(1, mFetcher.getOpenCount(a));
+        provider.get("c", c, SIZE, SIZE, TIMEOUT);//超出上限，删除最久没有用到的b
+        assertEquals(new HashSet<>(Arrays.asList(a, c)), cachedUris());
+        setLastUsed(a, now - 10000);
+        setLastUsed(c, now - 5000);
+        provider.get("d", d, SIZE, SIZE, TIMEOUT);
+        assertEquals(new HashSet<>(Arrays.asList(c, d)), cachedUris());
+        provider.clearMemory();
+        provider.get("b", b, SIZE, SIZE, TIMEOUT);//已经被删除，重新下载
+        assertEquals(2, mFetcher.getOpenCount(b));
+    }
+
+    /**
+     * @return 磁盘缓存中的文件对应的网址
+     */
+    private Set<String> cachedUris() throws IOException {
+        Set<String> uris = new HashSet<>();
+        File[] files = mDiskCacheDirectory.listFiles();
+        if (files == null) return uris;
+        for (File file : files) {
+            String text = readText(file);
+            uris.add(text.substring(text.indexOf(' ') + 1));
+        }
+        return uris;
+    }
+
+    private void setLastUsed(String uri, long time) throws IOException {
+        File[] files = mDiskCacheDirectory.listFiles();
+        assertNotNull(files);
+        for (File file : files) {
+            if (readText(file).endsWith(' ' + uri)) {
+                assertTrue(file.setLastModified(time));
+                return;
+            }
+        }
+        throw new AssertionError("Not cached: " + uri);
+    }
+}
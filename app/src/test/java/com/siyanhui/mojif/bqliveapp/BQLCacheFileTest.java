@@ -0,0 +1,106 @@
+package com.siyanhui.mojif.bqliveapp;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 缓存文件的文件头校验：源文件变化、格式标识不同时读取失败
+ */
+public class BQLCacheFileTest {
+    private static final int MAGIC = 0x42514C54;//"BQLT"
+    private static final BQLCacheFile.Reader<String> READER = new BQLCacheFile.Reader<String>() {
+        @Override
+        public String readFrom(DataInputStream in) throws IOException {
+            return in.readUTF();
+        }
+    };
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+    private File mSourceFile;
+    private File mFile;
+
+    private static BQLCacheFile.Writer writerOf(final String value) {
+        return new BQLCacheFile.Writer() {
+            @Override
+            public void writeTo(DataOutputStream out) throws IOException {
+                out.writeUTF(value);
+            }
+        };
+    }
+
+    private static void writeSource(File file, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mSourceFile = new File(mFolder.getRoot(), "config.txt");
+        writeSource(mSourceFile, "source");
+        mFile = new File(mFolder.getRoot(), "config.cache");
+    }
+
+    @Test
+    public void writtenContentIsReadBack() {
+        assertNull(new BQLCacheFile(mFile, MAGIC, mSourceFile).read(READER));
+        assertTrue(new BQLCacheFile(mFile, MAGIC, mSourceFile).write(writerOf("spec")));
+        assertEquals("spec", new BQLCacheFile(mFile, MAGIC, mSourceFile).read(READER));
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void changedSourceInvalidatesTheFile() throws IOException {
+        new BQLCacheFile(mFile, MAGIC, mSourceFile).write(writerOf("spec"));
+        writeSource(mSourceFile, "updated source");//长度变化
+        assertNull(new BQLCacheFile(mFile, MAGIC, mSourceFile).read(READER));
+        new BQLCacheFile(mFile, MAGIC, mSourceFile).write(writerOf("spec"));
+        assertTrue(mSourceFile.setLastModified(mSourceFile.lastModified() - 60000));//只有修改时间变化
+        assertNull(new BQLCacheFile(mFile, MAGIC, mSourceFile).read(READER));
+    }
+
+    @Test
+    public void otherFormatIsRejected() {
+        new BQLCacheFile(mFile, MAGIC, mSourceFile).write(writerOf("spec"));
+        assertNull(new BQLCacheFile(mFile, MAGIC + 1, mSourceFile).read(READER));
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        new BQLCacheFile(mFile, MAGIC, mSourceFile).write(writerOf("spec"));
+        writeSource(mFile, "BQL");
+        assertNull(new BQLCacheFile(mFile, MAGIC, mSourceFile).read(READER));
+    }
+
+    /**
+     * 写入失败时不留下临时文件，也不覆盖原来的文件
+     */
+    @Test
+    public void failedWriteKeepsThePreviousFile() {
+        new BQLCacheFile(mFile, MAGIC, mSourceFile).write(writerOf("spec"));
+        assertFalse(new BQLCacheFile(mFile, MAGIC, mSourceFile).write(new BQLCacheFile.Writer() {
+            @Override
+            public void writeTo(DataOutputStream out) throws IOException {
+                throw new IOException("disk full");
+            }
+        }));
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+        assertEquals("spec", new BQLCacheFile(mFile, MAGIC, mSourceFile).read(READER));
+    }
+}
@@ -0,0 +1,317 @@
+package com.siyanhui.mojif.bqliveapp;
+
+import com.siyanhui.mojif.bqliveapp.core.BQLPlayableWatermark;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 边下载边解压：本地HTTP服务按BQLive.unpack()的格式打乱压缩包，检查还原的字节顺序、解压出的文件和水位的变化
+ */
+public class BQLGiftDownloaderTest {
+    private static final int BLOCK_SIZE = BQLGiftDownloader.BLOCK_SIZE, BLOCK_TAIL = BQLGiftDownloader.BLOCK_TAIL;
+    private static final String SUB_ANIMATION = "sticker.png";
+    private static final int[] FRAME_INDICES = {2, 0, 2, 1, 3};//按播放顺序每一帧显示的主图
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+    private final CountDownLatch mRelease = new CountDownLatch(1);//注册好监听之后才开始发送数据
+    private HttpServer mServer;
+    private byte[] mBody;
+
+    /**
+     * 按BQLive.unpack()的格式打乱：每个完整的块把前BLOCK_TAIL字节移到块尾，最后不满一块的数据保持原样
+     */
+    private static byte[] scramble(byte[] data) {
+        byte[] result = data.clone();
+        for (int offset = 0; offset + BLOCK_SIZE <= data.length; offset += BLOCK_SIZE) {
+            System.arraycopy(data, offset + BLOCK_TAIL, result, offset, BLOCK_SIZE - BLOCK_TAIL);
+            System.arraycopy(data, offset, result, offset + BLOCK_SIZE - BLOCK_TAIL, BLOCK_TAIL);
+        }
+        return result;
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * BQLAnimationSpec.writeTo()的格式：5帧，一个子动画，没有头像和昵称
+     */
+    private static byte[] specBytes() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x42514c53);
+        out.writeInt(1);
+        out.writeInt(25);//fps
+        out.writeInt(FRAME_INDICES.length);
+        out.writeInt(0);//type
+        out.writeInt(300);
+        out.writeInt(300);
+        out.writeBoolean(false);
+        out.writeInt(FRAME_INDICES.length);
+        for (int index : FRAME_INDICES) {
+            out.writeInt(index);
+        }
+        for (int i = 0; i < 4; ++i) {
+            out.writeInt(-1);//没有轨道
+        }
+        for (int i = 0; i < 4; ++i) {
+            out.writeBoolean(false);//没有样式
+        }
+        out.writeInt(1);
+        out.writeUTF(SUB_ANIMATION);
+        out.writeBoolean(false);
+        out.writeInt(-1);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * config.txt是二进制的动画配置，测试中不经过BQLive解析
+     */
+    private static class TestSpecCache extends BQLAnimationSpecCache {
+        @Override
+        public BQLAnimationSpec get(String animationDirectory) throws IOException {
+            DataInputStream in = new DataInputStream(new FileInputStream(new File(animationDirectory, "config.txt")));
+            try {
+                return BQLAnimationSpec.readFrom(in);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * 记录每次通知时的水位
+     */
+    private static class RecordingListener implements BQLPlayableWatermark.Listener {
+        private final List<String> mStates = new ArrayList<>();
+        private final CountDownLatch mFinished = new CountDownLatch(1);
+
+        @Override
+        public synchronized void onWatermarkChanged(BQLPlayableWatermark watermark) {
+            String state = watermark.isFailed() ? "failed" : watermark.isComplete() ? "complete" : "prepared";
+            mStates.add(state + ":" + watermark.getPlayableFrames());
+            if (watermark.isFailed() || watermark.isComplete()) mFinished.countDown();
+        }
+
+        synchronized List<String> getStates() {
+            return new ArrayList<>(mStates);
+        }
+    }
+
+    /**
+     * 读取全部数据，每次最多读count字节，count为1时用read()逐字节读取
+     */
+    private static byte[] readAll(InputStream in, int count) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[count];
+        while (true) {
+            if (count == 1) {
+                int value = in.read();
+                if (value < 0) break;
+                out.write(value);
+            } else {
+                int length = in.read(buffer, 0, count);
+                if (length < 0) break;
+                out.write(buffer, 0, length);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 每次最多返回chunk字节，模拟网络分片到达
+     */
+    private static InputStream chunked(byte[] data, final int chunk) {
+        return new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int length) {
+                return super.read(buffer, offset, Math.min(length, chunk));
+            }
+        };
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/gift.zip", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    mRelease.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.sendResponseHeaders(200, mBody.length);
+                OutputStream out = exchange.getResponseBody();
+                for (int offset = 0; offset < mBody.length; offset += 1000) {
+                    out.write(mBody, offset, Math.min(1000, mBody.length - offset));
+                    out.flush();
+                }
+                out.close();
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    private String urlOf(String path) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + path;
+    }
+
+    @Test
+    public void blocksAreRestored() throws IOException {
+        Random random = new Random(1);
+        int[] lengths = {0, 100, BLOCK_TAIL, BLOCK_SIZE - 1, BLOCK_SIZE, BLOCK_SIZE + 1, BLOCK_SIZE * 3, BLOCK_SIZE * 3 + BLOCK_TAIL + 7};
+        for (int length : lengths) {
+            byte[] data = randomBytes(random, length);
+            for (int count : new int[]{1, 333, BLOCK_SIZE, BLOCK_SIZE * 2}) {
+                BQLPlayableWatermark watermark = new BQLPlayableWatermark(0);
+                InputStream in = new BQLGiftDownloader.BlockInputStream(chunked(scramble(data), 777), length, watermark);
+                assertArrayEquals("length=" + length + " count=" + count, data, readAll(in, count));
+            }
+        }
+    }
+
+    /**
+     * 完整块的最后BLOCK_TAIL字节移到块首，最后不满一块的数据保持原样
+     */
+    @Test
+    public void tailOfEachFullBlockMovesToTheFront() throws IOException {
+        byte[] raw = new byte[BLOCK_SIZE * 2 + 10];
+        for (int i = 0; i < raw.length; ++i) {
+            raw[i] = (byte) (i < BLOCK_SIZE * 2 ? (i % BLOCK_SIZE < BLOCK_SIZE - BLOCK_TAIL ? 1 : 2) : 3);
+        }
+        byte[] restored = readAll(new BQLGiftDownloader.BlockInputStream(new ByteArrayInputStream(raw), -1, new BQLPlayableWatermark(0)), 4096);
+        assertEquals(raw.length, restored.length);
+        for (int block = 0; block < 2; ++block) {
+            for (int i = 0; i < BLOCK_SIZE; ++i) {
+                assertEquals("block=" + block + " i=" + i, i < BLOCK_TAIL ? 2 : 1, restored[block * BLOCK_SIZE + i]);
+            }
+        }
+        for (int i = BLOCK_SIZE * 2; i < raw.length; ++i) {
+            assertEquals(3, restored[i]);
+        }
+    }
+
+    /**
+     * 下载进度按收到的原始字节数记录
+     */
+    @Test
+    public void receivedBytesAreReported() throws IOException {
+        byte[] data = randomBytes(new Random(2), BLOCK_SIZE * 2 + 100);
+        BQLPlayableWatermark watermark = new BQLPlayableWatermark(0);
+        readAll(new BQLGiftDownloader.BlockInputStream(chunked(scramble(data), 500), data.length * 2, watermark), 4096);
+        //已经收到一半的数据，用了100毫秒，估计还需要100毫秒
+        assertEquals(100, watermark.estimateRemainingMillis(100));
+    }
+
+    @Test
+    public void giftIsExtractedWhileTheWatermarkRises() throws Exception {
+        Random random = new Random(3);
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("config.txt", specBytes());
+        files.put(SUB_ANIMATION, randomBytes(random, 3000));
+        //主图的解压顺序和播放顺序不同
+        for (String name : new String[]{"0-a.jpg", "0-b.jpg", "2-a.jpg", "2-b.jpg", "1-a.jpg", "3-a.jpg", "1-b.jpg", "3-b.jpg"}) {
+            files.put(name, randomBytes(random, 6000));
+        }
+        ByteArrayOutputStream zipBytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(zipBytes);
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            zip.putNextEntry(new ZipEntry(file.getKey()));
+            zip.write(file.getValue());
+            zip.closeEntry();
+        }
+        zip.putNextEntry(new ZipEntry("../outside.txt"));//不能解压到礼物目录以外
+        zip.write(1);
+        zip.closeEntry();
+        zip.close();
+        assertTrue(zipBytes.size() % BLOCK_SIZE != 0 && zipBytes.size() > BLOCK_SIZE * 4);
+        mBody = scramble(zipBytes.toByteArray());
+
+        File directory = new File(mFolder.getRoot(), "gift");
+        BQLGiftDownloader downloader = new BQLGiftDownloader(new TestSpecCache());
+        BQLPlayableWatermark watermark = downloader.download(urlOf("/gift.zip"), directory.getPath(), null, null);
+        RecordingListener listener = new RecordingListener();
+        watermark.addListener(listener);
+        assertSame(watermark, downloader.getWatermark(directory.getPath()));
+        mRelease.countDown();
+        assertTrue(listener.mFinished.await(10, TimeUnit.SECONDS));
+
+        //子动画解压之后准备完毕；第0帧要等主图2，之后主图1、3依次补齐
+        assertEquals(Arrays.asList("prepared:0", "prepared:3", "prepared:4", "prepared:5", "complete:5"), listener.getStates());
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            assertArrayEquals(file.getKey(), file.getValue(), readFile(new File(directory, file.getKey())));
+            assertFalse(new File(directory, file.getKey() + ".tmp").exists());
+        }
+        assertFalse(new File(mFolder.getRoot(), "outside.txt").exists());
+        assertNull(downloader.getWatermark(directory.getPath()));//水位变为完成或失败之前礼物已经移出正在下载的列表
+    }
+
+    @Test
+    public void httpErrorFailsTheWatermark() throws Exception {
+        mRelease.countDown();
+        File directory = new File(mFolder.getRoot(), "missing");
+        BQLGiftDownloader downloader = new BQLGiftDownloader(new TestSpecCache());
+        BQLPlayableWatermark watermark = downloader.download(urlOf("/missing.zip"), directory.getPath(), null, null);
+        RecordingListener listener = new RecordingListener();
+        watermark.addListener(listener);
+        if (!watermark.isFailed()) {
+            assertTrue(listener.mFinished.await(10, TimeUnit.SECONDS));
+        }
+        assertTrue(watermark.isFailed());
+        assertFalse(watermark.isPrepared());
+        assertNull(downloader.getWatermark(directory.getPath()));//水位变为完成或失败之前礼物已经移出正在下载的列表
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return readAll(in, 8192);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.siyanhui.mojif.bqliveapp.benchmarks;
+
+import com.siyanhui.mojif.bqliveapp.core.BQLAlphaMergeKernel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 透明度合成的吞吐量。每次调用合成一整帧，帧大小和条带数可以通过参数调整，条带数为1时只在调用线程中处理
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AlphaMergeBenchmark {
+    @Param({"360x640", "720x1280"})
+    public String size;
+    @Param({"1", "4"})
+    public int parallelism;
+    private int mWidth, mHeight, mMaskStride;
+    private int[] mColor, mPixels, mLuminance;
+    private byte[] mMask;
+    private ExecutorService mExecutor;
+    private BQLAlphaMergeKernel mKernel;
+
+    @Setup
+    public void setUp() {
+        String[] dimensions = size.split("x");
+        mWidth = Integer.parseInt(dimensions[0]);
+        mHeight = Integer.parseInt(dimensions[1]);
+        mMaskStride = (mWidth + 3) & ~3;
+        Random random = new Random(42);
+        mColor = new int[mWidth * mHeight];
+        mLuminance = new int[mWidth * mHeight];
+        mMask = new byte[mMaskStride * mHeight];
+        for (int i = 0; i < mColor.length; ++i) {
+            mColor[i] = random.nextInt();
+            int gray = random.nextInt(256);
+            mLuminance[i] = 0xFF000000 | (gray << 16) | (gray << 8) | gray;
+        }
+        random.nextBytes(mMask);
+        mPixels = new int[mColor.length];
+        if (parallelism > 1) {
+            mExecutor = Executors.newFixedThreadPool(parallelism - 1);
+        }
+        mKernel = new BQLAlphaMergeKernel(mExecutor, parallelism);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public int[] mergeMask() {
+        System.arraycopy(mColor, 0, mPixels, 0, mColor.length);
+        mKernel.mergeMask(mPixels, mMask, mMaskStride, mWidth, mHeight, BQLAlphaMergeKernel.ORDER_ABGR);
+        return mPixels;
+    }
+
+    @Benchmark
+    public int[] mergeLuminance() {
+        System.arraycopy(mColor, 0, mPixels, 0, mColor.length);
+        mKernel.mergeLuminance(mPixels, mLuminance, mWidth, mHeight, BQLAlphaMergeKernel.ORDER_ARGB);
+        return mPixels;
+    }
+}
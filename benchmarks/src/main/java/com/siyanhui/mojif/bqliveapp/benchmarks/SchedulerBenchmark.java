@@ -0,0 +1,155 @@
+package com.siyanhui.mojif.bqliveapp.benchmarks;
+
+import com.siyanhui.mojif.bqliveapp.core.BQLDeadlineQueue;
+import com.siyanhui.mojif.bqliveapp.core.BQLFrameSchedule;
+import com.siyanhui.mojif.bqliveapp.core.BQLQualityController;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 模拟负载下的调度决策。用一个虚拟时钟代替真实的解码：若干个播放器同时播放，共用固定数量的解码线程，
+ * 每帧的解码耗时随机，超过帧间隔的帧会被截止时间队列丢弃，画质控制器据此升降档位。
+ * 测量的是播放一轮所有动画时调度逻辑本身的开销，结果中的丢帧数可以用来比较不同负载下的调度效果
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SchedulerBenchmark {
+    private static final int FRAME_DURATION = 40;
+    private static final int FRAME_COUNT = 120;
+    @Param({"1", "4"})
+    public int players;
+    @Param({"2", "4"})
+    public int workers;
+    @Param({"20", "60"})
+    public int meanDecodeMillis;
+    private long mNow;//虚拟时钟，单位为毫秒
+
+    @Benchmark
+    public int simulate() {
+        Random random = new Random(42);
+        BQLDeadlineQueue queue = new BQLDeadlineQueue();
+        List<BQLDeadlineQueue.Task> dropped = new ArrayList<>();
+        SimulatedPlayer[] simulatedPlayers = new SimulatedPlayer[players];
+        for (int i = 0; i < players; ++i) {
+            simulatedPlayers[i] = new SimulatedPlayer(queue);
+            simulatedPlayers[i].start();
+        }
+        long[] workerFreeTime = new long[workers];
+        mNow = 0;
+        int finished = 0;
+        while (finished < players) {
+            //空闲的解码线程依次从队列中取任务，按随机的耗时完成
+            for (int i = 0; i < workers; ++i) {
+                if (workerFreeTime[i] > mNow) continue;
+                BQLDeadlineQueue.Task task = queue.poll(mNow, dropped);
+                for (BQLDeadlineQueue.Task late : dropped) {
+                    late.onDropped();
+                }
+                dropped.clear();
+                if (task == null) break;
+                long cost = (long) (meanDecodeMillis * (0.5 + random.nextDouble()));
+                SimulatedTask simulatedTask = (SimulatedTask) task;
+                simulatedTask.mStartTime = mNow;
+                simulatedTask.mCompleteTime = mNow + cost;
+                workerFreeTime[i] = mNow + cost;
+                task.run();
+            }
+            finished = 0;
+            for (SimulatedPlayer player : simulatedPlayers) {
+                player.advance(mNow);
+                if (player.mFinished) ++finished;
+            }
+            ++mNow;
+        }
+        int skipped = 0;
+        for (SimulatedPlayer player : simulatedPlayers) {
+            skipped += player.mSkipped;
+        }
+        return skipped;
+    }
+
+    /**
+     * 和BQLPngSequencePlayer相同的调度逻辑，解码结果在虚拟时钟到达完成时间后才处理
+     */
+    private class SimulatedPlayer {
+        private final BQLDeadlineQueue mQueue;
+        private final BQLQualityController mQualityController = new BQLQualityController(FRAME_DURATION, workers);
+        private final BQLFrameSchedule mSchedule = new BQLFrameSchedule(FRAME_COUNT, FRAME_DURATION, mQualityController);
+        private final List<SimulatedTask> mRunning = new ArrayList<>();
+        private long mFinishTime = -1;
+        private int mSkipped = 0;
+        private boolean mFinished = false;
+
+        SimulatedPlayer(BQLDeadlineQueue queue) {
+            mQueue = queue;
+        }
+
+        void start() {
+            mQueue.add(new SimulatedTask(this, mSchedule.submitImmediately(), 0));
+        }
+
+        void advance(long now) {
+            for (int i = mRunning.size() - 1; i >= 0; --i) {
+                SimulatedTask task = mRunning.get(i);
+                if (task.mCompleteTime > now) continue;
+                mRunning.remove(i);
+                boolean late = task.getDeadline() != 0 && task.mCompleteTime > task.getDeadline();
+                onResult(now, task.mCompleteTime - task.mStartTime, late);
+            }
+            if (mFinishTime >= 0 && now >= mFinishTime) {
+                mFinished = true;
+            }
+        }
+
+        void onDropped() {
+            onResult(mNow, 0, true);
+        }
+
+        private void onResult(long now, long workMillis, boolean skipped) {
+            if (skipped) ++mSkipped;
+            mQualityController.onFrame(workMillis * 1000000, skipped);
+            mSchedule.onResult();
+            while (mSchedule.wantsMoreFrames()) {
+                long estimatedMillis = (long) mQualityController.getAverageWorkMillis();
+                mQueue.add(new SimulatedTask(this, mSchedule.submit(now), estimatedMillis));
+            }
+            long delay = mSchedule.scheduleFinish(now);
+            if (delay >= 0) {
+                mFinishTime = now + delay;
+            }
+        }
+    }
+
+    private static class SimulatedTask extends BQLDeadlineQueue.Task {
+        private final SimulatedPlayer mPlayer;
+        private long mStartTime;//开始解码和完成解码的虚拟时间，由模拟的解码线程在run()之前设置
+        private long mCompleteTime;
+
+        SimulatedTask(SimulatedPlayer player, long showTime, long estimatedMillis) {
+            super(player, showTime, estimatedMillis);
+            mPlayer = player;
+        }
+
+        @Override
+        public void run() {
+            mPlayer.mRunning.add(this);
+        }
+
+        @Override
+        public void onDropped() {
+            mPlayer.onDropped();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.siyanhui.mojif.bqliveapp.benchmarks;
+
+import com.siyanhui.mojif.bqliveapp.core.BQLFrameTrack;
+import com.siyanhui.mojif.bqliveapp.core.BQLTimeline;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个动画的时间轴编译，即准备动画时为每个元素的每一帧计算矩阵和透明度
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TimelineBenchmark {
+    @Param({"60", "150"})
+    public int frameCount;
+    @Param({"4", "8"})
+    public int elementCount;
+    private ArrayTrack[] mTracks;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mTracks = new ArrayTrack[elementCount];
+        for (int i = 0; i < elementCount; ++i) {
+            mTracks[i] = new ArrayTrack(frameCount, random);
+        }
+    }
+
+    @Benchmark
+    public BQLTimeline compile() {
+        BQLTimeline timeline = new BQLTimeline(frameCount, elementCount);
+        for (int frame = 0; frame < frameCount; ++frame) {
+            timeline.compileAvatar(0, frame, mTracks[0], 120, 120);
+            timeline.compileAvatar(1, frame, mTracks[1], 120, 120);
+            for (int element = 2; element < elementCount; ++element) {
+                ArrayTrack track = mTracks[element];
+                if (!BQLTimeline.hasFrame(track, frame)) continue;
+                timeline.compileElement(element, frame, (int) (track.getAlpha(frame) * 255), 200, 48, track, element % 3);
+            }
+        }
+        return timeline;
+    }
+
+    /**
+     * 用数组保存参数的轨道，模拟解析好的配置文件
+     */
+    private static class ArrayTrack implements BQLFrameTrack {
+        private final float[] mX, mY, mWidth, mHeight, mScale, mRotate, mAlpha;
+
+        ArrayTrack(int frameCount, Random random) {
+            mX = new float[frameCount];
+            mY = new float[frameCount];
+            mWidth = new float[frameCount];
+            mHeight = new float[frameCount];
+            mScale = new float[frameCount];
+            mRotate = new float[frameCount];
+            mAlpha = new float[frameCount];
+            for (int i = 0; i < frameCount; ++i) {
+                mX[i] = random.nextFloat() * 720;
+                mY[i] = random.nextFloat() * 1280;
+                mWidth[i] = 80 + random.nextFloat() * 160;
+                mHeight[i] = 40 + random.nextFloat() * 120;
+                mScale[i] = 0.5f + random.nextFloat();
+                mRotate[i] = random.nextFloat() * 360;
+                mAlpha[i] = random.nextFloat();
+            }
+        }
+
+        @Override
+        public int size() {
+            return mX.length;
+        }
+
+        @Override
+        public float getX(int frameNumber) {
+            return mX[frameNumber];
+        }
+
+        @Override
+        public float getY(int frameNumber) {
+            return mY[frameNumber];
+        }
+
+        @Override
+        public float getWidth(int frameNumber) {
+            return mWidth[frameNumber];
+        }
+
+        @Override
+        public float getHeight(int frameNumber) {
+            return mHeight[frameNumber];
+        }
+
+        @Override
+        public float getScale(int frameNumber) {
+            return mScale[frameNumber];
+        }
+
+        @Override
+        public float getRotate(int frameNumber) {
+            return mRotate[frameNumber];
+        }
+
+        @Override
+        public float getAlpha(int frameNumber) {
+            return mAlpha[frameNumber];
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.siyanhui.mojif.bqliveapp.benchmarks;
+
+import com.siyanhui.mojif.bqliveapp.core.BQLTransform;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个元素每一帧的矩阵计算，对应原来在播放过程中每帧调用的calculateMatrix()
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TransformBenchmark {
+    private static final int PARAMETER_COUNT = 1024;
+    private final float[] mValues = new float[9];
+    private float[] mTranslateX, mTranslateY, mScale, mRotate;
+    private int mIndex = 0;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mTranslateX = new float[PARAMETER_COUNT];
+        mTranslateY = new float[PARAMETER_COUNT];
+        mScale = new float[PARAMETER_COUNT];
+        mRotate = new float[PARAMETER_COUNT];
+        for (int i = 0; i < PARAMETER_COUNT; ++i) {
+            mTranslateX[i] = random.nextFloat() * 720;
+            mTranslateY[i] = random.nextFloat() * 1280;
+            mScale[i] = 0.5f + random.nextFloat();
+            mRotate[i] = random.nextFloat() * 360;
+        }
+    }
+
+    @Benchmark
+    public float[] compute() {
+        int i = mIndex++ & (PARAMETER_COUNT - 1);
+        BQLTransform.compute(mValues, 0, 160, 160, 120, 120, mTranslateX[i], mTranslateY[i], mScale[i], mRotate[i], 1);
+        return mValues;
+    }
+
+    @Benchmark
+    public float[] computeWithoutRotation() {
+        int i = mIndex++ & (PARAMETER_COUNT - 1);
+        BQLTransform.compute(mValues, 0, 300, 48, 240, 40, mTranslateX[i], mTranslateY[i], mScale[i], 0, 0);
+        return mValues;
+    }
+}
@@ -0,0 +1,181 @@
+package com.siyanhui.mojif.bqliveapp.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 把颜色平面和透明度平面合成为预乘透明度的像素，取代用Canvas、ColorMatrix和SRC_IN合成主图的方式
+ * 这个类只依赖Java标准库，可以脱离Android在JVM上测试和做性能测试
+ * 对于较大的帧（例如全屏礼物），按行把图片分成若干条带，分给多个线程同时处理，调用线程自己也处理其中一条
+ * 每个通道的预乘结果为round(c * a / 255)，和Skia的SkMulDiv255Round完全一致
+ */
+public class BQLAlphaMergeKernel {
+    /**
+     * 输出像素的排列方式。ORDER_ARGB为Java中常用的0xAARRGGBB；
+     * ORDER_ABGR为0xAABBGGRR，在小端序的机器上它的内存排列就是Android中ARGB_8888 Bitmap的RGBA字节序，可以直接用copyPixelsFromBuffer()写入
+     */
+    public static final int ORDER_ARGB = 0, ORDER_ABGR = 1;
+    private static final int MIN_PIXELS_PER_STRIPE = 128 * 1024;//条带太小时线程切换的开销会超过并行的收益
+    private static BQLAlphaMergeKernel sDefaultKernel;
+    private final ExecutorService mExecutor;
+    private final int mParallelism;
+
+    /**
+     * @param executor    处理条带的线程池，为null时只在调用线程中处理
+     * @param parallelism 最多把一帧分成几条
+     */
+    public BQLAlphaMergeKernel(ExecutorService executor, int parallelism) {
+        mExecutor = executor;
+        mParallelism = executor == null ? 1 : Math.max(1, parallelism);
+    }
+
+    /**
+     * @return 默认的合成器，条带数等于CPU核数，除调用线程外的条带由一个共享的后台线程池处理
+     */
+    public static synchronized BQLAlphaMergeKernel getDefault() {
+        if (sDefaultKernel == null) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            ExecutorService executor = null;
+            if (cores > 1) {
+                executor = Executors.newFixedThreadPool(cores - 1, new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger(0);
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "BQLive_Alpha_Merge_" + mCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            sDefaultKernel = new BQLAlphaMergeKernel(executor, cores);
+        }
+        return sDefaultKernel;
+    }
+
+    /**
+     * 一个通道的预乘，等价于Math.round(value * alpha / 255f)，但不需要除法
+     */
+    static int mulDiv255Round(int value, int alpha) {
+        int product = value * alpha + 128;
+        return (product + (product >> 8)) >> 8;
+    }
+
+    /**
+     * 把一个不透明的颜色和透明度合成为预乘透明度的像素
+     *
+     * @param color 颜色，只使用RGB部分，0xRRGGBB
+     * @param alpha 透明度，0～255
+     * @param order ORDER_ARGB或ORDER_ABGR
+     */
+    static int premultiply(int color, int alpha, int order) {
+        int r = mulDiv255Round((color >> 16) & 0xFF, alpha);
+        int g = mulDiv255Round((color >> 8) & 0xFF, alpha);
+        int b = mulDiv255Round(color & 0xFF, alpha);
+        if (order == ORDER_ABGR) {
+            return (alpha << 24) | (b << 16) | (g << 8) | r;
+        }
+        return (alpha << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * 用8位遮罩合成，适用于解码为ALPHA_8的透明度通道
+     *
+     * @param pixels     输入时为颜色平面（每行width个像素，不使用其中的透明度），输出时为合成结果，可以原地合成
+     * @param mask       透明度平面，每个字节是一个像素的透明度
+     * @param maskStride 透明度平面每行的字节数，可能因为对齐而大于width
+     * @param width      图片宽度
+     * @param height     图片高度
+     * @param order      输出像素的排列方式
+     */
+    public void mergeMask(final int[] pixels, final byte[] mask, final int maskStride, final int width, int height, final int order) {
+        run(width, height, new Stripe() {
+            @Override
+            public void merge(int fromRow, int toRow) {
+                mergeMaskRows(pixels, mask, maskStride, width, fromRow, toRow, order);
+            }
+        });
+    }
+
+    /**
+     * 用黑白图片合成，适用于解码为ARGB_8888的透明度通道，和原来的ColorMatrix一样取红色分量作为透明度
+     *
+     * @param pixels    输入时为颜色平面，输出时为合成结果，可以原地合成
+     * @param luminance 透明度通道的像素
+     * @param width     图片宽度
+     * @param height    图片高度
+     * @param order     输出像素的排列方式
+     */
+    public void mergeLuminance(final int[] pixels, final int[] luminance, final int width, int height, final int order) {
+        run(width, height, new Stripe() {
+            @Override
+            public void merge(int fromRow, int toRow) {
+                mergeLuminanceRows(pixels, luminance, width, fromRow, toRow, order);
+            }
+        });
+    }
+
+    static void mergeMaskRows(int[] pixels, byte[] mask, int maskStride, int width, int fromRow, int toRow, int order) {
+        for (int y = fromRow; y < toRow; ++y) {
+            int index = y * width;
+            int maskIndex = y * maskStride;
+            for (int x = 0; x < width; ++x) {
+                pixels[index] = premultiply(pixels[index], mask[maskIndex + x] & 0xFF, order);
+                ++index;
+            }
+        }
+    }
+
+    static void mergeLuminanceRows(int[] pixels, int[] luminance, int width, int fromRow, int toRow, int order) {
+        int end = toRow * width;
+        for (int i = fromRow * width; i < end; ++i) {
+            pixels[i] = premultiply(pixels[i], (luminance[i] >> 16) & 0xFF, order);
+        }
+    }
+
+    /**
+     * 按行分条带执行合成，所有条带完成后才返回
+     */
+    private void run(int width, int height, final Stripe stripe) {
+        int stripes = Math.min(mParallelism, Math.max(1, width * height / MIN_PIXELS_PER_STRIPE));
+        stripes = Math.min(stripes, Math.max(1, height));
+        if (stripes <= 1) {
+            stripe.merge(0, height);
+            return;
+        }
+        int rowsPerStripe = (height + stripes - 1) / stripes;
+        List<Future<?>> futures = new ArrayList<>(stripes - 1);
+        for (int i = 1; i < stripes; ++i) {
+            final int fromRow = i * rowsPerStripe;
+            final int toRow = Math.min(height, fromRow + rowsPerStripe);
+            if (fromRow >= toRow) break;
+            futures.add(mExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    stripe.merge(fromRow, toRow);
+                }
+            }));
+        }
+        stripe.merge(0, Math.min(height, rowsPerStripe));//第一条在调用线程中处理
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    private interface Stripe {
+        void merge(int fromRow, int toRow);
+    }
+}
@@ -0,0 +1,106 @@
+package com.siyanhui.mojif.bqliveapp.core;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 按截止时间排序的任务队列，只依赖Java标准库。不是线程安全的，由调用者加锁
+ * 1. 截止时间最早的任务先出队，截止时间为0的任务（第一帧）最先出队，截止时间相同时先到先出
+ * 2. 出队时，按预计耗时已经赶不上截止时间的任务被直接丢弃，不会交给调用者执行
+ * 3. 可以按所有者一次移除一个播放器的全部任务
+ */
+public class BQLDeadlineQueue {
+    private final PriorityQueue<Task> mQueue = new PriorityQueue<>();
+    private long mSequence = 0;
+
+    public void add(Task task) {
+        task.mSequence = mSequence++;
+        mQueue.add(task);
+    }
+
+    /**
+     * 取出下一个还能赶上截止时间的任务
+     *
+     * @param now     当前时间
+     * @param dropped 用于返回赶不上截止时间而被丢弃的任务，由调用者在释放锁之后通知它们
+     * @return 队列中没有能赶上的任务时返回null
+     */
+    public Task poll(long now, List<Task> dropped) {
+        Task task;
+        while ((task = mQueue.poll()) != null) {
+            if (!task.isLate(now)) return task;
+            dropped.add(task);
+        }
+        return null;
+    }
+
+    /**
+     * 移除一个所有者的全部任务
+     *
+     * @param removed 用于返回被移除的任务
+     */
+    public void removeOwner(Object owner, List<Task> removed) {
+        Iterator<Task> iterator = mQueue.iterator();
+        while (iterator.hasNext()) {
+            Task task = iterator.next();
+            if (task.mOwner == owner) {
+                iterator.remove();
+                removed.add(task);
+            }
+        }
+    }
+
+    public int size() {
+        return mQueue.size();
+    }
+
+    public boolean isEmpty() {
+        return mQueue.isEmpty();
+    }
+
+    /**
+     * 队列中的任务
+     */
+    public static abstract class Task implements Runnable, Comparable<Task> {
+        private final Object mOwner;
+        private final long mDeadline;
+        private final long mEstimatedMillis;
+        private long mSequence;
+
+        /**
+         * @param owner           任务的所有者，用于removeOwner()
+         * @param deadline        截止时间，为0表示尽快执行且永不丢弃
+         * @param estimatedMillis 预计的执行耗时，用于判断任务能否赶上截止时间
+         */
+        protected Task(Object owner, long deadline, long estimatedMillis) {
+            mOwner = owner;
+            mDeadline = deadline;
+            mEstimatedMillis = estimatedMillis;
+        }
+
+        public long getDeadline() {
+            return mDeadline;
+        }
+
+        /**
+         * @return 在now开始执行是否已经赶不上截止时间
+         */
+        public boolean isLate(long now) {
+            return mDeadline != 0 && now + mEstimatedMillis > mDeadline;
+        }
+
+        /**
+         * 任务因为赶不上截止时间而被丢弃，或者被所有者取消，run()不会再被调用
+         */
+        public abstract void onDropped();
+
+        @Override
+        public int compareTo(Task another) {
+            if (mDeadline != another.mDeadline) {
+                return mDeadline < another.mDeadline ? -1 : 1;
+            }
+            return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.siyanhui.mojif.bqliveapp.core;
+
+import java.util.Arrays;
+
+/**
+ * 帧列表中重复主图的分析结果，只依赖Java标准库
+ * 循环或停留的礼物在帧列表中多次用到同一张主图。播放之前算出每一帧的主图下一次在第几帧用到，
+ * 播放器据此决定合成好的主图是否值得留下：下一次用到的位置在窗口以内时保留给那一帧直接使用，否则显示完就放回池中
+ * 创建之后只读，可以在任意线程使用
+ */
+public class BQLFrameReusePlan {
+    private final int[] mFrameIndices;
+    private final int[] mNextUse;
+    private final int mWindow;
+    private final int mReusedFrameCount;
+
+    /**
+     * @param frameIndices 帧列表，第n帧显示第frameIndices[n]张主图
+     * @param window       两次用到同一张主图的间隔不超过这么多帧时才保留
+     */
+    public BQLFrameReusePlan(int[] frameIndices, int window) {
+        mFrameIndices = frameIndices;
+        mWindow = window;
+        mNextUse = new int[frameIndices.length];
+        int imageCount = 0;
+        for (int index : frameIndices) {
+            if (index >= imageCount) imageCount = index + 1;
+        }
+        int[] lastUse = new int[imageCount];//从后往前扫描时每张主图最近一次用到的位置
+        Arrays.fill(lastUse, -1);
+        int reusedFrameCount = 0;
+        for (int frameNumber = frameIndices.length - 1; frameNumber >= 0; --frameNumber) {
+            int index = frameIndices[frameNumber];
+            int nextUse = lastUse[index];
+            mNextUse[frameNumber] = nextUse;
+            if (nextUse >= 0 && nextUse - frameNumber <= window) ++reusedFrameCount;
+            lastUse[index] = frameNumber;
+        }
+        mReusedFrameCount = reusedFrameCount;
+    }
+
+    /**
+     * 分析帧列表，没有可以复用的主图时不需要复用
+     *
+     * @param frameIndices 帧列表，为null时第n帧显示第n张主图
+     * @return 没有任何主图会在窗口以内再次用到时返回null
+     */
+    public static BQLFrameReusePlan create(int[] frameIndices, int window) {
+        if (frameIndices == null) return null;
+        BQLFrameReusePlan plan = new BQLFrameReusePlan(frameIndices, window);
+        return plan.mReusedFrameCount > 0 ? plan : null;
+    }
+
+    /**
+     * @return 第frameNumber帧显示的主图序号
+     */
+    public int getSource(int frameNumber) {
+        return mFrameIndices[frameNumber];
+    }
+
+    /**
+     * @return 第frameNumber帧的主图下一次在第几帧用到，不会再用到时返回-1
+     */
+    public int getNextUse(int frameNumber) {
+        return mNextUse[frameNumber];
+    }
+
+    /**
+     * @return 第frameNumber帧的主图是否在窗口以内再次用到
+     */
+    public boolean isReusedWithin(int frameNumber) {
+        int nextUse = mNextUse[frameNumber];
+        return nextUse >= 0 && nextUse - frameNumber <= mWindow;
+    }
+
+    public int getWindow() {
+        return mWindow;
+    }
+
+    /**
+     * @return 可以直接使用之前合成好的主图、不需要解码的帧数
+     */
+    public int getReusedFrameCount() {
+        return mReusedFrameCount;
+    }
+}
@@ -0,0 +1,131 @@
+package com.siyanhui.mojif.bqliveapp.core;
+
+/**
+ * 播放器的时间安排，只依赖Java标准库
+ * 决定下一帧解码哪一帧、在什么时间显示，以及什么时候结束播放。预解码深度和帧步长由BQLQualityController决定。
+ * 所有时间由调用者传入，取同一个单调时钟，在Android上为SystemClock.uptimeMillis()。只在播放器的后台线程中使用
+ */
+public class BQLFrameSchedule {
+    private final int mFrameCount;
+    private final int mFrameDuration;
+    private final BQLQualityController mQualityController;
+    private int mCurrentFrame = 0;//下一个要提交解码的帧
+    private long mLastFrameShowTime = 0;//最近提交的一帧的显示时间，为0表示计时还没有开始
+    private int mBufferDepth = 0;//已经提交、结果还没有处理完的帧数
+    private int mLastShownFrame = -1;
+    private boolean mFinishScheduled = false;
+
+    /**
+     * @param frameCount        动画的总帧数
+     * @param frameDuration     每帧时长
+     * @param qualityController 画质控制器
+     */
+    public BQLFrameSchedule(int frameCount, int frameDuration, BQLQualityController qualityController) {
+        mFrameCount = frameCount;
+        mFrameDuration = frameDuration;
+        mQualityController = qualityController;
+    }
+
+    /**
+     * @return 是否还有帧需要提交
+     */
+    public boolean hasMoreFrames() {
+        return mCurrentFrame < mFrameCount;
+    }
+
+    /**
+     * @return 缓冲没有满并且还有帧需要提交
+     */
+    public boolean wantsMoreFrames() {
+        return mBufferDepth < mQualityController.getLookahead() && hasMoreFrames();
+    }
+
+    /**
+     * @return 没有进行中的解码。此时即使共用的解码预算已经用完也应该强制申请，保证不会卡住
+     */
+    public boolean isStarving() {
+        return mBufferDepth == 0;
+    }
+
+    /**
+     * @return 下一个要提交解码的帧序号
+     */
+    public int getCurrentFrame() {
+        return mCurrentFrame;
+    }
+
+    public int getBufferDepth() {
+        return mBufferDepth;
+    }
+
+    /**
+     * 提交当前帧，它紧接着上一个提交的帧显示。计时还没有开始时从now开始计时
+     *
+     * @return 这一帧的显示时间
+     */
+    public long submit(long now) {
+        int frameStep = mQualityController.getFrameStep();
+        if (mLastFrameShowTime == 0) {
+            mLastFrameShowTime = now;
+        }
+        mLastFrameShowTime += mFrameDuration * frameStep;
+        mCurrentFrame += frameStep;
+        ++mBufferDepth;
+        return mLastFrameShowTime;
+    }
+
+    /**
+     * 提交当前帧并要求尽快显示，用于第一帧和继续播放。之后的帧从它的结果处理完时开始计时
+     *
+     * @return 显示时间0，表示尽快显示
+     */
+    public long submitImmediately() {
+        mLastFrameShowTime = 0;
+        mCurrentFrame += mQualityController.getFrameStep();
+        ++mBufferDepth;
+        return 0;
+    }
+
+    /**
+     * 一个已经提交的帧的结果处理完毕（显示、跳过或丢弃）
+     */
+    public void onResult() {
+        --mBufferDepth;
+    }
+
+    public void onShown(int frameNumber) {
+        mLastShownFrame = frameNumber;
+    }
+
+    /**
+     * 判断是否应该结束播放：所有帧都已经显示或跳过，在最后一帧显示满一个帧间隔后结束。只会返回一次非负值
+     *
+     * @return 距离结束的毫秒数，还不应该结束时返回-1
+     */
+    public long scheduleFinish(long now) {
+        if (hasMoreFrames() || mBufferDepth > 0 || mFinishScheduled) return -1;
+        mFinishScheduled = true;
+        long delay = mLastFrameShowTime + mFrameDuration * mQualityController.getFrameStep() - now;
+        return delay < 0 ? 0 : delay;
+    }
+
+    /**
+     * 没有剩下的帧时立即结束播放
+     *
+     * @return 是否应该立即结束
+     */
+    public boolean finishIfDone() {
+        if (hasMoreFrames()) return false;
+        mFinishScheduled = true;
+        return true;
+    }
+
+    /**
+     * 撤销所有还没有显示的帧，下次从最后显示的一帧之后提交。用于暂停
+     */
+    public void rewind() {
+        mCurrentFrame = mLastShownFrame + 1;
+        mLastFrameShowTime = 0;
+        mFinishScheduled = false;
+    }
+}
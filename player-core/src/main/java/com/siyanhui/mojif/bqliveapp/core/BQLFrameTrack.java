@@ -0,0 +1,31 @@
+package com.siyanhui.mojif.bqliveapp.core;
+
+/**
+ * 一个元素（头像、昵称或子动画）逐帧的参数，BQLTimeline据此编译矩阵和透明度
+ */
+public interface BQLFrameTrack {
+    /**
+     * @return 帧数
+     */
+    int size();
+
+    float getX(int frame);
+
+    float getY(int frame);
+
+    float getWidth(int frame);
+
+    float getHeight(int frame);
+
+    float getScale(int frame);
+
+    /**
+     * @return 旋转角度，单位为度
+     */
+    float getRotate(int frame);
+
+    /**
+     * @return 透明度，取值0到1
+     */
+    float getAlpha(int frame);
+}
@@ -0,0 +1,171 @@
+package com.siyanhui.mojif.bqliveapp.core;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 边下载边播放时礼物的可播放进度，只依赖Java标准库
+ * 1. 下载线程在动画配置和子动画图片都解压之后调用onPrepared()，此时礼物可以开始准备播放
+ * 2. 之后按播放顺序发布水位：前N帧的主图都已经解压，可以解码
+ * 3. 播放器只解码水位以内的帧；开始播放以及卡住之后重新开始之前，用canPlayFrom()按测得的下载速度判断剩下的帧能否在播放到之前下载完
+ * 下载线程更新，播放器的后台线程读取，所有方法都是线程安全的。所有时间由调用者传入，取同一个单调时钟，在Android上为SystemClock.uptimeMillis()
+ */
+public class BQLPlayableWatermark {
+    private static final int MIN_LEAD_FRAMES = 3;//开始播放时至少已经解压了播放位置之后的几帧
+    private static final float SAFETY_FACTOR = 1.25f;//估计的剩余下载时间放大这个倍数，给网速波动留出余量
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+    private final long mStartTime;
+    private long mReceivedBytes = 0;
+    private long mTotalBytes = -1;
+    private int mFrameCount = 0;
+    private int mPlayableFrames = 0;
+    private boolean mPrepared = false;
+    private boolean mComplete = false;
+    private boolean mFailed = false;
+
+    /**
+     * @param startTime 开始下载的时间
+     */
+    public BQLPlayableWatermark(long startTime) {
+        mStartTime = startTime;
+    }
+
+    /**
+     * 收到了新的数据。调用很频繁，不通知Listener
+     *
+     * @param receivedBytes 到目前为止收到的字节数
+     * @param totalBytes    压缩包的总字节数，未知时为-1
+     */
+    public synchronized void onBytes(long receivedBytes, long totalBytes) {
+        mReceivedBytes = receivedBytes;
+        mTotalBytes = totalBytes;
+    }
+
+    /**
+     * 动画配置和子动画图片都已经解压，可以准备播放
+     *
+     * @param frameCount 动画的总帧数
+     */
+    public void onPrepared(int frameCount) {
+        synchronized (this) {
+            if (mPrepared) return;
+            mPrepared = true;
+            mFrameCount = frameCount;
+        }
+        notifyListeners();
+    }
+
+    /**
+     * 水位上升
+     *
+     * @param playableFrames 按播放顺序，前几帧的主图都已经解压
+     */
+    public void onFramesPlayable(int playableFrames) {
+        synchronized (this) {
+            if (playableFrames <= mPlayableFrames) return;
+            mPlayableFrames = playableFrames;
+        }
+        notifyListeners();
+    }
+
+    /**
+     * 全部文件都已经解压，所有帧都可以播放
+     */
+    public void onComplete() {
+        synchronized (this) {
+            mComplete = true;
+            mPlayableFrames = mFrameCount;
+        }
+        notifyListeners();
+    }
+
+    /**
+     * 下载或解压失败，水位不会再上升
+     */
+    public void onFailed() {
+        synchronized (this) {
+            mFailed = true;
+        }
+        notifyListeners();
+    }
+
+    public synchronized boolean isPrepared() {
+        return mPrepared;
+    }
+
+    public synchronized boolean isComplete() {
+        return mComplete;
+    }
+
+    public synchronized boolean isFailed() {
+        return mFailed;
+    }
+
+    public synchronized int getPlayableFrames() {
+        return mPlayableFrames;
+    }
+
+    /**
+     * @return 第frameNumber帧的主图是否已经解压
+     */
+    public synchronized boolean isPlayable(int frameNumber) {
+        return mComplete || frameNumber < mPlayableFrames;
+    }
+
+    /**
+     * 按开始下载以来的平均速度估计剩余的下载时间。知道压缩包的总字节数时按字节估计，否则按已经解压的帧数估计
+     *
+     * @return 还无法估计时返回-1
+     */
+    public synchronized long estimateRemainingMillis(long now) {
+        if (mComplete) return 0;
+        long elapsed = now - mStartTime;
+        if (elapsed <= 0) return -1;
+        if (mTotalBytes > 0 && mReceivedBytes > 0) {
+            return (mTotalBytes - mReceivedBytes) * elapsed / mReceivedBytes;
+        }
+        if (mPlayableFrames > 0) {
+            return (long) (mFrameCount - mPlayableFrames) * elapsed / mPlayableFrames;
+        }
+        return -1;
+    }
+
+    /**
+     * 判断能否从第frameNumber帧开始连续播放到结束而不会卡住：播放位置之后已经解压了足够的帧，
+     * 并且按测得的下载速度，剩下的帧能在播放到它们之前下载完
+     *
+     * @param frameDuration 每帧时长
+     */
+    public synchronized boolean canPlayFrom(int frameNumber, int frameDuration, long now) {
+        if (mComplete) return true;
+        if (!mPrepared || mFailed) return false;
+        int remainingFrames = mFrameCount - frameNumber;
+        if (mPlayableFrames - frameNumber < Math.min(MIN_LEAD_FRAMES, remainingFrames)) return false;
+        long remainingMillis = estimateRemainingMillis(now);
+        return remainingMillis >= 0 && remainingMillis * SAFETY_FACTOR <= (long) remainingFrames * frameDuration;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void notifyListeners() {
+        for (Listener listener : mListeners) {
+            listener.onWatermarkChanged(this);
+        }
+    }
+
+    /**
+     * 水位变化的通知，在下载线程中进行，不要在其中做耗时的工作
+     */
+    public interface Listener {
+        /**
+         * 准备完毕、水位上升、下载完成或失败时调用
+         */
+        void onWatermarkChanged(BQLPlayableWatermark watermark);
+    }
+}
@@ -0,0 +1,122 @@
+package com.siyanhui.mojif.bqliveapp.core;
+
+/**
+ * 自适应画质控制器，取代原来按固定倍率伸缩帧间隔的跳帧策略
+ * 它用指数移动平均跟踪每帧解码和合成的耗时以及跳帧率，据此在一组画质档位之间升降。每个档位同时决定四个参数：
+ * 1. 预解码深度：更深的缓冲可以吸收耗时的抖动
+ * 2. 降采样倍数：直接降低每帧解码和合成的开销
+ * 3. 帧步长：开销降不下来时才减少显示的帧数
+ * 4. 子动画细节：降低细节时子动画不再绘制阴影
+ * 负载高时每观察DEGRADE_WINDOW帧最多降一档，负载低时需要连续UPGRADE_WINDOW帧都很宽裕才升一档，避免在两个档位之间来回切换
+ * 只在播放器的后台线程中使用
+ */
+public class BQLQualityController {
+    public static final int DETAIL_FULL = 0, DETAIL_REDUCED = 1;
+    /**
+     * 画质档位，每行依次为{预解码深度, 降采样倍数, 帧步长, 子动画细节}，越往下开销越低
+     */
+    private static final int[][] LEVELS = {
+            {3, 1, 1, DETAIL_FULL},
+            {4, 1, 1, DETAIL_FULL},
+            {4, 1, 1, DETAIL_REDUCED},
+            {4, 2, 1, DETAIL_REDUCED},
+            {4, 2, 2, DETAIL_REDUCED},
+            {5, 2, 3, DETAIL_REDUCED},
+    };
+    private static final float SMOOTHING = 0.2f;//移动平均中新样本的权重
+    private static final float HIGH_UTILIZATION = 0.9f, LOW_UTILIZATION = 0.5f;
+    private static final float HIGH_SKIP_RATE = 0.1f, LOW_SKIP_RATE = 0.02f;
+    private static final int DEGRADE_WINDOW = 6, UPGRADE_WINDOW = 30;
+    private final int mFrameDuration;
+    private final int mWorkerCount;
+    private int mLevel = 0;
+    private float mAverageWorkMillis = 0;
+    private float mSkipRate = 0;
+    private int mSamples = 0;//当前档位下已经观察的帧数
+    private int mRelaxedSamples = 0;//连续负载很低的帧数
+
+    /**
+     * @param frameDuration 动画原始的每帧时长
+     * @param workerCount   解码线程数，用于估计解码的并行度
+     */
+    public BQLQualityController(int frameDuration, int workerCount) {
+        mFrameDuration = frameDuration;
+        mWorkerCount = workerCount;
+    }
+
+    /**
+     * 记录一帧的结果
+     *
+     * @param workNanos 这一帧解码和合成的耗时
+     * @param skipped   这一帧是否被跳过
+     * @return 画质档位是否发生了变化
+     */
+    public boolean onFrame(long workNanos, boolean skipped) {
+        float workMillis = workNanos / 1000000f;
+        if (mSamples == 0 && mAverageWorkMillis == 0) {
+            mAverageWorkMillis = workMillis;
+        } else {
+            mAverageWorkMillis += (workMillis - mAverageWorkMillis) * SMOOTHING;
+        }
+        mSkipRate += ((skipped ? 1 : 0) - mSkipRate) * SMOOTHING;
+        ++mSamples;
+
+        float utilization = getUtilization();
+        if (mSamples >= DEGRADE_WINDOW && (utilization > HIGH_UTILIZATION || mSkipRate > HIGH_SKIP_RATE)) {
+            mRelaxedSamples = 0;
+            return setLevel(mLevel + 1);
+        }
+        if (utilization < LOW_UTILIZATION && mSkipRate < LOW_SKIP_RATE) {
+            if (++mRelaxedSamples >= UPGRADE_WINDOW) {
+                mRelaxedSamples = 0;
+                return setLevel(mLevel - 1);
+            }
+        } else {
+            mRelaxedSamples = 0;
+        }
+        return false;
+    }
+
+    private boolean setLevel(int level) {
+        if (level < 0 || level >= LEVELS.length || level == mLevel) return false;
+        //降采样倍数变化后耗时会明显改变，之前的平均值不再有参考价值，按比例折算
+        int oldSampleSize = LEVELS[mLevel][1], newSampleSize = LEVELS[level][1];
+        mAverageWorkMillis = mAverageWorkMillis * oldSampleSize * oldSampleSize / (newSampleSize * newSampleSize);
+        mSkipRate = 0;
+        mSamples = 0;
+        mLevel = level;
+        return true;
+    }
+
+    /**
+     * @return 解码线程的利用率估计值：每帧耗时除以并行度之后，占显示一帧可用时间的比例
+     */
+    public float getUtilization() {
+        int parallelism = Math.max(1, Math.min(getLookahead(), mWorkerCount));
+        return mAverageWorkMillis / parallelism / (mFrameDuration * getFrameStep());
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    public int getLookahead() {
+        return LEVELS[mLevel][0];
+    }
+
+    public int getSampleSize() {
+        return LEVELS[mLevel][1];
+    }
+
+    public int getFrameStep() {
+        return LEVELS[mLevel][2];
+    }
+
+    public int getSubAnimationDetail() {
+        return LEVELS[mLevel][3];
+    }
+
+    public float getAverageWorkMillis() {
+        return mAverageWorkMillis;
+    }
+}
@@ -0,0 +1,109 @@
+package com.siyanhui.mojif.bqliveapp.core;
+
+/**
+ * 编译好的时间轴，只依赖Java标准库
+ * 每个元素（头像、昵称、子动画）每一帧占用9个float的矩阵和1个int的透明度，前两个元素（两个头像）每一帧还各占用3个float，
+ * 依次为头像图片的缩放倍率、头像框的宽和高。编译完成之后播放过程中只需要按帧序号读取，不需要再计算或分配对象
+ */
+public class BQLTimeline {
+    private static final int AVATAR_COUNT = 2;
+    private final int mFrameCount;
+    private final int mElementCount;
+    private final float[] mTransforms;
+    private final int[] mAlphas;
+    private final float[] mAvatarGeometries;
+
+    /**
+     * @param frameCount   动画的总帧数
+     * @param elementCount 元素数量，序号0和1为两个头像
+     */
+    public BQLTimeline(int frameCount, int elementCount) {
+        mFrameCount = frameCount;
+        mElementCount = elementCount;
+        mTransforms = new float[elementCount * frameCount * 9];
+        mAlphas = new int[elementCount * frameCount];
+        mAvatarGeometries = new float[AVATAR_COUNT * frameCount * 3];
+    }
+
+    /**
+     * @return 轨道在这一帧是否有参数
+     */
+    public static boolean hasFrame(BQLFrameTrack track, int frameNumber) {
+        return track != null && frameNumber < track.size();
+    }
+
+    /**
+     * 计算一个元素在某一帧的矩阵和透明度并写入数组，矩阵为空时透明度记为0
+     *
+     * @param alpha         透明度，取值0到255
+     * @param contentWidth  元素内容的宽度
+     * @param contentHeight 元素内容的高度
+     * @param alignment     横向对齐方式，见BQLTransform.compute()
+     */
+    public void compileElement(int element, int frameNumber, int alpha, float contentWidth, float contentHeight, BQLFrameTrack track, int alignment) {
+        int index = element * mFrameCount + frameNumber;
+        if (alpha == 0 || !BQLTransform.compute(mTransforms, index * 9, contentWidth, contentHeight, track.getWidth(frameNumber), track.getHeight(frameNumber), track.getX(frameNumber), track.getY(frameNumber), track.getScale(frameNumber), track.getRotate(frameNumber), alignment)) {
+            return;
+        }
+        mAlphas[index] = alpha;
+    }
+
+    /**
+     * 头像除了外层矩阵之外，还需要记下头像图片的缩放倍率以及头像框的宽高。轨道在这一帧没有参数时什么都不做
+     *
+     * @param avatar       0或1
+     * @param avatarWidth  头像图片的宽度
+     * @param avatarHeight 头像图片的高度
+     */
+    public void compileAvatar(int avatar, int frameNumber, BQLFrameTrack track, int avatarWidth, int avatarHeight) {
+        if (!hasFrame(track, frameNumber)) return;
+        float frameWidth = track.getWidth(frameNumber);
+        float frameHeight = track.getHeight(frameNumber);
+        compileElement(avatar, frameNumber, (int) (track.getAlpha(frameNumber) * 255), frameWidth, frameHeight, track, 1);
+        int index = (avatar * mFrameCount + frameNumber) * 3;
+        mAvatarGeometries[index] = BQLTransform.scaleToFit(avatarWidth, avatarHeight, frameWidth, frameHeight);
+        mAvatarGeometries[index + 1] = frameWidth;
+        mAvatarGeometries[index + 2] = frameHeight;
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public int getElementCount() {
+        return mElementCount;
+    }
+
+    /**
+     * 返回某个元素在某一帧的透明度
+     *
+     * @return 透明度，为0时不需要绘制
+     */
+    public int getAlpha(int element, int frameNumber) {
+        return frameNumber < mFrameCount ? mAlphas[element * mFrameCount + frameNumber] : 0;
+    }
+
+    /**
+     * 把某个元素在某一帧的矩阵复制到values中，只有在getAlpha()不为0时矩阵才有意义
+     *
+     * @param values 长度为9的数组，排列同android.graphics.Matrix.getValues()
+     */
+    public void getTransform(int element, int frameNumber, float[] values) {
+        System.arraycopy(mTransforms, (element * mFrameCount + frameNumber) * 9, values, 0, 9);
+    }
+
+    /**
+     * 返回头像图片缩放到头像框内的倍率
+     */
+    public float getAvatarInnerScale(int avatar, int frameNumber) {
+        return mAvatarGeometries[(avatar * mFrameCount + frameNumber) * 3];
+    }
+
+    public float getAvatarFrameWidth(int avatar, int frameNumber) {
+        return mAvatarGeometries[(avatar * mFrameCount + frameNumber) * 3 + 1];
+    }
+
+    public float getAvatarFrameHeight(int avatar, int frameNumber) {
+        return mAvatarGeometries[(avatar * mFrameCount + frameNumber) * 3 + 2];
+    }
+}
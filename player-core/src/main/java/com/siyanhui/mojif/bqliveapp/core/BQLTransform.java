@@ -0,0 +1,126 @@
+package com.siyanhui.mojif.bqliveapp.core;
+
+/**
+ * 元素矩阵的计算，只依赖Java标准库
+ * 结果按android.graphics.Matrix.getValues()的排列写入长度为9的数组：{scaleX, skewX, transX, skewY, scaleY, transY, 0, 0, 1}，
+ * 绘制时可以直接用Matrix.setValues()读回。这里只有仿射变换，透视分量固定为0、0、1
+ */
+public final class BQLTransform {
+    private static final float NEARLY_ZERO = 1f / (1 << 12);//和Skia一样，把极小的正弦和余弦值当作0，使90度的整数倍旋转得到精确的矩阵
+
+    private BQLTransform() {
+    }
+
+    /**
+     * 计算矩阵。原内容会首先被缩放到目标尺寸内（保持长宽比，考虑对齐方式），然后进行平移、缩放、旋转变换。
+     *
+     * @param values        用于写入结果的数组
+     * @param offset        结果在数组中的起始位置
+     * @param contentWidth  原内容的宽度
+     * @param contentHeight 原内容的高度
+     * @param targetWidth   目标尺寸的宽度
+     * @param targetHeight  目标尺寸的高度
+     * @param translateX    横向平移距离
+     * @param translateY    纵向平移距离
+     * @param scale         缩放倍率
+     * @param rotate        旋转角度
+     * @param alignment     把原内容缩放到目标尺寸时的横向对齐方式，共有三个取值：0（左对齐）、1（居中）、2（右对齐）
+     * @return 面积为0、不需要显示时返回false，此时数组不会被修改
+     */
+    public static boolean compute(float[] values, int offset, float contentWidth, float contentHeight, float targetWidth, float targetHeight, float translateX, float translateY, float scale, float rotate, int alignment) {
+        if (targetWidth == 0 || targetHeight == 0 || scale == 0) {//面积为0,不需要显示，直接返回
+            return false;
+        }
+        //依次右乘平移、缩放、旋转，和Matrix的preTranslate()、preScale()、preRotate()相同。a、b、c、d为线性部分，tx、ty为平移部分
+        float a = 1, b = 0, c = 0, d = 1, tx = translateX, ty = translateY;
+        float fitScale = scaleToFit(contentWidth, contentHeight, targetWidth, targetHeight);//计算从原大小到目标大小需要缩放的倍数
+        a *= fitScale;
+        d *= fitScale;
+        float offsetX;
+        float offsetY = (targetHeight - contentHeight * fitScale) / 2;
+        float centerX;
+        float centerY = contentHeight / 2f;
+        switch (alignment) {
+            case 0://横向左对齐，纵向居中
+                offsetX = 0;
+                centerX = contentWidth / 2f + (targetWidth - contentWidth * fitScale) / 2;
+                break;
+            case 1://居中
+                offsetX = (targetWidth - contentWidth * fitScale) / 2;
+                centerX = contentWidth / 2f;
+                break;
+            default://横向右对齐，纵向居中
+                offsetX = targetWidth - contentWidth * fitScale;
+                centerX = contentWidth / 2f - (targetWidth - contentWidth * fitScale) / 2;
+                break;
+        }
+        tx += a * offsetX + b * offsetY;
+        ty += c * offsetX + d * offsetY;
+        //以(centerX, centerY)为中心缩放再旋转，等价于平移到中心、缩放、旋转、再平移回来
+        double radians = Math.toRadians(rotate);
+        float sin = (float) Math.sin(radians);
+        float cos = (float) Math.cos(radians);
+        if (Math.abs(sin) < NEARLY_ZERO) sin = 0;
+        if (Math.abs(cos) < NEARLY_ZERO) cos = 0;
+        tx += a * centerX + b * centerY;
+        ty += c * centerX + d * centerY;
+        a *= scale;
+        b *= scale;
+        c *= scale;
+        d *= scale;
+        float rotatedA = a * cos + b * sin, rotatedB = b * cos - a * sin;
+        float rotatedC = c * cos + d * sin, rotatedD = d * cos - c * sin;
+        a = rotatedA;
+        b = rotatedB;
+        c = rotatedC;
+        d = rotatedD;
+        tx -= a * centerX + b * centerY;
+        ty -= c * centerX + d * centerY;
+        values[offset] = a;
+        values[offset + 1] = b;
+        values[offset + 2] = tx;
+        values[offset + 3] = c;
+        values[offset + 4] = d;
+        values[offset + 5] = ty;
+        values[offset + 6] = 0;
+        values[offset + 7] = 0;
+        values[offset + 8] = 1;
+        return true;
+    }
+
+    /**
+     * 计算得到如果要将给定尺寸缩放到限定尺寸范围内，且保持长宽比的话，最大的倍率是多少
+     *
+     * @param width       给定的宽度
+     * @param height      给定的高度
+     * @param limitWidth  限定宽度
+     * @param limitHeight 限定高度
+     * @return 倍率
+     */
+    public static float scaleToFit(float width, float height, float limitWidth, float limitHeight) {
+        int fittedHeight = (int) (limitWidth / width * height);
+        if (fittedHeight > limitHeight) {
+            return limitHeight / height;
+        } else {
+            return limitWidth / width;
+        }
+    }
+
+    /**
+     * 计算得到如果要将给定尺寸缩放到能够包含限定尺寸，且保持长宽比的话，最小的倍率是多少
+     *
+     * @param width       给定的宽度
+     * @param height      给定的高度
+     * @param limitWidth  限定宽度
+     * @param limitHeight 限定高度
+     * @return 倍率
+     */
+    public static float scaleToFill(float width, float height, float limitWidth, float limitHeight) {
+        int fittedHeight = (int) (limitWidth / width * height);
+        if (fittedHeight > limitHeight) {
+            return limitWidth / width;
+        } else {
+            return limitHeight / height;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.siyanhui.mojif.bqliveapp.core;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 透明度合成的正确性：预乘结果和原来的ColorMatrix + SRC_IN合成方式一致，按条带并行的结果和单线程完全相同
+ */
+public class BQLAlphaMergeKernelTest {
+    private static final int[] EDGE_VALUES = {0, 1, 128, 254, 255};
+    private static ExecutorService sExecutor;
+
+    @BeforeClass
+    public static void setUpExecutor() {
+        sExecutor = Executors.newFixedThreadPool(8);
+    }
+
+    @AfterClass
+    public static void tearDownExecutor() {
+        sExecutor.shutdownNow();
+    }
+
+    /**
+     * 原来的合成方式：ColorMatrix把黑白图片的红色分量转为透明度，SRC_IN画上颜色通道，Skia按round(c * a / 255)预乘
+     */
+    private static int referencePremultiply(int color, int alpha) {
+        int r = (((color >> 16) & 0xFF) * alpha + 127) / 255;
+        int g = (((color >> 8) & 0xFF) * alpha + 127) / 255;
+        int b = ((color & 0xFF) * alpha + 127) / 255;
+        return (alpha << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    private static int toAbgr(int argb) {
+        return (argb & 0xFF00FF00) | ((argb >> 16) & 0xFF) | ((argb & 0xFF) << 16);
+    }
+
+    @Test
+    public void mulDiv255RoundMatchesRoundingForAllValues() {
+        for (int value = 0; value < 256; ++value) {
+            for (int alpha = 0; alpha < 256; ++alpha) {
+                assertEquals("value=" + value + " alpha=" + alpha, Math.round(value * alpha / 255f), BQLAlphaMergeKernel.mulDiv255Round(value, alpha));
+            }
+        }
+    }
+
+    @Test
+    public void premultiplyMatchesReferenceOnEdgeValues() {
+        for (int r : EDGE_VALUES) {
+            for (int g : EDGE_VALUES) {
+                for (int b : EDGE_VALUES) {
+                    int color = 0xFF000000 | (r << 16) | (g << 8) | b;
+                    for (int alpha : EDGE_VALUES) {
+                        int expected = referencePremultiply(color, alpha);
+                        assertEquals(expected, BQLAlphaMergeKernel.premultiply(color, alpha, BQLAlphaMergeKernel.ORDER_ARGB));
+                        assertEquals(toAbgr(expected), BQLAlphaMergeKernel.premultiply(color, alpha, BQLAlphaMergeKernel.ORDER_ABGR));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void premultiplyIgnoresSourceAlpha() {
+        assertEquals(referencePremultiply(0x80FF8001, 128), BQLAlphaMergeKernel.premultiply(0x00FF8001, 128, BQLAlphaMergeKernel.ORDER_ARGB));
+        assertEquals(BQLAlphaMergeKernel.premultiply(0x12345678, 200, BQLAlphaMergeKernel.ORDER_ARGB), BQLAlphaMergeKernel.premultiply(0xFF345678, 200, BQLAlphaMergeKernel.ORDER_ARGB));
+    }
+
+    @Test
+    public void mergeLuminanceMatchesReference() {
+        int width = EDGE_VALUES.length, height = EDGE_VALUES.length * EDGE_VALUES.length;
+        int[] pixels = new int[width * height];
+        int[] luminance = new int[width * height];
+        int[] expected = new int[width * height];
+        int i = 0;
+        for (int red : EDGE_VALUES) {
+            for (int green : EDGE_VALUES) {
+                for (int gray : EDGE_VALUES) {
+                    pixels[i] = 0xFF000000 | (red << 16) | (green << 8) | (255 - gray);
+                    luminance[i] = 0xFF000000 | (gray << 16) | (gray << 8) | gray;
+                    expected[i] = referencePremultiply(pixels[i], gray);
+                    ++i;
+                }
+            }
+        }
+        new BQLAlphaMergeKernel(null, 1).mergeLuminance(pixels, luminance, width, height, BQLAlphaMergeKernel.ORDER_ARGB);
+        assertArrayEquals(expected, pixels);
+    }
+
+    @Test
+    public void mergeMaskSkipsStridePadding() {
+        int width = 3, height = 2, stride = 4;
+        int[] pixels = {0xFFFFFFFF, 0xFF808080, 0xFF010101, 0xFFFF0000, 0xFF00FF00, 0xFF0000FF};
+        byte[] mask = {(byte) 255, (byte) 128, 1, 99, 0, (byte) 254, (byte) 128, 99};
+        int[] expected = new int[pixels.length];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                expected[y * width + x] = toAbgr(referencePremultiply(pixels[y * width + x], mask[y * stride + x] & 0xFF));
+            }
+        }
+        new BQLAlphaMergeKernel(null, 1).mergeMask(pixels, mask, stride, width, height, BQLAlphaMergeKernel.ORDER_ABGR);
+        assertArrayEquals(expected, pixels);
+    }
+
+    /**
+     * 行数不能被条带数整除时，最后一条较短
+     */
+    @Test
+    public void stripedMatchesSingleThreadedWhenHeightIsNotDivisible() {
+        assertStripedMatches(1024, 1021, 3);
+        assertStripedMatches(1024, 1021, 7);
+        assertStripedMatches(1024, 1021, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 行数很少时，按向上取整的行数分完之后，后面的条带没有剩下的行
+     */
+    @Test
+    public void stripedMatchesSingleThreadedWhenRowsRunOut() {
+        assertStripedMatches(131072, 5, 4);
+        assertStripedMatches(262144, 3, 8);
+    }
+
+    private static void assertStripedMatches(int width, int height, int parallelism) {
+        Random random = new Random(width * 31 + height * 7 + parallelism);
+        int stride = width + 3;
+        int[] color = new int[width * height];
+        int[] luminance = new int[width * height];
+        byte[] mask = new byte[stride * height];
+        for (int i = 0; i < color.length; ++i) {
+            color[i] = random.nextInt();
+            int gray = EDGE_VALUES[random.nextInt(EDGE_VALUES.length)];
+            luminance[i] = 0xFF000000 | (gray << 16) | (gray << 8) | gray;
+        }
+        random.nextBytes(mask);
+        BQLAlphaMergeKernel single = new BQLAlphaMergeKernel(null, 1);
+        BQLAlphaMergeKernel striped = new BQLAlphaMergeKernel(sExecutor, parallelism);
+        for (int order : new int[]{BQLAlphaMergeKernel.ORDER_ARGB, BQLAlphaMergeKernel.ORDER_ABGR}) {
+            int[] expected = color.clone();
+            int[] actual = color.clone();
+            single.mergeMask(expected, mask, stride, width, height, order);
+            striped.mergeMask(actual, mask, stride, width, height, order);
+            assertArrayEquals(expected, actual);
+
+            expected = color.clone();
+            actual = color.clone();
+            single.mergeLuminance(expected, luminance, width, height, order);
+            striped.mergeLuminance(actual, luminance, width, height, order);
+            assertArrayEquals(expected, actual);
+            for (int i = 0; i < color.length; i += 9973) {
+                int reference = referencePremultiply(color[i], (luminance[i] >> 16) & 0xFF);
+                assertEquals(order == BQLAlphaMergeKernel.ORDER_ABGR ? toAbgr(reference) : reference, actual[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.siyanhui.mojif.bqliveapp.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 截止时间队列的出队顺序和丢弃规则
+ */
+public class BQLDeadlineQueueTest {
+    private static class NamedTask extends BQLDeadlineQueue.Task {
+        private final String mName;
+        private boolean mDropped;
+
+        NamedTask(Object owner, String name, long deadline, long estimatedMillis) {
+            super(owner, deadline, estimatedMillis);
+            mName = name;
+        }
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public void onDropped() {
+            mDropped = true;
+        }
+
+        @Override
+        public String toString() {
+            return mName;
+        }
+    }
+
+    private static List<String> drain(BQLDeadlineQueue queue, long now) {
+        List<String> order = new ArrayList<>();
+        List<BQLDeadlineQueue.Task> dropped = new ArrayList<>();
+        BQLDeadlineQueue.Task task;
+        while ((task = queue.poll(now, dropped)) != null) {
+            order.add(task.toString());
+        }
+        return order;
+    }
+
+    @Test
+    public void earliestDeadlineFirstAndImmediateTasksBeforeAll() {
+        BQLDeadlineQueue queue = new BQLDeadlineQueue();
+        queue.add(new NamedTask(this, "c", 300, 0));
+        queue.add(new NamedTask(this, "a", 100, 0));
+        queue.add(new NamedTask(this, "first", 0, 0));
+        queue.add(new NamedTask(this, "b", 200, 0));
+        assertEquals(Arrays.asList("first", "a", "b", "c"), drain(queue, 0));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void equalDeadlinesAreFirstInFirstOut() {
+        BQLDeadlineQueue queue = new BQLDeadlineQueue();
+        for (String name : new String[]{"1", "2", "3", "4", "5"}) {
+            queue.add(new NamedTask(this, name, 100, 0));
+        }
+        queue.add(new NamedTask(this, "0", 50, 0));
+        assertEquals(Arrays.asList("0", "1", "2", "3", "4", "5"), drain(queue, 0));
+    }
+
+    /**
+     * 按预计耗时已经赶不上截止时间的任务被丢弃，刚好赶上的不丢弃
+     */
+    @Test
+    public void lateTasksAreDroppedOnPoll() {
+        BQLDeadlineQueue queue = new BQLDeadlineQueue();
+        NamedTask late = new NamedTask(this, "late", 100, 30);
+        NamedTask exact = new NamedTask(this, "exact", 130, 30);
+        NamedTask onTime = new NamedTask(this, "onTime", 200, 30);
+        queue.add(onTime);
+        queue.add(late);
+        queue.add(exact);
+        List<BQLDeadlineQueue.Task> dropped = new ArrayList<>();
+        assertSame(exact, queue.poll(100, dropped));
+        assertEquals(1, dropped.size());
+        assertSame(late, dropped.get(0));
+        dropped.clear();
+        assertSame(onTime, queue.poll(170, dropped));
+        assertTrue(dropped.isEmpty());
+        assertNull(queue.poll(170, dropped));
+    }
+
+    @Test
+    public void allLateTasksAreReturnedTogether() {
+        BQLDeadlineQueue queue = new BQLDeadlineQueue();
+        queue.add(new NamedTask(this, "a", 100, 10));
+        queue.add(new NamedTask(this, "b", 110, 10));
+        List<BQLDeadlineQueue.Task> dropped = new ArrayList<>();
+        assertNull(queue.poll(1000, dropped));
+        assertEquals(2, dropped.size());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void immediateTasksAreNeverLate() {
+        NamedTask task = new NamedTask(this, "first", 0, 1000);
+        assertTrue(!task.isLate(Long.MAX_VALUE / 2));
+        BQLDeadlineQueue queue = new BQLDeadlineQueue();
+        queue.add(task);
+        List<BQLDeadlineQueue.Task> dropped = new ArrayList<>();
+        assertSame(task, queue.poll(1000000, dropped));
+        assertTrue(dropped.isEmpty());
+    }
+
+    @Test
+    public void removeOwnerOnlyRemovesThatOwnersTasks() {
+        Object player1 = new Object(), player2 = new Object();
+        BQLDeadlineQueue queue = new BQLDeadlineQueue();
+        NamedTask a = new NamedTask(player1, "a", 100, 0);
+        NamedTask b = new NamedTask(player2, "b", 150, 0);
+        NamedTask c = new NamedTask(player1, "c", 200, 0);
+        queue.add(a);
+        queue.add(b);
+        queue.add(c);
+        List<BQLDeadlineQueue.Task> removed = new ArrayList<>();
+        queue.removeOwner(player1, removed);
+        assertEquals(2, removed.size());
+        assertTrue(removed.contains(a) && removed.contains(c));
+        assertEquals(1, queue.size());
+        assertEquals(Arrays.asList("b"), drain(queue, 0));
+        assertTrue(!a.mDropped && !c.mDropped);//通知由调用者在释放锁之后进行
+    }
+}
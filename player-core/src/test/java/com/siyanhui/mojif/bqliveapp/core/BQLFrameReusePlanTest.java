@@ -0,0 +1,55 @@
+package com.siyanhui.mojif.bqliveapp.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 帧列表中重复主图的分析
+ */
+public class BQLFrameReusePlanTest {
+    @Test
+    public void nextUseFollowsTheFrameList() {
+        int[] frameIndices = {0, 1, 2, 0, 1, 2, 3, 3, 3, 4};
+        BQLFrameReusePlan plan = BQLFrameReusePlan.create(frameIndices, 8);
+        assertNotNull(plan);
+        int[] expectedNextUse = {3, 4, 5, -1, -1, -1, 7, 8, -1, -1};
+        for (int frame = 0; frame < frameIndices.length; ++frame) {
+            assertEquals("frame=" + frame, expectedNextUse[frame], plan.getNextUse(frame));
+            assertEquals(frameIndices[frame], plan.getSource(frame));
+        }
+        assertEquals(5, plan.getReusedFrameCount());
+    }
+
+    @Test
+    public void reuseIsLimitedToTheWindow() {
+        int[] frameIndices = {0, 1, 2, 3, 0};
+        BQLFrameReusePlan plan = BQLFrameReusePlan.create(frameIndices, 4);
+        assertNotNull(plan);
+        assertTrue(plan.isReusedWithin(0));
+        assertNull(BQLFrameReusePlan.create(frameIndices, 3));//间隔4超出窗口
+        BQLFrameReusePlan wide = new BQLFrameReusePlan(frameIndices, 3);
+        assertFalse(wide.isReusedWithin(0));
+        assertEquals(4, wide.getNextUse(0));
+    }
+
+    @Test
+    public void noPlanWithoutRepeats() {
+        assertNull(BQLFrameReusePlan.create(null, 8));
+        assertNull(BQLFrameReusePlan.create(new int[]{0, 1, 2, 3}, 8));
+        assertNull(BQLFrameReusePlan.create(new int[0], 8));
+    }
+
+    @Test
+    public void heldFrameIsReusedByEveryFollowingFrame() {
+        BQLFrameReusePlan plan = BQLFrameReusePlan.create(new int[]{5, 5, 5, 5}, 1);
+        assertNotNull(plan);
+        assertEquals(3, plan.getReusedFrameCount());
+        assertEquals(1, plan.getNextUse(0));
+        assertFalse(plan.isReusedWithin(3));
+    }
+}
@@ -0,0 +1,111 @@
+package com.siyanhui.mojif.bqliveapp.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 播放器的时间安排：显示时间、预解码深度、结束时机和暂停后的重新开始
+ */
+public class BQLFrameScheduleTest {
+    private static final int FRAME_DURATION = 40;
+
+    private static BQLQualityController newController() {
+        return new BQLQualityController(FRAME_DURATION, 2);
+    }
+
+    @Test
+    public void framesAreSpacedByTheFrameDuration() {
+        BQLFrameSchedule schedule = new BQLFrameSchedule(10, FRAME_DURATION, newController());
+        assertEquals(0, schedule.submitImmediately());
+        assertEquals(1, schedule.getCurrentFrame());
+        //第一帧之后的帧从第一次提交时开始计时
+        assertEquals(1000 + FRAME_DURATION, schedule.submit(1000));
+        assertEquals(1000 + FRAME_DURATION * 2, schedule.submit(1005));
+        assertEquals(3, schedule.getCurrentFrame());
+    }
+
+    @Test
+    public void lookaheadLimitsOutstandingFrames() {
+        BQLQualityController controller = newController();
+        BQLFrameSchedule schedule = new BQLFrameSchedule(10, FRAME_DURATION, controller);
+        assertTrue(schedule.isStarving());
+        for (int i = 0; i < controller.getLookahead(); ++i) {
+            assertTrue(schedule.wantsMoreFrames());
+            schedule.submit(0);
+        }
+        assertFalse(schedule.wantsMoreFrames());
+        assertFalse(schedule.isStarving());
+        schedule.onResult();
+        assertTrue(schedule.wantsMoreFrames());
+        assertEquals(controller.getLookahead() - 1, schedule.getBufferDepth());
+    }
+
+    /**
+     * 所有帧都处理完之后，在最后一帧显示满一个帧间隔时结束，并且只安排一次
+     */
+    @Test
+    public void finishIsScheduledOnceAfterTheLastFrame() {
+        BQLFrameSchedule schedule = new BQLFrameSchedule(2, FRAME_DURATION, newController());
+        schedule.submit(100);//显示时间140
+        schedule.submit(100);//显示时间180
+        assertEquals(-1, schedule.scheduleFinish(150));//还有结果没有处理
+        schedule.onResult();
+        schedule.onResult();
+        assertFalse(schedule.hasMoreFrames());
+        assertEquals(180 + FRAME_DURATION - 190, schedule.scheduleFinish(190));
+        assertEquals(-1, schedule.scheduleFinish(190));
+    }
+
+    @Test
+    public void finishIsImmediateWhenAlreadyLate() {
+        BQLFrameSchedule schedule = new BQLFrameSchedule(1, FRAME_DURATION, newController());
+        schedule.submit(100);
+        schedule.onResult();
+        assertEquals(0, schedule.scheduleFinish(10000));
+    }
+
+    /**
+     * 暂停时撤销还没有显示的帧，继续时从最后显示的一帧之后提交，并重新计时
+     */
+    @Test
+    public void rewindRestartsAfterTheLastShownFrame() {
+        BQLFrameSchedule schedule = new BQLFrameSchedule(10, FRAME_DURATION, newController());
+        schedule.submitImmediately();
+        schedule.submit(1000);
+        schedule.submit(1000);
+        schedule.onShown(1);
+        schedule.rewind();
+        assertEquals(2, schedule.getCurrentFrame());
+        assertEquals(5000 + FRAME_DURATION, schedule.submit(5000));
+    }
+
+    @Test
+    public void finishIfDoneOnlyWhenNoFramesAreLeft() {
+        BQLFrameSchedule schedule = new BQLFrameSchedule(1, FRAME_DURATION, newController());
+        assertFalse(schedule.finishIfDone());
+        schedule.submitImmediately();
+        assertTrue(schedule.finishIfDone());
+        schedule.onResult();
+        assertEquals(-1, schedule.scheduleFinish(0));//已经结束，不会再安排一次
+    }
+
+    /**
+     * 负载高时帧步长变大，跳过的帧不提交，显示时间按步长伸展
+     */
+    @Test
+    public void frameStepSkipsFramesAndStretchesShowTimes() {
+        BQLQualityController controller = newController();
+        while (controller.getFrameStep() == 1) {
+            controller.onFrame(1000000000L, true);
+        }
+        int step = controller.getFrameStep();
+        BQLFrameSchedule schedule = new BQLFrameSchedule(100, FRAME_DURATION, controller);
+        assertEquals(1000 + FRAME_DURATION * step, schedule.submit(1000));
+        assertEquals(step, schedule.getCurrentFrame());
+        assertEquals(1000 + FRAME_DURATION * step * 2, schedule.submit(1000));
+        assertEquals(step * 2, schedule.getCurrentFrame());
+    }
+}
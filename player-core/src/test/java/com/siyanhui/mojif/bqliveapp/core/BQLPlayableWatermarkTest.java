@@ -0,0 +1,159 @@
+package com.siyanhui.mojif.bqliveapp.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 可播放进度：准备完毕的通知、水位只升不降，以及按下载速度判断能否开始播放
+ */
+public class BQLPlayableWatermarkTest {
+    private static final int FRAME_DURATION = 40;
+
+    /**
+     * 记录每次通知时的状态
+     */
+    private static class RecordingListener implements BQLPlayableWatermark.Listener {
+        private final List<String> mStates = new ArrayList<>();
+
+        @Override
+        public void onWatermarkChanged(BQLPlayableWatermark watermark) {
+            String state = watermark.isFailed() ? "failed" : watermark.isComplete() ? "complete" : watermark.isPrepared() ? "prepared" : "waiting";
+            mStates.add(state + ":" + watermark.getPlayableFrames());
+        }
+    }
+
+    @Test
+    public void preparedIsNotifiedOnce() {
+        BQLPlayableWatermark watermark = new BQLPlayableWatermark(0);
+        RecordingListener listener = new RecordingListener();
+        watermark.addListener(listener);
+        assertFalse(watermark.isPrepared());
+        watermark.onBytes(100, 1000);//收到数据不通知
+        watermark.onPrepared(10);
+        watermark.onPrepared(20);
+        assertTrue(watermark.isPrepared());
+        assertEquals(Arrays.asList("prepared:0"), listener.mStates);
+        watermark.onComplete();
+        assertEquals(10, watermark.getPlayableFrames());//总帧数以第一次为准
+    }
+
+    @Test
+    public void watermarkOnlyRises() {
+        BQLPlayableWatermark watermark = new BQLPlayableWatermark(0);
+        RecordingListener listener = new RecordingListener();
+        watermark.addListener(listener);
+        watermark.onPrepared(10);
+        watermark.onFramesPlayable(0);
+        watermark.onFramesPlayable(3);
+        watermark.onFramesPlayable(2);
+        watermark.onFramesPlayable(3);
+        watermark.onFramesPlayable(7);
+        assertEquals(Arrays.asList("prepared:0", "prepared:3", "prepared:7"), listener.mStates);
+        assertTrue(watermark.isPlayable(6));
+        assertFalse(watermark.isPlayable(7));
+        watermark.removeListener(listener);
+        watermark.onComplete();
+        assertEquals(3, listener.mStates.size());
+    }
+
+    @Test
+    public void completeMakesEveryFramePlayable() {
+        BQLPlayableWatermark watermark = new BQLPlayableWatermark(0);
+        RecordingListener listener = new RecordingListener();
+        watermark.addListener(listener);
+        watermark.onPrepared(10);
+        watermark.onFramesPlayable(4);
+        watermark.onComplete();
+        assertEquals(Arrays.asList("prepared:0", "prepared:4", "complete:10"), listener.mStates);
+        assertTrue(watermark.isPlayable(9));
+        assertTrue(watermark.isPlayable(100));
+        assertEquals(0, watermark.estimateRemainingMillis(0));
+        assertTrue(watermark.canPlayFrom(0, FRAME_DURATION, 0));
+    }
+
+    @Test
+    public void cannotPlayBeforePreparedOrAfterFailure() {
+        BQLPlayableWatermark watermark = new BQLPlayableWatermark(0);
+        watermark.onBytes(999, 1000);
+        assertFalse(watermark.canPlayFrom(0, FRAME_DURATION, 1000));
+        watermark.onPrepared(10);
+        watermark.onFramesPlayable(9);
+        assertTrue(watermark.canPlayFrom(0, FRAME_DURATION, 1000));
+        watermark.onFailed();
+        assertTrue(watermark.isFailed());
+        assertFalse(watermark.canPlayFrom(0, FRAME_DURATION, 1000));
+    }
+
+    /**
+     * 播放位置之后至少要解压MIN_LEAD_FRAMES帧，快结束时只要求剩下的帧
+     */
+    @Test
+    public void playbackNeedsLeadFrames() {
+        BQLPlayableWatermark watermark = new BQLPlayableWatermark(0);
+        watermark.onPrepared(10);
+        watermark.onBytes(999, 1000);//剩下的数据几乎不需要时间
+        watermark.onFramesPlayable(2);
+        assertFalse(watermark.canPlayFrom(0, FRAME_DURATION, 1000));
+        watermark.onFramesPlayable(3);
+        assertTrue(watermark.canPlayFrom(0, FRAME_DURATION, 1000));
+        assertFalse(watermark.canPlayFrom(1, FRAME_DURATION, 1000));
+        watermark.onFramesPlayable(9);
+        assertTrue(watermark.canPlayFrom(6, FRAME_DURATION, 1000));
+        assertFalse(watermark.canPlayFrom(8, FRAME_DURATION, 1000));//最后一帧还没有解压
+        watermark.onFramesPlayable(10);
+        assertTrue(watermark.canPlayFrom(8, FRAME_DURATION, 1000));//只剩2帧，都已经解压
+        assertTrue(watermark.canPlayFrom(9, FRAME_DURATION, 1000));
+    }
+
+    /**
+     * 10帧共400毫秒，剩余下载时间放大1.25倍之后不能超过它，即剩余时间最多320毫秒
+     */
+    @Test
+    public void byteRateThreshold() {
+        BQLPlayableWatermark watermark = new BQLPlayableWatermark(1000);
+        watermark.onPrepared(10);
+        watermark.onFramesPlayable(3);
+        watermark.onBytes(500, 820);
+        assertEquals(320, watermark.estimateRemainingMillis(1500));
+        assertTrue(watermark.canPlayFrom(0, FRAME_DURATION, 1500));
+        watermark.onBytes(500, 821);
+        assertEquals(321, watermark.estimateRemainingMillis(1500));
+        assertFalse(watermark.canPlayFrom(0, FRAME_DURATION, 1500));
+    }
+
+    /**
+     * 不知道压缩包的总字节数时，按已经解压的帧数估计
+     */
+    @Test
+    public void frameRateThresholdWithoutTotalBytes() {
+        BQLPlayableWatermark watermark = new BQLPlayableWatermark(0);
+        watermark.onPrepared(10);
+        watermark.onBytes(500, -1);
+        assertEquals(-1, watermark.estimateRemainingMillis(1000));
+        assertFalse(watermark.canPlayFrom(0, FRAME_DURATION, 1000));
+        watermark.onFramesPlayable(5);
+        //5帧用了400毫秒，剩下5帧估计400毫秒，放大后500毫秒，超过了10帧的时长
+        assertEquals(400, watermark.estimateRemainingMillis(400));
+        assertFalse(watermark.canPlayFrom(0, FRAME_DURATION, 400));
+        //5帧用了320毫秒，剩下5帧估计320毫秒，放大后刚好400毫秒
+        assertEquals(320, watermark.estimateRemainingMillis(320));
+        assertTrue(watermark.canPlayFrom(0, FRAME_DURATION, 320));
+    }
+
+    @Test
+    public void noEstimateBeforeTimePasses() {
+        BQLPlayableWatermark watermark = new BQLPlayableWatermark(1000);
+        watermark.onPrepared(10);
+        watermark.onBytes(500, 1000);
+        watermark.onFramesPlayable(5);
+        assertEquals(-1, watermark.estimateRemainingMillis(1000));
+        assertFalse(watermark.canPlayFrom(0, FRAME_DURATION, 1000));
+    }
+}
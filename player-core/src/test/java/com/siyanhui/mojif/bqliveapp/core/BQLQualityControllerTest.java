@@ -0,0 +1,112 @@
+package com.siyanhui.mojif.bqliveapp.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 画质档位的升降：负载高时每DEGRADE_WINDOW帧最多降一档，需要连续UPGRADE_WINDOW帧都很宽裕才升一档
+ */
+public class BQLQualityControllerTest {
+    private static final int FRAME_DURATION = 40;
+    private static final long MILLIS = 1000000L;
+
+    /**
+     * 单个解码线程，每帧可用40毫秒：耗时超过36毫秒为高负载，低于20毫秒为宽裕
+     */
+    private static BQLQualityController newController() {
+        return new BQLQualityController(FRAME_DURATION, 1);
+    }
+
+    /**
+     * @return 第几次调用时档位发生了变化，limit次以内没有变化时返回-1
+     */
+    private static int feedUntilChange(BQLQualityController controller, long workMillis, boolean skipped, int limit) {
+        for (int i = 1; i <= limit; ++i) {
+            if (controller.onFrame(workMillis * MILLIS, skipped)) return i;
+        }
+        return -1;
+    }
+
+    @Test
+    public void degradesOneLevelPerWindow() {
+        BQLQualityController controller = newController();
+        assertEquals(0, controller.getLevel());
+        assertEquals(6, feedUntilChange(controller, 60, false, 100));
+        assertEquals(1, controller.getLevel());
+        //降档之后重新观察，仍然要再等一个窗口
+        assertEquals(6, feedUntilChange(controller, 60, false, 100));
+        assertEquals(2, controller.getLevel());
+    }
+
+    @Test
+    public void degradesOnSkipsEvenWhenDecodingIsCheap() {
+        BQLQualityController controller = newController();
+        assertEquals(6, feedUntilChange(controller, 1, true, 100));
+        assertEquals(1, controller.getLevel());
+    }
+
+    @Test
+    public void moderateLoadKeepsTheLevel() {
+        BQLQualityController controller = newController();
+        assertEquals(-1, feedUntilChange(controller, 28, false, 500));
+        assertEquals(0, controller.getLevel());
+    }
+
+    /**
+     * 从60毫秒降到5毫秒后，移动平均在第6帧降到20毫秒以下，之后连续30帧宽裕才升档
+     */
+    @Test
+    public void upgradesOnlyAfterASustainedRelaxedWindow() {
+        BQLQualityController controller = newController();
+        feedUntilChange(controller, 60, false, 100);
+        assertEquals(1, controller.getLevel());
+        assertEquals(35, feedUntilChange(controller, 5, false, 100));
+        assertEquals(0, controller.getLevel());
+    }
+
+    /**
+     * 宽裕的帧中间出现一次负载尖峰，连续计数从头开始
+     */
+    @Test
+    public void aSpikeRestartsTheUpgradeWindow() {
+        BQLQualityController controller = newController();
+        feedUntilChange(controller, 60, false, 100);
+        assertEquals(-1, feedUntilChange(controller, 5, false, 30));//已经连续宽裕了一段时间，但还不够30帧
+        assertFalse(controller.onFrame(100 * MILLIS, false));//平均值升到24毫秒，不算宽裕，也不到高负载
+        assertEquals(1, controller.getLevel());
+        //尖峰之后第1帧平均值仍在20毫秒以上，第2帧开始重新计数
+        assertEquals(31, feedUntilChange(controller, 5, false, 100));
+        assertEquals(0, controller.getLevel());
+    }
+
+    @Test
+    public void levelsStayWithinBounds() {
+        BQLQualityController controller = newController();
+        assertEquals(-1, feedUntilChange(controller, 1, false, 200));//已经是最高画质
+        assertEquals(0, controller.getLevel());
+        int changes = 0;
+        while (feedUntilChange(controller, 10000, true, 100) > 0) {
+            ++changes;
+        }
+        int lowest = controller.getLevel();
+        assertTrue(lowest > 0);
+        assertEquals(lowest, changes);
+        assertEquals(-1, feedUntilChange(controller, 10000, true, 100));//已经是最低画质
+    }
+
+    /**
+     * 降采样倍数变化时，平均耗时按像素数折算，避免刚降档就因为旧的平均值再次降档
+     */
+    @Test
+    public void averageIsRescaledWhenTheSampleSizeChanges() {
+        BQLQualityController controller = newController();
+        while (controller.getSampleSize() == 1) {
+            controller.onFrame(60 * MILLIS, false);
+        }
+        assertEquals(2, controller.getSampleSize());
+        assertEquals(60 / 4f, controller.getAverageWorkMillis(), 1f);
+    }
+}
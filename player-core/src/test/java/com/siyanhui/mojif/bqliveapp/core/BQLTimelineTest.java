@@ -0,0 +1,146 @@
+package com.siyanhui.mojif.bqliveapp.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 编译好的时间轴在每一帧读出的矩阵、透明度和头像参数，和原来每帧用calculateMatrix()现算的结果一致
+ */
+public class BQLTimelineTest {
+    private static final float TOLERANCE = 1e-3f;
+
+    /**
+     * 按数组给出逐帧参数的轨道，每行依次为{x, y, width, height, scale, rotate, alpha}
+     */
+    private static class ArrayTrack implements BQLFrameTrack {
+        private final float[][] mFrames;
+
+        ArrayTrack(float[]... frames) {
+            mFrames = frames;
+        }
+
+        @Override
+        public int size() {
+            return mFrames.length;
+        }
+
+        @Override
+        public float getX(int frame) {
+            return mFrames[frame][0];
+        }
+
+        @Override
+        public float getY(int frame) {
+            return mFrames[frame][1];
+        }
+
+        @Override
+        public float getWidth(int frame) {
+            return mFrames[frame][2];
+        }
+
+        @Override
+        public float getHeight(int frame) {
+            return mFrames[frame][3];
+        }
+
+        @Override
+        public float getScale(int frame) {
+            return mFrames[frame][4];
+        }
+
+        @Override
+        public float getRotate(int frame) {
+            return mFrames[frame][5];
+        }
+
+        @Override
+        public float getAlpha(int frame) {
+            return mFrames[frame][6];
+        }
+    }
+
+    private static final ArrayTrack TRACK = new ArrayTrack(
+            new float[]{0, 0, 100, 60, 1, 0, 1},
+            new float[]{10, 20, 100, 60, 1.5f, 30, 0.5f},
+            new float[]{-15, 40, 80, 80, 0.75f, 90, 1},
+            new float[]{5, 5, 0, 60, 1, 0, 1},//面积为0，不显示
+            new float[]{300, 100, 64, 128, 2, -45, 0.25f});
+
+    @Test
+    public void compiledElementsMatchLegacyMatrices() {
+        float contentWidth = 90, contentHeight = 30;
+        BQLTimeline timeline = new BQLTimeline(TRACK.size(), 5);
+        for (int alignment = 0; alignment <= 2; ++alignment) {
+            int element = 2 + alignment;
+            for (int frame = 0; frame < TRACK.size(); ++frame) {
+                timeline.compileElement(element, frame, 255, contentWidth, contentHeight, TRACK, alignment);
+            }
+        }
+        float[] values = new float[9];
+        for (int alignment = 0; alignment <= 2; ++alignment) {
+            int element = 2 + alignment;
+            for (int frame = 0; frame < TRACK.size(); ++frame) {
+                ReferenceMatrix expected = ReferenceMatrix.calculateMatrix(contentWidth, contentHeight, TRACK.getWidth(frame), TRACK.getHeight(frame), TRACK.getX(frame), TRACK.getY(frame), TRACK.getScale(frame), TRACK.getRotate(frame), alignment);
+                if (expected == null) {
+                    assertEquals(0, timeline.getAlpha(element, frame));
+                    continue;
+                }
+                assertEquals(255, timeline.getAlpha(element, frame));
+                timeline.getTransform(element, frame, values);
+                assertArrayEquals("frame=" + frame + " alignment=" + alignment, expected.getValues(), values, TOLERANCE);
+            }
+        }
+    }
+
+    /**
+     * 头像的外层矩阵以头像框为内容居中放置，内层按头像图片缩放到头像框内，透明度来自轨道
+     */
+    @Test
+    public void compiledAvatarsMatchLegacyMatrices() {
+        int avatarWidth = 120, avatarHeight = 80;
+        BQLTimeline timeline = new BQLTimeline(TRACK.size() + 2, 2);
+        for (int frame = 0; frame < TRACK.size() + 2; ++frame) {
+            timeline.compileAvatar(1, frame, TRACK, avatarWidth, avatarHeight);
+        }
+        float[] values = new float[9];
+        for (int frame = 0; frame < TRACK.size(); ++frame) {
+            float frameWidth = TRACK.getWidth(frame), frameHeight = TRACK.getHeight(frame);
+            ReferenceMatrix expected = ReferenceMatrix.calculateMatrix(frameWidth, frameHeight, frameWidth, frameHeight, TRACK.getX(frame), TRACK.getY(frame), TRACK.getScale(frame), TRACK.getRotate(frame), 1);
+            assertEquals(frameWidth, timeline.getAvatarFrameWidth(1, frame), 0);
+            assertEquals(frameHeight, timeline.getAvatarFrameHeight(1, frame), 0);
+            if (expected == null) {
+                assertEquals(0, timeline.getAlpha(1, frame));
+                continue;
+            }
+            assertEquals((int) (TRACK.getAlpha(frame) * 255), timeline.getAlpha(1, frame));
+            assertEquals(ReferenceMatrix.scaleToFit(avatarWidth, avatarHeight, frameWidth, frameHeight), timeline.getAvatarInnerScale(1, frame), 0);
+            timeline.getTransform(1, frame, values);
+            assertArrayEquals("frame=" + frame, expected.getValues(), values, TOLERANCE);
+        }
+        //轨道比动画短，之后的帧不显示
+        assertEquals(0, timeline.getAlpha(1, TRACK.size()));
+        assertEquals(0, timeline.getAlpha(1, TRACK.size() + 1));
+        //没有编译过的头像也不显示
+        assertEquals(0, timeline.getAlpha(0, 0));
+    }
+
+    @Test
+    public void transparentElementIsNotShown() {
+        BQLTimeline timeline = new BQLTimeline(1, 3);
+        timeline.compileElement(2, 0, 0, 10, 10, TRACK, 1);
+        assertEquals(0, timeline.getAlpha(2, 0));
+    }
+
+    @Test
+    public void framesBeyondTheTimelineAreNotShown() {
+        BQLTimeline timeline = new BQLTimeline(2, 3);
+        timeline.compileElement(2, 0, 255, 10, 10, TRACK, 1);
+        timeline.compileElement(2, 1, 255, 10, 10, TRACK, 1);
+        assertEquals(255, timeline.getAlpha(2, 1));
+        assertEquals(0, timeline.getAlpha(2, 2));
+        assertEquals(0, timeline.getAlpha(2, 100));
+    }
+}
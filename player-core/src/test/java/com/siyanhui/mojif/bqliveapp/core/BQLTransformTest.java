@@ -0,0 +1,110 @@
+package com.siyanhui.mojif.bqliveapp.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 元素矩阵的计算和原来用android.graphics.Matrix逐步计算的结果一致
+ */
+public class BQLTransformTest {
+    private static final float TOLERANCE = 1e-3f;
+
+    @Test
+    public void scaleToFitKeepsAspectRatioInsideTheLimit() {
+        assertEquals(0.5f, BQLTransform.scaleToFit(200, 100, 100, 100), 0);//宽度先撑满
+        assertEquals(0.5f, BQLTransform.scaleToFit(100, 200, 100, 100), 0);//高度先撑满
+        assertEquals(2f, BQLTransform.scaleToFit(50, 50, 100, 120), 0);
+        assertEquals(1.5f, BQLTransform.scaleToFit(80, 60, 300, 90), 0);
+    }
+
+    @Test
+    public void scaleToFillCoversTheLimit() {
+        assertEquals(1f, BQLTransform.scaleToFill(200, 100, 100, 100), 0);
+        assertEquals(1f, BQLTransform.scaleToFill(100, 200, 100, 100), 0);
+        assertEquals(2.4f, BQLTransform.scaleToFill(50, 50, 100, 120), 0);
+    }
+
+    /**
+     * 原来的实现把适配后的高度截断为整数再比较，截断带来的差别要原样保留
+     */
+    @Test
+    public void scaleToFitMatchesLegacyTruncation() {
+        float[][] cases = {
+                {3, 1, 10, 3.3f},//截断后的高度3不超过3.3，按宽度适配
+                {100, 100, 50, 49.9f},//50超过49.9，按高度适配
+                {7, 3, 11, 4.9f},
+                {64, 48, 120, 90},
+                {1, 1000, 5, 3000},
+        };
+        for (float[] c : cases) {
+            assertEquals(Arrays.toString(c), ReferenceMatrix.scaleToFit(c[0], c[1], c[2], c[3]), BQLTransform.scaleToFit(c[0], c[1], c[2], c[3]), 0);
+        }
+    }
+
+    @Test
+    public void computeMatchesLegacyCalculateMatrix() {
+        float[][] contents = {{100, 100}, {120, 40}, {30, 90}};
+        float[][] targets = {{100, 100}, {200, 50}, {48, 160}};
+        float[] rotations = {0, 90, 180, -90, 45, -30, 270, 360};
+        float[] scales = {1, 0.5f, 2.25f};
+        float[] values = new float[9];
+        for (float[] content : contents) {
+            for (float[] target : targets) {
+                for (float rotate : rotations) {
+                    for (float scale : scales) {
+                        for (int alignment = 0; alignment <= 2; ++alignment) {
+                            assertTrue(BQLTransform.compute(values, 0, content[0], content[1], target[0], target[1], 12.5f, -40, scale, rotate, alignment));
+                            float[] expected = ReferenceMatrix.calculateMatrix(content[0], content[1], target[0], target[1], 12.5f, -40, scale, rotate, alignment).getValues();
+                            assertArrayEquals(Arrays.toString(content) + Arrays.toString(target) + " rotate=" + rotate + " scale=" + scale + " alignment=" + alignment, expected, values, TOLERANCE);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 90度的整数倍旋转得到精确的0和±1，不会留下1e-8量级的误差
+     */
+    @Test
+    public void rightAngleRotationsAreExact() {
+        float[] values = new float[9];
+        BQLTransform.compute(values, 0, 100, 100, 100, 100, 0, 0, 1, 90, 1);
+        assertEquals(0f, values[0], 0);
+        assertEquals(-1f, values[1], 0);
+        assertEquals(1f, values[3], 0);
+        assertEquals(0f, values[4], 0);
+        assertEquals(100f, values[2], 0);
+        assertEquals(0f, values[5], 0);
+    }
+
+    @Test
+    public void computeWritesAtOffset() {
+        float[] values = new float[20];
+        Arrays.fill(values, -7);
+        assertTrue(BQLTransform.compute(values, 9, 50, 50, 100, 100, 3, 4, 1, 0, 1));
+        assertArrayEquals(new float[]{2, 0, 3, 0, 2, 4, 0, 0, 1}, Arrays.copyOfRange(values, 9, 18), 0);
+        for (int i = 0; i < 9; ++i) {
+            assertEquals(-7f, values[i], 0);
+        }
+        assertEquals(-7f, values[18], 0);
+    }
+
+    @Test
+    public void emptyTargetLeavesValuesUntouched() {
+        float[] values = new float[9];
+        Arrays.fill(values, 5);
+        assertFalse(BQLTransform.compute(values, 0, 10, 10, 0, 10, 0, 0, 1, 0, 1));
+        assertFalse(BQLTransform.compute(values, 0, 10, 10, 10, 0, 0, 0, 1, 0, 1));
+        assertFalse(BQLTransform.compute(values, 0, 10, 10, 10, 10, 0, 0, 0, 0, 1));
+        for (float value : values) {
+            assertEquals(5f, value, 0);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.siyanhui.mojif.bqliveapp.core;
+
+/**
+ * 按android.graphics.Matrix的语义实现的仿射矩阵，用双精度计算，只用于测试
+ * calculateMatrix()原样复现了原来在解码任务中用Matrix逐步计算元素矩阵的方式，作为BQLTransform的参考结果
+ */
+class ReferenceMatrix {
+    private static final double NEARLY_ZERO = 1.0 / (1 << 12);//和Skia的SkScalarSinCos()一样，把极小的正弦和余弦值当作0
+    private double mA = 1, mB = 0, mTx = 0, mC = 0, mD = 1, mTy = 0;
+
+    /**
+     * 原来的calculateMatrix()
+     *
+     * @return 面积为0时返回null
+     */
+    static ReferenceMatrix calculateMatrix(float contentWidth, float contentHeight, float targetWidth, float targetHeight, float translateX, float translateY, float scale, float rotate, int alignment) {
+        if (targetWidth == 0 || targetHeight == 0 || scale == 0) {
+            return null;
+        }
+        ReferenceMatrix matrix = new ReferenceMatrix();
+        matrix.preTranslate(translateX, translateY);
+        float fitScale = scaleToFit(contentWidth, contentHeight, targetWidth, targetHeight);
+        matrix.preScale(fitScale, fitScale, 0, 0);
+        float translatedCenterX;
+        float translatedCenterY;
+        switch (alignment) {
+            case 0:
+                translatedCenterX = contentWidth / 2f + (targetWidth - contentWidth * fitScale) / 2;
+                translatedCenterY = contentHeight / 2f;
+                matrix.preTranslate(0, (targetHeight - contentHeight * fitScale) / 2);
+                break;
+            case 1:
+                translatedCenterX = contentWidth / 2f;
+                translatedCenterY = contentHeight / 2f;
+                matrix.preTranslate((targetWidth - contentWidth * fitScale) / 2, (targetHeight - contentHeight * fitScale) / 2);
+                break;
+            default:
+                translatedCenterX = contentWidth / 2f - (targetWidth - contentWidth * fitScale) / 2;
+                translatedCenterY = contentHeight / 2f;
+                matrix.preTranslate(targetWidth - contentWidth * fitScale, (targetHeight - contentHeight * fitScale) / 2);
+                break;
+        }
+        matrix.preScale(scale, scale, translatedCenterX, translatedCenterY);
+        matrix.preRotate(rotate, translatedCenterX, translatedCenterY);
+        return matrix;
+    }
+
+    /**
+     * 原来的scaleToFit()
+     */
+    static float scaleToFit(float width, float height, float limitWidth, float limitHeight) {
+        int fittedHeight = (int) (limitWidth / width * height);
+        if (fittedHeight > limitHeight) {
+            return limitHeight / height;
+        } else {
+            return limitWidth / width;
+        }
+    }
+
+    void preTranslate(double dx, double dy) {
+        preConcat(1, 0, dx, 0, 1, dy);
+    }
+
+    void preScale(double sx, double sy, double px, double py) {
+        preConcat(sx, 0, px - sx * px, 0, sy, py - sy * py);
+    }
+
+    void preRotate(double degrees, double px, double py) {
+        double radians = Math.toRadians(degrees);
+        double sin = Math.sin(radians), cos = Math.cos(radians);
+        if (Math.abs(sin) < NEARLY_ZERO) sin = 0;
+        if (Math.abs(cos) < NEARLY_ZERO) cos = 0;
+        preConcat(cos, -sin, sin * py + (1 - cos) * px, sin, cos, -sin * px + (1 - cos) * py);
+    }
+
+    /**
+     * this = this * other
+     */
+    private void preConcat(double a, double b, double tx, double c, double d, double ty) {
+        double newA = mA * a + mB * c, newB = mA * b + mB * d, newTx = mA * tx + mB * ty + mTx;
+        double newC = mC * a + mD * c, newD = mC * b + mD * d, newTy = mC * tx + mD * ty + mTy;
+        mA = newA;
+        mB = newB;
+        mTx = newTx;
+        mC = newC;
+        mD = newD;
+        mTy = newTy;
+    }
+
+    /**
+     * @return 排列同android.graphics.Matrix.getValues()
+     */
+    float[] getValues() {
+        return new float[]{(float) mA, (float) mB, (float) mTx, (float) mC, (float) mD, (float) mTy, 0, 0, 1};
+    }
+}